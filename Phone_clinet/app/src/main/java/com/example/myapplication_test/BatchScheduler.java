@@ -0,0 +1,111 @@
+package com.example.myapplication_test;
+
+/**
+ * 决定发送线程何时把缓冲区中的采样发出去：待发采样数达到目标批量、待发字节数达到预算、
+ * 或距上次发送超过当前的最大延迟，三者任一满足即发送。
+ *
+ * 目标批量和最大延迟根据实测的 socket 写入耗时自适应：写得快（链路空闲）时逐步收缩到最小延迟，
+ * 保证实时性；写得慢（链路拥塞）时加倍，攒成更大、更省开销的批次。
+ *
+ * 只在发送线程使用，不是线程安全的。
+ */
+public class BatchScheduler {
+    // 写入耗时的指数加权平均系数（1/8）
+    private static final int EWMA_SHIFT = 3;
+
+    private final int minBatchSamples;
+    private final int maxBatchSamples;
+    private final int byteBudget;
+    private final long minLatencyNanos;
+    private final long maxLatencyNanos;
+
+    private int targetBatchSamples;
+    private long latencyNanos;
+    private long lastFlushNanos;
+    private long averageWriteNanos;
+
+    public BatchScheduler(int minBatchSamples, int maxBatchSamples, int byteBudget,
+                          long minLatencyNanos, long maxLatencyNanos) {
+        if (minBatchSamples <= 0 || maxBatchSamples < minBatchSamples
+                || minLatencyNanos <= 0 || maxLatencyNanos < minLatencyNanos || byteBudget <= 0) {
+            throw new IllegalArgumentException("invalid batch limits");
+        }
+        this.minBatchSamples = minBatchSamples;
+        this.maxBatchSamples = maxBatchSamples;
+        this.byteBudget = byteBudget;
+        this.minLatencyNanos = minLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+        reset(0L);
+    }
+
+    /**
+     * 新连接建立时调用，回到最低延迟。
+     */
+    public void reset(long nowNanos) {
+        targetBatchSamples = minBatchSamples;
+        latencyNanos = minLatencyNanos;
+        lastFlushNanos = nowNanos;
+        averageWriteNanos = 0;
+    }
+
+    public boolean shouldFlush(int pendingSamples, int pendingBytes, long nowNanos) {
+        if (pendingSamples <= 0) {
+            return false;
+        }
+        return pendingSamples >= targetBatchSamples
+                || pendingBytes >= byteBudget
+                || nowNanos - lastFlushNanos >= latencyNanos;
+    }
+
+    /**
+     * @return 距离下一次按延迟触发发送还有多久，已到期返回 0
+     */
+    public long nanosUntilDeadline(long nowNanos) {
+        return Math.max(0L, lastFlushNanos + latencyNanos - nowNanos);
+    }
+
+    /**
+     * 记录一次发送，并据此调整批量和延迟。
+     *
+     * @param writeNanos 本次 socket 写入（含 flush）耗时
+     */
+    public void onFlushed(int samples, int bytes, long writeNanos, long nowNanos) {
+        lastFlushNanos = nowNanos;
+        if (averageWriteNanos == 0) {
+            averageWriteNanos = writeNanos;
+        } else {
+            averageWriteNanos += (writeNanos - averageWriteNanos) >> EWMA_SHIFT;
+        }
+
+        // 本次写入占用了超过四分之一的发送间隔：链路跟不上，攒更大的批次
+        if (writeNanos * 4 > latencyNanos) {
+            latencyNanos = Math.min(maxLatencyNanos, latencyNanos * 2);
+            targetBatchSamples = Math.min(maxBatchSamples, targetBatchSamples * 2);
+        } else if (averageWriteNanos * 32 < latencyNanos) {
+            // 平均写入耗时远小于间隔：链路空闲，逐步回到低延迟
+            latencyNanos = Math.max(minLatencyNanos, latencyNanos * 3 / 4);
+            targetBatchSamples = Math.max(minBatchSamples, targetBatchSamples * 3 / 4);
+        }
+    }
+
+    /**
+     * 记录一次发送后数据仍积压在发送队列中（非阻塞写入的耗时反映不了拥塞），按拥塞处理。
+     */
+    public void onBackpressure(long nowNanos) {
+        lastFlushNanos = nowNanos;
+        latencyNanos = Math.min(maxLatencyNanos, latencyNanos * 2);
+        targetBatchSamples = Math.min(maxBatchSamples, targetBatchSamples * 2);
+    }
+
+    public int getTargetBatchSamples() {
+        return targetBatchSamples;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public long getAverageWriteNanos() {
+        return averageWriteNanos;
+    }
+}
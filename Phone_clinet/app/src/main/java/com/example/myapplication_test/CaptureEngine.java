@@ -0,0 +1,319 @@
+package com.example.myapplication_test;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.ActivityCompat;
+
+import com.example.sensorprotocol.SensorConfig;
+import com.example.sensorprotocol.WireFormat;
+
+/**
+ * 进程内唯一的采集引擎：统一注册传感器和位置监听，把采样写进一组共用的 {@link SampleSlots}。
+ *
+ * 需要数据的一方（发送服务、界面）调用 {@link #subscribe} 登记，按订阅者计数：第一个订阅者到来时注册监听，
+ * 最后一个离开时注销，同一个传感器不会因为界面和发送服务同时在用而注册两次。
+ * 发送服务用游标从缓冲区读取全部采样；界面只需要最新值，用 {@link SampleRingBuffer#copyLatest} 读取，
+ * 并借助 {@link Subscriber#onSampleCaptured} 得知有新数据。
+ *
+ * 传感器与位置回调都投递到采集线程，它是 sampleSlots 唯一的写入方。采集线程随进程存在，不随订阅者退出。
+ */
+public final class CaptureEngine implements SensorEventListener, LocationListener { // 实现 LocationListener
+    private static final String TAG = "CaptureEngine";
+
+    // 每个传感器缓冲区可容纳的采样数，按 500Hz、1 秒发送周期留出余量
+    public static final int SAMPLE_BUFFER_CAPACITY = 1024;
+    private static final float LOCATION_MIN_DISTANCE_M = 10;
+
+    // 位置不可用时写入经纬度的负数代码
+    public static final float LOCATION_ERROR = -1f;
+    public static final float LOCATION_NO_PERMISSION = -2f;
+    public static final float LOCATION_DISABLED = -3f;
+
+    /** 采集数据的订阅者 */
+    public interface Subscriber {
+        /**
+         * 采集线程每写入一个采样调用一次，必须立即返回，不能分配对象；只从缓冲区读取的订阅者留空即可。
+         */
+        void onSampleCaptured(int sensorId);
+    }
+
+    private static CaptureEngine instance;
+
+    public static synchronized CaptureEngine get(Context context) {
+        if (instance == null) {
+            instance = new CaptureEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final SensorManager sensorManager;
+    private final LocationManager locationManager; // 添加 LocationManager
+    private final HandlerThread captureThread;
+    private final Handler captureHandler;
+    // 各传感器的启用状态、采样周期和批处理延迟，只在采集线程读写
+    private final SensorRegistry sensorRegistry = new SensorRegistry();
+    // 仅在采集线程中使用，避免每次位置回调分配数组
+    private final float[] locationValues = new float[2];
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+
+    // 按传感器编号索引的环形缓冲区，更换溢出策略时整体替换
+    private volatile SampleSlots sampleSlots;
+    private SampleRingBuffer.OverflowPolicy overflowPolicy = SampleRingBuffer.OverflowPolicy.DROP_OLDEST;
+    // 增删订阅者时整体替换（在 this 上同步），采集线程只读
+    private volatile Subscriber[] subscribers = new Subscriber[0];
+    // 有订阅者期间为 true；全部退订后采集线程中排队的重新注册不再生效
+    private volatile boolean capturing;
+
+    private CaptureEngine(Context context) {
+        this.context = context;
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE); // 初始化 LocationManager
+        captureThread = new HandlerThread("SensorCapture", android.os.Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        captureThread.start();
+        captureHandler = new Handler(captureThread.getLooper());
+        sampleSlots = new SampleSlots(SAMPLE_BUFFER_CAPACITY, overflowPolicy);
+    }
+
+    /**
+     * @return 当前的采集缓冲区
+     */
+    public SampleSlots sampleSlots() {
+        return sampleSlots;
+    }
+
+    /**
+     * 登记一个订阅者，重复登记无效果。第一个订阅者登记时开始采集。
+     */
+    public synchronized void subscribe(Subscriber subscriber) {
+        Subscriber[] current = subscribers;
+        for (Subscriber s : current) {
+            if (s == subscriber) {
+                return;
+            }
+        }
+        Subscriber[] next = new Subscriber[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = subscriber;
+        subscribers = next;
+        if (current.length == 0) {
+            Log.i(TAG, "First subscriber, starting capture.");
+            capturing = true;
+            captureHandler.post(this::applySensorRegistry);
+        }
+    }
+
+    /**
+     * 注销订阅者。最后一个订阅者离开时停止采集。
+     */
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        Subscriber[] current = subscribers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscriber) {
+                Subscriber[] next = new Subscriber[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                subscribers = next;
+                if (next.length == 0) {
+                    Log.i(TAG, "Last subscriber left, stopping capture.");
+                    capturing = false;
+                    captureHandler.post(this::unregisterAll);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按新的溢出策略替换采集缓冲区，旧缓冲区上的游标随之作废。调用方须确认没有正在读取的游标。
+     */
+    public synchronized void setOverflowPolicy(SampleRingBuffer.OverflowPolicy policy) {
+        if (policy != overflowPolicy) {
+            overflowPolicy = policy;
+            sampleSlots = new SampleSlots(SAMPLE_BUFFER_CAPACITY, policy);
+        }
+    }
+
+    public synchronized SampleRingBuffer.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * 合并接收端下发的采集设置，有变化时重新注册监听。可在任意线程调用，在采集线程执行。
+     */
+    public void applyConfig(SensorConfig config) {
+        captureHandler.post(() -> {
+            if (sensorRegistry.apply(config)) {
+                Log.i(TAG, "Sensor settings changed by receiver: " + sensorRegistry);
+                applySensorRegistry();
+            }
+        });
+    }
+
+    /**
+     * 按当前设置重新注册监听，例如用户刚授予了位置权限。
+     */
+    public void refresh() {
+        captureHandler.post(this::applySensorRegistry);
+    }
+
+    /**
+     * 按 sensorRegistry 重新注册全部传感器和位置监听。只在采集线程调用；接收端修改设置后也走这里。
+     */
+    private void applySensorRegistry() {
+        if (!capturing || sensorManager == null) return;
+        sensorManager.unregisterListener(this);
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            int type = SensorRegistry.androidType(id);
+            if (type == 0 || !sensorRegistry.isEnabled(id)) {
+                continue;
+            }
+            Sensor sensor = sensorManager.getDefaultSensor(type);
+            if (sensor == null) {
+                Log.w(TAG, WireFormat.sensorName(id) + " is not available on this device.");
+                continue;
+            }
+            int periodUs = sensorRegistry.getPeriodUs(id);
+            int latencyUs = sensorRegistry.getMaxReportLatencyUs(id);
+            // 没有硬件 FIFO 的传感器会忽略批处理延迟，照常逐个上报
+            sensorManager.registerListener(this, sensor, periodUs, latencyUs, captureHandler);
+            Log.d(TAG, WireFormat.sensorName(id) + " registered at " + periodUs + " us, max latency " + latencyUs
+                    + " us, FIFO " + sensor.getFifoMaxEventCount() + " events.");
+        }
+
+        // 注册位置监听
+        if (locationManager != null) {
+            try {
+                locationManager.removeUpdates(this);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Error removing location updates", e);
+            }
+            if (!sensorRegistry.isEnabled(WireFormat.SENSOR_LOCATION)) {
+                return;
+            }
+            if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
+                    ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+                long minTimeMs = sensorRegistry.getPeriodUs(WireFormat.SENSOR_LOCATION) / 1000L;
+                try {
+                    Log.d(TAG, "Requesting location updates every " + minTimeMs + " ms...");
+                    locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, minTimeMs, LOCATION_MIN_DISTANCE_M, this, captureThread.getLooper());
+                    locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, minTimeMs, LOCATION_MIN_DISTANCE_M, this, captureThread.getLooper());
+                } catch (SecurityException e) {
+                    Log.e(TAG, "SecurityException when requesting location updates: " + e.getMessage());
+                    // 将位置错误信息也写入位置缓冲区，以便发送
+                    pushLocationStatus(LOCATION_ERROR);
+                }
+            } else {
+                Log.w(TAG, "Location permission not granted.");
+                pushLocationStatus(LOCATION_NO_PERMISSION);
+            }
+        }
+    }
+
+    /**
+     * 注销全部传感器和位置监听。只在采集线程调用。
+     */
+    private void unregisterAll() {
+        if (capturing) {
+            // 退订后又有新的订阅者
+            return;
+        }
+        if (sensorManager != null) {
+            sensorManager.unregisterListener(this);
+            Log.d(TAG, "Sensors unregistered.");
+        }
+        if (locationManager != null) { // 注销位置监听
+            try {
+                locationManager.removeUpdates(this);
+                Log.d(TAG, "Location updates removed.");
+            } catch (SecurityException e) {
+                Log.e(TAG, "Error removing location updates", e);
+            }
+        }
+    }
+
+    private void notifySubscribers(int sensorId) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onSampleCaptured(sensorId);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        int sensorId = SensorRegistry.sensorIdForType(event.sensor.getType());
+        if (sensorId == 0) {
+            return; // 不是我们关心的传感器
+        }
+        // 通道数不同的设备（如旋转矢量只有 3 个值）由 push 截断或补零
+        metrics.onSensorEvent(sensorId);
+        SampleSlots slots = sampleSlots;
+        slots.push(sensorId, event.timestamp, event.values);
+        if (slots.traceDue(event.timestamp)) {
+            // 抽样追踪延迟：写入时刻与 SensorEvent.timestamp 同一时钟
+            slots.markTrace(sensorId, event.timestamp, SystemClock.elapsedRealtimeNanos());
+        }
+        notifySubscribers(sensorId);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    // --- LocationListener Callbacks ---
+    @Override
+    public void onLocationChanged(@NonNull Location location) {
+        Log.d(TAG, "onLocationChanged: " + location.getLatitude() + ", " + location.getLongitude());
+        locationValues[0] = (float) location.getLatitude();
+        locationValues[1] = (float) location.getLongitude();
+        metrics.onSensorEvent(WireFormat.SENSOR_LOCATION);
+        sampleSlots.push(WireFormat.SENSOR_LOCATION, location.getElapsedRealtimeNanos(), locationValues);
+        notifySubscribers(WireFormat.SENSOR_LOCATION);
+    }
+
+    /**
+     * 用负数经纬度表示位置不可用的原因，见 LOCATION_* 常量。
+     */
+    private void pushLocationStatus(float code) {
+        sampleSlots.pushConstant(WireFormat.SENSOR_LOCATION, SystemClock.elapsedRealtimeNanos(), code);
+        notifySubscribers(WireFormat.SENSOR_LOCATION);
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+        Log.d(TAG, "Location Status Changed: " + provider + " status: " + status);
+    }
+
+    @Override
+    public void onProviderEnabled(@NonNull String provider) {
+        Log.d(TAG, "Location Provider Enabled: " + provider);
+    }
+
+    @Override
+    public void onProviderDisabled(@NonNull String provider) {
+        Log.d(TAG, "Location Provider Disabled: " + provider);
+        // GPS 和 Network 都禁用时把位置状态更新为不可用
+        if (locationManager != null) {
+            boolean gpsEnabled = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+            boolean networkEnabled = locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+            if (!gpsEnabled && !networkEnabled) {
+                pushLocationStatus(LOCATION_DISABLED);
+            }
+        }
+    }
+    // --- End LocationListener Callbacks ---
+}
@@ -0,0 +1,174 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.WireFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * 基于非阻塞 DatagramChannel 的发送通道，用于 UDP 实时模式：每次 {@link #send} 一个数据报（一帧），
+ * 内核发送缓冲区满时直接丢弃而不是等待，迟到的采样对实时看板没有意义。
+ *
+ * 发送和接收各用一块预分配的直接内存缓冲区，稳态不分配对象。接收端发来的 PING 数据报由 {@link #receive} 读出。
+ * 只能在一个线程中使用（{@link #wakeup()} 除外）。
+ */
+public class DatagramTransport implements Closeable {
+    // 0 表示使用系统默认的发送缓冲区大小
+    private final int sendBufferBytes;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(WireFormat.MAX_DATAGRAM_SIZE);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(WireFormat.MAX_DATAGRAM_SIZE);
+
+    private DatagramChannel channel;
+    private volatile Selector selector;
+
+    private long datagramsSent;
+    private long datagramsDropped;
+    private long bytesWritten;
+
+    public DatagramTransport(int sendBufferBytes) {
+        this.sendBufferBytes = sendBufferBytes;
+    }
+
+    /**
+     * 绑定本地端口并固定对端地址，之后只收发该地址的数据报。不会产生网络流量，对端是否在线要等发送后才知道。
+     */
+    public void connect(InetSocketAddress address) throws IOException {
+        close();
+        DatagramChannel ch = DatagramChannel.open();
+        try {
+            if (sendBufferBytes > 0) {
+                ch.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferBytes);
+            }
+            ch.connect(address);
+            ch.configureBlocking(false);
+            selector = Selector.open();
+            ch.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            ch.close();
+            if (selector != null) {
+                selector.close();
+                selector = null;
+            }
+            throw e;
+        }
+        channel = ch;
+    }
+
+    public boolean isConnected() {
+        return channel != null && channel.isConnected();
+    }
+
+    /**
+     * @return 发送缓冲区，容量为 {@link WireFormat#MAX_DATAGRAM_SIZE}；调用方清空后写入一帧再 {@link #send}
+     */
+    public ByteBuffer sendBuffer() {
+        return sendBuffer;
+    }
+
+    /**
+     * 把发送缓冲区中 [0, position) 作为一个数据报发出。对端暂时不可达（ICMP 端口不可达）时也算作丢弃。
+     *
+     * @return 是否已交给内核；发送缓冲区满或对端不可达时返回 false
+     * @throws IOException 网络不可用等无法继续发送的错误
+     */
+    public boolean send() throws IOException {
+        ensureOpen();
+        sendBuffer.flip();
+        int length = sendBuffer.remaining();
+        int written;
+        try {
+            written = channel.write(sendBuffer);
+        } catch (PortUnreachableException e) {
+            // 接收端还没起来或已经退出，继续发送，它恢复后就能收到
+            written = 0;
+        }
+        sendBuffer.clear();
+        if (written == 0) {
+            datagramsDropped++;
+            return false;
+        }
+        datagramsSent++;
+        bytesWritten += length;
+        return true;
+    }
+
+    /**
+     * 不阻塞地读取一个数据报。
+     *
+     * @return 读到的数据报，position 为 0、limit 为长度，下次调用前有效；没有时返回 null
+     */
+    public ByteBuffer receive() throws IOException {
+        ensureOpen();
+        receiveBuffer.clear();
+        try {
+            if (channel.read(receiveBuffer) <= 0) {
+                return null;
+            }
+        } catch (PortUnreachableException e) {
+            return null;
+        }
+        receiveBuffer.flip();
+        return receiveBuffer;
+    }
+
+    /**
+     * 等待接收端的数据报，最长 timeoutMs 毫秒，可以被 {@link #wakeup()} 提前唤醒。
+     */
+    public void await(long timeoutMs) throws IOException {
+        ensureOpen();
+        selector.select(Math.max(1L, timeoutMs));
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * 唤醒阻塞在 {@link #await} 中的线程，可在任意线程调用。
+     */
+    public void wakeup() {
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent;
+    }
+
+    /** 因发送缓冲区满或对端不可达而丢弃的数据报数 */
+    public long getDatagramsDropped() {
+        return datagramsDropped;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("Transport is not connected");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        DatagramChannel ch = channel;
+        channel = null;
+        try {
+            if (ch != null) {
+                ch.close();
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+                selector = null;
+            }
+        }
+    }
+}
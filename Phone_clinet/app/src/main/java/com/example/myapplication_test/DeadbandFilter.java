@@ -0,0 +1,179 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.WireFormat;
+
+/**
+ * 死区过滤：一个采样的每个通道与该传感器上一次发出的值相差都不超过阈值时不发送，接收端按
+ * {@link WireFormat#FLAG_HELD} 保持上一个值。阈值取绝对阈值与相对阈值 × |上一次发出的值| 中较大的一个。
+ * 比较对象是上一次发出的值而不是上一个采样，缓慢漂移累积到阈值时照样会发出。
+ *
+ * 多通道传感器以采样为单位过滤：任一通道超出阈值就发送整个采样，数据块格式不必改变。
+ *
+ * 每个见过的传感器至少每隔一个心跳间隔发一次最近的值（关键帧），即使一直没变，接收端据此判断传感器和连接仍然存活。
+ * 只在一个发送线程中使用，不是线程安全的。
+ */
+public class DeadbandFilter {
+
+    /** 死区过滤的参数 */
+    public static class Settings {
+        // 各传感器的绝对阈值，下标为传感器编号；默认为压缩帧量化步长的一半，即小于传输精度的变化不发送
+        public final float[] absolute = new float[WireFormat.SENSOR_COUNT];
+        // 相对阈值，0.01 表示变化不超过 1% 时不发送
+        public float relative;
+
+        public Settings() {
+            for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+                absolute[id] = (float) (0.5 * Math.pow(10, -WireFormat.defaultDecimals(id)));
+            }
+        }
+
+        /**
+         * 按 "Light=5 Pressure=0.1" 的格式覆盖部分传感器的绝对阈值，键名与 {@link WireFormat#sensorName} 相同。
+         *
+         * @throws IllegalArgumentException 键名未知或数值不合法
+         */
+        public Settings parseAbsolute(String spec) {
+            for (String entry : spec.trim().split("\\s+")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int eq = entry.indexOf('=');
+                int id = eq > 0 ? WireFormat.sensorId(entry.substring(0, eq)) : 0;
+                if (id == 0) {
+                    throw new IllegalArgumentException("unknown sensor in deadband: " + entry);
+                }
+                float value = Float.parseFloat(entry.substring(eq + 1));
+                if (!(value >= 0)) {
+                    throw new IllegalArgumentException("bad deadband threshold: " + entry);
+                }
+                absolute[id] = value;
+            }
+            return this;
+        }
+    }
+
+    private final float[] absolute;
+    private final float relative;
+    private long heartbeatNanos;
+    // 下标为传感器编号
+    private final float[][] lastSent = new float[WireFormat.SENSOR_COUNT][];
+    private final float[][] latest = new float[WireFormat.SENSOR_COUNT][];
+    private final long[] lastSentNanos = new long[WireFormat.SENSOR_COUNT];
+    // 见过采样、需要心跳的传感器
+    private final boolean[] seen = new boolean[WireFormat.SENSOR_COUNT];
+    // 下一次是否必须发送（刚见到、重连之后）
+    private final boolean[] forceNext = new boolean[WireFormat.SENSOR_COUNT];
+    private long suppressed;
+
+    public DeadbandFilter(Settings settings, long heartbeatMillis) {
+        if (!(settings.relative >= 0)) {
+            throw new IllegalArgumentException("bad relative deadband: " + settings.relative);
+        }
+        absolute = settings.absolute.clone();
+        relative = settings.relative;
+        setHeartbeatMillis(heartbeatMillis);
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            int channels = WireFormat.channels(id);
+            lastSent[id] = new float[channels];
+            latest[id] = new float[channels];
+        }
+    }
+
+    /**
+     * 改用接收端在握手时要求的心跳间隔。
+     */
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        if (heartbeatMillis <= 0) {
+            throw new IllegalArgumentException("heartbeat must be positive: " + heartbeatMillis);
+        }
+        heartbeatNanos = heartbeatMillis * 1_000_000L;
+    }
+
+    /**
+     * 过滤一个采样，数值取自 values[offset, offset + 该传感器的通道数)。
+     *
+     * @return 是否应当发送；返回 true 时该采样成为新的比较基准
+     */
+    public boolean accept(int sensorId, long timestampNanos, float[] values, int offset) {
+        float[] sent = lastSent[sensorId];
+        float[] current = latest[sensorId];
+        int channels = current.length;
+        System.arraycopy(values, offset, current, 0, channels);
+        boolean send = forceNext[sensorId] || !seen[sensorId] || timestampNanos - lastSentNanos[sensorId] >= heartbeatNanos;
+        for (int c = 0; c < channels && !send; c++) {
+            send = exceeds(sensorId, sent[c], current[c]);
+        }
+        seen[sensorId] = true;
+        if (!send) {
+            suppressed++;
+            return false;
+        }
+        System.arraycopy(current, 0, sent, 0, channels);
+        lastSentNanos[sensorId] = timestampNanos;
+        forceNext[sensorId] = false;
+        return true;
+    }
+
+    private boolean exceeds(int sensorId, float sent, float value) {
+        if (Float.isNaN(sent) || Float.isNaN(value)) {
+            // NaN 与 NaN 视为相同
+            return Float.isNaN(sent) != Float.isNaN(value);
+        }
+        float threshold = Math.max(absolute[sensorId], relative * Math.abs(sent));
+        return Math.abs(value - sent) > threshold;
+    }
+
+    /**
+     * @return 该传感器是否已经一个心跳间隔没有发送过，需要补一个关键帧
+     */
+    public boolean heartbeatDue(int sensorId, long nowNanos) {
+        return seen[sensorId] && (forceNext[sensorId] || nowNanos - lastSentNanos[sensorId] >= heartbeatNanos);
+    }
+
+    /**
+     * @return 是否有任何传感器需要补关键帧，发送线程据此在没有新采样时也编码一帧
+     */
+    public boolean anyHeartbeatDue(long nowNanos) {
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if (heartbeatDue(id, nowNanos)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把该传感器最近的值作为关键帧取出并记为已发送。返回的数组由本对象持有，下一次调用前有效。
+     */
+    public float[] takeKeyframe(int sensorId, long nowNanos) {
+        float[] current = latest[sensorId];
+        System.arraycopy(current, 0, lastSent[sensorId], 0, current.length);
+        lastSentNanos[sensorId] = nowNanos;
+        forceNext[sensorId] = false;
+        return current;
+    }
+
+    /**
+     * 下一帧对每个见过的传感器都发一次当前值，例如重连之后接收端的保持状态可能已经失效。
+     */
+    public void forceKeyframes() {
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            forceNext[id] = seen[id];
+        }
+    }
+
+    /**
+     * 不再为该传感器发心跳，例如接收端停用了它；之后再有采样时照常发送。
+     */
+    public void forget(int sensorId) {
+        seen[sensorId] = false;
+        forceNext[sensorId] = false;
+    }
+
+    /**
+     * @return 被过滤掉的采样总数
+     */
+    public long getSuppressedCount() {
+        return suppressed;
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.WindowFeatures;
+import com.example.sensorprotocol.WireFormat;
+
+/**
+ * 特征模式下的流式特征提取：对选定传感器的每个通道做滑动窗口（窗口长度 windowSize 个采样，每 hop 个采样出一个窗口），
+ * 计算均值、RMS、最小/最大值、过零次数和 FFT 频带能量，代替原始采样上传。
+ *
+ * 环形窗口、FFT 工作数组、汉宁窗和旋转因子都在构造时分配，{@link #push} 不分配对象。
+ * 只在一个发送线程中使用，不是线程安全的。
+ */
+public class FeatureExtractor {
+
+    /** 特征模式的参数 */
+    public static class Settings {
+        // 窗口长度，2 的幂
+        public int windowSize = 256;
+        // 相邻窗口的间隔（采样数），不大于 windowSize；等于 windowSize 时窗口不重叠
+        public int hop = 128;
+        // 频带个数，不超过 windowSize / 2
+        public int bands = 8;
+        // 做特征的传感器（1 << sensorId 的组合），其余传感器仍发送原始采样
+        public int sensorMask = (1 << WireFormat.SENSOR_ACCELEROMETER) | (1 << WireFormat.SENSOR_GYROSCOPE);
+    }
+
+    private final int windowSize;
+    private final int hop;
+    private final int bands;
+    private final int sensorMask;
+    private final SensorWindow[] windows = new SensorWindow[WireFormat.SENSOR_COUNT];
+    private final WindowFeatures[] results = new WindowFeatures[WireFormat.MAX_CHANNELS];
+
+    // 所有传感器共用的计算缓冲区
+    private final Fft fft;
+    private final double[] re;
+    private final double[] im;
+    private final double[] hann;
+    // 单边功率谱换算成方差的系数：2 / (N · Σw²)，奈奎斯特频点只算一次
+    private final double powerScale;
+    // 第 b 个频带包含 [bandStart[b], bandStart[b + 1]) 的频点
+    private final int[] bandStart;
+
+    public FeatureExtractor(Settings settings) {
+        windowSize = settings.windowSize;
+        hop = settings.hop;
+        bands = settings.bands;
+        sensorMask = settings.sensorMask;
+        if (windowSize < 8 || Integer.bitCount(windowSize) != 1 || windowSize > WireFormat.MAX_SAMPLES_PER_BLOCK) {
+            throw new IllegalArgumentException("window size must be a power of two >= 8: " + windowSize);
+        }
+        if (hop <= 0 || hop > windowSize) {
+            throw new IllegalArgumentException("hop out of range: " + hop);
+        }
+        if (bands <= 0 || bands > Math.min(WindowFeatures.MAX_BANDS, windowSize / 2)) {
+            throw new IllegalArgumentException("band count out of range: " + bands);
+        }
+        fft = new Fft(windowSize);
+        re = new double[windowSize];
+        im = new double[windowSize];
+        hann = new double[windowSize];
+        double sumSquares = 0;
+        for (int i = 0; i < windowSize; i++) {
+            hann[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / windowSize);
+            sumSquares += hann[i] * hann[i];
+        }
+        powerScale = 2 / (windowSize * sumSquares);
+        int bins = windowSize / 2;
+        bandStart = new int[bands + 1];
+        for (int b = 0; b <= bands; b++) {
+            // 跳过直流分量（频点 0），频点 1..N/2 等分，最后一个频带含奈奎斯特频点
+            bandStart[b] = 1 + b * bins / bands;
+        }
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if (handles(id)) {
+                windows[id] = new SensorWindow(WireFormat.channels(id), windowSize);
+            }
+        }
+        for (int c = 0; c < results.length; c++) {
+            results[c] = new WindowFeatures();
+        }
+    }
+
+    /**
+     * @return 该传感器是否做特征（否则照常发送原始采样）
+     */
+    public boolean handles(int sensorId) {
+        return sensorId > 0 && sensorId < WireFormat.SENSOR_COUNT && WireFormat.channels(sensorId) > 0
+                && (sensorMask & (1 << sensorId)) != 0;
+    }
+
+    /**
+     * @return 从 pending 个待处理采样中最多产生的特征字节数，用于预留帧空间
+     */
+    public int maxFeatureBytes(int sensorId, int pending) {
+        if (!handles(sensorId)) {
+            return 0;
+        }
+        return (pending / hop + 1) * WireFormat.channels(sensorId) * WireFormat.featureSize(bands);
+    }
+
+    /**
+     * 放入一个采样，数值取自 values[offset, offset + 该传感器的通道数)。
+     *
+     * @return 本次完成了一个窗口时返回通道数，特征在 {@link #features} 中，下一次 push 前有效；否则返回 0
+     */
+    public int push(int sensorId, long timestampNanos, float[] values, int offset) {
+        SensorWindow w = handles(sensorId) ? windows[sensorId] : null;
+        if (w == null) {
+            return 0;
+        }
+        int slot = (int) (w.count % windowSize);
+        w.timestamps[slot] = timestampNanos;
+        for (int c = 0; c < w.channels; c++) {
+            w.values[c][slot] = values[offset + c];
+        }
+        w.count++;
+        if (w.count < windowSize || (w.count - windowSize) % hop != 0) {
+            return 0;
+        }
+        int first = (int) (w.count % windowSize);
+        long start = w.timestamps[first];
+        for (int c = 0; c < w.channels; c++) {
+            WindowFeatures f = results[c];
+            f.sensorId = sensorId;
+            f.channel = c;
+            f.sampleCount = windowSize;
+            f.endTimestampNanos = timestampNanos;
+            f.durationNanos = timestampNanos - start;
+            compute(w.values[c], first, f);
+        }
+        return w.channels;
+    }
+
+    public WindowFeatures features(int channel) {
+        return results[channel];
+    }
+
+    /**
+     * 丢弃所有窗口中的采样，例如采集中断之后不应把前后两段拼进同一个窗口。
+     */
+    public void reset() {
+        for (SensorWindow w : windows) {
+            if (w != null) {
+                w.count = 0;
+            }
+        }
+    }
+
+    private void compute(float[] ring, int first, WindowFeatures f) {
+        int n = windowSize;
+        double sum = 0;
+        double sumSquares = 0;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            float v = ring[(first + i) & (n - 1)];
+            re[i] = v;
+            sum += v;
+            sumSquares += (double) v * v;
+            if (v < min) {
+                min = v;
+            }
+            if (v > max) {
+                max = v;
+            }
+        }
+        double mean = sum / n;
+        f.mean = (float) mean;
+        f.rms = (float) Math.sqrt(sumSquares / n);
+        f.min = min;
+        f.max = max;
+
+        int crossings = 0;
+        int previousSign = 0;
+        for (int i = 0; i < n; i++) {
+            double centered = re[i] - mean;
+            int sign = centered > 0 ? 1 : centered < 0 ? -1 : 0;
+            // 恰好等于均值的采样不算换向
+            if (sign != 0) {
+                if (previousSign != 0 && sign != previousSign) {
+                    crossings++;
+                }
+                previousSign = sign;
+            }
+            re[i] = centered * hann[i];
+            im[i] = 0;
+        }
+        f.zeroCrossings = crossings;
+
+        fft.transform(re, im);
+        f.bandCount = bands;
+        int nyquist = n / 2;
+        for (int b = 0; b < bands; b++) {
+            double energy = 0;
+            for (int k = bandStart[b]; k < bandStart[b + 1]; k++) {
+                double power = re[k] * re[k] + im[k] * im[k];
+                energy += k == nyquist ? power / 2 : power;
+            }
+            f.bands[b] = (float) (energy * powerScale);
+        }
+    }
+
+    /** 一个传感器所有通道的环形窗口 */
+    private static final class SensorWindow {
+        final int channels;
+        final long[] timestamps;
+        final float[][] values;
+        // 放入的采样总数
+        long count;
+
+        SensorWindow(int channels, int windowSize) {
+            this.channels = channels;
+            timestamps = new long[windowSize];
+            values = new float[channels][windowSize];
+        }
+    }
+}
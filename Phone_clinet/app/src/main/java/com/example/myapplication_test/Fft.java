@@ -0,0 +1,66 @@
+package com.example.myapplication_test;
+
+/**
+ * 固定长度的原地基 2 FFT。位反转表和旋转因子在构造时算好，变换过程不分配对象、不调用三角函数。
+ * 不是线程安全的（没有可变状态，但调用方的数组会被原地改写）。
+ */
+final class Fft {
+    final int size;
+    private final int[] bitReverse;
+    // 旋转因子 e^(-2πik/size)，k ∈ [0, size/2)
+    private final double[] cos;
+    private final double[] sin;
+
+    Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        int bits = Integer.numberOfTrailingZeros(size);
+        bitReverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = -2 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+    }
+
+    /**
+     * 原地计算 re + i·im 的离散傅里叶变换（不归一化）。
+     */
+    void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (half << 1);
+            for (int start = 0; start < size; start += half << 1) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int a = start + k;
+                    int b = a + half;
+                    double wr = cos[t];
+                    double wi = sin[t];
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.myapplication_test;
+
+/**
+ * 定点小数格式化：把数值按固定的小数位数直接追加到 StringBuilder，不经过 String.format 和 Formatter，不分配对象。
+ *
+ * 结果与 String.format(Locale.ROOT, "%.nf", value) 一致（四舍五入），差别有两处：十进制写法恰好落在 5 上的值
+ * 按二进制实际值舍入，末位可能差 1；舍入为 0 的负数不带负号，数值在 0 附近抖动时界面上不会一会儿 "-0.00" 一会儿 "0.00"。
+ */
+public final class FixedDecimal {
+    public static final int MAX_DECIMALS = 9;
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+    // 超过这个量级后 double 已没有小数精度，交给 StringBuilder.append(double)
+    private static final double MAX_SCALED = 1e17;
+
+    private FixedDecimal() {
+    }
+
+    /**
+     * @param decimals 小数位数，0..{@link #MAX_DECIMALS}
+     * @return sb
+     */
+    public static StringBuilder append(StringBuilder sb, double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("decimals: " + decimals);
+        }
+        if (Double.isNaN(value)) {
+            return sb.append("NaN");
+        }
+        if (Double.isInfinite(value)) {
+            return sb.append(value > 0 ? "Infinity" : "-Infinity");
+        }
+        long scale = POW10[decimals];
+        double scaled = Math.abs(value) * scale;
+        if (scaled >= MAX_SCALED) {
+            return sb.append(value);
+        }
+        long rounded = Math.round(scaled);
+        if (value < 0 && rounded != 0) {
+            sb.append('-');
+        }
+        sb.append(rounded / scale);
+        if (decimals > 0) {
+            sb.append('.');
+            long fraction = rounded % scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                sb.append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return sb;
+    }
+}
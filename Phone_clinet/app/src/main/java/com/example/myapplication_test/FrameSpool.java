@@ -0,0 +1,490 @@
+package com.example.myapplication_test;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * 落盘的二进制帧队列：发送线程先把帧写进这里，再从这里发往 socket，收到 ACK 后释放。
+ * 接收端长时间不可达、甚至进程被杀，已采集的数据都不会丢，恢复连接后补发。
+ *
+ * 目录下是定长的段文件 seg-&lt;编号&gt;.spool，通过 MappedByteBuffer 读写：帧直接编码进映射区
+ * （{@link #beginAppend} / {@link #commitAppend}），发送时把映射区的一段原样交给 socket（{@link #nextUnsent}），
+ * 两个方向都不经过额外的复制。每条记录的格式（小端）：
+ * <pre>
+ * u32 帧长度 | u32 CRC32（覆盖序号和帧） | i64 帧序号 | 帧（WireFormat，含自身的长度字段）
+ * </pre>
+ * 长度为 0 表示该段后面没有记录。
+ *
+ * 写游标不落盘：打开时扫描各段，遇到长度为 0 或 CRC 不符的记录即视为末尾（进程在写入中途被杀）。
+ * 确认游标、会话编号和下一个序号写在 spool.meta 中，只在换段、释放段和 close 时更新；
+ * 崩溃后最多重发最近一段内已确认的帧，接收端按序号去重。
+ *
+ * 段数超过上限时淘汰最旧的段，其中未确认的帧计入 {@link #getDroppedFrames()}。
+ * 目录传 null 时段放在直接内存中、不落盘，用于存储不可用时的后备。
+ *
+ * 只能在一个线程中使用；{@link #pendingFrames()} 可在任意线程读取近似值。
+ */
+public class FrameSpool implements Closeable {
+    public static final int RECORD_HEADER_SIZE = 16;
+    private static final int END_MARKER_SIZE = 4;
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String META_FILE = "spool.meta";
+    private static final int META_MAGIC = 0x53504f4c;
+    // magic, sessionId, 确认游标所在段, 段内偏移, 下一个序号
+    private static final int META_SIZE = 4 + 8 + 8 + 4 + 8;
+
+    private static final class Segment {
+        final long index;
+        final ByteBuffer buffer;
+        // 供 beginAppend 和 CRC 计算使用的视图
+        final ByteBuffer appendView;
+        final ByteBuffer scratchView;
+        // 交给 socket 的视图，轮流复用；个数须大于发送队列深度，保证复用时上一次已写完
+        final ByteBuffer[] sendViews;
+        int nextSendView;
+
+        Segment(long index, ByteBuffer buffer, int viewCount) {
+            this.index = index;
+            this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+            appendView = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            scratchView = buffer.duplicate();
+            sendViews = new ByteBuffer[viewCount];
+            for (int i = 0; i < viewCount; i++) {
+                sendViews[i] = buffer.duplicate();
+            }
+        }
+
+        ByteBuffer nextSendView() {
+            ByteBuffer view = sendViews[nextSendView];
+            nextSendView = (nextSendView + 1) % sendViews.length;
+            return view;
+        }
+    }
+
+    private final File dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int viewCount;
+    // 从确认游标所在段到写入段，编号连续
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+
+    private long sessionId;
+    private long nextSequence;
+    // 确认游标在第一段内，写游标在最后一段内
+    private int ackOffset;
+    private int writeOffset;
+    private long sendSegment;
+    private int sendOffset;
+    private volatile int pendingFrames;
+    private long droppedFrames;
+
+    // scan() 的附带结果
+    private int scanCount;
+    private long scanLastSequence;
+
+    /**
+     * 打开（或新建）目录下的队列并从上次中断处恢复。
+     *
+     * @param dir          段文件目录，null 表示只用内存
+     * @param segmentBytes 每段字节数，须能容纳最大的一帧加上记录头
+     * @param maxSegments  段数上限，总占用不超过 segmentBytes * maxSegments
+     * @param viewCount    每段用于发送的视图个数，须大于发送队列深度
+     */
+    public FrameSpool(File dir, int segmentBytes, int maxSegments, int viewCount) throws IOException {
+        if (segmentBytes <= RECORD_HEADER_SIZE + END_MARKER_SIZE || maxSegments < 2 || viewCount <= 0) {
+            throw new IllegalArgumentException("invalid spool limits");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.viewCount = viewCount;
+        sessionId = new Random().nextLong();
+        if (dir == null) {
+            segments.add(openSegment(0));
+        } else {
+            recover();
+        }
+        sendSegment = segments.get(0).index;
+        sendOffset = ackOffset;
+    }
+
+    private void recover() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create spool directory " + dir);
+        }
+        long metaAckSegment = -1;
+        int metaAckOffset = 0;
+        long metaNextSequence = 0;
+        File meta = new File(dir, META_FILE);
+        if (meta.length() == META_SIZE) {
+            try (RandomAccessFile raf = new RandomAccessFile(meta, "r")) {
+                ByteBuffer b = ByteBuffer.allocate(META_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                raf.getChannel().read(b, 0);
+                if (b.getInt(0) == META_MAGIC) {
+                    sessionId = b.getLong(4);
+                    metaAckSegment = b.getLong(12);
+                    metaAckOffset = b.getInt(20);
+                    metaNextSequence = b.getLong(24);
+                }
+            }
+        }
+
+        long[] indices = listSegments();
+        // 只保留确认游标所在段之后、编号连续的最后一串段
+        int first = indices.length;
+        while (first > 0 && indices[first - 1] >= metaAckSegment
+                && (first == indices.length || indices[first - 1] == indices[first] - 1)) {
+            first--;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            if (i < first) {
+                deleteSegmentFile(indices[i]);
+            } else {
+                segments.add(openSegment(indices[i]));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(openSegment(Math.max(0, metaAckSegment)));
+        }
+
+        long lastSequence = -1;
+        int pending = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            int end = scan(segment, 0);
+            if (scanCount > 0) {
+                lastSequence = scanLastSequence;
+            }
+            if (i == 0) {
+                // 确认游标必须落在记录边界上：从它开始能校验到同一个末尾才采用，同时数出其后的记录
+                if (segment.index == metaAckSegment && metaAckOffset <= end && scan(segment, metaAckOffset) == end) {
+                    ackOffset = metaAckOffset;
+                } else {
+                    ackOffset = 0;
+                    scan(segment, 0);
+                }
+            }
+            pending += scanCount;
+            if (i == segments.size() - 1) {
+                writeOffset = end;
+                // 清掉可能残留的半条记录头
+                if (end + END_MARKER_SIZE <= segmentBytes) {
+                    segment.buffer.putInt(end, 0);
+                }
+            }
+        }
+        pendingFrames = pending;
+        nextSequence = Math.max(metaNextSequence, lastSequence + 1);
+        writeMeta();
+    }
+
+    private long[] listSegments() {
+        String[] names = dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] indices = new long[names.length];
+        int n = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    indices[n++] = index;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        indices = Arrays.copyOf(indices, n);
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private File segmentFile(long index) {
+        return new File(dir, SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+    }
+
+    private void deleteSegmentFile(long index) {
+        if (dir != null) {
+            //noinspection ResultOfMethodCallIgnored
+            segmentFile(index).delete();
+        }
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        if (dir == null) {
+            return new Segment(index, ByteBuffer.allocateDirect(segmentBytes), viewCount);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(index), "rw")) {
+            if (raf.length() != segmentBytes) {
+                raf.setLength(segmentBytes);
+            }
+            // 映射在文件关闭后仍然有效
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            return new Segment(index, mapped, viewCount);
+        }
+    }
+
+    /**
+     * 从 from 开始依次校验记录，结果的记录数和最后一个序号放在 scanCount、scanLastSequence。
+     *
+     * @return 最后一条完整记录之后的偏移
+     */
+    private int scan(Segment segment, int from) {
+        int pos = from;
+        scanCount = 0;
+        while (true) {
+            int length = lengthAt(segment, pos);
+            if (length <= 0 || length > segmentBytes - RECORD_HEADER_SIZE - pos
+                    || checksum(segment, pos, length) != segment.buffer.getInt(pos + 4)) {
+                return pos;
+            }
+            scanLastSequence = segment.buffer.getLong(pos + 8);
+            scanCount++;
+            pos += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * @return pos 处记录的帧长度，到达段末尾时返回 0
+     */
+    private int lengthAt(Segment segment, int pos) {
+        return pos + RECORD_HEADER_SIZE <= segmentBytes ? segment.buffer.getInt(pos) : 0;
+    }
+
+    private int checksum(Segment segment, int pos, int length) {
+        ByteBuffer view = segment.scratchView;
+        view.clear();
+        view.limit(pos + RECORD_HEADER_SIZE + length);
+        view.position(pos + 8);
+        crc.reset();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private Segment first() {
+        return segments.get(0);
+    }
+
+    private Segment last() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment segment(long index) {
+        return segments.get((int) (index - first().index));
+    }
+
+    /**
+     * 为下一帧预留空间，必要时换段。帧须从返回的缓冲区的当前位置开始写，写完后调用 {@link #commitAppend}。
+     * 帧头中的序号应使用 {@link #getNextSequence()}。
+     */
+    public ByteBuffer beginAppend(int maxFrameBytes) throws IOException {
+        if (RECORD_HEADER_SIZE + maxFrameBytes + END_MARKER_SIZE > segmentBytes) {
+            throw new IllegalArgumentException("frame larger than segment: " + maxFrameBytes);
+        }
+        if (writeOffset + RECORD_HEADER_SIZE + maxFrameBytes + END_MARKER_SIZE > segmentBytes) {
+            rotate();
+        }
+        ByteBuffer view = last().appendView;
+        view.clear();
+        view.limit(writeOffset + RECORD_HEADER_SIZE + maxFrameBytes);
+        view.position(writeOffset + RECORD_HEADER_SIZE);
+        return view;
+    }
+
+    /**
+     * 提交 beginAppend 之后写入的 length 字节。最后才写长度字段，写到一半被杀的记录在恢复时被丢弃。
+     *
+     * @return 这一帧的序号
+     */
+    public long commitAppend(int length) {
+        Segment segment = last();
+        ByteBuffer b = segment.buffer;
+        int pos = writeOffset;
+        int next = pos + RECORD_HEADER_SIZE + length;
+        if (length <= 0 || next + END_MARKER_SIZE > segmentBytes) {
+            throw new IllegalArgumentException("invalid frame length: " + length);
+        }
+        long sequence = nextSequence;
+        b.putInt(next, 0);
+        b.putLong(pos + 8, sequence);
+        b.putInt(pos + 4, checksum(segment, pos, length));
+        b.putInt(pos, length);
+        writeOffset = next;
+        nextSequence = sequence + 1;
+        pendingFrames++;
+        return sequence;
+    }
+
+    private void rotate() throws IOException {
+        segments.add(openSegment(last().index + 1));
+        writeOffset = 0;
+        while (segments.size() > maxSegments) {
+            Segment oldest = first();
+            scan(oldest, ackOffset);
+            droppedFrames += scanCount;
+            pendingFrames -= scanCount;
+            retireFirst();
+        }
+        writeMeta();
+    }
+
+    private void retireFirst() {
+        Segment oldest = segments.remove(0);
+        deleteSegmentFile(oldest.index);
+        ackOffset = 0;
+        if (sendSegment <= oldest.index) {
+            sendSegment = first().index;
+            sendOffset = 0;
+        }
+    }
+
+    /**
+     * 越过段末尾的结束标记，把发送游标移到下一条记录。
+     */
+    private void normalizeSendCursor() {
+        while (sendSegment != last().index && lengthAt(segment(sendSegment), sendOffset) == 0) {
+            sendSegment++;
+            sendOffset = 0;
+        }
+    }
+
+    public boolean hasUnsent() {
+        normalizeSendCursor();
+        return sendSegment != last().index || sendOffset != writeOffset;
+    }
+
+    /**
+     * 取出下一帧待发送帧，返回映射区上的视图，position/limit 正好框住这一帧，标记为已发送。
+     * 视图在之后的 viewCount 次调用内保持有效。调用前须确认 {@link #hasUnsent()}。
+     */
+    public ByteBuffer nextUnsent() {
+        normalizeSendCursor();
+        Segment segment = segment(sendSegment);
+        int length = lengthAt(segment, sendOffset);
+        ByteBuffer view = segment.nextSendView();
+        view.clear();
+        view.limit(sendOffset + RECORD_HEADER_SIZE + length);
+        view.position(sendOffset + RECORD_HEADER_SIZE);
+        sendOffset += RECORD_HEADER_SIZE + length;
+        return view;
+    }
+
+    /**
+     * 释放序号不大于 sequence 且已发送的帧，整段释放后删除段文件。
+     */
+    public void acknowledge(long sequence) {
+        boolean retired = false;
+        while (true) {
+            Segment segment = first();
+            if (segment.index == sendSegment && ackOffset == sendOffset) {
+                break;
+            }
+            int length = lengthAt(segment, ackOffset);
+            if (length == 0) {
+                if (segment == last()) {
+                    break;
+                }
+                retireFirst();
+                retired = true;
+                continue;
+            }
+            if (segment.buffer.getLong(ackOffset + 8) > sequence) {
+                break;
+            }
+            ackOffset += RECORD_HEADER_SIZE + length;
+            pendingFrames--;
+        }
+        if (retired) {
+            try {
+                writeMeta();
+            } catch (IOException e) {
+                // 没记下来只会让崩溃后多重发几帧，不影响当前运行
+            }
+        }
+    }
+
+    /**
+     * 接收端不回复 ACK 时使用：已交给发送队列的帧即视为送达。
+     */
+    public void acknowledgeSent() {
+        acknowledge(Long.MAX_VALUE);
+    }
+
+    /**
+     * 重连后调用，下一次从最旧的未确认帧开始发送。
+     */
+    public void rewind() {
+        sendSegment = first().index;
+        sendOffset = ackOffset;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return 尚未确认的帧数
+     */
+    public int pendingFrames() {
+        return pendingFrames;
+    }
+
+    /**
+     * @return 因超过段数上限而淘汰的未确认帧数
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void writeMeta() throws IOException {
+        if (dir == null) {
+            return;
+        }
+        ByteBuffer b = ByteBuffer.allocate(META_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(META_MAGIC).putLong(sessionId).putLong(first().index).putInt(ackOffset).putLong(nextSequence);
+        File tmp = new File(dir, META_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(b.array());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, META_FILE))) {
+            throw new IOException("Cannot update " + META_FILE);
+        }
+    }
+
+    /**
+     * 记录确认游标并把映射区刷到存储。
+     */
+    @Override
+    public void close() throws IOException {
+        if (dir == null) {
+            return;
+        }
+        for (Segment segment : segments) {
+            ((MappedByteBuffer) segment.buffer).force();
+        }
+        writeMeta();
+    }
+}
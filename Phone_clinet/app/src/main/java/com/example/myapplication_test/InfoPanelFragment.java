@@ -1,17 +1,12 @@
 package com.example.myapplication_test;
 
 import android.Manifest;
-import android.content.Context;
 import android.content.pm.PackageManager;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -19,24 +14,52 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.fragment.app.Fragment;
-import java.util.LinkedHashMap; // 使用 LinkedHashMap 保持插入顺序
-import java.util.Locale;
-import java.util.Map;
 
-public class InfoPanelFragment extends Fragment implements SensorEventListener {
+import com.example.sensorprotocol.WireFormat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 实时显示本机传感器数据。
+ *
+ * 不再自行注册传感器和位置监听，而是订阅进程内的 {@link CaptureEngine}，与发送服务共用同一份采集：
+ * 发送期间打开这个页面不会让传感器多上报一份，也不会多一次定位唤醒。
+ *
+ * 采集线程每写入一个采样，只把一个标志置位并在需要时唤醒主线程；绘制由 Choreographer 在 vsync 时进行，
+ * 每帧最多一次，从缓冲区读取各传感器的最新值。绘制复用同一个 StringBuilder，数值用 {@link FixedDecimal} 定点格式化，
+ * 文本与上次显示的相同时不调用 setText。
+ */
+public class InfoPanelFragment extends Fragment implements CaptureEngine.Subscriber {
     private static final String TAG = "InfoPanelFragment";
     private TextView tv_sensor_data;
-    private SensorManager mSensorMgr;
-    // 使用 LinkedHashMap 保持数据显示的顺序
-    private Map<String, String> sensorDataMap = new LinkedHashMap<>();
-    private LocationManager locationManager;
-    private boolean locationAvailable = false;
+    private CaptureEngine captureEngine;
+    // 用户拒绝位置权限后显示的提示
+    private boolean locationPermissionDenied;
 
     // 定义要显示的传感器键名
     private static final String KEY_LOCATION = "经纬度";
     private static final String KEY_ACCELEROMETER = "加速度传感器";
     private static final String KEY_ORIENTATION = "方向传感器";
     private static final String KEY_LIGHT = "光线传感器";
+    private static final String NO_DATA = "未获取到数据";
+
+    // 以下字段只在主线程使用：读取最新值的临时数组、绘制用的缓冲区和当前显示的文本
+    private final float[] latest = new float[WireFormat.MAX_CHANNELS];
+    private final StringBuilder text = new StringBuilder(256);
+    private final StringBuilder shownText = new StringBuilder(256);
+    private boolean frameScheduled;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+        frameScheduled = false;
+        updateSensorDataDisplay();
+    };
+
+    // 采集线程置位，主线程清除；已置位时不再重复唤醒主线程
+    private final AtomicBoolean wakePending = new AtomicBoolean();
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final Runnable wakeUp = () -> {
+        wakePending.set(false);
+        scheduleDisplayUpdate();
+    };
 
 
     @Override
@@ -44,14 +67,10 @@ public class InfoPanelFragment extends Fragment implements SensorEventListener {
         View view = inflater.inflate(R.layout.fragment_info_panel, container, false);
         tv_sensor_data = view.findViewById(R.id.tv_sensor_data);
 
-        mSensorMgr = (SensorManager) requireContext().getSystemService(Context.SENSOR_SERVICE);
-
-        // 初始化显示的传感器数据
-        sensorDataMap.put(KEY_LOCATION, "获取失败请打开位置信息");
-        sensorDataMap.put(KEY_ACCELEROMETER, "未获取到数据");
-        sensorDataMap.put(KEY_ORIENTATION, "未获取到数据");
-        sensorDataMap.put(KEY_LIGHT, "未获取到数据");
+        captureEngine = CaptureEngine.get(requireContext());
 
+        // 新的视图还没有显示任何内容
+        shownText.setLength(0);
         updateSensorDataDisplay(); // 初始显示
 
         return view;
@@ -61,154 +80,137 @@ public class InfoPanelFragment extends Fragment implements SensorEventListener {
     public void onResume() {
         super.onResume();
         Log.d(TAG, "onResume called");
-        registerSensorsAndLocation();
-        // 如果没有获取到位置，确保提示信息正确
-        if (!locationAvailable) {
-            sensorDataMap.put(KEY_LOCATION, "获取失败请打开位置信息");
-        }
-        updateSensorDataDisplay();
+        requestLocationPermissionIfNeeded();
+        captureEngine.subscribe(this);
+        scheduleDisplayUpdate();
     }
 
     @Override
     public void onPause() {
         super.onPause();
         Log.d(TAG, "onPause called");
-        unregisterSensorsAndLocation();
-    }
-
-    private void registerSensorsAndLocation() {
-        // 注册传感器
-        Sensor accelerometer = mSensorMgr.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        Sensor orientation = mSensorMgr.getDefaultSensor(Sensor.TYPE_ORIENTATION); // 注意：TYPE_ORIENTATION 已弃用，建议使用 getRotationMatrix 和 getOrientation
-        Sensor light = mSensorMgr.getDefaultSensor(Sensor.TYPE_LIGHT);
-
-        if (accelerometer != null) mSensorMgr.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_UI);
-        if (orientation != null) mSensorMgr.registerListener(this, orientation, SensorManager.SENSOR_DELAY_UI);
-        if (light != null) mSensorMgr.registerListener(this, light, SensorManager.SENSOR_DELAY_UI);
-
-        // 初始化位置服务
-        initLocationService();
-    }
-
-    private void unregisterSensorsAndLocation() {
-        mSensorMgr.unregisterListener(this);
-        if (locationManager != null) {
-            try {
-                locationManager.removeUpdates(locationListener);
-                Log.d(TAG, "Location updates removed.");
-            } catch (SecurityException e) {
-                Log.e(TAG, "Error removing location updates", e);
-            }
+        captureEngine.unsubscribe(this);
+        mainThreadHandler.removeCallbacks(wakeUp);
+        wakePending.set(false);
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameScheduled = false;
         }
     }
 
-
-    private void initLocationService() {
-        locationManager = (LocationManager) requireContext().getSystemService(Context.LOCATION_SERVICE);
+    private void requestLocationPermissionIfNeeded() {
         if (ActivityCompat.checkSelfPermission(requireContext(), Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
                 ActivityCompat.checkSelfPermission(requireContext(), Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-            locationAvailable = false;
-            sensorDataMap.put(KEY_LOCATION, "获取失败请打开位置信息");
-            updateSensorDataDisplay();
             ActivityCompat.requestPermissions(requireActivity(), new String[]{
                     Manifest.permission.ACCESS_FINE_LOCATION,
                     Manifest.permission.ACCESS_COARSE_LOCATION
             }, 1);
-            return;
-        }
-        try {
-            Log.d(TAG, "Requesting location updates...");
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 5000, 10, locationListener);
-            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 5000, 10, locationListener);
-        } catch (SecurityException e) {
-            Log.e(TAG, "SecurityException in initLocationService: " + e.getMessage());
-            locationAvailable = false;
-            sensorDataMap.put(KEY_LOCATION, "位置权限错误，请检查");
-            updateSensorDataDisplay();
         }
     }
 
-    private final LocationListener locationListener = new LocationListener() {
-        @Override
-        public void onLocationChanged(@NonNull Location location) {
-            Log.d(TAG, "Location changed: " + location.getLatitude() + ", " + location.getLongitude());
-            double latitude = location.getLatitude();
-            double longitude = location.getLongitude();
-            locationAvailable = true;
-            sensorDataMap.put(KEY_LOCATION, String.format(Locale.CHINESE, "纬度=%.6f°, 经度=%.6f°", latitude, longitude));
-            updateSensorDataDisplay();
-        }
-
-        @Override
-        public void onStatusChanged(String provider, int status, Bundle extras) {}
-
-        @Override
-        public void onProviderEnabled(@NonNull String provider) {}
-
-        @Override
-        public void onProviderDisabled(@NonNull String provider) {
-            Log.d(TAG, "Provider disabled: " + provider);
-            // locationAvailable = false; // 只有当所有提供者都禁用时才设置
-            // 检查是否还有其他可用的提供者
-            boolean gpsEnabled = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
-            boolean networkEnabled = locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
-            if (!gpsEnabled && !networkEnabled) {
-                locationAvailable = false;
-                sensorDataMap.put(KEY_LOCATION, "位置服务已禁用");
-            } else {
-                sensorDataMap.put(KEY_LOCATION, provider + " 已禁用，尝试其他提供者");
-            }
-            updateSensorDataDisplay();
+    /**
+     * 在采集线程调用，不分配对象。
+     */
+    @Override
+    public void onSampleCaptured(int sensorId) {
+        if (!wakePending.getAndSet(true)) {
+            mainThreadHandler.post(wakeUp);
         }
-    };
-
+    }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        String sensorDisplayName;
-        String valueString = "";
-
-        switch (event.sensor.getType()) {
-            case Sensor.TYPE_ACCELEROMETER:
-                sensorDisplayName = KEY_ACCELEROMETER;
-                valueString = String.format(Locale.CHINESE, "x=%.2f, y=%.2f, z=%.2f",
-                        event.values[0], event.values[1], event.values[2]);
-                break;
-            case Sensor.TYPE_ORIENTATION:
-                sensorDisplayName = KEY_ORIENTATION;
-                valueString = String.format(Locale.CHINESE, "方位角=%.1f°, 俯仰角=%.1f°, 滚转角=%.1f°",
-                        event.values[0], event.values[1], event.values[2]);
-                break;
-            case Sensor.TYPE_LIGHT:
-                sensorDisplayName = KEY_LIGHT;
-                valueString = String.format(Locale.CHINESE, "光强=%.2f lx", event.values[0]);
-                break;
-            default:
-                return;
+    /**
+     * 预约在下一个 vsync 绘制，同一帧内的多次调用只绘制一次。
+     */
+    private void scheduleDisplayUpdate() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
         }
-        sensorDataMap.put(sensorDisplayName, valueString);
-        updateSensorDataDisplay();
     }
 
     private void updateSensorDataDisplay() {
         if (!isAdded() || tv_sensor_data == null) {
             return;
         }
-        StringBuilder sensorDataDisplay = new StringBuilder("实时传感器数据：\n");
-        for (Map.Entry<String, String> entry : sensorDataMap.entrySet()) {
-            sensorDataDisplay.append(String.format(Locale.CHINESE, "%s：%s\n", entry.getKey(), entry.getValue()));
+        SampleSlots slots = captureEngine.sampleSlots();
+        StringBuilder sb = text;
+        sb.setLength(0);
+        sb.append("实时传感器数据：\n");
+
+        sb.append(KEY_LOCATION).append('：');
+        if (!slots.get(WireFormat.SENSOR_LOCATION).copyLatest(latest)) {
+            sb.append(locationPermissionDenied ? "位置权限被拒绝" : "获取失败请打开位置信息");
+        } else if (latest[0] == CaptureEngine.LOCATION_ERROR && latest[1] == CaptureEngine.LOCATION_ERROR) {
+            sb.append("位置权限错误，请检查");
+        } else if (latest[0] == CaptureEngine.LOCATION_NO_PERMISSION && latest[1] == CaptureEngine.LOCATION_NO_PERMISSION) {
+            sb.append(locationPermissionDenied ? "位置权限被拒绝" : "获取失败请打开位置信息");
+        } else if (latest[0] == CaptureEngine.LOCATION_DISABLED && latest[1] == CaptureEngine.LOCATION_DISABLED) {
+            sb.append("位置服务已禁用");
+        } else {
+            sb.append("纬度=");
+            FixedDecimal.append(sb, latest[0], 6).append("°, 经度=");
+            FixedDecimal.append(sb, latest[1], 6).append('°');
+        }
+        sb.append('\n');
+
+        sb.append(KEY_ACCELEROMETER).append('：');
+        if (slots.get(WireFormat.SENSOR_ACCELEROMETER).copyLatest(latest)) {
+            sb.append("x=");
+            FixedDecimal.append(sb, latest[0], 2).append(", y=");
+            FixedDecimal.append(sb, latest[1], 2).append(", z=");
+            FixedDecimal.append(sb, latest[2], 2);
+        } else {
+            sb.append(NO_DATA);
+        }
+        sb.append('\n');
+
+        sb.append(KEY_ORIENTATION).append('：');
+        if (slots.get(WireFormat.SENSOR_ORIENTATION).copyLatest(latest)) {
+            sb.append("方位角=");
+            FixedDecimal.append(sb, latest[0], 1).append("°, 俯仰角=");
+            FixedDecimal.append(sb, latest[1], 1).append("°, 滚转角=");
+            FixedDecimal.append(sb, latest[2], 1).append('°');
+        } else {
+            sb.append(NO_DATA);
         }
-        tv_sensor_data.setText(sensorDataDisplay.toString());
+        sb.append('\n');
+
+        sb.append(KEY_LIGHT).append('：');
+        if (slots.get(WireFormat.SENSOR_LIGHT).copyLatest(latest)) {
+            sb.append("光强=");
+            FixedDecimal.append(sb, latest[0], 2).append(" lx");
+        } else {
+            sb.append(NO_DATA);
+        }
+        sb.append('\n');
+
+        // 数值没有变化（例如光线传感器）时不触发 TextView 重新排版
+        if (contentEquals(sb, shownText)) {
+            return;
+        }
+        shownText.setLength(0);
+        shownText.append(sb);
+        tv_sensor_data.setText(sb.toString());
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    private static boolean contentEquals(CharSequence a, CharSequence b) {
+        int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
         Log.d(TAG, "onDestroyView called");
-        // unregisterSensorsAndLocation(); // 已经在 onPause 中处理
+        // 已经在 onPause 中退订
         tv_sensor_data = null;
     }
 
@@ -218,13 +220,13 @@ public class InfoPanelFragment extends Fragment implements SensorEventListener {
         if (requestCode == 1) {
             if (grantResults.length > 0 && (grantResults[0] == PackageManager.PERMISSION_GRANTED || (grantResults.length > 1 && grantResults[1] == PackageManager.PERMISSION_GRANTED))) {
                 Log.d(TAG, "Location permission granted.");
-                initLocationService(); // 权限授予后重新初始化
+                locationPermissionDenied = false;
+                captureEngine.refresh(); // 权限授予后重新注册位置监听
             } else {
                 Log.d(TAG, "Location permission denied.");
-                locationAvailable = false;
-                sensorDataMap.put(KEY_LOCATION, "位置权限被拒绝");
-                updateSensorDataDisplay();
+                locationPermissionDenied = true;
+                scheduleDisplayUpdate();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+package com.example.myapplication_test;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.fragment.app.Fragment;
+
+import com.example.sensorprotocol.MetricId;
+import com.example.sensorprotocol.WireFormat;
+
+/**
+ * 显示 {@link MetricsRegistry} 中的运行指标：各传感器每秒事件数、丢弃的采样、重连次数，以及批大小、编码耗时、
+ * 写入耗时和积压帧数的分布。每秒刷新一次，分布按刷新间隔统计。
+ */
+public class MetricsFragment extends Fragment {
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final int[] DISTRIBUTIONS = {
+            MetricId.KIND_BATCH_SAMPLES, MetricId.KIND_ENCODE_NANOS, MetricId.KIND_WRITE_NANOS, MetricId.KIND_QUEUE_DEPTH
+    };
+
+    private TextView tv_metrics;
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    private final MetricsRegistry.Reporter reporter = metrics.newReporter();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            updateDisplay();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    // 以下字段只在主线程使用
+    private final StringBuilder text = new StringBuilder(512);
+    private final long[] lastEvents = new long[WireFormat.SENSOR_COUNT];
+    private long lastRefreshNanos;
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_metrics, container, false);
+        tv_metrics = view.findViewById(R.id.tv_metrics);
+        return view;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        // 第一次刷新只建立基线，速率和分布从下一次开始
+        lastRefreshNanos = 0;
+        updateDisplay();
+        handler.postDelayed(refresh, REFRESH_INTERVAL_MS);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        tv_metrics = null;
+    }
+
+    private void updateDisplay() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        double seconds = lastRefreshNanos == 0 ? 0 : (now - lastRefreshNanos) / 1e9;
+        lastRefreshNanos = now;
+        reporter.collect();
+
+        StringBuilder sb = text;
+        sb.setLength(0);
+        sb.append("传感器事件（次/秒，累计）：\n");
+        for (int sensorId = 1; sensorId < WireFormat.SENSOR_COUNT; sensorId++) {
+            long events = metrics.getSensorEvents(sensorId);
+            long delta = events - lastEvents[sensorId];
+            lastEvents[sensorId] = events;
+            if (events == 0) {
+                continue;
+            }
+            sb.append("  ").append(WireFormat.sensorName(sensorId)).append(": ");
+            FixedDecimal.append(sb, seconds > 0 ? delta / seconds : 0, 1).append(", ").append(events).append('\n');
+        }
+        sb.append("丢弃的采样：").append(metrics.getSamplesDropped()).append('\n');
+        sb.append("重连次数：").append(metrics.getReconnects()).append('\n');
+
+        sb.append("\n最近 1 秒（次数 / p50 / p90 / p99 / 最大）：\n");
+        for (int kind : DISTRIBUTIONS) {
+            appendDistribution(sb, kind);
+        }
+        if (tv_metrics != null) {
+            tv_metrics.setText(sb.toString());
+        }
+    }
+
+    private void appendDistribution(StringBuilder sb, int kind) {
+        boolean nanos = kind == MetricId.KIND_ENCODE_NANOS || kind == MetricId.KIND_WRITE_NANOS;
+        sb.append("  ").append(MetricId.kindName(kind)).append(nanos ? "（µs）" : "").append(": ")
+                .append(reporter.stat(kind, MetricId.STAT_COUNT));
+        for (int stat = MetricId.STAT_P50; stat <= MetricId.STAT_MAX; stat++) {
+            sb.append(" / ");
+            long value = reporter.stat(kind, stat);
+            if (nanos) {
+                FixedDecimal.append(sb, value / 1000.0, 1);
+            } else {
+                sb.append(value);
+            }
+        }
+        sb.append('\n');
+    }
+}
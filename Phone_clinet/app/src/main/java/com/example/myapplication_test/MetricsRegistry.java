@@ -0,0 +1,125 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.LatencyRecorder;
+import com.example.sensorprotocol.MetricId;
+import com.example.sensorprotocol.WireFormat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的运行指标：计数用 LongAdder，多个线程同时累加时各写各的分段，不争同一个缓存行；
+ * 分布用 {@link LatencyRecorder}。所有记录方法都不分配对象，可以放在采集和发送的热路径上。
+ *
+ * 读取方（指标页面、各接收端连接）各自持有 {@link Reporter}，分布按各自的上报间隔统计。
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    private final LongAdder[] sensorEvents = new LongAdder[WireFormat.SENSOR_COUNT];
+    private final LongAdder samplesDropped = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    // 每帧的采样数
+    public final LatencyRecorder batchSamples = new LatencyRecorder();
+    // 编码一帧的纳秒数
+    public final LatencyRecorder encodeNanos = new LatencyRecorder();
+    // 一次 socket 写入的纳秒数
+    public final LatencyRecorder writeNanos = new LatencyRecorder();
+    // 发送时尚未确认的帧数
+    public final LatencyRecorder queueDepth = new LatencyRecorder();
+
+    private MetricsRegistry() {
+        for (int i = 0; i < sensorEvents.length; i++) {
+            sensorEvents[i] = new LongAdder();
+        }
+    }
+
+    public void onSensorEvent(int sensorId) {
+        if (sensorId > 0 && sensorId < WireFormat.SENSOR_COUNT) {
+            sensorEvents[sensorId].increment();
+        }
+    }
+
+    public void onSamplesDropped(long count) {
+        if (count > 0) {
+            samplesDropped.add(count);
+        }
+    }
+
+    public void onReconnect() {
+        reconnects.increment();
+    }
+
+    public long getSensorEvents(int sensorId) {
+        return sensorId > 0 && sensorId < WireFormat.SENSOR_COUNT ? sensorEvents[sensorId].sum() : 0;
+    }
+
+    public long getSamplesDropped() {
+        return samplesDropped.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    public Reporter newReporter() {
+        return new Reporter();
+    }
+
+    /**
+     * 一个读取方的分布统计状态。不是线程安全的。
+     */
+    public final class Reporter {
+        private final LatencyRecorder.Interval[] intervals = {
+                batchSamples.newInterval(), encodeNanos.newInterval(), writeNanos.newInterval(), queueDepth.newInterval()
+        };
+        private final long[][] stats = new long[intervals.length][MetricId.STAT_COUNT_ALL];
+
+        private Reporter() {
+        }
+
+        /**
+         * 统计自上次调用以来的各个分布，结果用 {@link #stat} 读取。
+         */
+        public void collect() {
+            for (int i = 0; i < intervals.length; i++) {
+                intervals[i].collect(stats[i]);
+            }
+        }
+
+        /**
+         * @param kind MetricId.KIND_BATCH_SAMPLES 等分布种类
+         * @param stat MetricId.STAT_*
+         * @return 上次 {@link #collect} 的结果
+         */
+        public long stat(int kind, int stat) {
+            return stats[kind - MetricId.KIND_BATCH_SAMPLES][stat];
+        }
+
+        /**
+         * 调用 {@link #collect} 并把全部计数和分布写入 encoder 当前的 {@link WireFormat#FLAG_METRICS} 帧。
+         * 没有事件的传感器不写。
+         */
+        public void encode(FrameEncoder encoder) {
+            collect();
+            for (int sensorId = 1; sensorId < WireFormat.SENSOR_COUNT; sensorId++) {
+                long events = sensorEvents[sensorId].sum();
+                if (events != 0) {
+                    encoder.putMetric(MetricId.of(MetricId.KIND_SENSOR_EVENTS, sensorId), events);
+                }
+            }
+            encoder.putMetric(MetricId.of(MetricId.KIND_SAMPLES_DROPPED, 0), samplesDropped.sum());
+            encoder.putMetric(MetricId.of(MetricId.KIND_RECONNECTS, 0), reconnects.sum());
+            for (int i = 0; i < intervals.length; i++) {
+                int kind = MetricId.KIND_BATCH_SAMPLES + i;
+                for (int stat = 0; stat < MetricId.STAT_COUNT_ALL; stat++) {
+                    encoder.putMetric(MetricId.of(kind, stat), stats[i][stat]);
+                }
+            }
+        }
+    }
+}
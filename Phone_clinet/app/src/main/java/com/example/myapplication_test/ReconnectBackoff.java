@@ -0,0 +1,33 @@
+package com.example.myapplication_test;
+
+import java.util.Random;
+
+/**
+ * 带随机抖动的指数退避：第 n 次重试的上限为 base * 2^(n-1)（不超过 max），实际等待在上限的一半到上限之间均匀分布，
+ * 避免一批手机在同一次 Wi-Fi 切换后同时重连。
+ */
+public class ReconnectBackoff {
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+
+    public ReconnectBackoff(long baseMillis, long maxMillis, Random random) {
+        if (baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("invalid backoff limits");
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * @param attempt 第几次重试，从 1 开始
+     * @return 本次重试前应等待的毫秒数
+     */
+    public long delayMillis(int attempt) {
+        int shift = Math.min(Math.max(attempt, 1) - 1, 30);
+        long cap = Math.min(maxMillis, baseMillis << shift);
+        long half = cap / 2;
+        return half + (long) (random.nextDouble() * (cap - half + 1));
+    }
+}
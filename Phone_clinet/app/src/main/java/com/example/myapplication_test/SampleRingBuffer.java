@@ -0,0 +1,298 @@
+package com.example.myapplication_test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个传感器的定长采样环形缓冲区，单生产者（传感器线程）/ 多消费者，全程无锁。
+ * 数值和时间戳存放在预分配的原子数组中，写入和读取过程都不产生对象分配。
+ *
+ * 每个消费者持有自己的 {@link Reader}（读序号和溢出计数），各自 drain 同一份数据，互不影响；
+ * 不带 Reader 参数的方法使用构造时自带的主读者。每个 Reader 只能在一个线程中使用。
+ *
+ * 生产者从不等待消费者：缓冲区满时直接覆盖最旧的槽位，慢的消费者只会丢掉自己没来得及取的采样。
+ * 消费者复制完一段槽位后重新读取写序号，丢弃复制期间可能被覆盖的部分，因此不会交出由两次事件拼成的半新半旧采样。
+ */
+public class SampleRingBuffer {
+
+    /** 缓冲区写满后的处理策略 */
+    public enum OverflowPolicy {
+        /** 覆盖最旧的采样，保留最新的 capacity - 1 个采样（最旧的一个槽位可能正在被覆盖） */
+        DROP_OLDEST,
+        /**
+         * 占用超过一半后逐级加大写入间隔（剩余空间每减半，间隔加倍），尽量用有限的槽位覆盖整个时间段；
+         * 仍然写满时覆盖最旧的采样。消费者取走数据后恢复全速记录。
+         */
+        DECIMATE
+    }
+
+    private final int channels;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    // float 以 Float.floatToRawIntBits 形式保存，便于按槽位做有序写入
+    private final AtomicIntegerArray values;
+    private final AtomicLongArray timestamps;
+
+    /** 一个消费者的读位置 */
+    public static final class Reader {
+        // 该消费者已取走的采样总数，只由该消费者写入
+        private final AtomicLong readSequence;
+        // 只由该消费者修改
+        private volatile long overrunCount;
+
+        Reader(long start) {
+            readSequence = new AtomicLong(start);
+        }
+    }
+
+    // 已发布的采样总数，只由生产者写入
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final Reader primary = new Reader(0);
+    // 增删读者时整体替换，生产者只读
+    private volatile Reader[] readers = {primary};
+
+    // 最近值用序号锁保护：奇数表示生产者正在写
+    private final AtomicInteger latestVersion = new AtomicInteger();
+    private final AtomicIntegerArray latestValues;
+    private volatile long latestTimestamp;
+
+    // 以下字段只由生产者修改
+    private int strideCounter;
+    private volatile long decimatedCount;
+
+    public SampleRingBuffer(int channels, int capacity, OverflowPolicy overflowPolicy) {
+        if (channels <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("channels and capacity must be positive");
+        }
+        this.channels = channels;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.values = new AtomicIntegerArray(channels * capacity);
+        this.timestamps = new AtomicLongArray(capacity);
+        this.latestValues = new AtomicIntegerArray(channels);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 构造时自带的主读者，不带 Reader 参数的方法都使用它
+     */
+    Reader primaryReader() {
+        return primary;
+    }
+
+    /**
+     * 增加一个消费者，从下一个写入的采样开始读取。可在任意线程调用。
+     */
+    public synchronized Reader addReader() {
+        Reader reader = new Reader(writeSequence.get());
+        Reader[] current = readers;
+        Reader[] next = new Reader[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = reader;
+        readers = next;
+        return reader;
+    }
+
+    /**
+     * 移除 {@link #addReader} 增加的消费者，之后它不再影响抽稀。主读者不能移除。
+     */
+    public synchronized void removeReader(Reader reader) {
+        Reader[] current = readers;
+        for (int i = 1; i < current.length; i++) {
+            if (current[i] == reader) {
+                Reader[] next = new Reader[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                readers = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写入一个采样，只能由生产者线程调用。src 中超过 channels 的部分被忽略，不足的部分补 0。
+     */
+    public void push(long timestampNanos, float[] src) {
+        int n = Math.min(channels, src.length);
+
+        int version = latestVersion.get();
+        latestVersion.set(version + 1);
+        for (int c = 0; c < channels; c++) {
+            latestValues.lazySet(c, Float.floatToRawIntBits(c < n ? src[c] : 0f));
+        }
+        latestTimestamp = timestampNanos;
+        latestVersion.set(version + 2);
+
+        long seq = writeSequence.get();
+        if (overflowPolicy == OverflowPolicy.DECIMATE) {
+            int stride = decimationStride(seq - latestReadSequence());
+            if (stride > 1 && ++strideCounter < stride) {
+                decimatedCount++;
+                return;
+            }
+            strideCounter = 0;
+        }
+
+        int slot = (int) (seq % capacity);
+        timestamps.lazySet(slot, timestampNanos);
+        int base = slot * channels;
+        for (int c = 0; c < channels; c++) {
+            values.lazySet(base + c, Float.floatToRawIntBits(c < n ? src[c] : 0f));
+        }
+        writeSequence.set(seq + 1);
+    }
+
+    /**
+     * @return 取得最快的消费者的读序号；抽稀按它计算，慢的消费者不会让其他消费者也丢采样
+     */
+    private long latestReadSequence() {
+        Reader[] current = readers;
+        long latest = current[0].readSequence.get();
+        for (int i = 1; i < current.length; i++) {
+            latest = Math.max(latest, current[i].readSequence.get());
+        }
+        return latest;
+    }
+
+    /**
+     * 占用不足一半时为 1，之后剩余空间每减半间隔加倍。
+     */
+    private int decimationStride(long occupied) {
+        long free = capacity - occupied;
+        int stride = 1;
+        long threshold = capacity / 2;
+        while (free <= threshold && threshold > 0 && stride < (1 << 20)) {
+            stride <<= 1;
+            threshold >>= 1;
+        }
+        return stride;
+    }
+
+    /**
+     * 取出自上次 drain 以来的全部采样，按时间顺序写入调用方提供的数组，只能由消费者线程调用。
+     * tsOut 至少 maxSamples 长，valuesOut 至少 maxSamples * channels 长。
+     *
+     * @return 实际取出的采样数
+     */
+    public int drain(long[] tsOut, float[] valuesOut, int maxSamples) {
+        return drain(primary, tsOut, valuesOut, maxSamples);
+    }
+
+    /**
+     * 按 reader 的读位置取出采样，只能在该 reader 所属的线程调用。
+     */
+    public int drain(Reader reader, long[] tsOut, float[] valuesOut, int maxSamples) {
+        AtomicLong readSequence = reader.readSequence;
+        long read = readSequence.get();
+        long write = writeSequence.get();
+        if (write - read > capacity) {
+            reader.overrunCount += write - capacity - read;
+            read = write - capacity;
+        }
+        long end = Math.min(write, read + maxSamples);
+
+        for (long seq = read; seq < end; seq++) {
+            int slot = (int) (seq % capacity);
+            int i = (int) (seq - read);
+            tsOut[i] = timestamps.get(slot);
+            int base = slot * channels;
+            for (int c = 0; c < channels; c++) {
+                valuesOut[i * channels + c] = Float.intBitsToFloat(values.get(base + c));
+            }
+        }
+
+        // 复制期间生产者可能已经覆盖了最前面的槽位（包括正在写的那个），这些采样不可信，丢弃
+        long writeAfter = writeSequence.get();
+        long firstValid = writeAfter + 1 - capacity;
+        int skip = 0;
+        if (firstValid > read) {
+            skip = (int) Math.min(end - read, firstValid - read);
+            reader.overrunCount += skip;
+        }
+        int count = (int) (end - read) - skip;
+        if (skip > 0 && count > 0) {
+            System.arraycopy(tsOut, skip, tsOut, 0, count);
+            System.arraycopy(valuesOut, skip * channels, valuesOut, 0, count * channels);
+        }
+        readSequence.set(end);
+        return count;
+    }
+
+    /**
+     * @return 等待 drain 的采样数（近似值，可在任意线程调用）
+     */
+    public int size() {
+        return size(primary);
+    }
+
+    public int size(Reader reader) {
+        long pending = writeSequence.get() - reader.readSequence.get();
+        return (int) Math.max(0, Math.min(capacity, pending));
+    }
+
+    public boolean hasLatest() {
+        return latestVersion.get() > 0;
+    }
+
+    public long getLatestTimestamp() {
+        return latestTimestamp;
+    }
+
+    /**
+     * 将最近一次写入的数值（无论是否已被 drain 或抽稀丢弃）复制到 out。生产者正在写时重试，生产者从不等待。
+     *
+     * @return 是否存在最近值
+     */
+    public boolean copyLatest(float[] out) {
+        while (true) {
+            int before = latestVersion.get();
+            if (before == 0) {
+                return false;
+            }
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            for (int c = 0; c < channels; c++) {
+                out[c] = Float.intBitsToFloat(latestValues.get(c));
+            }
+            if (latestVersion.get() == before) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return 因溢出或抽稀而丢弃的采样总数
+     */
+    public long getDroppedCount() {
+        return getDroppedCount(primary);
+    }
+
+    /**
+     * @return 抽稀丢弃的采样数，加上该消费者因溢出而没有取到的采样数
+     */
+    public long getDroppedCount(Reader reader) {
+        return decimatedCount + reader.overrunCount;
+    }
+
+    /**
+     * 丢弃所有未取走的采样，只能由消费者线程调用。
+     */
+    public void clear() {
+        clear(primary);
+    }
+
+    public void clear(Reader reader) {
+        reader.readSequence.set(writeSequence.get());
+    }
+}
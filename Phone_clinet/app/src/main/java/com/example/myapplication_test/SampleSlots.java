@@ -0,0 +1,541 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.WireFormat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 以 {@link WireFormat} 传感器编号为下标的固定槽位，每个槽位一个 SampleRingBuffer。
+ * 取代按字符串键查找的 Map：采集回调只做一次数组下标访问，发送时把所有槽位编码进一帧，稳态下不分配对象。
+ *
+ * 写入（push/pushConstant）只能在一个采集线程。每个发送方用 {@link #openCursor()} 打开自己的 {@link Cursor}，
+ * 按自己的节奏 drain/encodeFrame 同一份采样，互不影响；不带 Cursor 参数的方法使用自带的主游标 {@link #primaryCursor()}。
+ * 采集与发送之间、各发送方之间都无锁，一个 Cursor 只能在一个线程中使用。
+ *
+ * 延迟追踪：采集线程约每 {@link #TRACE_INTERVAL_NANOS} 用 {@link #markTrace} 标记一个刚写入的采样，
+ * 开启了追踪的游标编码到这个采样时给帧加上 {@link WireFormat#FLAG_TRACED}，发送方再从游标取出它的采集和写入时刻。
+ */
+public class SampleSlots {
+    public static final int SLOT_COUNT = WireFormat.SENSOR_COUNT;
+    // 抽样追踪的间隔（采样时钟）
+    public static final long TRACE_INTERVAL_NANOS = 1_000_000_000L;
+
+    /** 一个发送方在所有槽位上的读位置，以及它自己的 drain 结果数组 */
+    public final class Cursor {
+        private final SampleRingBuffer.Reader[] readers = new SampleRingBuffer.Reader[SLOT_COUNT];
+        private final long[] drainTimestamps = new long[capacity];
+        private final float[] drainValues = new float[capacity * maxChannels];
+        private boolean tracing;
+        // 已取走的标记版本，和还没编码到的被追踪采样（传感器编号为 0 表示没有）
+        private long traceVersion;
+        private int pendingTraceSensorId;
+        private long pendingTraceCaptureNanos;
+        private long pendingTraceEnqueueNanos;
+        // 上一次编码的帧中被追踪的采样，没有时传感器编号为 0
+        private int tracedSensorId;
+        private long tracedCaptureNanos;
+        private long tracedEnqueueNanos;
+
+        /**
+         * @return 所属的 SampleSlots；更换溢出策略后旧游标不再有新数据，发送方据此重新打开
+         */
+        public SampleSlots owner() {
+            return SampleSlots.this;
+        }
+
+        /**
+         * 是否在编码时标记被追踪的采样，默认不标记。
+         */
+        public void setTracing(boolean tracing) {
+            this.tracing = tracing;
+            pendingTraceSensorId = 0;
+            tracedSensorId = 0;
+        }
+
+        /**
+         * @return 上一次编码的帧中被追踪采样的传感器编号，帧没有带 {@link WireFormat#FLAG_TRACED} 时为 0
+         */
+        public int getTracedSensorId() {
+            return tracedSensorId;
+        }
+
+        /** 被追踪采样的时间戳 */
+        public long getTracedCaptureNanos() {
+            return tracedCaptureNanos;
+        }
+
+        /** 被追踪采样写入缓冲区的时刻，与时间戳同一时钟 */
+        public long getTracedEnqueueNanos() {
+            return tracedEnqueueNanos;
+        }
+    }
+
+    /**
+     * 编码一帧的选项，可复用：发送方持有一个，握手结果变化时改它，每帧传给 {@link #encodeFrame}，不分配对象。
+     * 默认不带帧标志、不做特征提取和死区过滤。
+     */
+    public static final class EncodeOptions {
+        private int flags;
+        private FeatureExtractor features;
+        private DeadbandFilter deadband;
+        private int sensorMask = Handshake.ALL_SENSORS;
+
+        /**
+         * @param flags 帧标志，带 {@link WireFormat#FLAG_DELTA} 时数据块压缩编码
+         */
+        public EncodeOptions flags(int flags) {
+            this.flags = flags;
+            return this;
+        }
+
+        /**
+         * @param features 特征模式下由它处理的传感器只写窗口特征（{@link WireFormat#FLAG_FEATURES}），不写原始采样；
+         *                 null 表示全部写原始采样。窗口未满时采样留在 features 中，帧里可能只有其他传感器的数据块
+         */
+        public EncodeOptions features(FeatureExtractor features) {
+            this.features = features;
+            return this;
+        }
+
+        /**
+         * @param deadband 非 null 时原始采样先经死区过滤（{@link WireFormat#FLAG_HELD}），到了心跳间隔还没有发过的传感器
+         *                 补一个时间戳为帧基准时刻的关键帧；帧中可能没有任何新采样，只有关键帧
+         */
+        public EncodeOptions deadband(DeadbandFilter deadband) {
+            this.deadband = deadband;
+            return this;
+        }
+
+        /**
+         * @param sensorMask 发送原始采样的传感器，第 n 位对应编号 n（见 {@link Handshake#parseSensorMask}）；
+         *                   其余槽位的采样照常取出但不编码，免得占满缓冲区。默认全部发送
+         */
+        public EncodeOptions sensors(int sensorMask) {
+            this.sensorMask = sensorMask;
+            return this;
+        }
+    }
+
+    private final SampleRingBuffer[] slots = new SampleRingBuffer[SLOT_COUNT];
+    private final int capacity;
+    private final int maxChannels;
+    private final Cursor primary;
+    // 只在采集线程使用
+    private final float[] scratch = new float[WireFormat.MAX_CHANNELS];
+    private long nextTraceNanos;
+    // 最近一次标记的被追踪采样：版本、传感器编号、时间戳、写入时刻。版本为奇数表示正在更新
+    private final AtomicLongArray trace = new AtomicLongArray(4);
+
+    public SampleSlots(int capacity, SampleRingBuffer.OverflowPolicy policy) {
+        this.capacity = capacity;
+        // 未启用的传感器也占一个槽位，接收端改设置时不必重建；空槽位不进入编码结果
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            slots[id] = new SampleRingBuffer(WireFormat.channels(id), capacity, policy);
+        }
+        int max = 0;
+        for (SampleRingBuffer slot : slots) {
+            if (slot != null) {
+                max = Math.max(max, slot.getChannels());
+            }
+        }
+        maxChannels = max;
+        primary = new Cursor();
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            primary.readers[id] = slots[id].primaryReader();
+        }
+    }
+
+    /**
+     * @return 不带 Cursor 参数的方法使用的主游标
+     */
+    public Cursor primaryCursor() {
+        return primary;
+    }
+
+    /**
+     * 为一个发送方打开游标，从此刻之后写入的采样开始读取。可在任意线程调用。
+     */
+    public Cursor openCursor() {
+        Cursor cursor = new Cursor();
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            cursor.readers[id] = slots[id].addReader();
+        }
+        return cursor;
+    }
+
+    /**
+     * 关闭 {@link #openCursor()} 打开的游标。
+     */
+    public void closeCursor(Cursor cursor) {
+        if (cursor == primary) {
+            return;
+        }
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            slots[id].removeReader(cursor.readers[id]);
+        }
+    }
+
+    /**
+     * @return 对应槽位，未定义的编号返回 null
+     */
+    public SampleRingBuffer get(int sensorId) {
+        return sensorId > 0 && sensorId < SLOT_COUNT ? slots[sensorId] : null;
+    }
+
+    public void push(int sensorId, long timestampNanos, float[] values) {
+        SampleRingBuffer slot = get(sensorId);
+        if (slot != null) {
+            slot.push(timestampNanos, values);
+        }
+    }
+
+    /**
+     * 写入一个所有通道都相同的状态值，用于位置不可用等场景。只能在采集线程调用。
+     */
+    public void pushConstant(int sensorId, long timestampNanos, float value) {
+        SampleRingBuffer slot = get(sensorId);
+        if (slot != null) {
+            for (int c = 0; c < slot.getChannels(); c++) {
+                scratch[c] = value;
+            }
+            slot.push(timestampNanos, scratch);
+        }
+    }
+
+    /**
+     * 采集线程写入一个采样后调用：到了追踪间隔时返回 true，调用方读一次时钟后用 {@link #markTrace} 标记它。
+     */
+    public boolean traceDue(long timestampNanos) {
+        return timestampNanos - nextTraceNanos >= 0;
+    }
+
+    /**
+     * 标记刚写入的一个采样供各游标追踪，覆盖上一个标记。只能在采集线程调用。
+     *
+     * @param enqueueNanos 写入缓冲区的时刻，与 timestampNanos 同一时钟
+     */
+    public void markTrace(int sensorId, long timestampNanos, long enqueueNanos) {
+        nextTraceNanos = timestampNanos + TRACE_INTERVAL_NANOS;
+        long version = trace.get(0);
+        trace.set(0, version + 1);
+        trace.set(1, sensorId);
+        trace.set(2, timestampNanos);
+        trace.set(3, enqueueNanos);
+        trace.set(0, version + 2);
+    }
+
+    /**
+     * 开始编码一帧时调用：清掉上一帧的追踪结果，有新的标记时记为待追踪。
+     */
+    private void takeTrace(Cursor cursor) {
+        cursor.tracedSensorId = 0;
+        if (!cursor.tracing) {
+            return;
+        }
+        long version = trace.get(0);
+        if ((version & 1) != 0 || version == cursor.traceVersion) {
+            return;
+        }
+        int sensorId = (int) trace.get(1);
+        long timestampNanos = trace.get(2);
+        long enqueueNanos = trace.get(3);
+        if (trace.get(0) != version) {
+            // 正好被覆盖，下一帧再取
+            return;
+        }
+        cursor.traceVersion = version;
+        cursor.pendingTraceSensorId = sensorId;
+        cursor.pendingTraceCaptureNanos = timestampNanos;
+        cursor.pendingTraceEnqueueNanos = enqueueNanos;
+    }
+
+    /**
+     * 在刚从 sensorId 槽位取出的 count 个采样中找被追踪的采样。已经取过它（或被覆盖、早于游标打开）时放弃追踪。
+     *
+     * @return 它在取出的采样中的下标，不在其中时返回 -1
+     */
+    private static int tracedIndex(Cursor cursor, int sensorId, int count) {
+        if (cursor.pendingTraceSensorId != sensorId || count == 0) {
+            return -1;
+        }
+        long[] timestamps = cursor.drainTimestamps;
+        long target = cursor.pendingTraceCaptureNanos;
+        if (timestamps[count - 1] - target < 0) {
+            // 还在缓冲区中，由后面的帧取出
+            return -1;
+        }
+        cursor.pendingTraceSensorId = 0;
+        for (int i = 0; i < count; i++) {
+            if (timestamps[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void onTraced(Cursor cursor, FrameEncoder encoder, int sensorId) {
+        encoder.markTraced();
+        cursor.tracedSensorId = sensorId;
+        cursor.tracedCaptureNanos = cursor.pendingTraceCaptureNanos;
+        cursor.tracedEnqueueNanos = cursor.pendingTraceEnqueueNanos;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 所有槽位中等待发送的采样总数
+     */
+    public int pendingSamples() {
+        return pendingSamples(primary);
+    }
+
+    public int pendingSamples(Cursor cursor) {
+        int total = 0;
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            total += slots[id].size(cursor.readers[id]);
+        }
+        return total;
+    }
+
+    /**
+     * @return 把当前待发采样编码成一帧需要的字节数（近似值）
+     */
+    public int pendingBytes() {
+        return pendingBytes(primary);
+    }
+
+    public int pendingBytes(Cursor cursor) {
+        int total = WireFormat.HEADER_SIZE;
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            int size = slots[id].size(cursor.readers[id]);
+            if (size > 0) {
+                total += WireFormat.blockSize(slots[id].getChannels(), size);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return 写满所有槽位时一帧的最大字节数（压缩帧按最坏情况计），用于预分配编码缓冲区
+     */
+    public int maxFrameSize() {
+        int size = WireFormat.HEADER_SIZE;
+        for (SampleRingBuffer slot : slots) {
+            if (slot != null) {
+                int channels = slot.getChannels();
+                size += Math.max(WireFormat.blockSize(channels, capacity), WireFormat.maxDeltaBlockSize(channels, capacity));
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return 特征模式下一帧的最大字节数：做特征的槽位按写满时产生的特征计，其余槽位与 {@link #maxFrameSize()} 相同
+     */
+    public int maxFrameSize(FeatureExtractor features) {
+        int size = maxFrameSize() + WireFormat.FEATURE_COUNT_SIZE;
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            size += features.maxFeatureBytes(id, capacity);
+        }
+        return size;
+    }
+
+    /**
+     * 取出某个槽位自上次 drain 以来的全部采样。返回的数组由本对象复用，下一次 drain 前有效。
+     *
+     * @return 采样数
+     */
+    public int drain(int sensorId) {
+        return drain(primary, sensorId);
+    }
+
+    /**
+     * 按游标取出某个槽位的采样，结果在 {@link #drainedTimestamps(Cursor)} / {@link #drainedValues(Cursor)} 中。
+     */
+    public int drain(Cursor cursor, int sensorId) {
+        SampleRingBuffer slot = get(sensorId);
+        return slot == null ? 0
+                : slot.drain(cursor.readers[sensorId], cursor.drainTimestamps, cursor.drainValues, capacity);
+    }
+
+    public long[] drainedTimestamps() {
+        return primary.drainTimestamps;
+    }
+
+    public long[] drainedTimestamps(Cursor cursor) {
+        return cursor.drainTimestamps;
+    }
+
+    public float[] drainedValues() {
+        return primary.drainValues;
+    }
+
+    public float[] drainedValues(Cursor cursor) {
+        return cursor.drainValues;
+    }
+
+    /**
+     * @return 该游标因溢出没取到的采样数，加上抽稀丢弃的采样数，按全部槽位合计
+     */
+    public long droppedSamples(Cursor cursor) {
+        long total = 0;
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            total += slots[id].getDroppedCount(cursor.readers[id]);
+        }
+        return total;
+    }
+
+    /**
+     * 把全部槽位自上次发送以来的采样编码为一帧，写在 out 的当前位置。
+     *
+     * @param options 帧标志、特征提取和死区过滤，见 {@link EncodeOptions}
+     * @return 帧长度，没有新采样时返回 0 且 out 的 position 不变
+     */
+    public int encodeFrame(Cursor cursor, FrameEncoder encoder, ByteBuffer out, long deviceId, long sequence,
+                           long baseTimestampNanos, EncodeOptions options) {
+        int flags = options.flags;
+        FeatureExtractor features = options.features;
+        DeadbandFilter deadband = options.deadband;
+        int sensorMask = options.sensorMask;
+        long[] drainTimestamps = cursor.drainTimestamps;
+        float[] drainValues = cursor.drainValues;
+        int start = out.position();
+        if (features != null) {
+            flags |= WireFormat.FLAG_FEATURES;
+        }
+        if (deadband != null) {
+            flags |= WireFormat.FLAG_HELD;
+        }
+        encoder.begin(out, deviceId, sequence, baseTimestampNanos, flags);
+        takeTrace(cursor);
+        if (features != null) {
+            // 特征须写在数据块之前
+            for (int id = 1; id < SLOT_COUNT; id++) {
+                if (!features.handles(id)) {
+                    continue;
+                }
+                SampleRingBuffer slot = slots[id];
+                int count = slot.drain(cursor.readers[id], drainTimestamps, drainValues, capacity);
+                // 只追踪原始采样，进了特征的不追踪
+                tracedIndex(cursor, id, count);
+                int channels = slot.getChannels();
+                for (int i = 0; i < count; i++) {
+                    int done = features.push(id, drainTimestamps[i], drainValues, i * channels);
+                    for (int c = 0; c < done; c++) {
+                        encoder.putFeatures(features.features(c));
+                    }
+                }
+            }
+        }
+        for (int id = 1; id < SLOT_COUNT; id++) {
+            if (features != null && features.handles(id)) {
+                continue;
+            }
+            SampleRingBuffer slot = slots[id];
+            int count = slot.drain(cursor.readers[id], drainTimestamps, drainValues, capacity);
+            if ((sensorMask & 1 << id) == 0) {
+                // 接收端不保存，丢弃，其中被追踪的采样也放弃
+                tracedIndex(cursor, id, count);
+                continue;
+            }
+            if (count == 0 && (deadband == null || !deadband.heartbeatDue(id, baseTimestampNanos))) {
+                continue;
+            }
+            int channels = slot.getChannels();
+            int sent = 0;
+            int traced = tracedIndex(cursor, id, count);
+            encoder.beginBlock(id, channels);
+            for (int i = 0; i < count; i++) {
+                if (deadband == null || deadband.accept(id, drainTimestamps[i], drainValues, i * channels)) {
+                    encoder.putSample(drainTimestamps[i], drainValues, i * channels);
+                    sent++;
+                    if (i == traced) {
+                        onTraced(cursor, encoder, id);
+                    }
+                }
+            }
+            // 本帧已经发过的传感器不补关键帧，一个数据块的采样数不超过缓冲区容量
+            if (sent == 0 && deadband != null && deadband.heartbeatDue(id, baseTimestampNanos)) {
+                encoder.putSample(baseTimestampNanos, deadband.takeKeyframe(id, baseTimestampNanos), 0);
+            }
+            // 全部被过滤的空块由 endBlock 撤销
+            encoder.endBlock();
+        }
+        boolean empty = encoder.getBlockCount() == 0 && encoder.getFeatureCount() == 0;
+        int length = encoder.end();
+        if (empty) {
+            out.position(start);
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * 按 out 的剩余空间编码一帧，用于 UDP 数据报：每个槽位只取出放得下的采样（按未压缩与压缩编码中较大的长度估计），
+     * 放不下的留在缓冲区中，由下一个数据报发送。
+     *
+     * @param options 只使用其中的帧标志和传感器，数据报不做特征提取和死区过滤
+     * @return 帧长度，没有新采样时返回 0 且 out 的 position 不变
+     * @throws IllegalArgumentException out 的剩余空间连帧头和一个采样都放不下，或 options 带了特征提取或死区过滤
+     */
+    public int encodeBoundedFrame(Cursor cursor, FrameEncoder encoder, ByteBuffer out, long deviceId, long sequence,
+                                  long baseTimestampNanos, EncodeOptions options) {
+        if (options.features != null || options.deadband != null) {
+            throw new IllegalArgumentException("datagrams carry raw samples only");
+        }
+        int flags = options.flags;
+        int sensorMask = options.sensorMask;
+        long[] drainTimestamps = cursor.drainTimestamps;
+        float[] drainValues = cursor.drainValues;
+        int start = out.position();
+        int budget = out.remaining() - WireFormat.HEADER_SIZE;
+        if (budget < worstBlockSize(WireFormat.MAX_CHANNELS, 1)) {
+            throw new IllegalArgumentException("no room for a sample: " + out.remaining());
+        }
+        encoder.begin(out, deviceId, sequence, baseTimestampNanos, flags);
+        takeTrace(cursor);
+        for (int id = 1; id < SLOT_COUNT && budget > 0; id++) {
+            SampleRingBuffer slot = slots[id];
+            int channels = slot.getChannels();
+            int header = worstBlockSize(channels, 0);
+            int fits = budget <= header ? 0 : (budget - header) / (worstBlockSize(channels, 1) - header);
+            if (fits == 0) {
+                continue;
+            }
+            int count = slot.drain(cursor.readers[id], drainTimestamps, drainValues, Math.min(fits, capacity));
+            if ((sensorMask & 1 << id) == 0) {
+                tracedIndex(cursor, id, count);
+                continue;
+            }
+            if (count == 0) {
+                continue;
+            }
+            int traced = tracedIndex(cursor, id, count);
+            encoder.beginBlock(id, channels);
+            for (int i = 0; i < count; i++) {
+                encoder.putSample(drainTimestamps[i], drainValues, i * channels);
+            }
+            if (traced >= 0) {
+                onTraced(cursor, encoder, id);
+            }
+            encoder.endBlock();
+            budget -= worstBlockSize(channels, count);
+        }
+        boolean empty = encoder.getBlockCount() == 0;
+        int length = encoder.end();
+        if (empty) {
+            out.position(start);
+            return 0;
+        }
+        return length;
+    }
+
+    private static int worstBlockSize(int channels, int samples) {
+        return Math.max(WireFormat.blockSize(channels, samples), WireFormat.maxDeltaBlockSize(channels, samples));
+    }
+}
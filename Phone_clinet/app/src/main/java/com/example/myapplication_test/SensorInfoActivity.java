@@ -45,6 +45,8 @@ public class SensorInfoActivity extends AppCompatActivity {
                 selectedFragment = new InfoPanelFragment();
             } else if (id == R.id.nav_server) {
                 selectedFragment = new ServerFragment();
+            } else if (id == R.id.nav_metrics) {
+                selectedFragment = new MetricsFragment();
             }
             // SensorsFragment 的导航逻辑已被移除
 
@@ -0,0 +1,146 @@
+package com.example.myapplication_test;
+
+import android.hardware.Sensor;
+
+import com.example.sensorprotocol.SensorConfig;
+import com.example.sensorprotocol.WireFormat;
+
+/**
+ * 各传感器的采集设置：是否启用、采样周期、硬件 FIFO 批处理延迟（maxReportLatencyUs），
+ * 以及 {@link WireFormat} 传感器编号与 Android 传感器类型的对应关系。
+ *
+ * 默认值与原先写死的设置相同：加速度、方向、光线按 SENSOR_DELAY_UI 采样，位置每 5 秒一次，其余传感器不启用。
+ * 接收端可用 CONFIG 行修改（见 {@link SensorConfig}）。批处理延迟大于 0 时，传感器芯片在 CPU 休眠期间把事件攒在 FIFO 中，
+ * 到期或 FIFO 将满时一次性上报，这是同样采样率下最省电的方式。
+ *
+ * 只在采集线程读写。
+ */
+public class SensorRegistry {
+    // SensorManager.SENSOR_DELAY_UI 对应的采样周期
+    public static final int DEFAULT_PERIOD_US = 66_667;
+    public static final int DEFAULT_LOCATION_PERIOD_US = 5_000_000;
+    // 采样周期的下限，避免一行配置把 CPU 打满
+    public static final int MIN_PERIOD_US = 1_000;
+    public static final int MIN_LOCATION_PERIOD_US = 100_000;
+
+    private final boolean[] enabled = new boolean[WireFormat.SENSOR_COUNT];
+    private final int[] periodUs = new int[WireFormat.SENSOR_COUNT];
+    private final int[] maxReportLatencyUs = new int[WireFormat.SENSOR_COUNT];
+
+    public SensorRegistry() {
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            periodUs[id] = id == WireFormat.SENSOR_LOCATION ? DEFAULT_LOCATION_PERIOD_US : DEFAULT_PERIOD_US;
+        }
+        enabled[WireFormat.SENSOR_LOCATION] = true;
+        enabled[WireFormat.SENSOR_ACCELEROMETER] = true;
+        enabled[WireFormat.SENSOR_ORIENTATION] = true;
+        enabled[WireFormat.SENSOR_LIGHT] = true;
+    }
+
+    /**
+     * @return 对应的 Sensor.TYPE_*；位置和未知编号返回 0
+     */
+    @SuppressWarnings("deprecation")
+    public static int androidType(int sensorId) {
+        switch (sensorId) {
+            case WireFormat.SENSOR_ACCELEROMETER:
+                return Sensor.TYPE_ACCELEROMETER;
+            case WireFormat.SENSOR_ORIENTATION:
+                return Sensor.TYPE_ORIENTATION;
+            case WireFormat.SENSOR_LIGHT:
+                return Sensor.TYPE_LIGHT;
+            case WireFormat.SENSOR_GYROSCOPE:
+                return Sensor.TYPE_GYROSCOPE;
+            case WireFormat.SENSOR_MAGNETOMETER:
+                return Sensor.TYPE_MAGNETIC_FIELD;
+            case WireFormat.SENSOR_ROTATION_VECTOR:
+                return Sensor.TYPE_ROTATION_VECTOR;
+            case WireFormat.SENSOR_PRESSURE:
+                return Sensor.TYPE_PRESSURE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return Android 传感器类型对应的 WireFormat 编号，不关心的类型返回 0
+     */
+    @SuppressWarnings("deprecation")
+    public static int sensorIdForType(int type) {
+        switch (type) {
+            case Sensor.TYPE_ACCELEROMETER:
+                return WireFormat.SENSOR_ACCELEROMETER;
+            case Sensor.TYPE_ORIENTATION:
+                return WireFormat.SENSOR_ORIENTATION;
+            case Sensor.TYPE_LIGHT:
+                return WireFormat.SENSOR_LIGHT;
+            case Sensor.TYPE_GYROSCOPE:
+                return WireFormat.SENSOR_GYROSCOPE;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                return WireFormat.SENSOR_MAGNETOMETER;
+            case Sensor.TYPE_ROTATION_VECTOR:
+                return WireFormat.SENSOR_ROTATION_VECTOR;
+            case Sensor.TYPE_PRESSURE:
+                return WireFormat.SENSOR_PRESSURE;
+            default:
+                return 0;
+        }
+    }
+
+    public boolean isEnabled(int sensorId) {
+        return sensorId > 0 && sensorId < WireFormat.SENSOR_COUNT && enabled[sensorId];
+    }
+
+    public int getPeriodUs(int sensorId) {
+        return periodUs[sensorId];
+    }
+
+    public int getMaxReportLatencyUs(int sensorId) {
+        return maxReportLatencyUs[sensorId];
+    }
+
+    /**
+     * 合并接收端下发的设置，周期低于下限的按下限处理。
+     *
+     * @return 是否有任何变化，没有变化时不必重新注册监听
+     */
+    public boolean apply(SensorConfig config) {
+        boolean changed = false;
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if (!config.has(id)) {
+                continue;
+            }
+            boolean on = config.isEnabled(id);
+            int period = periodUs[id];
+            int latency = maxReportLatencyUs[id];
+            if (on) {
+                int min = id == WireFormat.SENSOR_LOCATION ? MIN_LOCATION_PERIOD_US : MIN_PERIOD_US;
+                period = Math.max(min, config.getPeriodUs(id));
+                latency = config.getMaxReportLatencyUs(id);
+            }
+            if (on != enabled[id] || period != periodUs[id] || latency != maxReportLatencyUs[id]) {
+                enabled[id] = on;
+                periodUs[id] = period;
+                maxReportLatencyUs[id] = latency;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return 当前设置，格式与 CONFIG 行相同，用于日志
+     */
+    @Override
+    public String toString() {
+        SensorConfig config = new SensorConfig();
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if (enabled[id]) {
+                config.set(id, periodUs[id], maxReportLatencyUs[id]);
+            } else {
+                config.disable(id);
+            }
+        }
+        return config.toLine();
+    }
+}
@@ -1,42 +1,33 @@
 package com.example.myapplication_test;
 
-import android.Manifest;
 import android.app.Service;
-import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.provider.Settings;
 import android.util.Log;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.app.ActivityCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.SensorConfig;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.util.HashMap;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-public class SensorSenderService extends Service implements SensorEventListener, LocationListener { // 实现 LocationListener
+/**
+ * 把 {@link CaptureEngine} 采集的传感器和位置数据发送给一个或多个接收端。
+ *
+ * 每个接收端对应一个 {@link SinkConnection}，用自己的游标读取共用的采集缓冲区，各自批量和重连，
+ * 互不影响。每次用 ip/port 启动服务就增加一个接收端（已存在时只重发状态），{@link #ACTION_REMOVE_SINK} 移除一个，
+ * stopService 移除全部。至少有一个接收端连上后订阅采集引擎，最后一个移除后退订。
+ * 每个接收端可以选择 TCP（可靠，落盘重发，用于存档）或 UDP（低延迟，丢包不重发，用于实时看板），见 {@link #EXTRA_TRANSPORT}。
+ */
+public class SensorSenderService extends Service implements SinkConnection.Host {
     private static final String TAG = "SensorSenderService";
 
     public static final String ACTION_CONNECTION_STATUS_UPDATE = "com.example.myapplication_test.CONNECTION_STATUS_UPDATE";
@@ -47,348 +38,283 @@ public class SensorSenderService extends Service implements SensorEventListener,
     public static final int STATUS_CONNECTING = 1;
     public static final int STATUS_CONNECTED = 2;
     public static final int STATUS_FAILED = 3;
+    // 连接建立后意外中断，采集继续，正在自动重连
+    public static final int STATUS_RECONNECTING = 4;
+    // 状态广播附带：本轮已重试的次数，以及尚未被接收端确认的帧数
+    public static final String EXTRA_RETRY_COUNT = "extra_retry_count";
+    public static final String EXTRA_BACKLOG_FRAMES = "extra_backlog_frames";
+    // 状态广播附带：状态所属的接收端 "ip:port"（服务自身的状态没有这一项），以及广播时仍在工作的接收端个数
+    public static final String EXTRA_SINK = "extra_sink";
+    public static final String EXTRA_ACTIVE_SINKS = "extra_active_sinks";
+
+    // 移除 ip/port 指定的接收端，其余接收端不受影响
+    public static final String ACTION_REMOVE_SINK = "com.example.myapplication_test.REMOVE_SINK";
+
+    // 可选：缓冲区溢出策略，取值为 SampleRingBuffer.OverflowPolicy 的名称
+    public static final String EXTRA_OVERFLOW_POLICY = "overflow_policy";
+    // 可选：是否关闭 Nagle 算法（默认 true）和 socket 发送缓冲区大小（字节，0 为系统默认）
+    public static final String EXTRA_TCP_NODELAY = "tcp_nodelay";
+    public static final String EXTRA_SEND_BUFFER_BYTES = "send_buffer_bytes";
+    // 可选：传输方式，TRANSPORT_TCP（默认）或 TRANSPORT_UDP
+    public static final String EXTRA_TRANSPORT = "transport";
+    public static final String TRANSPORT_TCP = "tcp";
+    public static final String TRANSPORT_UDP = "udp";
+    // 可选：上传方式，STREAM_MODE_RAW（默认）或 STREAM_MODE_FEATURES；特征模式的窗口长度、步长和频带数
+    public static final String EXTRA_STREAM_MODE = "stream_mode";
+    public static final String STREAM_MODE_RAW = "raw";
+    public static final String STREAM_MODE_FEATURES = "features";
+    public static final String EXTRA_FEATURE_WINDOW = "feature_window";
+    public static final String EXTRA_FEATURE_HOP = "feature_hop";
+    public static final String EXTRA_FEATURE_BANDS = "feature_bands";
+    // 可选：是否开启死区过滤（默认 false），相对阈值，以及 "Light=5 Pressure=0.1" 格式的各传感器绝对阈值
+    public static final String EXTRA_DEADBAND = "deadband";
+    public static final String EXTRA_DEADBAND_RELATIVE = "deadband_relative";
+    public static final String EXTRA_DEADBAND_ABSOLUTE = "deadband_absolute";
+
+    // 落盘队列的根目录，每个接收端一个子目录
+    private static final String SPOOL_DIR = "spool";
 
-    private SensorManager sensorManager;
-    private LocationManager locationManager; // 添加 LocationManager
-    private final Map<String, float[]> sensorDataMap = new HashMap<>();
     private Handler mainThreadHandler;
-    private ExecutorService networkExecutor;
-
-    private Socket socket;
-    private PrintWriter writer;
-    private String ip;
-    private int port;
-
-    private volatile int currentConnectionStatus = STATUS_DISCONNECTED;
-    private Runnable sendDataTask;
-    private Handler dataSendHandler;
-
-    // 用于存储位置数据的键名
-    private static final String JSON_KEY_LOCATION = "Location"; // 用于发送的JSON键名
-    private static final String JSON_KEY_ACCELEROMETER = "Accelerometer";
-    private static final String JSON_KEY_ORIENTATION = "Orientation";
-    private static final String JSON_KEY_LIGHT = "Light";
-
+    // 采集缓冲区由引擎持有，所有接收端共用，各自持有游标。只在没有接收端时按新的溢出策略替换
+    private CaptureEngine captureEngine;
+    // 发送线程按自己的节奏从缓冲区读取，不需要逐个采样的通知
+    private final CaptureEngine.Subscriber captureSubscriber = sensorId -> {
+    };
+    // 已向采集引擎订阅，只在主线程读写
+    private boolean capturing;
+
+    // 新接收端的连接参数，每个 SinkConnection 复制一份
+    private final SocketTransport.Settings transportSettings = new SocketTransport.Settings();
+    // 新接收端的特征模式参数，null 表示发送原始采样
+    @Nullable
+    private FeatureExtractor.Settings featureSettings;
+    // 新接收端的死区过滤参数，null 表示不过滤
+    @Nullable
+    private DeadbandFilter.Settings deadbandSettings;
+    private long deviceId;
+    // 以 "ip:port" 为键的接收端，只在主线程读写
+    private final Map<String, SinkConnection> sinks = new LinkedHashMap<>();
 
     @Override
     public void onCreate() {
         super.onCreate();
         mainThreadHandler = new Handler(Looper.getMainLooper());
-        networkExecutor = Executors.newSingleThreadExecutor();
-        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE); // 初始化 LocationManager
-        dataSendHandler = mainThreadHandler;
+        captureEngine = CaptureEngine.get(this);
+        deviceId = loadDeviceId();
+    }
+
+    private long loadDeviceId() {
+        String androidId = Settings.Secure.getString(getContentResolver(), Settings.Secure.ANDROID_ID);
+        if (androidId != null) {
+            try {
+                return Handshake.parseDeviceId(androidId);
+            } catch (NumberFormatException e) {
+                return androidId.hashCode();
+            }
+        }
+        return 0L;
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null) {
             Log.w(TAG, "Service restarted with null intent. Stopping service.");
-            broadcastConnectionStatus(STATUS_FAILED, "服务重启异常，请重新连接");
+            broadcastConnectionStatus(null, STATUS_FAILED, "服务重启异常，请重新连接", 0);
             stopSelf();
             return START_NOT_STICKY;
         }
 
-        String newIp = intent.getStringExtra("ip");
-        int newPort = intent.getIntExtra("port", 0);
-
-        if ((currentConnectionStatus == STATUS_CONNECTING || currentConnectionStatus == STATUS_CONNECTED) &&
-                (!newIp.equals(this.ip) || newPort != this.port)) {
-            Log.i(TAG, "New connection request to different IP/Port. Disconnecting previous.");
-            disconnectAndCleanup();
-        } else if (currentConnectionStatus == STATUS_CONNECTED && newIp.equals(this.ip) && newPort == this.port) {
-            Log.i(TAG, "Already connected to " + newIp + ":" + newPort + ". Ignoring request.");
-            broadcastConnectionStatus(STATUS_CONNECTED, "已连接到: " + this.ip + ":" + this.port);
+        String ip = intent.getStringExtra("ip");
+        int port = intent.getIntExtra("port", 0);
+        if (ip == null) {
+            Log.w(TAG, "Start command without a destination, ignoring.");
             return START_STICKY;
         }
+        String key = SinkConnection.key(ip, port);
 
-        this.ip = newIp;
-        this.port = newPort;
-
-        Log.i(TAG, "Attempting to connect to " + ip + ":" + port);
-        connectAndStartSending();
-
-        return START_STICKY;
-    }
-
-    private void connectAndStartSending() {
-        if (currentConnectionStatus == STATUS_CONNECTING || currentConnectionStatus == STATUS_CONNECTED) {
-            Log.w(TAG, "Connection attempt while already connecting or connected. Current status: " + currentConnectionStatus);
-            return;
+        if (ACTION_REMOVE_SINK.equals(intent.getAction())) {
+            removeSink(key);
+            return START_STICKY;
         }
 
-        broadcastConnectionStatus(STATUS_CONNECTING, "正在连接到 " + ip + ":" + port + "...");
-        currentConnectionStatus = STATUS_CONNECTING;
+        SinkConnection existing = sinks.get(key);
+        if (existing != null) {
+            Log.i(TAG, "Already sending to " + key + ". Ignoring request.");
+            int status = existing.getStatus();
+            broadcastConnectionStatus(existing, status, status == STATUS_RECONNECTING ? "正在重连到: " + key
+                    : status == STATUS_CONNECTING ? "正在连接到 " + key + "..." : "已连接到: " + key,
+                    existing.getReconnectAttempts());
+            return START_STICKY;
+        }
 
-        networkExecutor.submit(() -> {
+        String policyName = intent.getStringExtra(EXTRA_OVERFLOW_POLICY);
+        SampleRingBuffer.OverflowPolicy newPolicy = SampleRingBuffer.OverflowPolicy.DROP_OLDEST;
+        if (policyName != null) {
             try {
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ip, port), 10000);
-                writer = new PrintWriter(socket.getOutputStream(), true);
-
-                Log.i(TAG, "Successfully connected to " + ip + ":" + port);
-                currentConnectionStatus = STATUS_CONNECTED;
-                broadcastConnectionStatus(STATUS_CONNECTED, "已连接到: " + ip + ":" + port);
-                registerSensorsAndLocation(); // 修改：注册传感器和位置监听
-                startPeriodicDataSending();
-
-            } catch (IOException e) {
-                Log.e(TAG, "Connection failed: " + e.getMessage(), e);
-                currentConnectionStatus = STATUS_FAILED;
-                broadcastConnectionStatus(STATUS_FAILED, "连接失败: " + e.getMessage());
-            } catch (Exception e) {
-                Log.e(TAG, "An unexpected error occurred during connection: " + e.getMessage(), e);
-                currentConnectionStatus = STATUS_FAILED;
-                broadcastConnectionStatus(STATUS_FAILED, "连接时发生未知错误");
+                newPolicy = SampleRingBuffer.OverflowPolicy.valueOf(policyName);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown overflow policy: " + policyName + ", using DROP_OLDEST.");
             }
-        });
-    }
-
-    private void registerSensorsAndLocation() {
-        mainThreadHandler.post(() -> {
-            if (sensorManager == null) return;
-            // 只注册需要的传感器
-            Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            Sensor orientation = sensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION);
-            Sensor light = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-
-            if (accelerometer != null)
-                sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_UI);
-            if (orientation != null)
-                sensorManager.registerListener(this, orientation, SensorManager.SENSOR_DELAY_UI);
-            if (light != null)
-                sensorManager.registerListener(this, light, SensorManager.SENSOR_DELAY_UI);
-
-            Log.d(TAG, "Specified sensors registered.");
-
-            // 注册位置监听
-            if (locationManager != null) {
-                if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
-                        ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-                    try {
-                        Log.d(TAG, "Requesting location updates for service...");
-                        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 5000, 10, this);
-                        locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 5000, 10, this);
-                    } catch (SecurityException e) {
-                        Log.e(TAG, "SecurityException when requesting location updates in service: " + e.getMessage());
-                        // 将位置错误信息也放入 sensorDataMap，以便发送
-                        synchronized (sensorDataMap) {
-                            sensorDataMap.put(JSON_KEY_LOCATION, new float[]{-1f, -1f}); // 表示错误或不可用
-                        }
-                    }
-                } else {
-                    Log.w(TAG, "Location permission not granted for service.");
-                    synchronized (sensorDataMap) {
-                        sensorDataMap.put(JSON_KEY_LOCATION, new float[]{-2f, -2f}); // 表示权限问题
-                    }
-                }
+        }
+        if (newPolicy != captureEngine.getOverflowPolicy()) {
+            if (sinks.isEmpty()) {
+                captureEngine.setOverflowPolicy(newPolicy);
+            } else {
+                // 缓冲区由所有接收端共用，采集期间不替换
+                Log.w(TAG, "Overflow policy " + newPolicy + " ignored while " + sinks.size() + " sinks are active.");
             }
-        });
-    }
+        }
+        // 对之后新增的接收端生效
+        transportSettings.tcpNoDelay = intent.getBooleanExtra(EXTRA_TCP_NODELAY, true);
+        transportSettings.sendBufferBytes = Math.max(0, intent.getIntExtra(EXTRA_SEND_BUFFER_BYTES, 0));
+        featureSettings = parseFeatureSettings(intent);
+        try {
+            deadbandSettings = parseDeadbandSettings(intent);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad deadband settings: " + e.getMessage() + ", sending every sample.");
+            deadbandSettings = null;
+        }
 
-    private void startPeriodicDataSending() {
-        if (sendDataTask != null) {
-            dataSendHandler.removeCallbacks(sendDataTask);
+        boolean udp = TRANSPORT_UDP.equals(intent.getStringExtra(EXTRA_TRANSPORT));
+        Log.i(TAG, "Attempting to connect to " + key + (udp ? " over UDP" : ""));
+        // 路径中不能有 IPv6 地址的冒号
+        File spoolDir = new File(new File(getFilesDir(), SPOOL_DIR), ip.replace(':', '_') + "_" + port);
+        SinkConnection sink;
+        try {
+            sink = new SinkConnection(this, ip, port, spoolDir, transportSettings, udp, featureSettings,
+                    deadbandSettings);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad feature settings: " + e.getMessage() + ", sending raw samples.");
+            sink = new SinkConnection(this, ip, port, spoolDir, transportSettings, udp, null, deadbandSettings);
         }
+        sinks.put(key, sink);
+        sink.start();
 
-        sendDataTask = new Runnable() {
-            @Override
-            public void run() {
-                if (currentConnectionStatus != STATUS_CONNECTED || writer == null || socket == null || socket.isClosed()) {
-                    Log.w(TAG, "Not connected or writer/socket is invalid. Stopping data sending task.");
-                    if (currentConnectionStatus == STATUS_CONNECTED) {
-                        currentConnectionStatus = STATUS_FAILED;
-                        broadcastConnectionStatus(STATUS_FAILED, "连接意外断开，停止发送数据");
-                        disconnectAndCleanup();
-                    }
-                    return;
-                }
-
-                networkExecutor.submit(() -> {
-                    try {
-                        JSONObject json = new JSONObject();
-                        synchronized (sensorDataMap) {
-                            if (sensorDataMap.isEmpty() && !sensorDataMap.containsKey(JSON_KEY_LOCATION)) {
-                                Log.v(TAG, "Sensor data map is empty, skipping send.");
-                                return;
-                            }
-                            // 直接从 sensorDataMap 获取指定键的数据
-                            if (sensorDataMap.containsKey(JSON_KEY_LOCATION)) {
-                                json.put(JSON_KEY_LOCATION, new JSONArray(sensorDataMap.get(JSON_KEY_LOCATION)));
-                            }
-                            if (sensorDataMap.containsKey(JSON_KEY_ACCELEROMETER)) {
-                                json.put(JSON_KEY_ACCELEROMETER, new JSONArray(sensorDataMap.get(JSON_KEY_ACCELEROMETER)));
-                            }
-                            if (sensorDataMap.containsKey(JSON_KEY_ORIENTATION)) {
-                                json.put(JSON_KEY_ORIENTATION, new JSONArray(sensorDataMap.get(JSON_KEY_ORIENTATION)));
-                            }
-                            if (sensorDataMap.containsKey(JSON_KEY_LIGHT)) {
-                                // 光线传感器通常只有一个值
-                                float[] lightValue = sensorDataMap.get(JSON_KEY_LIGHT);
-                                if (lightValue != null && lightValue.length > 0) {
-                                    json.put(JSON_KEY_LIGHT, lightValue[0]);
-                                }
-                            }
-                        }
-                        if (json.length() > 0) {
-                            Log.v(TAG, "Sending JSON: " + json.toString());
-                            writer.println(json.toString());
-                            if (writer.checkError()) {
-                                throw new IOException("PrintWriter encountered an error during send.");
-                            }
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "Error creating JSON: " + e.getMessage(), e);
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error sending data: " + e.getMessage(), e);
-                        currentConnectionStatus = STATUS_FAILED;
-                        mainThreadHandler.post(() -> broadcastConnectionStatus(STATUS_FAILED, "数据发送失败: " + e.getMessage()));
-                        disconnectAndCleanup();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Unexpected error during data send: " + e.getMessage(), e);
-                        currentConnectionStatus = STATUS_FAILED;
-                        mainThreadHandler.post(() -> broadcastConnectionStatus(STATUS_FAILED, "发送数据时未知错误"));
-                        disconnectAndCleanup();
-                    }
-                });
-
-                if (currentConnectionStatus == STATUS_CONNECTED) {
-                    dataSendHandler.postDelayed(this, 1000);
-                }
-            }
-        };
-        dataSendHandler.post(sendDataTask);
-        Log.d(TAG, "Periodic data sending task started.");
+        return START_STICKY;
     }
 
-    private void stopPeriodicDataSending() {
-        if (sendDataTask != null) {
-            dataSendHandler.removeCallbacks(sendDataTask);
-            sendDataTask = null;
-            Log.d(TAG, "Periodic data sending task stopped.");
+    @Nullable
+    private static FeatureExtractor.Settings parseFeatureSettings(Intent intent) {
+        if (!STREAM_MODE_FEATURES.equals(intent.getStringExtra(EXTRA_STREAM_MODE))) {
+            return null;
         }
+        FeatureExtractor.Settings settings = new FeatureExtractor.Settings();
+        settings.windowSize = intent.getIntExtra(EXTRA_FEATURE_WINDOW, settings.windowSize);
+        settings.hop = intent.getIntExtra(EXTRA_FEATURE_HOP, settings.hop);
+        settings.bands = intent.getIntExtra(EXTRA_FEATURE_BANDS, settings.bands);
+        return settings;
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        String jsonKey;
-        switch (event.sensor.getType()) {
-            case Sensor.TYPE_ACCELEROMETER:
-                jsonKey = JSON_KEY_ACCELEROMETER;
-                break;
-            case Sensor.TYPE_ORIENTATION:
-                jsonKey = JSON_KEY_ORIENTATION;
-                break;
-            case Sensor.TYPE_LIGHT:
-                jsonKey = JSON_KEY_LIGHT;
-                break;
-            default:
-                return; // 不是我们关心的传感器
+    @Nullable
+    private static DeadbandFilter.Settings parseDeadbandSettings(Intent intent) {
+        if (!intent.getBooleanExtra(EXTRA_DEADBAND, false)) {
+            return null;
         }
-        synchronized (sensorDataMap) {
-            sensorDataMap.put(jsonKey, event.values.clone());
+        DeadbandFilter.Settings settings = new DeadbandFilter.Settings();
+        settings.relative = intent.getFloatExtra(EXTRA_DEADBAND_RELATIVE, settings.relative);
+        if (!(settings.relative >= 0)) {
+            throw new IllegalArgumentException("bad relative deadband: " + settings.relative);
         }
+        String absolute = intent.getStringExtra(EXTRA_DEADBAND_ABSOLUTE);
+        if (absolute != null) {
+            settings.parseAbsolute(absolute);
+        }
+        return settings;
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-    }
-
-    // --- LocationListener Callbacks ---
-    @Override
-    public void onLocationChanged(@NonNull Location location) {
-        Log.d(TAG, "Service onLocationChanged: " + location.getLatitude() + ", " + location.getLongitude());
-        float[] locationData = {(float) location.getLatitude(), (float) location.getLongitude()};
-        synchronized (sensorDataMap) {
-            sensorDataMap.put(JSON_KEY_LOCATION, locationData);
+    /**
+     * 停止并移除一个接收端，移除最后一个时停止采集。只在主线程调用。
+     */
+    private void removeSink(String key) {
+        SinkConnection sink = sinks.remove(key);
+        if (sink == null) {
+            return;
+        }
+        Log.i(TAG, "Removing sink " + key + ", " + sinks.size() + " remaining.");
+        boolean wasActive = sink.getStatus() != STATUS_FAILED;
+        sink.stop();
+        if (wasActive) {
+            broadcastConnectionStatus(sink, STATUS_DISCONNECTED, "连接已断开", 0);
+        }
+        if (sinks.isEmpty() && capturing) {
+            capturing = false;
+            captureEngine.unsubscribe(captureSubscriber);
         }
     }
 
+    // --- SinkConnection.Host，回调来自各接收端的发送线程 ---
     @Override
-    public void onStatusChanged(String provider, int status, Bundle extras) {
-        Log.d(TAG, "Service Location Status Changed: " + provider + " status: " + status);
+    public SampleSlots sampleSlots() {
+        return captureEngine.sampleSlots();
     }
 
     @Override
-    public void onProviderEnabled(@NonNull String provider) {
-        Log.d(TAG, "Service Location Provider Enabled: " + provider);
+    public long deviceId() {
+        return deviceId;
     }
 
     @Override
-    public void onProviderDisabled(@NonNull String provider) {
-        Log.d(TAG, "Service Location Provider Disabled: " + provider);
-        // 可以选择在这里更新 sensorDataMap 中 Location 的状态为不可用
-        // 例如，如果 GPS 和 Network 都禁用了
-        if (locationManager != null) {
-            boolean gpsEnabled = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
-            boolean networkEnabled = locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
-            if (!gpsEnabled && !networkEnabled) {
-                synchronized (sensorDataMap) {
-                    sensorDataMap.put(JSON_KEY_LOCATION, new float[]{-3f, -3f}); // 表示服务已禁用
-                }
+    public void onSinkConnected(SinkConnection sink) {
+        mainThreadHandler.post(() -> {
+            if (!capturing && sinks.get(sink.getKey()) == sink) {
+                capturing = true;
+                captureEngine.subscribe(captureSubscriber);
             }
-        }
+        });
     }
-    // --- End LocationListener Callbacks ---
-
-
-    private void disconnectAndCleanup() {
-        Log.i(TAG, "disconnectAndCleanup called. Current status: " + currentConnectionStatus);
-        stopPeriodicDataSending();
 
-        if (sensorManager != null) {
-            sensorManager.unregisterListener(this);
-            Log.d(TAG, "Sensors unregistered.");
-        }
-        if (locationManager != null) { // 注销位置监听
-            try {
-                locationManager.removeUpdates(this);
-                Log.d(TAG, "Service location updates removed.");
-            } catch (SecurityException e) {
-                Log.e(TAG, "Error removing service location updates", e);
-            }
-        }
+    @Override
+    public void onSensorConfig(SinkConnection sink, SensorConfig config) {
+        // 多个接收端的设置互相覆盖，以最后收到的为准
+        Log.i(TAG, "Sensor settings from " + sink.getKey() + ": " + config);
+        captureEngine.applyConfig(config);
+    }
 
-        networkExecutor.submit(() -> {
-            try {
-                if (writer != null) {
-                    writer.close();
-                    writer = null;
-                }
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                    socket = null;
-                }
-                Log.i(TAG, "Socket and writer closed.");
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing socket/writer: " + e.getMessage(), e);
+    @Override
+    public void onSinkStatus(SinkConnection sink, int statusCode, String message, int retryCount) {
+        mainThreadHandler.post(() -> {
+            // 已移除的接收端迟到的状态不再广播
+            if (sinks.get(sink.getKey()) == sink) {
+                broadcastConnectionStatus(sink, statusCode, message, retryCount);
             }
         });
+    }
 
-        if (currentConnectionStatus != STATUS_FAILED && currentConnectionStatus != STATUS_DISCONNECTED) {
-            if (currentConnectionStatus == STATUS_CONNECTED || currentConnectionStatus == STATUS_CONNECTING) {
-                broadcastConnectionStatus(STATUS_DISCONNECTED, "连接已断开");
+    @Override
+    public void onSinkFailed(SinkConnection sink) {
+        mainThreadHandler.post(() -> {
+            if (sinks.get(sink.getKey()) == sink) {
+                removeSink(sink.getKey());
             }
-        }
-        currentConnectionStatus = STATUS_DISCONNECTED;
+        });
     }
+    // --- End SinkConnection.Host ---
 
     @Override
     public void onDestroy() {
         Log.i(TAG, "SensorSenderService onDestroy.");
-        disconnectAndCleanup();
-        if (networkExecutor != null) {
-            networkExecutor.shutdown();
+        for (String key : new ArrayList<>(sinks.keySet())) {
+            removeSink(key);
         }
-        broadcastConnectionStatus(STATUS_DISCONNECTED, "服务已停止");
+        broadcastConnectionStatus(null, STATUS_DISCONNECTED, "服务已停止", 0);
         super.onDestroy();
     }
 
-    private void broadcastConnectionStatus(int statusCode, String message) {
-        Log.d(TAG, "Broadcasting status: " + statusCode + ", Message: " + message);
+    /**
+     * @param sink 状态所属的接收端，服务自身的状态传 null
+     */
+    private void broadcastConnectionStatus(@Nullable SinkConnection sink, int statusCode, String message, int retryCount) {
+        Log.d(TAG, "Broadcasting status: " + statusCode + (sink != null ? " for " + sink.getKey() : "")
+                + ", Message: " + message);
         Intent intent = new Intent(ACTION_CONNECTION_STATUS_UPDATE);
         intent.putExtra(EXTRA_STATUS_CODE, statusCode);
         intent.putExtra(EXTRA_STATUS_MESSAGE, message);
+        intent.putExtra(EXTRA_RETRY_COUNT, retryCount);
+        intent.putExtra(EXTRA_BACKLOG_FRAMES, sink != null ? sink.getBacklogFrames() : 0);
+        if (sink != null) {
+            intent.putExtra(EXTRA_SINK, sink.getKey());
+        }
+        intent.putExtra(EXTRA_ACTIVE_SINKS, sinks.size());
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
@@ -397,4 +323,4 @@ public class SensorSenderService extends Service implements SensorEventListener,
     public IBinder onBind(Intent intent) {
         return null;
     }
-}
\ No newline at end of file
+}
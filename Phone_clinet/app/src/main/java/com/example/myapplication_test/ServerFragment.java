@@ -5,13 +5,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.RadioGroup;
 import android.widget.TextView; // 导入 TextView
 import android.widget.Toast;
 
@@ -20,14 +23,21 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager; // 导入
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class ServerFragment extends Fragment {
     private static final String TAG = "ServerFragment"; // 日志标签
 
     private EditText et_ip, et_port;
+    // TCP 可靠发送，UDP 低延迟、丢包不重发
+    private RadioGroup rg_transport;
     private Button btn_send;
     private TextView tv_connection_status_message; // 新增的 TextView
 
     private BroadcastReceiver connectionStatusReceiver;
+    // 服务同时向多个接收端发送：以 "ip:port" 为键记录各接收端最近的状态，按钮针对输入框中的地址连接或断开
+    private final Map<String, Integer> sinkStatus = new HashMap<>();
     // private boolean isSending = false; // 这个标志可以被服务状态替代
 
     @Override
@@ -35,6 +45,7 @@ public class ServerFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_server, container, false);
         et_ip = view.findViewById(R.id.et_ip);
         et_port = view.findViewById(R.id.et_port);
+        rg_transport = view.findViewById(R.id.rg_transport);
         btn_send = view.findViewById(R.id.btn_send);
         tv_connection_status_message = view.findViewById(R.id.tv_connection_status_message); // 获取 TextView
 
@@ -42,6 +53,25 @@ public class ServerFragment extends Fragment {
         // 这里我们假设初始是断开状态
         updateUI(SensorSenderService.STATUS_DISCONNECTED, "点击连接开始发送数据");
 
+        // 改成另一个地址后可以再连接一个接收端
+        TextWatcher destinationWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                Integer status = sinkStatus.get(enteredSink());
+                updateButton(status != null ? status : SensorSenderService.STATUS_DISCONNECTED);
+            }
+        };
+        et_ip.addTextChangedListener(destinationWatcher);
+        et_port.addTextChangedListener(destinationWatcher);
+
         btn_send.setOnClickListener(v -> {
             // 判断当前是要连接还是断开，可以基于按钮的文本
             if (btn_send.getText().toString().equalsIgnoreCase(getString(R.string.server_fragment_button_connect))) {
@@ -75,12 +105,19 @@ public class ServerFragment extends Fragment {
                 Intent intent = new Intent(requireContext(), SensorSenderService.class);
                 intent.putExtra("ip", ip);
                 intent.putExtra("port", port);
+                intent.putExtra(SensorSenderService.EXTRA_TRANSPORT,
+                        rg_transport.getCheckedRadioButtonId() == R.id.rb_udp
+                                ? SensorSenderService.TRANSPORT_UDP : SensorSenderService.TRANSPORT_TCP);
                 requireContext().startService(intent);
                 // UI 会在收到服务的 STATUS_CONNECTING 广播后更新
                 // btn_send.setText(R.string.server_fragment_button_connecting); // 可以立即给一个反馈
                 // setInputsEnabled(false);
-            } else { // 如果按钮文本不是 "连接"，则认为是请求断开
-                requireContext().stopService(new Intent(requireContext(), SensorSenderService.class));
+            } else { // 如果按钮文本不是 "连接"，则认为是请求断开输入框中的接收端
+                Intent intent = new Intent(requireContext(), SensorSenderService.class);
+                intent.setAction(SensorSenderService.ACTION_REMOVE_SINK);
+                intent.putExtra("ip", et_ip.getText().toString().trim());
+                intent.putExtra("port", parsePort());
+                requireContext().startService(intent);
                 // UI 会在收到服务的 STATUS_DISCONNECTED 广播后更新
             }
         });
@@ -96,53 +133,106 @@ public class ServerFragment extends Fragment {
                 if (intent != null && SensorSenderService.ACTION_CONNECTION_STATUS_UPDATE.equals(intent.getAction())) {
                     int statusCode = intent.getIntExtra(SensorSenderService.EXTRA_STATUS_CODE, -1);
                     String message = intent.getStringExtra(SensorSenderService.EXTRA_STATUS_MESSAGE);
-                    Log.d(TAG, "Received status update: " + statusCode + ", Message: " + message);
-                    updateUI(statusCode, message);
+                    if (statusCode == SensorSenderService.STATUS_RECONNECTING) {
+                        // 重连期间附带显示未确认的积压帧数
+                        int backlog = intent.getIntExtra(SensorSenderService.EXTRA_BACKLOG_FRAMES, 0);
+                        message = (message != null ? message : getDefaultMessageForStatus(statusCode))
+                                + "（积压 " + backlog + " 帧）";
+                    }
+                    String sink = intent.getStringExtra(SensorSenderService.EXTRA_SINK);
+                    int activeSinks = intent.getIntExtra(SensorSenderService.EXTRA_ACTIVE_SINKS, 0);
+                    Log.d(TAG, "Received status update: " + statusCode + " for " + sink + ", Message: " + message);
+                    if (sink == null) {
+                        // 服务自身的状态，例如服务已停止
+                        sinkStatus.clear();
+                        updateUI(statusCode, message);
+                        return;
+                    }
+                    if (statusCode == SensorSenderService.STATUS_DISCONNECTED
+                            || statusCode == SensorSenderService.STATUS_FAILED) {
+                        sinkStatus.remove(sink);
+                    } else {
+                        sinkStatus.put(sink, statusCode);
+                    }
+                    if (activeSinks > 1) {
+                        message = sink + "：" + (message != null ? message : getDefaultMessageForStatus(statusCode))
+                                + "（共 " + activeSinks + " 个接收端）";
+                    }
+                    if (sink.equals(enteredSink())) {
+                        updateUI(statusCode, message);
+                    } else if (tv_connection_status_message != null) {
+                        // 其他接收端的状态只显示，不改变按钮
+                        tv_connection_status_message.setText(message);
+                    }
                 }
             }
         };
     }
 
+    /**
+     * @return 输入框中的 "ip:port"，与服务广播的 EXTRA_SINK 格式相同
+     */
+    private String enteredSink() {
+        return SinkConnection.key(et_ip.getText().toString().trim(), parsePort());
+    }
+
+    private int parsePort() {
+        try {
+            return Integer.parseInt(et_port.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private void updateUI(int statusCode, @Nullable String message) {
         if (isAdded() && tv_connection_status_message != null && btn_send != null) { // 确保Fragment已添加到Activity且View存在
             tv_connection_status_message.setText(message != null ? message : getDefaultMessageForStatus(statusCode));
-
-            switch (statusCode) {
-                case SensorSenderService.STATUS_DISCONNECTED:
-                case SensorSenderService.STATUS_FAILED:
-                    btn_send.setText(R.string.server_fragment_button_connect);
-                    setInputsEnabled(true);
-                    if (statusCode == SensorSenderService.STATUS_FAILED && message != null) {
-                        // 可以用Toast显示更详细的错误，或者tv_connection_status_message已经足够
-                        // Toast.makeText(getContext(), "连接失败: " + message, Toast.LENGTH_LONG).show();
-                    }
-                    break;
-                case SensorSenderService.STATUS_CONNECTING:
-                    btn_send.setText(R.string.server_fragment_button_connecting);
-                    setInputsEnabled(false); // 连接过程中不允许修改IP和端口
-                    break;
-                case SensorSenderService.STATUS_CONNECTED:
-                    btn_send.setText(R.string.server_fragment_button_disconnect);
-                    setInputsEnabled(false); // 连接成功后通常也不允许修改IP和端口，除非断开
-                    break;
-                default:
-                    // 未知状态，可以恢复到初始
-                    btn_send.setText(R.string.server_fragment_button_connect);
-                    setInputsEnabled(true);
-                    tv_connection_status_message.setText("未知连接状态");
-                    break;
-            }
+            updateButton(statusCode);
         } else {
             Log.w(TAG, "Fragment not added or views are null, skipping UI update.");
         }
     }
 
+    /**
+     * 按输入框中接收端的状态设置按钮。
+     */
+    private void updateButton(int statusCode) {
+        if (btn_send == null) {
+            return;
+        }
+        switch (statusCode) {
+            case SensorSenderService.STATUS_DISCONNECTED:
+            case SensorSenderService.STATUS_FAILED:
+                btn_send.setText(R.string.server_fragment_button_connect);
+                setInputsEnabled(true);
+                // 连接失败时可以用Toast显示更详细的错误，或者tv_connection_status_message已经足够
+                break;
+            case SensorSenderService.STATUS_CONNECTING:
+                btn_send.setText(R.string.server_fragment_button_connecting);
+                setInputsEnabled(false); // 连接过程中不允许修改IP和端口
+                break;
+            case SensorSenderService.STATUS_CONNECTED:
+            case SensorSenderService.STATUS_RECONNECTING: // 重连期间仍在采集，允许用户主动断开
+                btn_send.setText(R.string.server_fragment_button_disconnect);
+                // 连接后仍可修改IP和端口：换成新地址时按钮变回"连接"，用来再添加一个接收端
+                setInputsEnabled(true);
+                break;
+            default:
+                // 未知状态，可以恢复到初始
+                btn_send.setText(R.string.server_fragment_button_connect);
+                setInputsEnabled(true);
+                tv_connection_status_message.setText("未知连接状态");
+                break;
+        }
+    }
+
     private String getDefaultMessageForStatus(int statusCode) {
         switch (statusCode) {
             case SensorSenderService.STATUS_DISCONNECTED: return "已断开连接";
             case SensorSenderService.STATUS_FAILED: return "连接失败";
             case SensorSenderService.STATUS_CONNECTING: return "正在连接...";
             case SensorSenderService.STATUS_CONNECTED: return "已连接";
+            case SensorSenderService.STATUS_RECONNECTING: return "连接中断，正在重连...";
             default: return "未知状态";
         }
     }
@@ -152,6 +242,9 @@ public class ServerFragment extends Fragment {
         if (et_ip != null && et_port != null && btn_send != null) {
             et_ip.setEnabled(enabled);
             et_port.setEnabled(enabled);
+            for (int i = 0; i < rg_transport.getChildCount(); i++) {
+                rg_transport.getChildAt(i).setEnabled(enabled);
+            }
             // 按钮的启用/禁用逻辑可以更细致，例如连接中时禁用按钮
             // btn_send.setEnabled(enabled); // 在updateUI中具体处理按钮文本和状态
         }
@@ -0,0 +1,983 @@
+package com.example.myapplication_test;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.SensorConfig;
+import com.example.sensorprotocol.WireFormat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 到一个接收端（sink）的连接。SensorSenderService 可以同时向多个接收端发送同一份采集数据，每个 sink 有自己的
+ * 发送线程、SocketTransport、落盘队列（帧序号和 ACK 各自独立）、批量策略、背压状态和重连退避。
+ *
+ * 所有 sink 读取同一个 {@link SampleSlots}，各自持有一个 {@link SampleSlots.Cursor}：采集线程从不等待任何 sink，
+ * 慢的 sink 只会让自己的批次变大、积压变多，最后丢掉自己来不及取走的采样，不会拖慢其他 sink。
+ *
+ * 设为特征模式且接收端支持时，振动类传感器经本 sink 自己的 {@link FeatureExtractor} 只上传窗口特征，其余传感器照常发送。
+ * 开启死区过滤且接收端支持时，原始采样经本 sink 自己的 {@link DeadbandFilter} 过滤，按接收端要求的间隔补发心跳关键帧。
+ *
+ * UDP 模式用于实时看板：不握手、不落盘、不确认，待发采样每 20ms 或攒够一个数据报就切成
+ * 若干个数据报经 {@link DatagramTransport} 发出，丢了就丢了，格式见 {@link WireFormat}。只发原始采样，忽略特征模式和死区过滤。
+ */
+class SinkConnection {
+    private static final String TAG = "SinkConnection";
+
+    /** 由 SensorSenderService 实现，回调在 sink 的发送线程中执行 */
+    interface Host {
+        /** 共用的采集缓冲区，有 sink 存在期间不会被替换 */
+        SampleSlots sampleSlots();
+
+        long deviceId();
+
+        /** 首次连接成功，此时开始采集 */
+        void onSinkConnected(SinkConnection sink);
+
+        /** 接收端下发了采集设置 */
+        void onSensorConfig(SinkConnection sink, SensorConfig config);
+
+        /** 连接状态变化，statusCode 为 SensorSenderService.STATUS_* */
+        void onSinkStatus(SinkConnection sink, int statusCode, String message, int retryCount);
+
+        /** 首次连接失败或发送时出现无法恢复的错误，sink 已停止 */
+        void onSinkFailed(SinkConnection sink);
+    }
+
+    // 二进制模式的批量发送参数：链路空闲时 20ms 内送达，拥塞时最多攒 1 秒
+    private static final int BATCH_MIN_SAMPLES = 64;
+    private static final long BATCH_MIN_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long BATCH_MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int BATCH_BYTE_BUDGET = 16 * 1024;
+    // JSON 模式保持旧接收端习惯的每秒一行
+    private static final long JSON_SEND_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // 发送队列的缓冲区个数（JSON 模式使用）和队列深度，队列满时暂停编码，采样留在环形缓冲区中
+    private static final int TRANSPORT_BUFFER_COUNT = 4;
+    private static final int TRANSPORT_QUEUE_DEPTH = 16;
+    // 落盘队列：1MB 一段，最多 32 段；断线时按约 16KB/s 计，可覆盖半小时左右的中断
+    private static final int SPOOL_SEGMENT_BYTES = 1024 * 1024;
+    private static final int SPOOL_MAX_SEGMENTS = 32;
+    // 存储不可用时退回内存中的队列
+    private static final int SPOOL_MEMORY_SEGMENTS = 8;
+    private static final long RECONNECT_BASE_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    // 接收端收集指标时的上报间隔
+    private static final long METRICS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // 死区过滤的心跳间隔，握手后改用接收端要求的值
+    private static final long DEFAULT_HEARTBEAT_MILLIS = 5000;
+    // UDP 数据报序号起点的取值范围，留出足够的余量不会溢出
+    private static final long DATAGRAM_SEQUENCE_ORIGIN_BOUND = 1L << 62;
+
+    // JSON 键名与 WireFormat.sensorName() 一致，光线传感器只发送一个值
+    private static final String JSON_KEY_LIGHT = "Light";
+    // 自上次发送以来的全部采样：{"Accelerometer": {"t": [ns...], "v": [x, y, z, x, y, z...]}, ...}
+    private static final String JSON_KEY_SAMPLES = "Samples";
+
+    private final Host host;
+    private final String ip;
+    private final int port;
+    private final File spoolDir;
+    private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+
+    // 以下字段只在 networkExecutor 线程中使用
+    private final SocketTransport transport;
+    // UDP 模式的发送通道，TCP 模式为 null
+    private final DatagramTransport datagram;
+    private long datagramSequence;
+    private final StringBuilder lineBuffer = new StringBuilder();
+    private final FrameEncoder frameEncoder = new FrameEncoder();
+    private final int maxFrameBytes;
+    private final float[] latestValues = new float[WireFormat.MAX_CHANNELS];
+    // 本 sink 在共用缓冲区上的读取位置，加入时从当前写入位置开始
+    private final SampleSlots.Cursor cursor;
+    private boolean serverAcks;
+    // 接收端能解压缩帧时编码带 FLAG_DELTA
+    private int frameFlags;
+    // 特征模式的提取器，原始模式为 null；接收端不支持特征帧时不使用
+    private final FeatureExtractor featureExtractor;
+    private boolean serverFeatures;
+    // 死区过滤器，未开启时为 null；接收端不能保持数值（握手中没有 hold）时不使用
+    private final DeadbandFilter deadband;
+    private boolean serverHold;
+    // 接收端保存的传感器（握手中的 sensors），其余的不发送
+    private int serverSensors = Handshake.ALL_SENSORS;
+    // 按上面的握手结果在每帧编码前填写，复用同一个对象
+    private final SampleSlots.EncodeOptions encodeOptions = new SampleSlots.EncodeOptions();
+    private final ReconnectBackoff reconnectBackoff =
+            new ReconnectBackoff(RECONNECT_BASE_MILLIS, RECONNECT_MAX_MILLIS, new Random());
+    private long nextReconnectNanos;
+    // 最近一次交给内核的耗时
+    private long lastWriteNanos;
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    // 本连接的指标上报：分布按本连接的上报间隔统计
+    private final MetricsRegistry.Reporter metricsReporter = metrics.newReporter();
+    private boolean serverMetrics;
+    private long metricsReports;
+    private long nextMetricsNanos;
+    // 已计入 MetricsRegistry 的丢弃采样数
+    private long reportedDropped;
+    // 接收端在握手中声明 trace 时追踪抽样采样的延迟。被追踪的帧交给内核后发追踪帧，tracedSequence 为 -1 表示没有待发的
+    private long tracedSequence = -1;
+    private int tracedSensorId;
+    private long tracedCaptureNanos;
+    private long tracedEnqueueNanos;
+    private long tracedEncodeNanos;
+
+    // 握手成功后改用二进制帧，否则沿用换行分隔的 JSON
+    private volatile boolean binaryMode;
+    // 二进制帧先写进落盘队列再发送，收到 ACK 才释放。会话编号和帧序号由队列持久保存，跨重连、跨进程重启不变，
+    // 接收端据此去重。只在 networkExecutor 线程中使用（广播时读取 pendingFrames）
+    private volatile FrameSpool spool;
+    private volatile int reconnectAttempts;
+    private volatile int status = SensorSenderService.STATUS_DISCONNECTED;
+
+    // 常驻 networkExecutor 线程的发送循环，连接期间只提交一次
+    private final SenderLoop senderLoop = new SenderLoop();
+    private final BatchScheduler binaryScheduler;
+    private final BatchScheduler jsonScheduler = new BatchScheduler(Integer.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, JSON_SEND_INTERVAL_NANOS, JSON_SEND_INTERVAL_NANOS);
+    // UDP 模式固定最小延迟，攒够一个数据报时提前发送
+    private final BatchScheduler datagramScheduler;
+
+    /**
+     * @param spoolDir          本 sink 的落盘队列目录
+     * @param transportSettings 连接参数，复制一份后使用
+     * @param udp               是否用 UDP 数据报发送，此时不使用 spoolDir、featureSettings 和 deadbandSettings
+     * @param featureSettings   特征模式的参数，null 表示发送原始采样
+     * @param deadbandSettings  死区过滤的参数，null 表示不过滤
+     * @throws IllegalArgumentException 特征模式或死区过滤的参数不合法
+     */
+    SinkConnection(Host host, String ip, int port, File spoolDir, SocketTransport.Settings transportSettings,
+                   boolean udp, @Nullable FeatureExtractor.Settings featureSettings,
+                   @Nullable DeadbandFilter.Settings deadbandSettings) {
+        this.host = host;
+        this.ip = ip;
+        this.port = port;
+        this.spoolDir = spoolDir;
+        if (udp && (featureSettings != null || deadbandSettings != null)) {
+            Log.w(TAG, "UDP sink " + key(ip, port) + " sends raw samples only.");
+            featureSettings = null;
+            deadbandSettings = null;
+        }
+        // 参数不合法时在打开游标之前抛出
+        featureExtractor = featureSettings != null ? new FeatureExtractor(featureSettings) : null;
+        deadband = deadbandSettings != null ? new DeadbandFilter(deadbandSettings, DEFAULT_HEARTBEAT_MILLIS) : null;
+        datagram = udp ? new DatagramTransport(transportSettings.sendBufferBytes) : null;
+        SampleSlots slots = host.sampleSlots();
+        cursor = slots.openCursor();
+        maxFrameBytes = featureExtractor != null ? slots.maxFrameSize(featureExtractor) : slots.maxFrameSize();
+        // 攒批上限为环形缓冲区的一半，避免等待期间溢出
+        binaryScheduler = new BatchScheduler(BATCH_MIN_SAMPLES, slots.getCapacity() / 2,
+                BATCH_BYTE_BUDGET, BATCH_MIN_LATENCY_NANOS, BATCH_MAX_LATENCY_NANOS);
+        datagramScheduler = new BatchScheduler(slots.getCapacity() / 2, slots.getCapacity() / 2,
+                WireFormat.MAX_DATAGRAM_SIZE, BATCH_MIN_LATENCY_NANOS, BATCH_MIN_LATENCY_NANOS);
+        SocketTransport.Settings settings = new SocketTransport.Settings();
+        settings.tcpNoDelay = transportSettings.tcpNoDelay;
+        settings.sendBufferBytes = transportSettings.sendBufferBytes;
+        settings.connectTimeoutMs = transportSettings.connectTimeoutMs;
+        // 每个发送缓冲区足够容纳所有环形缓冲区同时写满时的一帧
+        settings.bufferBytes = Math.max(transportSettings.bufferBytes, maxFrameBytes);
+        settings.bufferCount = TRANSPORT_BUFFER_COUNT;
+        settings.queueDepth = TRANSPORT_QUEUE_DEPTH;
+        transport = new SocketTransport(settings);
+    }
+
+    /**
+     * @return "ip:port"，在 SensorSenderService 中唯一标识一个 sink
+     */
+    static String key(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    String getKey() {
+        return key(ip, port);
+    }
+
+    String getIp() {
+        return ip;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    /**
+     * @return 尚未被接收端确认的帧数（近似值，可在任意线程调用）
+     */
+    int getBacklogFrames() {
+        FrameSpool currentSpool = spool;
+        return currentSpool != null ? currentSpool.pendingFrames() : 0;
+    }
+
+    boolean isBinaryMode() {
+        return binaryMode;
+    }
+
+    boolean isUdp() {
+        return datagram != null;
+    }
+
+    /**
+     * 打开落盘队列并连接，成功后开始发送。
+     */
+    void start() {
+        status = SensorSenderService.STATUS_CONNECTING;
+        host.onSinkStatus(this, SensorSenderService.STATUS_CONNECTING, "正在连接到 " + getKey() + "...", 0);
+        // 先于连接执行：打开上次留下的落盘队列，其中未确认的帧会在连接后补发。UDP 不重发，不需要落盘
+        if (datagram == null) {
+            networkExecutor.execute(this::openSpool);
+        }
+        networkExecutor.execute(() -> {
+            try {
+                reconnectAttempts = 0;
+                openConnection();
+
+                Log.i(TAG, "Successfully connected to " + getKey()
+                        + (datagram != null ? " (UDP)" : binaryMode ? " (binary)" : " (JSON)"));
+                status = SensorSenderService.STATUS_CONNECTED;
+                host.onSinkStatus(this, SensorSenderService.STATUS_CONNECTED, "已连接到: " + getKey(), 0);
+                host.onSinkConnected(this);
+                senderLoop.running = true;
+                networkExecutor.execute(senderLoop);
+            } catch (IOException e) {
+                Log.e(TAG, "Connection to " + getKey() + " failed: " + e.getMessage(), e);
+                fail("连接失败: " + e.getMessage());
+            } catch (Exception e) {
+                Log.e(TAG, "An unexpected error occurred during connection: " + e.getMessage(), e);
+                fail("连接时发生未知错误");
+            }
+        });
+    }
+
+    private void fail(String message) {
+        status = SensorSenderService.STATUS_FAILED;
+        host.onSinkStatus(this, SensorSenderService.STATUS_FAILED, message, 0);
+        host.onSinkFailed(this);
+    }
+
+    /**
+     * 停止发送并关闭连接和落盘队列，未确认的帧留在队列中，下次连接同一接收端时补发。可在任意线程调用。
+     */
+    void stop() {
+        senderLoop.stop();
+        status = SensorSenderService.STATUS_DISCONNECTED;
+        // 在发送循环退出之后执行
+        networkExecutor.execute(() -> {
+            try {
+                Log.i(TAG, "Closing transport to " + getKey() + ", " + transport.getBytesWritten() + " bytes written, "
+                        + transport.getWriteStalls() + " write stalls"
+                        + (deadband != null ? ", " + deadband.getSuppressedCount() + " samples within deadband." : "."));
+                transport.close();
+                if (datagram != null) {
+                    Log.i(TAG, "Closing UDP transport to " + getKey() + ", " + datagram.getDatagramsSent()
+                            + " datagrams sent, " + datagram.getDatagramsDropped() + " dropped.");
+                    datagram.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing transport: " + e.getMessage(), e);
+            }
+            cursor.owner().closeCursor(cursor);
+            try {
+                if (spool != null) {
+                    // 记录确认游标
+                    spool.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing spool: " + e.getMessage(), e);
+            }
+        });
+        networkExecutor.shutdown();
+    }
+
+    private void openSpool() {
+        try {
+            spool = new FrameSpool(spoolDir, SPOOL_SEGMENT_BYTES, SPOOL_MAX_SEGMENTS, TRANSPORT_QUEUE_DEPTH + 1);
+            Log.i(TAG, "Spool for " + getKey() + " opened with " + spool.pendingFrames() + " unacknowledged frames.");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open spool, buffering in memory: " + e.getMessage(), e);
+            try {
+                spool = new FrameSpool(null, SPOOL_SEGMENT_BYTES, SPOOL_MEMORY_SEGMENTS, TRANSPORT_QUEUE_DEPTH + 1);
+            } catch (IOException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+        }
+    }
+
+    /**
+     * 建立连接并协商协议，之后从最旧的未确认帧开始发送。首次连接和重连共用。
+     */
+    private void openConnection() throws IOException {
+        if (datagram != null) {
+            openDatagram();
+            return;
+        }
+        transport.connect(new InetSocketAddress(ip, port));
+        binaryMode = negotiateBinaryMode();
+        if (!binaryMode && spool.pendingFrames() > 0) {
+            // 留在队列里，等连上支持二进制帧的接收端再补发
+            Log.w(TAG, "Receiver does not accept binary frames, keeping " + spool.pendingFrames() + " spooled frames.");
+        }
+        spool.rewind();
+    }
+
+    /**
+     * UDP 模式没有握手：接收端总能解压缩帧，其余功能都不使用。序号从随机值起步，接收端据此区分重新开始发送。
+     */
+    private void openDatagram() throws IOException {
+        datagram.connect(new InetSocketAddress(ip, port));
+        binaryMode = true;
+        frameFlags = WireFormat.FLAG_DELTA;
+        serverAcks = false;
+        serverMetrics = false;
+        serverFeatures = false;
+        serverHold = false;
+        serverSensors = Handshake.ALL_SENSORS;
+        setTracing(true);
+        datagramSequence = ThreadLocalRandom.current().nextLong(DATAGRAM_SEQUENCE_ORIGIN_BOUND);
+    }
+
+    /**
+     * 发送 Hello 并等待接收端回复。旧接收端不会回复，超时后使用 JSON 模式。
+     */
+    private boolean negotiateBinaryMode() throws IOException {
+        byte[] hello = (Handshake.helloLine(host.deviceId(), spool.getSessionId()) + "\n").getBytes(StandardCharsets.UTF_8);
+        transport.enqueue(hello, 0, hello.length);
+        if (!transport.flushFully(Handshake.REPLY_TIMEOUT_MS)) {
+            throw new IOException("Timed out sending handshake");
+        }
+        lineBuffer.setLength(0);
+        if (!transport.readLine(lineBuffer, Handshake.REPLY_TIMEOUT_MS)) {
+            Log.d(TAG, "No handshake reply, falling back to JSON.");
+            serverAcks = false;
+            serverMetrics = false;
+            serverFeatures = false;
+            serverHold = false;
+            serverSensors = Handshake.ALL_SENSORS;
+            setTracing(false);
+            frameFlags = 0;
+            return false;
+        }
+        String reply = lineBuffer.toString();
+        serverAcks = Handshake.acceptsAcks(reply);
+        frameFlags = Handshake.acceptsDelta(reply) ? WireFormat.FLAG_DELTA : 0;
+        serverMetrics = Handshake.acceptsMetrics(reply);
+        serverFeatures = Handshake.acceptsFeatures(reply);
+        setTracing(Handshake.acceptsTrace(reply));
+        serverSensors = Handshake.parseSensorMask(reply);
+        logWithheldSensors();
+        if (featureExtractor != null && !serverFeatures) {
+            Log.w(TAG, "Receiver " + getKey() + " does not accept feature frames, sending raw samples.");
+        }
+        long heartbeatMillis = Handshake.parseHeartbeatMillis(reply);
+        serverHold = heartbeatMillis > 0;
+        if (deadband != null) {
+            if (serverHold) {
+                deadband.setHeartbeatMillis(heartbeatMillis);
+                // 新连接上接收端的保持状态可能已经失效
+                deadband.forceKeyframes();
+            } else {
+                Log.w(TAG, "Receiver " + getKey() + " does not hold values, sending every sample.");
+            }
+        }
+        nextMetricsNanos = System.nanoTime() + METRICS_INTERVAL_NANOS;
+        return Handshake.isAccept(reply);
+    }
+
+    private void setTracing(boolean enabled) {
+        cursor.setTracing(enabled);
+        tracedSequence = -1;
+    }
+
+    /**
+     * 常驻网络线程的发送循环：由 BatchScheduler 决定何时把缓冲区中的采样发出去。
+     * 二进制帧直接编码进 FrameSpool 的映射区，再把映射区原样交给发送队列，直到接收端 ACK 才释放，稳态发送不分配对象。
+     * 发送队列写不出去时不阻塞，而是暂停编码、等待 socket 可写，并让 BatchScheduler 攒更大的批次。
+     *
+     * 连接意外中断时不停止采集：循环转入重连，按带抖动的指数退避重试；二进制模式下继续把采样编码进积压队列，
+     * 重连成功后从最后确认的序号之后重发。
+     */
+    private class SenderLoop implements Runnable {
+        volatile boolean running;
+        private volatile Thread thread;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            currentScheduler().reset(System.nanoTime());
+            while (running) {
+                try {
+                    if (isConnected()) {
+                        sendStep();
+                    } else {
+                        reconnectStep();
+                    }
+                } catch (JSONException e) {
+                    Log.e(TAG, "Error creating JSON: " + e.getMessage(), e);
+                } catch (IOException e) {
+                    if (running) {
+                        onConnectionLost(e);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Unexpected error during data send: " + e.getMessage(), e);
+                    running = false;
+                    fail("发送数据时未知错误");
+                    break;
+                }
+            }
+            thread = null;
+        }
+
+        void stop() {
+            running = false;
+            transport.wakeup();
+            if (datagram != null) {
+                datagram.wakeup();
+            }
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    private BatchScheduler currentScheduler() {
+        if (datagram != null) {
+            return datagramScheduler;
+        }
+        return binaryMode ? binaryScheduler : jsonScheduler;
+    }
+
+    private boolean isConnected() {
+        return datagram != null ? datagram.isConnected() : transport.isConnected();
+    }
+
+    /**
+     * 已连接时的一轮发送。
+     */
+    private void sendStep() throws IOException, JSONException {
+        if (datagram != null) {
+            sendDatagramStep();
+            return;
+        }
+        BatchScheduler scheduler = currentScheduler();
+        // 先写出上次积压的数据，读走 ACK 并发现对端关闭，再补发积压队列中还没发出的帧
+        transport.flush();
+        readReplies();
+        sendSpool();
+        queueTrace();
+        SampleSlots slots = cursor.owner();
+        long now = System.nanoTime();
+        if (serverMetrics && now - nextMetricsNanos >= 0 && queueMetrics()) {
+            nextMetricsNanos = now + METRICS_INTERVAL_NANOS;
+        }
+        int pendingSamples = slots.pendingSamples(cursor);
+        // 没有新采样时也要按时发心跳关键帧
+        boolean heartbeat = binaryMode && serverHold && deadband != null
+                && deadband.anyHeartbeatDue(SystemClock.elapsedRealtimeNanos());
+        if (!transport.isBackpressured()
+                && (heartbeat || scheduler.shouldFlush(pendingSamples, slots.pendingBytes(cursor), now))) {
+            int bytes = sendPendingSamples();
+            long after = System.nanoTime();
+            if (transport.getQueuedBytes() > 0) {
+                scheduler.onBackpressure(after);
+            } else {
+                scheduler.onFlushed(pendingSamples, bytes, lastWriteNanos, after);
+                queueTrace();
+            }
+            return;
+        }
+        // 数量和字节阈值靠轮询发现，轮询间隔不超过最小延迟；有积压时 socket 可写会提前返回
+        long waitNanos = pendingSamples > 0 ? scheduler.nanosUntilDeadline(now) : scheduler.getLatencyNanos();
+        transport.await(TimeUnit.NANOSECONDS.toMillis(Math.min(waitNanos, BATCH_MIN_LATENCY_NANOS)));
+    }
+
+    /**
+     * 断线时的一轮：到期就重连，否则把采样编码进积压队列后等待。
+     */
+    private void reconnectStep() {
+        long now = System.nanoTime();
+        if (binaryMode && datagram == null) {
+            // 断线视同最严重的拥塞：按最大批量和最大延迟编码，环形缓冲区不会因为等待重连而溢出
+            SampleSlots slots = cursor.owner();
+            if (binaryScheduler.shouldFlush(slots.pendingSamples(cursor), slots.pendingBytes(cursor), now)) {
+                encodeToSpool();
+                binaryScheduler.onBackpressure(now);
+            }
+        }
+        if (now - nextReconnectNanos >= 0) {
+            attemptReconnect();
+            return;
+        }
+        LockSupport.parkNanos(this, Math.min(nextReconnectNanos - now, BATCH_MIN_LATENCY_NANOS));
+    }
+
+    private void attemptReconnect() {
+        int attempt = reconnectAttempts + 1;
+        reconnectAttempts = attempt;
+        try {
+            openConnection();
+        } catch (IOException e) {
+            closeTransportQuietly();
+            long delayMillis = reconnectBackoff.delayMillis(attempt);
+            nextReconnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            Log.w(TAG, "Reconnect attempt " + attempt + " to " + getKey() + " failed: " + e.getMessage()
+                    + ", retrying in " + delayMillis + " ms.");
+            host.onSinkStatus(this, SensorSenderService.STATUS_RECONNECTING,
+                    "第 " + attempt + " 次重连失败，" + (delayMillis + 999) / 1000 + " 秒后重试", attempt);
+            return;
+        }
+        Log.i(TAG, "Reconnected to " + getKey() + " after " + attempt + " attempts, replaying "
+                + getBacklogFrames() + " frames.");
+        reconnectAttempts = 0;
+        currentScheduler().reset(System.nanoTime());
+        status = SensorSenderService.STATUS_CONNECTED;
+        host.onSinkStatus(this, SensorSenderService.STATUS_CONNECTED, "已重新连接到: " + getKey(), attempt);
+    }
+
+    private void onConnectionLost(IOException e) {
+        Log.w(TAG, "Connection to " + getKey() + " lost: " + e.getMessage() + ", reconnecting.");
+        metrics.onReconnect();
+        closeTransportQuietly();
+        // 交给内核的时刻已经无从知道
+        tracedSequence = -1;
+        reconnectAttempts = 0;
+        nextReconnectNanos = System.nanoTime();
+        binaryScheduler.reset(nextReconnectNanos);
+        status = SensorSenderService.STATUS_RECONNECTING;
+        host.onSinkStatus(this, SensorSenderService.STATUS_RECONNECTING, "连接中断，正在重连: " + e.getMessage(), 0);
+    }
+
+    private void closeTransportQuietly() {
+        try {
+            transport.close();
+            if (datagram != null) {
+                datagram.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing transport: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理接收端发来的行：ACK、时钟同步用的 PING 和采集设置 CONFIG。
+     */
+    private void readReplies() throws IOException {
+        boolean ponged = false;
+        while (transport.pollLine(lineBuffer)) {
+            // 读到 PING 的时刻要尽量早，先取时间再解析
+            long receivedNanos = SystemClock.elapsedRealtimeNanos();
+            long acked = Handshake.parseAck(lineBuffer);
+            if (acked >= 0) {
+                spool.acknowledge(acked);
+            } else if (binaryMode) {
+                long ping = Handshake.parsePing(lineBuffer);
+                if (ping >= 0) {
+                    ponged |= queuePong(ping, receivedNanos);
+                } else {
+                    SensorConfig config = SensorConfig.parse(lineBuffer);
+                    if (config != null) {
+                        forgetDisabled(config);
+                        host.onSensorConfig(this, config);
+                    }
+                }
+            }
+            lineBuffer.setLength(0);
+        }
+        if (ponged) {
+            // 应答在队列里多等的时间会被接收端算进往返时延，立即写出
+            transport.flush();
+        }
+    }
+
+    /**
+     * UDP 模式的一轮：先应答 PING，到了延迟或攒够一个数据报就把待发采样切成若干个数据报发出。
+     * 内核发送缓冲区满时丢弃数据报而不是等待。
+     */
+    private void sendDatagramStep() throws IOException {
+        receiveDatagrams();
+        SampleSlots slots = cursor.owner();
+        long now = System.nanoTime();
+        int pendingSamples = slots.pendingSamples(cursor);
+        if (datagramScheduler.shouldFlush(pendingSamples, slots.pendingBytes(cursor), now)) {
+            int bytes = 0;
+            int length;
+            while ((length = sendDatagram()) > 0) {
+                bytes += length;
+            }
+            recordDropped();
+            long after = System.nanoTime();
+            metrics.writeNanos.record(after - now);
+            datagramScheduler.onFlushed(pendingSamples, bytes, after - now, after);
+            return;
+        }
+        long waitNanos = pendingSamples > 0
+                ? datagramScheduler.nanosUntilDeadline(now) : datagramScheduler.getLatencyNanos();
+        datagram.await(TimeUnit.NANOSECONDS.toMillis(Math.min(waitNanos, BATCH_MIN_LATENCY_NANOS)));
+    }
+
+    /**
+     * 把放得下的待发采样编码成一个数据报发出。
+     *
+     * @return 帧长度，没有待发采样时返回 0
+     */
+    private int sendDatagram() throws IOException {
+        ByteBuffer out = datagram.sendBuffer();
+        out.clear();
+        long start = System.nanoTime();
+        int length = cursor.owner().encodeBoundedFrame(cursor, frameEncoder, out, host.deviceId(), datagramSequence,
+                SystemClock.elapsedRealtimeNanos(), encodeOptions());
+        if (length == 0) {
+            return 0;
+        }
+        metrics.encodeNanos.record(System.nanoTime() - start);
+        boolean traced = holdTrace(datagramSequence);
+        // 发不出去的数据报也占用序号，接收端会把它计为丢失
+        datagramSequence++;
+        if (datagram.send() && traced) {
+            // 追踪帧紧跟被追踪的数据报，单独一个数据报
+            ByteBuffer trace = datagram.sendBuffer();
+            trace.clear();
+            encodeTrace(trace, SystemClock.elapsedRealtimeNanos());
+            datagram.send();
+        }
+        tracedSequence = -1;
+        return length;
+    }
+
+    /**
+     * 处理接收端发来的数据报，目前只有时钟同步用的 PING，立即用一个应答帧的数据报回复。
+     */
+    private void receiveDatagrams() throws IOException {
+        ByteBuffer in;
+        while ((in = datagram.receive()) != null) {
+            long receivedNanos = SystemClock.elapsedRealtimeNanos();
+            lineBuffer.setLength(0);
+            while (in.hasRemaining()) {
+                char c = (char) (in.get() & 0xFF);
+                if (c != '\n' && c != '\r') {
+                    lineBuffer.append(c);
+                }
+            }
+            long ping = Handshake.parsePing(lineBuffer);
+            if (ping >= 0) {
+                ByteBuffer out = datagram.sendBuffer();
+                out.clear();
+                frameEncoder.begin(out, host.deviceId(), ping, receivedNanos, WireFormat.FLAG_CLOCK_PONG);
+                frameEncoder.end();
+                datagram.send();
+            }
+        }
+        lineBuffer.setLength(0);
+    }
+
+    /**
+     * 停用的传感器不再发心跳，接收端会在两个心跳间隔后不再保持它的值。
+     */
+    private void forgetDisabled(SensorConfig config) {
+        if (deadband == null) {
+            return;
+        }
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if (config.has(id) && !config.isEnabled(id)) {
+                deadband.forget(id);
+            }
+        }
+    }
+
+    /**
+     * 排入一个时钟同步应答帧，带上 PING 的编号和读到它时的采样时钟（与 SensorEvent.timestamp 同一时钟）。
+     * 应答不进落盘队列，发送队列满时放弃，接收端会再发 PING。
+     *
+     * @return 是否已排入发送队列
+     */
+    private boolean queuePong(long pingId, long receivedNanos) {
+        ByteBuffer buffer = transport.acquire();
+        if (buffer == null) {
+            return false;
+        }
+        frameEncoder.begin(buffer, host.deviceId(), pingId, receivedNanos, WireFormat.FLAG_CLOCK_PONG);
+        frameEncoder.end();
+        transport.commit(buffer);
+        return true;
+    }
+
+    /**
+     * 排入一个指标上报帧。与时钟应答一样不进落盘队列、不占用帧序号；发送队列满时放弃，下一轮再试。
+     *
+     * @return 是否已排入发送队列
+     */
+    private boolean queueMetrics() {
+        ByteBuffer buffer = transport.acquire();
+        if (buffer == null) {
+            return false;
+        }
+        frameEncoder.begin(buffer, host.deviceId(), ++metricsReports, SystemClock.elapsedRealtimeNanos(),
+                WireFormat.FLAG_METRICS);
+        metricsReporter.encode(frameEncoder);
+        frameEncoder.end();
+        transport.commit(buffer);
+        return true;
+    }
+
+    /**
+     * 刚编码的帧中有被追踪的采样时记下它和编码完成的时刻，等这一帧交给内核后发追踪帧。
+     *
+     * @return 这一帧是否被追踪
+     */
+    private boolean holdTrace(long sequence) {
+        int sensorId = cursor.getTracedSensorId();
+        if (sensorId == 0) {
+            return false;
+        }
+        tracedEncodeNanos = SystemClock.elapsedRealtimeNanos();
+        tracedSequence = sequence;
+        tracedSensorId = sensorId;
+        tracedCaptureNanos = cursor.getTracedCaptureNanos();
+        tracedEnqueueNanos = cursor.getTracedEnqueueNanos();
+        return true;
+    }
+
+    private void encodeTrace(ByteBuffer out, long writeNanos) {
+        frameEncoder.begin(out, host.deviceId(), tracedSequence, tracedCaptureNanos, WireFormat.FLAG_TRACE);
+        frameEncoder.putTrace(tracedSensorId, tracedEnqueueNanos, tracedEncodeNanos, writeNanos);
+        frameEncoder.end();
+    }
+
+    /**
+     * 被追踪的帧及其之前的帧都已交给内核时，排入追踪帧并立即写出。与指标帧一样不进落盘队列、不占用帧序号；
+     * 发送队列满时放弃这一次追踪。
+     */
+    private void queueTrace() throws IOException {
+        if (tracedSequence < 0 || spool.hasUnsent() || transport.getQueuedBytes() > 0) {
+            return;
+        }
+        long writeNanos = SystemClock.elapsedRealtimeNanos();
+        ByteBuffer buffer = transport.acquire();
+        if (buffer != null) {
+            encodeTrace(buffer, writeNanos);
+            transport.commit(buffer);
+            transport.flush();
+        }
+        tracedSequence = -1;
+    }
+
+    /**
+     * 把游标新增的丢弃数计入 MetricsRegistry。
+     */
+    private void recordDropped() {
+        long dropped = cursor.owner().droppedSamples(cursor);
+        metrics.onSamplesDropped(dropped - reportedDropped);
+        reportedDropped = dropped;
+    }
+
+    /**
+     * 把落盘队列中尚未发出的帧交给发送队列，直到队列满。
+     */
+    private void sendSpool() {
+        while (transport.canOffer() && spool.hasUnsent()) {
+            transport.offer(spool.nextUnsent());
+        }
+        if (!serverAcks) {
+            // 接收端不回复 ACK，没法重发，交给发送队列即释放
+            spool.acknowledgeSent();
+        }
+    }
+
+    /**
+     * @return 按当前连接的握手结果填好的编码选项
+     */
+    private SampleSlots.EncodeOptions encodeOptions() {
+        return encodeOptions.flags(frameFlags)
+                .features(serverFeatures ? featureExtractor : null)
+                .deadband(serverHold ? deadband : null)
+                .sensors(serverSensors);
+    }
+
+    /**
+     * 接收端没有声明的传感器不发送，在此记一次日志，免得采集了却在接收端找不到。
+     */
+    private void logWithheldSensors() {
+        StringBuilder withheld = new StringBuilder();
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if ((serverSensors & 1 << id) == 0) {
+                if (withheld.length() > 0) {
+                    withheld.append(", ");
+                }
+                withheld.append(WireFormat.sensorName(id));
+            }
+        }
+        if (withheld.length() > 0) {
+            Log.w(TAG, "Receiver " + getKey() + " does not store " + withheld + ", not sending their samples.");
+        }
+    }
+
+    /**
+     * 把本 sink 尚未发送的采样直接编码进落盘队列，成为一帧。
+     *
+     * @return 帧长度，没有新采样时返回 0
+     */
+    private int encodeToSpool() {
+        ByteBuffer out;
+        try {
+            out = spool.beginAppend(maxFrameBytes);
+        } catch (IOException e) {
+            // 多半是存储已满：已落盘的帧留到下次启动再补发，本次改用内存队列
+            Log.e(TAG, "Spool rotation failed, switching to memory: " + e.getMessage(), e);
+            try {
+                spool = new FrameSpool(null, SPOOL_SEGMENT_BYTES, SPOOL_MEMORY_SEGMENTS, TRANSPORT_QUEUE_DEPTH + 1);
+                out = spool.beginAppend(maxFrameBytes);
+            } catch (IOException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+        }
+        SampleSlots slots = cursor.owner();
+        int samples = slots.pendingSamples(cursor);
+        long sequence = spool.getNextSequence();
+        long start = System.nanoTime();
+        int length = slots.encodeFrame(cursor, frameEncoder, out, host.deviceId(), sequence,
+                SystemClock.elapsedRealtimeNanos(), encodeOptions());
+        if (length > 0) {
+            metrics.encodeNanos.record(System.nanoTime() - start);
+            if (isConnected()) {
+                // 断线期间编码的帧要等重连才发出，不追踪
+                holdTrace(sequence);
+            }
+            metrics.batchSamples.record(samples);
+            spool.commitAppend(length);
+        }
+        recordDropped();
+        return length;
+    }
+
+    /**
+     * 把本 sink 尚未发送的全部采样排入发送队列并尽量写出，写不完的部分留给下一轮。
+     * 调用前须确认发送队列未满；lastWriteNanos 记录交给内核的耗时。
+     *
+     * @return 排入队列的字节数
+     */
+    private int sendPendingSamples() throws IOException, JSONException {
+        lastWriteNanos = 0;
+        int length;
+        if (binaryMode) {
+            length = encodeToSpool();
+            if (length == 0) {
+                return 0;
+            }
+            sendSpool();
+            metrics.queueDepth.record(spool.pendingFrames());
+        } else {
+            JSONObject json = buildJsonPayload();
+            recordDropped();
+            if (json == null) {
+                Log.v(TAG, "No sensor data yet, skipping send.");
+                return 0;
+            }
+            if (json.length() == 0) {
+                return 0;
+            }
+            String line = json.toString();
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Sending JSON: " + line);
+            }
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            if (!transport.enqueue(bytes, 0, bytes.length)) {
+                // 超过整个发送队列的一行只能放弃，采样已经取出
+                Log.w(TAG, "JSON line of " + bytes.length + " bytes does not fit the send queue, dropped.");
+                return 0;
+            }
+            length = bytes.length;
+        }
+        long start = System.nanoTime();
+        transport.flush();
+        lastWriteNanos = System.nanoTime() - start;
+        metrics.writeNanos.record(lastWriteNanos);
+        return length;
+    }
+
+    /**
+     * 取出各缓冲区自上次发送以来的全部采样。顶层键仍保留每个传感器的最新值，兼容只读取单个值的接收端。
+     * JSON 模式是兼容旧接收端的路径，每次发送都会分配对象。
+     *
+     * @return 还没有任何数据时返回 null
+     */
+    @Nullable
+    private JSONObject buildJsonPayload() throws JSONException {
+        JSONObject json = new JSONObject();
+        JSONObject samples = new JSONObject();
+        boolean hasAnyData = false;
+        SampleSlots slots = cursor.owner();
+        for (int id = 1; id < SampleSlots.SLOT_COUNT; id++) {
+            SampleRingBuffer buffer = slots.get(id);
+            if (buffer == null) {
+                continue;
+            }
+            String key = WireFormat.sensorName(id);
+            int channels = buffer.getChannels();
+            if (buffer.copyLatest(latestValues)) {
+                hasAnyData = true;
+                if (JSON_KEY_LIGHT.equals(key)) {
+                    // 光线传感器通常只有一个值
+                    json.put(JSON_KEY_LIGHT, latestValues[0]);
+                } else {
+                    JSONArray latest = new JSONArray();
+                    for (int c = 0; c < channels; c++) {
+                        latest.put((double) latestValues[c]);
+                    }
+                    json.put(key, latest);
+                }
+            }
+
+            int count = slots.drain(cursor, id);
+            if (count == 0) {
+                continue;
+            }
+            long[] drainTimestamps = slots.drainedTimestamps(cursor);
+            float[] drainValues = slots.drainedValues(cursor);
+            JSONArray ts = new JSONArray();
+            JSONArray vs = new JSONArray();
+            for (int i = 0; i < count; i++) {
+                ts.put(drainTimestamps[i]);
+                for (int c = 0; c < channels; c++) {
+                    vs.put((double) drainValues[i * channels + c]);
+                }
+            }
+            JSONObject block = new JSONObject();
+            block.put("t", ts);
+            block.put("v", vs);
+            samples.put(key, block);
+        }
+        if (!hasAnyData) {
+            return null;
+        }
+        if (samples.length() > 0) {
+            json.put(JSON_KEY_SAMPLES, samples);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.myapplication_test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于非阻塞 SocketChannel 的发送通道。
+ *
+ * 发送方从预分配的直接内存缓冲池中 {@link #acquire()} 一块缓冲区，把一帧写进去后 {@link #commit}，
+ * {@link #flush()} 用一次聚集写（gathering write）把所有待发缓冲区交给内核，写不完的留到下次，
+ * 从不阻塞调用线程。缓冲池用尽时 acquire 返回 null，调用方据此感知背压，而不是卡在 write 上。
+ *
+ * 调用方也可以用 {@link #offer} 直接排入自己持有的缓冲区（例如映射文件的一段），写出时不经过缓冲池复制。
+ *
+ * 同时提供按行读取接收端回复（握手、确认等）的能力。只能在一个线程中使用。
+ */
+public class SocketTransport implements Closeable {
+
+    /** 连接参数 */
+    public static class Settings {
+        public boolean tcpNoDelay = true;
+        // 0 表示使用系统默认的发送缓冲区大小
+        public int sendBufferBytes = 0;
+        public int connectTimeoutMs = 10000;
+        public int bufferBytes = 64 * 1024;
+        public int bufferCount = 8;
+        // 发送队列最多容纳的缓冲区个数（含 offer 排入的外部缓冲区），不小于 bufferCount
+        public int queueDepth = 16;
+    }
+
+    private final Settings settings;
+    private final ByteBuffer[] pool;
+    // 已提交、等待写出的缓冲区，按提交顺序排成环；pendingPooled 标记是否需要还回缓冲池
+    private final ByteBuffer[] pending;
+    private final boolean[] pendingPooled;
+    private int pendingHead;
+    private int pendingCount;
+    // 空闲缓冲区栈
+    private final ByteBuffer[] free;
+    private int freeCount;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+    private SocketChannel channel;
+    private volatile Selector selector;
+    private SelectionKey key;
+
+    private long queuedBytes;
+    private long bytesWritten;
+    private long writeStalls;
+
+    public SocketTransport(Settings settings) {
+        this.settings = settings;
+        pool = new ByteBuffer[settings.bufferCount];
+        pending = new ByteBuffer[Math.max(settings.bufferCount, settings.queueDepth)];
+        pendingPooled = new boolean[pending.length];
+        free = new ByteBuffer[settings.bufferCount];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = ByteBuffer.allocateDirect(settings.bufferBytes);
+        }
+        resetBuffers();
+    }
+
+    private void resetBuffers() {
+        for (int i = 0; i < pool.length; i++) {
+            pool[i].clear();
+            free[i] = pool[i];
+        }
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = null;
+        }
+        freeCount = pool.length;
+        pendingHead = 0;
+        pendingCount = 0;
+        queuedBytes = 0;
+        readBuffer.clear();
+    }
+
+    /**
+     * 阻塞连接（带超时），成功后切换为非阻塞模式。
+     */
+    public void connect(InetSocketAddress address) throws IOException {
+        close();
+        resetBuffers();
+        SocketChannel ch = SocketChannel.open();
+        try {
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, settings.tcpNoDelay);
+            if (settings.sendBufferBytes > 0) {
+                ch.setOption(StandardSocketOptions.SO_SNDBUF, settings.sendBufferBytes);
+            }
+            ch.socket().connect(address, settings.connectTimeoutMs);
+            ch.configureBlocking(false);
+            selector = Selector.open();
+            key = ch.register(selector, 0);
+        } catch (IOException e) {
+            ch.close();
+            if (selector != null) {
+                selector.close();
+                selector = null;
+            }
+            throw e;
+        }
+        channel = ch;
+    }
+
+    public boolean isConnected() {
+        return channel != null && channel.isConnected();
+    }
+
+    public int getBufferBytes() {
+        return settings.bufferBytes;
+    }
+
+    /**
+     * @return 一块已清空的缓冲区；所有缓冲区都在等待写出或发送队列已满时返回 null（背压）
+     */
+    public ByteBuffer acquire() {
+        if (freeCount == 0 || pendingCount == pending.length) {
+            return null;
+        }
+        ByteBuffer buffer = free[--freeCount];
+        free[freeCount] = null;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 把 acquire 得到的缓冲区中 [0, position) 的内容排入发送队列。
+     */
+    public void commit(ByteBuffer buffer) {
+        buffer.flip();
+        if (!buffer.hasRemaining()) {
+            release(buffer);
+            return;
+        }
+        enqueuePending(buffer, true);
+    }
+
+    /**
+     * 把调用方持有的缓冲区中 [position, limit) 的内容排入发送队列，不复制。
+     * 写出完成前调用方不得修改或复用该缓冲区；重新 connect 后队列被清空，之前 offer 的缓冲区也随之放弃。
+     *
+     * @return 发送队列已满时返回 false
+     */
+    public boolean offer(ByteBuffer buffer) {
+        if (pendingCount == pending.length) {
+            return false;
+        }
+        if (buffer.hasRemaining()) {
+            enqueuePending(buffer, false);
+        }
+        return true;
+    }
+
+    /**
+     * @return 发送队列是否还能再 {@link #offer} 一个缓冲区
+     */
+    public boolean canOffer() {
+        return pendingCount < pending.length;
+    }
+
+    private void enqueuePending(ByteBuffer buffer, boolean pooled) {
+        if (pendingCount == pending.length) {
+            throw new IllegalStateException("send queue is full");
+        }
+        int index = (pendingHead + pendingCount) % pending.length;
+        pending[index] = buffer;
+        pendingPooled[index] = pooled;
+        pendingCount++;
+        queuedBytes += buffer.remaining();
+    }
+
+    /**
+     * 把一段任意长度的数据拆到若干空闲缓冲区中排入发送队列。空闲缓冲区装不下时什么也不做。
+     *
+     * @return 是否已排入队列
+     */
+    public boolean enqueue(byte[] src, int offset, int length) {
+        int buffers = (int) (((long) length + settings.bufferBytes - 1) / settings.bufferBytes);
+        if (buffers > freeCount || buffers > pending.length - pendingCount) {
+            return false;
+        }
+        while (length > 0) {
+            ByteBuffer buffer = acquire();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(src, offset, n);
+            commit(buffer);
+            offset += n;
+            length -= n;
+        }
+        return true;
+    }
+
+    /**
+     * 放弃一块未提交的缓冲区。
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free[freeCount++] = buffer;
+    }
+
+    /**
+     * 把待发数据尽量写给内核，不阻塞。写不完的部分记一次写入停顿。
+     *
+     * @return 本次写出的字节数
+     */
+    public long flush() throws IOException {
+        if (pendingCount == 0) {
+            return 0;
+        }
+        ensureOpen();
+        long total = 0;
+        while (pendingCount > 0) {
+            int contiguous = Math.min(pendingCount, pending.length - pendingHead);
+            long written = channel.write(pending, pendingHead, contiguous);
+            total += written;
+            while (pendingCount > 0 && !pending[pendingHead].hasRemaining()) {
+                if (pendingPooled[pendingHead]) {
+                    release(pending[pendingHead]);
+                }
+                pending[pendingHead] = null;
+                pendingHead = (pendingHead + 1) % pending.length;
+                pendingCount--;
+            }
+            if (written == 0) {
+                break;
+            }
+        }
+        queuedBytes -= total;
+        bytesWritten += total;
+        if (pendingCount > 0) {
+            writeStalls++;
+        }
+        return total;
+    }
+
+    /**
+     * 等待 socket 可写或可读，最长 timeoutMs 毫秒。没有待发数据时只等待可读。
+     * 可以被 {@link #wakeup()} 提前唤醒。
+     */
+    public void await(long timeoutMs) throws IOException {
+        ensureOpen();
+        key.interestOps(pendingCount > 0 ? SelectionKey.OP_WRITE | SelectionKey.OP_READ : SelectionKey.OP_READ);
+        selector.select(Math.max(1L, timeoutMs));
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * 唤醒阻塞在 {@link #await} 中的线程，可在任意线程调用。
+     */
+    public void wakeup() {
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    /**
+     * 不阻塞地读取一行（不含换行符，按 ASCII 解释）追加到 out。
+     *
+     * @return 读到完整一行时返回 true
+     */
+    public boolean pollLine(StringBuilder out) throws IOException {
+        ensureOpen();
+        if (scanLine(out)) {
+            return true;
+        }
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            throw new IOException("Connection closed by peer");
+        }
+        return n > 0 && scanLine(out);
+    }
+
+    private boolean scanLine(StringBuilder out) {
+        int end = readBuffer.position();
+        for (int i = 0; i < end; i++) {
+            if (readBuffer.get(i) == '\n') {
+                for (int j = 0; j < i; j++) {
+                    byte b = readBuffer.get(j);
+                    if (b != '\r') {
+                        out.append((char) (b & 0xFF));
+                    }
+                }
+                readBuffer.flip();
+                readBuffer.position(i + 1);
+                readBuffer.compact();
+                return true;
+            }
+        }
+        if (!readBuffer.hasRemaining()) {
+            // 超长的行直接丢弃，避免卡死
+            readBuffer.clear();
+        }
+        return false;
+    }
+
+    /**
+     * 最多等待 timeoutMs 毫秒读取一行。
+     *
+     * @return 超时返回 false
+     */
+    public boolean readLine(StringBuilder out, long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (true) {
+            if (pollLine(out)) {
+                return true;
+            }
+            long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remainingMs <= 0) {
+                return false;
+            }
+            await(remainingMs);
+        }
+    }
+
+    /**
+     * 阻塞直到发送队列清空或超时。
+     *
+     * @return 是否已全部写出
+     */
+    public boolean flushFully(long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        flush();
+        while (pendingCount > 0) {
+            long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remainingMs <= 0) {
+                return false;
+            }
+            await(remainingMs);
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * @return 已提交但尚未写给内核的字节数
+     */
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return 是否已无空闲缓冲区或发送队列已满，调用方应暂停编码新数据
+     */
+    public boolean isBackpressured() {
+        return freeCount == 0 || pendingCount == pending.length;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return flush 后仍有数据写不出去的次数
+     */
+    public long getWriteStalls() {
+        return writeStalls;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("Transport is not connected");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        SocketChannel ch = channel;
+        channel = null;
+        key = null;
+        try {
+            if (ch != null) {
+                ch.close();
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+                selector = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.myapplication_test;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchSchedulerTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static BatchScheduler newScheduler() {
+        return new BatchScheduler(64, 512, 16 * 1024, 20 * MS, 1000 * MS);
+    }
+
+    @Test
+    public void flushesOnWhicheverLimitComesFirst() {
+        BatchScheduler scheduler = newScheduler();
+        scheduler.reset(0L);
+
+        assertFalse(scheduler.shouldFlush(0, 0, 500 * MS));
+        assertFalse(scheduler.shouldFlush(10, 200, 5 * MS));
+        // 数量
+        assertTrue(scheduler.shouldFlush(64, 200, 5 * MS));
+        // 字节
+        assertTrue(scheduler.shouldFlush(10, 16 * 1024, 5 * MS));
+        // 延迟
+        assertEquals(15 * MS, scheduler.nanosUntilDeadline(5 * MS));
+        assertTrue(scheduler.shouldFlush(1, 40, 20 * MS));
+        assertEquals(0, scheduler.nanosUntilDeadline(25 * MS));
+    }
+
+    @Test
+    public void growsUnderCongestionAndShrinksWhenIdle() {
+        BatchScheduler scheduler = newScheduler();
+        long now = 0;
+        scheduler.reset(now);
+
+        // 每次写入都要 300ms：延迟和批量逐步加倍直到上限
+        for (int i = 0; i < 20; i++) {
+            now += scheduler.getLatencyNanos();
+            scheduler.onFlushed(scheduler.getTargetBatchSamples(), 4096, 300 * MS, now);
+        }
+        assertEquals(1000 * MS, scheduler.getLatencyNanos());
+        assertEquals(512, scheduler.getTargetBatchSamples());
+
+        // 链路恢复，写入只要 0.1ms：回到最小延迟，空闲时 50ms 内送达
+        for (int i = 0; i < 100; i++) {
+            now += scheduler.getLatencyNanos();
+            scheduler.onFlushed(64, 1024, MS / 10, now);
+        }
+        assertEquals(20 * MS, scheduler.getLatencyNanos());
+        assertEquals(64, scheduler.getTargetBatchSamples());
+        assertTrue(scheduler.getLatencyNanos() < 50 * MS);
+    }
+
+    @Test
+    public void backpressureGrowsBatchLikeSlowWrites() {
+        BatchScheduler scheduler = newScheduler();
+        scheduler.reset(0L);
+        scheduler.onBackpressure(5 * MS);
+        assertEquals(40 * MS, scheduler.getLatencyNanos());
+        assertEquals(128, scheduler.getTargetBatchSamples());
+        assertEquals(40 * MS, scheduler.nanosUntilDeadline(5 * MS));
+        for (int i = 0; i < 10; i++) {
+            scheduler.onBackpressure(10 * MS);
+        }
+        assertEquals(1000 * MS, scheduler.getLatencyNanos());
+        assertEquals(512, scheduler.getTargetBatchSamples());
+    }
+
+    @Test
+    public void moderateWriteTimeHoldsSteady() {
+        BatchScheduler scheduler = newScheduler();
+        long now = 0;
+        scheduler.reset(now);
+        for (int i = 0; i < 4; i++) {
+            now += scheduler.getLatencyNanos();
+            scheduler.onFlushed(64, 4096, 30 * MS, now);
+        }
+        long latency = scheduler.getLatencyNanos();
+        assertTrue(latency > 20 * MS);
+
+        // 写入耗时约占间隔的 1/10：既不加大也不收缩
+        for (int i = 0; i < 50; i++) {
+            now += latency;
+            scheduler.onFlushed(64, 4096, latency / 10, now);
+        }
+        assertEquals(latency, scheduler.getLatencyNanos());
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在本机回环地址上起一个 DatagramSocket 作为接收端，验证按数据报切分的帧和 PING 的读取。
+ */
+public class DatagramTransportTest {
+    private static final long MS = 1_000_000L;
+
+    private DatagramSocket peer;
+    private DatagramTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        peer.setSoTimeout(2000);
+        transport = new DatagramTransport(0);
+        transport.connect(new InetSocketAddress(peer.getLocalAddress(), peer.getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        peer.close();
+    }
+
+    /** 记下每帧的序号和每个采样的时间戳 */
+    private static class Recorder implements FrameDecoder.Listener {
+        final List<Long> sequences = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+
+        @Override
+        public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+            sequences.add(sequence);
+        }
+
+        @Override
+        public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+            timestamps.add(timestampNanos);
+        }
+
+        @Override
+        public void onFrameEnd() {
+        }
+    }
+
+    @Test
+    public void backlogIsSplitIntoDatagramsThatEachFit() throws Exception {
+        SampleSlots slots = new SampleSlots(1024, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor cursor = slots.openCursor();
+        for (int i = 0; i < 600; i++) {
+            slots.push(WireFormat.SENSOR_ACCELEROMETER, i * 5 * MS, new float[]{i, -i, 9.81f});
+        }
+        slots.push(WireFormat.SENSOR_LIGHT, MS, new float[]{110f});
+
+        FrameEncoder encoder = new FrameEncoder();
+        long sequence = 1000;
+        int length;
+        while (true) {
+            ByteBuffer out = transport.sendBuffer();
+            out.clear();
+            length = slots.encodeBoundedFrame(cursor, encoder, out, 7L, sequence, 3000 * MS,
+                    new SampleSlots.EncodeOptions().flags(WireFormat.FLAG_DELTA));
+            if (length == 0) {
+                break;
+            }
+            assertTrue(length <= WireFormat.MAX_DATAGRAM_SIZE);
+            assertTrue(transport.send());
+            sequence++;
+        }
+        assertEquals(0, slots.pendingSamples(cursor));
+        long datagrams = sequence - 1000;
+        assertTrue("datagrams=" + datagrams, datagrams > 1);
+        assertEquals(datagrams, transport.getDatagramsSent());
+
+        Recorder recorder = new Recorder();
+        FrameDecoder decoder = new FrameDecoder();
+        byte[] data = new byte[WireFormat.MAX_DATAGRAM_SIZE];
+        for (int i = 0; i < datagrams; i++) {
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            peer.receive(packet);
+            // 每个数据报恰好是一帧
+            ByteBuffer in = ByteBuffer.wrap(data, 0, packet.getLength());
+            assertEquals(packet.getLength(), decoder.decode(in, recorder));
+            assertFalse(in.hasRemaining());
+        }
+        assertEquals(1000L, (long) recorder.sequences.get(0));
+        assertEquals(601, recorder.timestamps.size());
+        // 加速度按顺序全部送达，光线在某一个数据报里
+        List<Long> accelerometer = new ArrayList<>(recorder.timestamps);
+        assertTrue(accelerometer.remove(Long.valueOf(MS)));
+        for (int i = 0; i < 600; i++) {
+            assertEquals(i * 5 * MS, (long) accelerometer.get(i));
+        }
+    }
+
+    @Test
+    public void readsDatagramsFromTheReceiver() throws Exception {
+        assertNull(transport.receive());
+        ByteBuffer out = transport.sendBuffer();
+        out.clear();
+        out.put((byte) 1);
+        assertTrue(transport.send());
+        DatagramPacket hello = new DatagramPacket(new byte[16], 16);
+        peer.receive(hello);
+
+        byte[] ping = "PING 5\n".getBytes(StandardCharsets.US_ASCII);
+        peer.send(new DatagramPacket(ping, ping.length, hello.getSocketAddress()));
+        transport.await(2000);
+        ByteBuffer in = transport.receive();
+        assertNotNull(in);
+        byte[] received = new byte[in.remaining()];
+        in.get(received);
+        assertArrayEquals(ping, received);
+        assertNull(transport.receive());
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.FrameFormatException;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeadbandFilterTest {
+    private static final long MS = 1_000_000L;
+    private static final long HEARTBEAT_MS = 5000;
+
+    /** 记下每帧的标志和每个采样 */
+    private static class Recorder implements FrameDecoder.Listener {
+        int flags;
+        final List<Integer> sensorIds = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Float> firstValues = new ArrayList<>();
+
+        @Override
+        public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+            this.flags = flags;
+        }
+
+        @Override
+        public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+            sensorIds.add(sensorId);
+            timestamps.add(timestampNanos);
+            firstValues.add(values[0]);
+        }
+
+        @Override
+        public void onFrameEnd() {
+        }
+    }
+
+    @Test
+    public void suppressesChangesWithinThresholdAgainstLastSentValue() {
+        DeadbandFilter.Settings settings = new DeadbandFilter.Settings().parseAbsolute("Light=1");
+        settings.relative = 0.1f;
+        DeadbandFilter filter = new DeadbandFilter(settings, HEARTBEAT_MS);
+        int light = WireFormat.SENSOR_LIGHT;
+
+        assertTrue(filter.accept(light, 0, new float[]{100f}, 0));
+        // 阈值为 max(1, 10% × 100) = 10
+        assertFalse(filter.accept(light, MS, new float[]{105f}, 0));
+        assertFalse(filter.accept(light, 2 * MS, new float[]{110f}, 0));
+        assertTrue(filter.accept(light, 3 * MS, new float[]{110.5f}, 0));
+        // 与上一次发出的 110.5 比较，缓慢漂移累积到阈值时发出
+        assertFalse(filter.accept(light, 4 * MS, new float[]{115f}, 0));
+        assertFalse(filter.accept(light, 5 * MS, new float[]{120f}, 0));
+        assertTrue(filter.accept(light, 6 * MS, new float[]{122f}, 0));
+        // 接近 0 时绝对阈值起作用
+        assertTrue(filter.accept(light, 7 * MS, new float[]{0.5f}, 0));
+        assertFalse(filter.accept(light, 8 * MS, new float[]{1.4f}, 0));
+        assertTrue(filter.accept(light, 9 * MS, new float[]{Float.NaN}, 0));
+        assertFalse(filter.accept(light, 10 * MS, new float[]{Float.NaN}, 0));
+        assertEquals(6, filter.getSuppressedCount());
+
+        // 多通道以采样为单位：任一通道超出阈值就发整个采样
+        int location = WireFormat.SENSOR_LOCATION;
+        assertTrue(filter.accept(location, 0, new float[]{-3f, -3f}, 0));
+        assertFalse(filter.accept(location, MS, new float[]{-3f, -3f}, 0));
+        assertTrue(filter.accept(location, 2 * MS, new float[]{-3f, 30.274135f}, 0));
+    }
+
+    @Test
+    public void sendsKeyframesAtTheHeartbeatEvenWithoutSamples() throws FrameFormatException {
+        SampleSlots slots = new SampleSlots(64, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor cursor = slots.openCursor();
+        DeadbandFilter filter = new DeadbandFilter(new DeadbandFilter.Settings(), HEARTBEAT_MS);
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(slots.maxFrameSize());
+        long t = 1000 * MS;
+        slots.push(WireFormat.SENSOR_LIGHT, t, new float[]{110f});
+        slots.push(WireFormat.SENSOR_LIGHT, t + MS, new float[]{110f});
+        Recorder first = encodeAndDecode(slots, cursor, encoder, out, filter, t + 10 * MS);
+        assertEquals(WireFormat.FLAG_HELD, first.flags & WireFormat.FLAG_HELD);
+        assertEquals(List.of(WireFormat.SENSOR_LIGHT), first.sensorIds);
+
+        // 没变：心跳间隔内不发帧
+        slots.push(WireFormat.SENSOR_LIGHT, t + 2000 * MS, new float[]{110f});
+        out.clear();
+        assertEquals(0, slots.encodeFrame(cursor, encoder, out, 1L, 1, t + 2000 * MS, new SampleSlots.EncodeOptions().deadband(filter)));
+        assertEquals(0, out.position());
+        assertFalse(filter.anyHeartbeatDue(t + 4000 * MS));
+
+        // 到了心跳间隔，没有新采样也补一个关键帧，时间戳为帧基准时间
+        long now = t + HEARTBEAT_MS * MS;
+        assertTrue(filter.anyHeartbeatDue(now));
+        Recorder heartbeat = encodeAndDecode(slots, cursor, encoder, out, filter, now);
+        assertEquals(List.of(WireFormat.SENSOR_LIGHT), heartbeat.sensorIds);
+        assertEquals(now, (long) heartbeat.timestamps.get(0));
+        assertEquals(110f, heartbeat.firstValues.get(0), 0);
+        assertFalse(filter.anyHeartbeatDue(now + MS));
+
+        // 停用的传感器不再发心跳
+        filter.forget(WireFormat.SENSOR_LIGHT);
+        assertFalse(filter.anyHeartbeatDue(now + 2 * HEARTBEAT_MS * MS));
+
+        // 重连后每个见过的传感器都立即发一次
+        slots.push(WireFormat.SENSOR_LIGHT, now + MS, new float[]{110f});
+        encodeAndDecode(slots, cursor, encoder, out, filter, now + 2 * MS);
+        filter.forceKeyframes();
+        assertTrue(filter.anyHeartbeatDue(now + 3 * MS));
+        Recorder keyframe = encodeAndDecode(slots, cursor, encoder, out, filter, now + 3 * MS);
+        assertEquals(List.of(WireFormat.SENSOR_LIGHT), keyframe.sensorIds);
+    }
+
+    private static Recorder encodeAndDecode(SampleSlots slots, SampleSlots.Cursor cursor, FrameEncoder encoder,
+                                            ByteBuffer out, DeadbandFilter filter, long now)
+            throws FrameFormatException {
+        out.clear();
+        int length = slots.encodeFrame(cursor, encoder, out, 1L, 0, now,
+                new SampleSlots.EncodeOptions().flags(WireFormat.FLAG_DELTA).deadband(filter));
+        assertTrue(length > 0);
+        out.flip();
+        Recorder recorder = new Recorder();
+        new FrameDecoder().decode(out, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void slowChannelsShrinkSeveralFold() {
+        // 一分钟：光线 5Hz、每 10 秒变一次，位置每秒一次且一直不可用（-3, -3），每秒发一帧
+        long plain = streamBytes(null);
+        long filtered = streamBytes(new DeadbandFilter(new DeadbandFilter.Settings(), HEARTBEAT_MS));
+        assertTrue("plain=" + plain + " deadband=" + filtered, filtered * 3 < plain);
+    }
+
+    private static long streamBytes(DeadbandFilter filter) {
+        SampleSlots slots = new SampleSlots(256, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor reader = slots.openCursor();
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(slots.maxFrameSize());
+        SampleSlots.EncodeOptions options = new SampleSlots.EncodeOptions().flags(WireFormat.FLAG_DELTA).deadband(filter);
+        long bytes = 0;
+        long t = 0;
+        for (int second = 0; second < 60; second++) {
+            for (int i = 0; i < 5; i++) {
+                t += 200 * MS;
+                slots.push(WireFormat.SENSOR_LIGHT, t, new float[]{100f + second / 10 * 20});
+            }
+            slots.pushConstant(WireFormat.SENSOR_LOCATION, t, -3f);
+            out.clear();
+            bytes += slots.encodeFrame(reader, encoder, out, 1L, second, t, options);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.WindowFeatures;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeatureExtractorTest {
+    private static final long PERIOD_NS = 5_000_000L;
+
+    @Test
+    public void fftMatchesNaiveDft() {
+        int n = 64;
+        Random random = new Random(1);
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int i = 0; i < n; i++) {
+            re[i] = random.nextGaussian();
+            im[i] = random.nextGaussian();
+        }
+        double[] expectedRe = new double[n];
+        double[] expectedIm = new double[n];
+        for (int k = 0; k < n; k++) {
+            for (int t = 0; t < n; t++) {
+                double angle = -2 * Math.PI * k * t / n;
+                expectedRe[k] += re[t] * Math.cos(angle) - im[t] * Math.sin(angle);
+                expectedIm[k] += re[t] * Math.sin(angle) + im[t] * Math.cos(angle);
+            }
+        }
+        new Fft(n).transform(re, im);
+        assertArrayEquals(expectedRe, re, 1e-9);
+        assertArrayEquals(expectedIm, im, 1e-9);
+    }
+
+    @Test
+    public void sineLandsInItsBandWithItsVariance() {
+        FeatureExtractor.Settings settings = new FeatureExtractor.Settings();
+        FeatureExtractor extractor = new FeatureExtractor(settings);
+        int n = settings.windowSize;
+        // 频点 40 落在第 2 个频带（频点 33..48），x 通道另加直流分量
+        double amplitude = 2.0;
+        float[] xyz = new float[3];
+        int completed = 0;
+        for (int i = 0; i < n; i++) {
+            double phase = 2 * Math.PI * 40 * i / n;
+            xyz[0] = (float) (9.81 + amplitude * Math.sin(phase));
+            xyz[1] = 0.5f;
+            xyz[2] = i % 2 == 0 ? 1f : -1f;
+            completed = extractor.push(WireFormat.SENSOR_ACCELEROMETER, i * PERIOD_NS, xyz, 0);
+        }
+        assertEquals(3, completed);
+
+        WindowFeatures x = extractor.features(0);
+        assertEquals(WireFormat.SENSOR_ACCELEROMETER, x.sensorId);
+        assertEquals(0, x.channel);
+        assertEquals(n, x.sampleCount);
+        assertEquals((n - 1) * PERIOD_NS, x.endTimestampNanos);
+        assertEquals((n - 1) * PERIOD_NS, x.durationNanos);
+        assertEquals(9.81, x.mean, 1e-4);
+        assertEquals(Math.sqrt(9.81 * 9.81 + amplitude * amplitude / 2), x.rms, 1e-4);
+        assertEquals(9.81 - amplitude, x.min, 1e-3);
+        assertEquals(9.81 + amplitude, x.max, 1e-3);
+        // 每个周期两次过零
+        assertEquals(79, x.zeroCrossings, 1);
+        assertEquals(settings.bands, x.bandCount);
+        double total = 0;
+        for (int b = 0; b < x.bandCount; b++) {
+            total += x.bands[b];
+        }
+        assertEquals(amplitude * amplitude / 2, x.bands[2], 0.01);
+        assertEquals(amplitude * amplitude / 2, total, 0.01);
+
+        // 常数：没有过零，也没有能量
+        WindowFeatures y = extractor.features(1);
+        assertEquals(0, y.zeroCrossings);
+        assertEquals(0, y.bands[0], 1e-9);
+
+        // 交替 ±1 全部落在奈奎斯特频点，即最后一个频带
+        WindowFeatures z = extractor.features(2);
+        assertEquals(n - 1, z.zeroCrossings);
+        assertEquals(1.0, z.rms, 1e-6);
+        assertEquals(1.0, z.bands[settings.bands - 1], 0.01);
+    }
+
+    @Test
+    public void emitsOneWindowPerHopAndSkipsOtherSensors() {
+        FeatureExtractor.Settings settings = new FeatureExtractor.Settings();
+        settings.windowSize = 16;
+        settings.hop = 4;
+        settings.bands = 2;
+        FeatureExtractor extractor = new FeatureExtractor(settings);
+        assertTrue(extractor.handles(WireFormat.SENSOR_GYROSCOPE));
+        assertFalse(extractor.handles(WireFormat.SENSOR_LIGHT));
+        assertEquals(0, extractor.maxFeatureBytes(WireFormat.SENSOR_LIGHT, 100));
+        assertEquals(0, extractor.push(WireFormat.SENSOR_LIGHT, 0, new float[]{110f}, 0));
+
+        float[] xyz = new float[3];
+        int windows = 0;
+        long lastEnd = 0;
+        for (int i = 0; i < 40; i++) {
+            xyz[0] = i;
+            if (extractor.push(WireFormat.SENSOR_GYROSCOPE, i * PERIOD_NS, xyz, 0) > 0) {
+                windows++;
+                WindowFeatures f = extractor.features(0);
+                // 窗口为最近 16 个采样
+                assertEquals(i - 15, f.min, 0);
+                assertEquals(i, f.max, 0);
+                assertEquals(15 * PERIOD_NS, f.durationNanos);
+                lastEnd = f.endTimestampNanos;
+            }
+        }
+        // 第 16、20、…、40 个采样
+        assertEquals(7, windows);
+        assertEquals(39 * PERIOD_NS, lastEnd);
+        assertTrue(extractor.maxFeatureBytes(WireFormat.SENSOR_GYROSCOPE, 8) >= 2 * 3 * WireFormat.featureSize(2));
+
+        // reset 之后要重新攒满一个窗口
+        extractor.reset();
+        for (int i = 0; i < 15; i++) {
+            assertEquals(0, extractor.push(WireFormat.SENSOR_GYROSCOPE, i * PERIOD_NS, xyz, 0));
+        }
+        assertEquals(3, extractor.push(WireFormat.SENSOR_GYROSCOPE, 15 * PERIOD_NS, xyz, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowThatIsNotPowerOfTwo() {
+        FeatureExtractor.Settings settings = new FeatureExtractor.Settings();
+        settings.windowSize = 100;
+        new FeatureExtractor(settings);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.myapplication_test;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FixedDecimalTest {
+    private static String format(double value, int decimals) {
+        return FixedDecimal.append(new StringBuilder(), value, decimals).toString();
+    }
+
+    @Test
+    public void formatsFixedDecimals() {
+        assertEquals("0.00", format(0, 2));
+        assertEquals("9.81", format(9.80665, 2));
+        assertEquals("-9.81", format(-9.80665, 2));
+        assertEquals("120", format(119.5, 0));
+        assertEquals("0.050", format(0.05, 3));
+        assertEquals("39.904200", format(39.9042, 6));
+        assertEquals("-0.1", format(-0.06f, 1));
+    }
+
+    @Test
+    public void negativeZeroHasNoSign() {
+        assertEquals("0.00", format(-0.001, 2));
+        assertEquals("0.0", format(-0.0, 1));
+    }
+
+    @Test
+    public void nonFiniteValues() {
+        assertEquals("NaN", format(Double.NaN, 2));
+        assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY, 2));
+    }
+
+    @Test
+    public void matchesStringFormatWithinTheLastDigit() {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            int decimals = random.nextInt(7);
+            float value = (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(6)));
+            sb.setLength(0);
+            FixedDecimal.append(sb, value, decimals);
+            String expected = String.format(Locale.ROOT, "%." + decimals + "f", value);
+            double unit = Math.pow(10, -decimals);
+            assertEquals(expected, Double.parseDouble(expected), Double.parseDouble(sb.toString()), unit * 1.01);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.myapplication_test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * “崩溃”用直接丢弃 FrameSpool 对象（不调用 close）再在同一目录重新打开来模拟：
+ * 映射区已写入的内容留在页缓存里，和进程被杀后的情形一致。
+ */
+public class FrameSpoolTest {
+    private static final int SEGMENT_BYTES = 4096;
+    private static final int VIEWS = 17;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("spool").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private FrameSpool open(int maxSegments) throws IOException {
+        return new FrameSpool(dir, SEGMENT_BYTES, maxSegments, VIEWS);
+    }
+
+    /** 写入一帧，内容由序号决定，便于之后校验 */
+    private static long append(FrameSpool spool, int length) throws IOException {
+        ByteBuffer out = spool.beginAppend(length);
+        long sequence = spool.getNextSequence();
+        for (int i = 0; i < length; i++) {
+            out.put((byte) (sequence * 31 + i));
+        }
+        assertEquals(sequence, spool.commitAppend(length));
+        return sequence;
+    }
+
+    private static void assertNextFrame(FrameSpool spool, long sequence, int length) {
+        assertTrue(spool.hasUnsent());
+        ByteBuffer frame = spool.nextUnsent();
+        assertEquals(length, frame.remaining());
+        for (int i = 0; i < length; i++) {
+            assertEquals("frame " + sequence + " byte " + i, (byte) (sequence * 31 + i), frame.get(frame.position() + i));
+        }
+    }
+
+    @Test
+    public void replaysFromLastAcknowledgedAfterRewind() throws IOException {
+        FrameSpool spool = open(8);
+        for (int i = 0; i < 5; i++) {
+            append(spool, 100);
+        }
+        // 发出 0..3，接收端只确认到 1，随后断线
+        for (long seq = 0; seq < 4; seq++) {
+            assertNextFrame(spool, seq, 100);
+        }
+        spool.acknowledge(1);
+        assertEquals(3, spool.pendingFrames());
+
+        // 断线期间继续追加
+        append(spool, 100);
+        spool.rewind();
+        for (long seq = 2; seq <= 5; seq++) {
+            assertNextFrame(spool, seq, 100);
+        }
+        assertFalse(spool.hasUnsent());
+        spool.acknowledge(5);
+        assertEquals(0, spool.pendingFrames());
+        assertEquals(0, spool.getDroppedFrames());
+    }
+
+    @Test
+    public void acknowledgeNeverPassesTheSendCursor() throws IOException {
+        FrameSpool spool = open(8);
+        for (int i = 0; i < 3; i++) {
+            append(spool, 50);
+        }
+        spool.nextUnsent();
+        spool.nextUnsent();
+        spool.acknowledgeSent();
+        assertEquals(1, spool.pendingFrames());
+        assertNextFrame(spool, 2, 50);
+    }
+
+    @Test
+    public void framesSpanSegmentsAndFullyAckedSegmentsAreDeleted() throws IOException {
+        FrameSpool spool = open(8);
+        // 每段放得下 3 帧 1200 字节
+        for (int i = 0; i < 10; i++) {
+            append(spool, 1200);
+        }
+        assertEquals(4, spool.getSegmentCount());
+        for (long seq = 0; seq < 10; seq++) {
+            assertNextFrame(spool, seq, 1200);
+        }
+        spool.acknowledge(7);
+        assertEquals(2, spool.getSegmentCount());
+        assertEquals(2, segmentFiles());
+        spool.acknowledge(9);
+        assertEquals(0, spool.pendingFrames());
+    }
+
+    @Test
+    public void recoversAfterCrashInTheMiddleOfAWrite() throws IOException {
+        FrameSpool spool = open(8);
+        for (int i = 0; i < 7; i++) {
+            append(spool, 1200);
+        }
+        // 第 7 帧写了一半进程就被杀：数据已在映射区，但长度字段还没写
+        ByteBuffer out = spool.beginAppend(1200);
+        for (int i = 0; i < 600; i++) {
+            out.put((byte) 0x5A);
+        }
+        long sessionId = spool.getSessionId();
+
+        FrameSpool recovered = open(8);
+        assertEquals(sessionId, recovered.getSessionId());
+        assertEquals(7, recovered.pendingFrames());
+        assertEquals(7, recovered.getNextSequence());
+        for (long seq = 0; seq < 7; seq++) {
+            assertNextFrame(recovered, seq, 1200);
+        }
+        assertFalse(recovered.hasUnsent());
+
+        // 继续写入，覆盖半条记录，再崩溃一次也能完整读回
+        append(recovered, 200);
+        append(recovered, 200);
+        FrameSpool again = open(8);
+        assertEquals(9, again.pendingFrames());
+        for (long seq = 0; seq < 7; seq++) {
+            assertNextFrame(again, seq, 1200);
+        }
+        assertNextFrame(again, 7, 200);
+        assertNextFrame(again, 8, 200);
+        assertFalse(again.hasUnsent());
+    }
+
+    @Test
+    public void corruptedRecordEndsTheLog() throws IOException {
+        FrameSpool spool = open(8);
+        for (int i = 0; i < 3; i++) {
+            append(spool, 500);
+        }
+        // 长度字段已写，但第 2 帧的内容没有完整落盘
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, "seg-0.spool"), "rw")) {
+            long frame1 = 2L * FrameSpool.RECORD_HEADER_SIZE + 500 + 10;
+            raf.seek(frame1);
+            raf.write(raf.read() ^ 0xFF);
+        }
+        FrameSpool recovered = open(8);
+        assertEquals(1, recovered.pendingFrames());
+        assertNextFrame(recovered, 0, 500);
+        assertFalse(recovered.hasUnsent());
+        // 元数据里没有更新的序号时，从最后一条完整记录继续编号
+        assertEquals(1, recovered.getNextSequence());
+    }
+
+    @Test
+    public void ackCursorPersistedOnRotationSurvivesCrash() throws IOException {
+        FrameSpool spool = open(8);
+        for (int i = 0; i < 3; i++) {
+            append(spool, 1200);
+        }
+        for (long seq = 0; seq < 3; seq++) {
+            spool.nextUnsent();
+        }
+        spool.acknowledge(1);
+        // 换段时记录确认游标
+        append(spool, 1200);
+        // 这次确认发生在换段之后，崩溃时还没落盘
+        spool.acknowledge(2);
+
+        FrameSpool recovered = open(8);
+        assertEquals(2, recovered.pendingFrames());
+        assertNextFrame(recovered, 2, 1200);
+        assertNextFrame(recovered, 3, 1200);
+        assertEquals(4, recovered.getNextSequence());
+
+        // 正常关闭则一帧也不重发
+        recovered.rewind();
+        recovered.nextUnsent();
+        recovered.acknowledge(2);
+        recovered.close();
+        FrameSpool reopened = open(8);
+        assertEquals(1, reopened.pendingFrames());
+        assertNextFrame(reopened, 3, 1200);
+    }
+
+    @Test
+    public void sizeCapEvictsOldestSegment() throws IOException {
+        FrameSpool spool = open(3);
+        for (int i = 0; i < 12; i++) {
+            append(spool, 1200);
+        }
+        assertEquals(3, spool.getSegmentCount());
+        assertTrue(segmentFiles() <= 3);
+        // 12 帧放在 4 段里，第一段 3 帧被淘汰
+        assertEquals(3, spool.getDroppedFrames());
+        assertEquals(9, spool.pendingFrames());
+        for (long seq = 3; seq < 12; seq++) {
+            assertNextFrame(spool, seq, 1200);
+        }
+
+        FrameSpool recovered = open(3);
+        assertEquals(9, recovered.pendingFrames());
+        assertNextFrame(recovered, 3, 1200);
+    }
+
+    @Test
+    public void memoryModeBehavesTheSameWithoutFiles() throws IOException {
+        FrameSpool spool = new FrameSpool(null, SEGMENT_BYTES, 2, VIEWS);
+        for (int i = 0; i < 8; i++) {
+            append(spool, 1200);
+        }
+        assertEquals(2, spool.getSegmentCount());
+        assertEquals(3, spool.getDroppedFrames());
+        for (long seq = 3; seq < 8; seq++) {
+            assertNextFrame(spool, seq, 1200);
+        }
+        spool.acknowledgeSent();
+        assertEquals(0, spool.pendingFrames());
+        spool.close();
+        assertEquals(0, segmentFiles());
+    }
+
+    private int segmentFiles() {
+        String[] names = dir.list((d, name) -> name.endsWith(".spool"));
+        return names == null ? 0 : names.length;
+    }
+}
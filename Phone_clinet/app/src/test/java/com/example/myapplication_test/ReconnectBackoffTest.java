@@ -0,0 +1,34 @@
+package com.example.myapplication_test;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void delayDoublesWithinJitterBoundsUpToMax() {
+        ReconnectBackoff backoff = new ReconnectBackoff(500, 30_000, new Random(1));
+        for (int attempt = 1; attempt <= 40; attempt++) {
+            long cap = Math.min(30_000, 500L << Math.min(attempt - 1, 30));
+            for (int i = 0; i < 100; i++) {
+                long delay = backoff.delayMillis(attempt);
+                assertTrue("attempt " + attempt + " delay " + delay, delay >= cap / 2 && delay <= cap);
+            }
+        }
+    }
+
+    @Test
+    public void delaysAreSpreadOut() {
+        ReconnectBackoff backoff = new ReconnectBackoff(500, 30_000, new Random(2));
+        Set<Long> distinct = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            distinct.add(backoff.delayMillis(8));
+        }
+        assertTrue(distinct.size() > 20);
+    }
+}
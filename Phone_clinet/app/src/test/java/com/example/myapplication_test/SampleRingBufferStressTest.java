@@ -0,0 +1,98 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 一个线程以最快速度写入 x = y = z = 事件序号的三元组，另一个线程同时 drain、编码成帧再解码，
+ * 检查到达“线路”的每个采样都来自同一个事件，且时间戳严格递增。
+ * 缓冲区故意设得很小，让生产者不断覆盖消费者正在读的槽位。
+ */
+public class SampleRingBufferStressTest {
+    private static final int EVENTS = 3_000_000;
+
+    private static class TripleChecker implements FrameDecoder.Listener {
+        long lastTimestamp = -1;
+        long samples;
+        String failure;
+
+        @Override
+        public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+        }
+
+        @Override
+        public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+            samples++;
+            if (failure != null) {
+                return;
+            }
+            if (values[0] != values[1] || values[1] != values[2]) {
+                failure = "torn triple " + values[0] + "/" + values[1] + "/" + values[2];
+            } else if (timestampNanos != (long) values[0] * 1000L) {
+                failure = "timestamp " + timestampNanos + " does not match values " + values[0];
+            } else if (timestampNanos <= lastTimestamp) {
+                failure = "out of order " + lastTimestamp + " -> " + timestampNanos;
+            }
+            lastTimestamp = timestampNanos;
+        }
+
+        @Override
+        public void onFrameEnd() {
+        }
+    }
+
+    @Test
+    public void noTornTriplesReachTheWire() throws Exception {
+        for (SampleRingBuffer.OverflowPolicy policy : SampleRingBuffer.OverflowPolicy.values()) {
+            SampleSlots slots = new SampleSlots(16, policy);
+            AtomicBoolean done = new AtomicBoolean();
+
+            Thread producer = new Thread(() -> {
+                float[] event = new float[3];
+                for (int i = 1; i <= EVENTS; i++) {
+                    // float 能精确表示 2^24 以内的整数
+                    float v = i % (1 << 24);
+                    event[0] = v;
+                    event[1] = v;
+                    event[2] = v;
+                    slots.push(WireFormat.SENSOR_ACCELEROMETER, (long) v * 1000L, event);
+                }
+                done.set(true);
+            }, "producer");
+
+            FrameEncoder encoder = new FrameEncoder();
+            FrameDecoder decoder = new FrameDecoder();
+            ByteBuffer wire = ByteBuffer.allocate(slots.maxFrameSize());
+            TripleChecker checker = new TripleChecker();
+            SampleSlots.EncodeOptions options = new SampleSlots.EncodeOptions();
+            long sequence = 0;
+
+            producer.start();
+            boolean last = false;
+            while (!last) {
+                last = done.get();
+                wire.clear();
+                // 基准时间取 0，使得微秒偏移等于事件序号，便于校验
+                int length = slots.encodeFrame(slots.primaryCursor(), encoder, wire, 1L, sequence++, 0L, options);
+                if (length > 0) {
+                    wire.flip();
+                    decoder.decode(wire, checker);
+                }
+                assertNull(policy + ": " + checker.failure, checker.failure);
+            }
+            producer.join();
+
+            assertTrue(policy + " delivered nothing", checker.samples > 0);
+            long dropped = slots.get(WireFormat.SENSOR_ACCELEROMETER).getDroppedCount();
+            assertEquals(policy + " accounting", EVENTS, checker.samples + dropped);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.myapplication_test;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleRingBuffer 的本地单元测试，用合成的 500Hz 事件流模拟加速度传感器。
+ */
+public class SampleRingBufferTest {
+    private static final int RATE_HZ = 500;
+    private static final long PERIOD_NS = 1_000_000_000L / RATE_HZ;
+
+    private static void pushSeconds(SampleRingBuffer buffer, long startIndex, int seconds) {
+        float[] event = new float[3];
+        for (long i = startIndex; i < startIndex + (long) seconds * RATE_HZ; i++) {
+            event[0] = i;
+            event[1] = -i;
+            event[2] = i * 0.5f;
+            buffer.push(i * PERIOD_NS, event);
+        }
+    }
+
+    @Test
+    public void drainsEverySampleAt500Hz() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3, 1024, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        long[] ts = new long[1024];
+        float[] values = new float[1024 * 3];
+
+        long next = 0;
+        for (int second = 0; second < 5; second++) {
+            pushSeconds(buffer, next, 1);
+            int count = buffer.drain(ts, values, 1024);
+            assertEquals(RATE_HZ, count);
+            for (int i = 0; i < count; i++) {
+                long expected = next + i;
+                assertEquals(expected * PERIOD_NS, ts[i]);
+                assertEquals(expected, values[i * 3], 0f);
+                assertEquals(-expected, values[i * 3 + 1], 0f);
+                assertEquals(expected * 0.5f, values[i * 3 + 2], 0f);
+            }
+            next += RATE_HZ;
+        }
+        assertEquals(0, buffer.getDroppedCount());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void dropOldestKeepsNewestSamples() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3, 256, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        pushSeconds(buffer, 0, 1);
+
+        long[] ts = new long[256];
+        float[] values = new float[256 * 3];
+        int count = buffer.drain(ts, values, 256);
+        // 写满后最旧的槽位视为可能正在被覆盖，只交出 capacity - 1 个
+        assertEquals(255, count);
+        assertEquals(RATE_HZ - 255, buffer.getDroppedCount());
+        assertEquals((RATE_HZ - 255) * PERIOD_NS, ts[0]);
+        assertEquals((RATE_HZ - 1) * PERIOD_NS, ts[count - 1]);
+        assertEquals(RATE_HZ - 1, values[(count - 1) * 3], 0f);
+    }
+
+    @Test
+    public void decimateCoversWholeIntervalInOrder() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3, 128, SampleRingBuffer.OverflowPolicy.DECIMATE);
+        pushSeconds(buffer, 0, 1);
+
+        long[] ts = new long[128];
+        float[] values = new float[128 * 3];
+        int count = buffer.drain(ts, values, 128);
+        assertTrue(count > 64 && count <= 128);
+        assertEquals(RATE_HZ, count + buffer.getDroppedCount());
+        // 抽稀后仍覆盖整段时间，且保持时间顺序
+        assertEquals(0, ts[0]);
+        assertTrue(ts[count - 1] >= (RATE_HZ * 4 / 5) * PERIOD_NS);
+        for (int i = 1; i < count; i++) {
+            assertTrue(ts[i] > ts[i - 1]);
+            assertEquals(ts[i] / PERIOD_NS, (long) values[i * 3]);
+        }
+
+        // drain 之后恢复全速记录
+        float[] event = {1f, 2f, 3f};
+        buffer.push(1L, event);
+        buffer.push(2L, event);
+        assertEquals(2, buffer.drain(ts, values, 128));
+    }
+
+    @Test
+    public void latestValueSurvivesDrain() {
+        SampleRingBuffer buffer = new SampleRingBuffer(1, 4, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        float[] out = new float[1];
+        assertFalse(buffer.copyLatest(out));
+
+        buffer.push(10L, new float[]{42f, 99f});
+        buffer.drain(new long[4], new float[4], 4);
+        assertTrue(buffer.copyLatest(out));
+        assertEquals(42f, out[0], 0f);
+        assertEquals(10L, buffer.getLatestTimestamp());
+    }
+
+    @Test
+    public void slowReaderDoesNotAffectOtherReaders() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3, 1024, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        pushSeconds(buffer, 0, 1);
+        // 新的读者从加入之后的采样开始
+        SampleRingBuffer.Reader fast = buffer.addReader();
+        SampleRingBuffer.Reader slow = buffer.addReader();
+        assertEquals(0, buffer.size(fast));
+
+        long[] ts = new long[1024];
+        float[] values = new float[1024 * 3];
+        long next = RATE_HZ;
+        for (int second = 0; second < 4; second++) {
+            pushSeconds(buffer, next, 1);
+            int count = buffer.drain(fast, ts, values, 1024);
+            assertEquals(RATE_HZ, count);
+            assertEquals(next * PERIOD_NS, ts[0]);
+            next += RATE_HZ;
+        }
+        assertEquals(0, buffer.getDroppedCount(fast));
+
+        // 慢的读者 4 秒没有取数据，只丢掉自己的旧采样
+        int count = buffer.drain(slow, ts, values, 1024);
+        assertEquals(1023, count);
+        assertEquals(4 * RATE_HZ - 1023, buffer.getDroppedCount(slow));
+        assertEquals((next - 1) * PERIOD_NS, ts[count - 1]);
+
+        buffer.removeReader(slow);
+        pushSeconds(buffer, next, 1);
+        assertEquals(RATE_HZ, buffer.drain(fast, ts, values, 1024));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 统计当前线程在稳态“采集 → 编码”循环中分配的字节数，任何每采样的分配都会让测试失败。
+ * 依赖 HotSpot 的 com.sun.management.ThreadMXBean，不支持时跳过。
+ */
+public class SampleSlotsAllocationTest {
+    private static final int SAMPLES_PER_FLUSH = 500;
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+
+    private static long runCycles(SampleSlots slots, FrameEncoder encoder, ByteBuffer out, float[] event, int cycles,
+                                  SampleSlots.EncodeOptions options) {
+        long bytes = 0;
+        long t = 0;
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            for (int i = 0; i < SAMPLES_PER_FLUSH; i++) {
+                t += 2_000_000L;
+                event[0] = i;
+                event[1] = -i;
+                event[2] = cycle;
+                slots.push(WireFormat.SENSOR_ACCELEROMETER, t, event);
+                slots.push(WireFormat.SENSOR_ORIENTATION, t, event);
+                if (i % 100 == 0) {
+                    slots.push(WireFormat.SENSOR_LIGHT, t, event);
+                    slots.pushConstant(WireFormat.SENSOR_LOCATION, t, -3f);
+                }
+            }
+            out.clear();
+            bytes += slots.encodeFrame(slots.primaryCursor(), encoder, out, 1L, cycle, t, options);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void steadyStateCaptureAndEncodeAllocateNothing() {
+        assertSteadyStateAllocatesNothing(0);
+    }
+
+    @Test
+    public void steadyStateDeltaEncodeAllocatesNothing() {
+        assertSteadyStateAllocatesNothing(WireFormat.FLAG_DELTA);
+    }
+
+    private static void assertSteadyStateAllocatesNothing(int flags) {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        Assume.assumeNotNull(bean);
+        long threadId = Thread.currentThread().getId();
+
+        SampleSlots slots = new SampleSlots(1024, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(slots.maxFrameSize());
+        float[] event = new float[3];
+        SampleSlots.EncodeOptions options = new SampleSlots.EncodeOptions().flags(flags);
+
+        // 预热，让 JIT 编译完成
+        runCycles(slots, encoder, out, event, 2_000, options);
+
+        // 测量本身的开销
+        long probeStart = bean.getThreadAllocatedBytes(threadId);
+        long probeEnd = bean.getThreadAllocatedBytes(threadId);
+        long probeOverhead = probeEnd - probeStart;
+
+        int cycles = 200;
+        long before = bean.getThreadAllocatedBytes(threadId);
+        long encoded = runCycles(slots, encoder, out, event, cycles, options);
+        long after = bean.getThreadAllocatedBytes(threadId);
+
+        assertTrue(encoded > 0);
+        long allocated = after - before - probeOverhead;
+        long samples = (long) cycles * SAMPLES_PER_FLUSH * 2;
+        assertEquals("bytes allocated for " + samples + " samples", 0, Math.max(0, allocated));
+    }
+}
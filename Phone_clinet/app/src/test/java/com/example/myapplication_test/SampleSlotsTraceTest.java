@@ -0,0 +1,158 @@
+package com.example.myapplication_test;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleSlotsTraceTest {
+    private static final long MS = 1_000_000L;
+
+    private static int flagsOf(ByteBuffer out) {
+        return out.get(5) & 0xff;
+    }
+
+    @Test
+    public void marksTheFrameCarryingTheTracedSample() {
+        SampleSlots slots = new SampleSlots(64, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor traced = slots.openCursor();
+        traced.setTracing(true);
+        SampleSlots.Cursor plain = slots.openCursor();
+        SampleSlots.EncodeOptions delta = new SampleSlots.EncodeOptions().flags(WireFormat.FLAG_DELTA);
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(slots.maxFrameSize());
+
+        long t = 5000 * MS;
+        assertTrue(slots.traceDue(t));
+        slots.push(WireFormat.SENSOR_ACCELEROMETER, t, new float[]{1f, 2f, 3f});
+        slots.markTrace(WireFormat.SENSOR_ACCELEROMETER, t, t + 7);
+        assertFalse(slots.traceDue(t + 999 * MS));
+        assertTrue(slots.traceDue(t + SampleSlots.TRACE_INTERVAL_NANOS));
+        slots.push(WireFormat.SENSOR_ACCELEROMETER, t + MS, new float[]{4f, 5f, 6f});
+
+        assertTrue(slots.encodeFrame(traced, encoder, out, 1L, 0, t + MS, delta) > 0);
+        assertEquals(WireFormat.FLAG_TRACED, flagsOf(out) & WireFormat.FLAG_TRACED);
+        assertEquals(WireFormat.SENSOR_ACCELEROMETER, traced.getTracedSensorId());
+        assertEquals(t, traced.getTracedCaptureNanos());
+        assertEquals(t + 7, traced.getTracedEnqueueNanos());
+
+        // 没开启追踪的游标照常编码，不带标志
+        out.clear();
+        assertTrue(slots.encodeFrame(plain, encoder, out, 1L, 0, t + MS, delta) > 0);
+        assertEquals(0, flagsOf(out) & WireFormat.FLAG_TRACED);
+        assertEquals(0, plain.getTracedSensorId());
+
+        // 同一个标记只追踪一次
+        slots.push(WireFormat.SENSOR_ACCELEROMETER, t + 2 * MS, new float[]{7f, 8f, 9f});
+        out.clear();
+        assertTrue(slots.encodeFrame(traced, encoder, out, 1L, 1, t + 2 * MS, delta) > 0);
+        assertEquals(0, flagsOf(out) & WireFormat.FLAG_TRACED);
+        assertEquals(0, traced.getTracedSensorId());
+    }
+
+    @Test
+    public void boundedFramesTraceTheSampleWhenItIsFinallyDrained() {
+        SampleSlots slots = new SampleSlots(256, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor cursor = slots.openCursor();
+        cursor.setTracing(true);
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(WireFormat.MAX_DATAGRAM_SIZE);
+        long t = 0;
+        for (int i = 0; i < 200; i++) {
+            t += MS;
+            slots.push(WireFormat.SENSOR_ORIENTATION, t, new float[]{i, -i, 0f});
+        }
+        slots.markTrace(WireFormat.SENSOR_ORIENTATION, t, t);
+
+        // 一个数据报装不下 200 个采样，被追踪的最后一个在后面的数据报里
+        int frames = 0;
+        int tracedFrames = 0;
+        while (true) {
+            out.clear();
+            if (slots.encodeBoundedFrame(cursor, encoder, out, 1L, frames, t, new SampleSlots.EncodeOptions()) == 0) {
+                break;
+            }
+            frames++;
+            if ((flagsOf(out) & WireFormat.FLAG_TRACED) != 0) {
+                tracedFrames++;
+                assertEquals(t, cursor.getTracedCaptureNanos());
+            }
+        }
+        assertTrue(frames > 1);
+        assertEquals(1, tracedFrames);
+    }
+
+    @Test
+    public void filteredSamplesAreNotTraced() {
+        SampleSlots slots = new SampleSlots(64, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor cursor = slots.openCursor();
+        cursor.setTracing(true);
+        DeadbandFilter filter = new DeadbandFilter(new DeadbandFilter.Settings(), 5000);
+        SampleSlots.EncodeOptions held = new SampleSlots.EncodeOptions().flags(WireFormat.FLAG_DELTA).deadband(filter);
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(slots.maxFrameSize());
+        long t = 1000 * MS;
+        slots.push(WireFormat.SENSOR_LIGHT, t, new float[]{110f});
+        out.clear();
+        assertTrue(slots.encodeFrame(cursor, encoder, out, 1L, 0, t, held) > 0);
+
+        // 没变化的采样被死区滤掉，标记随之放弃
+        slots.push(WireFormat.SENSOR_LIGHT, t + MS, new float[]{110f});
+        slots.markTrace(WireFormat.SENSOR_LIGHT, t + MS, t + MS);
+        slots.push(WireFormat.SENSOR_ACCELEROMETER, t + MS, new float[]{1f, 2f, 3f});
+        out.clear();
+        assertTrue(slots.encodeFrame(cursor, encoder, out, 1L, 1, t + MS, held) > 0);
+        assertEquals(0, flagsOf(out) & WireFormat.FLAG_TRACED);
+        assertEquals(0, cursor.getTracedSensorId());
+    }
+
+    @Test
+    public void withheldSensorsAreDrainedButNotSentOrTraced() throws Exception {
+        SampleSlots slots = new SampleSlots(64, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        SampleSlots.Cursor cursor = slots.openCursor();
+        cursor.setTracing(true);
+        SampleSlots.EncodeOptions options = new SampleSlots.EncodeOptions()
+                .sensors(1 << WireFormat.SENSOR_ACCELEROMETER | 1 << WireFormat.SENSOR_LIGHT);
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer out = ByteBuffer.allocate(slots.maxFrameSize());
+        long t = 1000 * MS;
+        slots.push(WireFormat.SENSOR_ACCELEROMETER, t, new float[]{1f, 2f, 3f});
+        slots.push(WireFormat.SENSOR_GYROSCOPE, t, new float[]{4f, 5f, 6f});
+        slots.pushConstant(WireFormat.SENSOR_PRESSURE, t, 1013f);
+        slots.markTrace(WireFormat.SENSOR_GYROSCOPE, t, t);
+
+        assertTrue(slots.encodeFrame(cursor, encoder, out, 1L, 0, t, options) > 0);
+        assertEquals(0, slots.pendingSamples(cursor));
+        assertEquals(0, flagsOf(out) & WireFormat.FLAG_TRACED);
+        out.flip();
+        List<Integer> sensors = new ArrayList<>();
+        new FrameDecoder().decode(out, new FrameDecoder.Listener() {
+            @Override
+            public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+            }
+
+            @Override
+            public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+                sensors.add(sensorId);
+            }
+
+            @Override
+            public void onFrameEnd() {
+            }
+        });
+        assertEquals(List.of(WireFormat.SENSOR_ACCELEROMETER), sensors);
+
+        // 只有不发送的传感器有新采样时没有帧
+        slots.push(WireFormat.SENSOR_GYROSCOPE, t + MS, new float[]{7f, 8f, 9f});
+        out.clear();
+        assertEquals(0, slots.encodeFrame(cursor, encoder, out, 1L, 1, t + MS, options));
+        assertEquals(0, slots.pendingSamples(cursor));
+    }
+}
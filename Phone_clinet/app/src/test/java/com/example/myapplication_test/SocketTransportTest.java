@@ -0,0 +1,179 @@
+package com.example.myapplication_test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在本机回环地址上起一个 ServerSocket，验证写出顺序、背压和按行读取。
+ */
+public class SocketTransportTest {
+    private ServerSocket server;
+    private Socket peer;
+    private SocketTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        // 接收端的接收窗口越小，越快出现背压
+        server.setReceiveBufferSize(4096);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (transport != null) {
+            transport.close();
+        }
+        if (peer != null) {
+            peer.close();
+        }
+        server.close();
+    }
+
+    private SocketTransport connect(SocketTransport.Settings settings) throws Exception {
+        transport = new SocketTransport(settings);
+        transport.connect(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+        peer = server.accept();
+        return transport;
+    }
+
+    private static SocketTransport.Settings smallSettings() {
+        SocketTransport.Settings settings = new SocketTransport.Settings();
+        settings.bufferBytes = 1024;
+        settings.bufferCount = 4;
+        settings.sendBufferBytes = 4096;
+        return settings;
+    }
+
+    @Test
+    public void committedBuffersArriveInOrder() throws Exception {
+        SocketTransport t = connect(smallSettings());
+        int total = 0;
+        for (int frame = 0; frame < 3; frame++) {
+            ByteBuffer buffer = t.acquire();
+            assertNotNull(buffer);
+            for (int i = 0; i < 100; i++) {
+                buffer.put((byte) (frame * 100 + i));
+            }
+            t.commit(buffer);
+            total += 100;
+        }
+        byte[] line = "{\"Light\":1.0}\n".getBytes(StandardCharsets.UTF_8);
+        assertTrue(t.enqueue(line, 0, line.length));
+        total += line.length;
+        assertTrue(t.flushFully(2000));
+        assertEquals(0, t.getQueuedBytes());
+        assertEquals(total, t.getBytesWritten());
+
+        byte[] received = readFully(peer.getInputStream(), total);
+        for (int i = 0; i < 300; i++) {
+            assertEquals((byte) i, received[i]);
+        }
+        assertEquals("{\"Light\":1.0}\n", new String(received, 300, line.length, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void enqueueSpreadsAcrossBuffersAndRefusesWhatCannotFit() throws Exception {
+        SocketTransport t = connect(smallSettings());
+        assertFalse(t.enqueue(new byte[4 * 1024 + 1], 0, 4 * 1024 + 1));
+        assertEquals(0, t.getQueuedBytes());
+
+        byte[] data = new byte[2500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        assertTrue(t.enqueue(data, 0, data.length));
+        assertEquals(data.length, t.getQueuedBytes());
+        assertTrue(t.flushFully(2000));
+        assertArrayEquals(data, readFully(peer.getInputStream(), data.length));
+    }
+
+    @Test
+    public void slowReaderCausesBackpressureInsteadOfBlocking() throws Exception {
+        SocketTransport t = connect(smallSettings());
+        byte[] chunk = new byte[1024];
+        long committed = 0;
+        // 接收端不读：内核缓冲区写满后，队列中的缓冲区再也还不回来
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!t.isBackpressured() && System.currentTimeMillis() < deadline) {
+            ByteBuffer buffer = t.acquire();
+            buffer.put(chunk);
+            t.commit(buffer);
+            committed += chunk.length;
+            long start = System.nanoTime();
+            t.flush();
+            assertTrue("flush must not block", System.nanoTime() - start < 1_000_000_000L);
+        }
+        assertTrue(t.isBackpressured());
+        assertNull(t.acquire());
+        assertTrue(t.getQueuedBytes() > 0);
+        assertTrue(t.getWriteStalls() > 0);
+        assertEquals(committed, t.getBytesWritten() + t.getQueuedBytes());
+
+        // 接收端开始读：积压的数据全部写出，缓冲区重新可用
+        int expected = (int) committed;
+        Thread reader = new Thread(() -> {
+            try {
+                readFully(peer.getInputStream(), expected);
+            } catch (Exception ignored) {
+            }
+        });
+        reader.start();
+        assertTrue(t.flushFully(5000));
+        reader.join(5000);
+        assertFalse(t.isBackpressured());
+        assertNotNull(t.acquire());
+        assertEquals(committed, t.getBytesWritten());
+    }
+
+    @Test
+    public void readsLinesAndTimesOut() throws Exception {
+        SocketTransport t = connect(smallSettings());
+        StringBuilder line = new StringBuilder();
+        assertFalse(t.readLine(line, 50));
+
+        OutputStream out = peer.getOutputStream();
+        out.write("OK ssp1\r\nACK ".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        assertTrue(t.readLine(line, 2000));
+        assertEquals("OK ssp1", line.toString());
+
+        line.setLength(0);
+        assertFalse(t.pollLine(line));
+        out.write("7\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        assertTrue(t.readLine(line, 2000));
+        assertEquals("ACK 7", line.toString());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void peerCloseIsReported() throws Exception {
+        SocketTransport t = connect(smallSettings());
+        peer.close();
+        t.readLine(new StringBuilder(), 2000);
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws Exception {
+        byte[] data = new byte[length];
+        int off = 0;
+        while (off < length) {
+            int n = in.read(data, off, length - off);
+            if (n < 0) {
+                throw new java.io.EOFException();
+            }
+            off += n;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 对比两份 JMH JSON 结果（-rf json），每个基准一行：吞吐 ops/s、p99 延迟、每次操作分配的字节数。
+ *
+ * 吞吐下降或 p99、B/op 上升超过阈值（默认 10%）的行标记为 REGRESSION，有任何一行被标记时以 1 退出。
+ * 用法：BaselineReport baseline.json current.json [thresholdPercent]
+ */
+public final class BaselineReport {
+
+    /** 一个基准（含参数）在 thrpt 和 sample 两种模式下汇总出的数值，缺失为 NaN */
+    static final class Row {
+        double opsPerSecond = Double.NaN;
+        double p99Micros = Double.NaN;
+        double bytesPerOp = Double.NaN;
+    }
+
+    private BaselineReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineReport <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Row> baseline = load(args[0]);
+        Map<String, Row> current = load(args[1]);
+
+        System.out.printf("%-72s %14s %14s %8s %12s %12s %8s %10s %10s%n",
+                "Benchmark", "base ops/s", "ops/s", "delta", "base p99 us", "p99 us", "delta", "base B/op", "B/op");
+        int regressions = 0;
+        for (Map.Entry<String, Row> entry : current.entrySet()) {
+            Row now = entry.getValue();
+            Row before = baseline.get(entry.getKey());
+            if (before == null) {
+                before = new Row();
+            }
+            double throughputDelta = percent(before.opsPerSecond, now.opsPerSecond);
+            double p99Delta = percent(before.p99Micros, now.p99Micros);
+            double allocDelta = percent(before.bytesPerOp, now.bytesPerOp);
+            // 0 B/op 的基准上开始分配也算回归
+            boolean regression = throughputDelta < -threshold || p99Delta > threshold || allocDelta > threshold
+                    || (before.bytesPerOp < 1 && now.bytesPerOp >= 1);
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-72s %14s %14s %8s %12s %12s %8s %10s %10s%s%n",
+                    entry.getKey(),
+                    format(before.opsPerSecond, "%.0f"), format(now.opsPerSecond, "%.0f"), format(throughputDelta, "%+.1f%%"),
+                    format(before.p99Micros, "%.3f"), format(now.p99Micros, "%.3f"), format(p99Delta, "%+.1f%%"),
+                    format(before.bytesPerOp, "%.1f"), format(now.bytesPerOp, "%.1f"),
+                    regression ? "  REGRESSION" : "");
+        }
+        for (String name : baseline.keySet()) {
+            if (!current.containsKey(name)) {
+                System.out.println("missing from current run: " + name);
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    static Map<String, Row> load(String path) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        JSONArray runs = new JSONArray(text);
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            Row row = rows.computeIfAbsent(key(run), k -> new Row());
+            JSONObject primary = run.getJSONObject("primaryMetric");
+            double scale = microsPer(primary.getString("scoreUnit"));
+            String mode = run.getString("mode");
+            if ("thrpt".equals(mode)) {
+                // 分数单位形如 ops/us
+                row.opsPerSecond = primary.getDouble("score") / scale * 1_000_000.0;
+            } else if ("sample".equals(mode)) {
+                JSONObject percentiles = primary.optJSONObject("scorePercentiles");
+                if (percentiles != null && percentiles.has("99.0")) {
+                    // 分数单位形如 us/op
+                    row.p99Micros = percentiles.getDouble("99.0") * scale;
+                }
+            }
+            JSONObject secondary = run.optJSONObject("secondaryMetrics");
+            if (secondary != null && Double.isNaN(row.bytesPerOp)) {
+                // JMH 1.37 之前的版本名字前带 "·"
+                JSONObject norm = secondary.optJSONObject("gc.alloc.rate.norm");
+                if (norm == null) {
+                    norm = secondary.optJSONObject("\u00b7gc.alloc.rate.norm");
+                }
+                if (norm != null) {
+                    row.bytesPerOp = norm.getDouble("score");
+                }
+            }
+        }
+        return rows;
+    }
+
+    /** 基准名加上参数，不含模式，使同一基准的 thrpt 和 sample 结果合成一行 */
+    private static String key(JSONObject run) {
+        String name = run.getString("benchmark");
+        name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+        JSONObject params = run.optJSONObject("params");
+        if (params == null) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name).append(':');
+        for (String param : new TreeSet<>(params.keySet())) {
+            sb.append(param).append('=').append(params.getString(param)).append(',');
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    /** 分数单位中时间部分对应的微秒数，ops/ms 为 1000，us/op 为 1 */
+    private static double microsPer(String unit) {
+        if (unit.contains("ns")) {
+            return 0.001;
+        } else if (unit.contains("us")) {
+            return 1;
+        } else if (unit.contains("ms")) {
+            return 1000;
+        } else if (unit.contains("s")) {
+            return 1_000_000;
+        }
+        return 1;
+    }
+
+    private static double percent(double before, double now) {
+        if (Double.isNaN(before) || Double.isNaN(now) || before == 0) {
+            return Double.NaN;
+        }
+        return (now - before) / before * 100.0;
+    }
+
+    private static String format(double value, String pattern) {
+        return Double.isNaN(value) ? "-" : String.format(pattern, value);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.benchmarks;
+
+import com.example.myapplication_test.SampleRingBuffer;
+import com.example.myapplication_test.SampleSlots;
+import com.example.sensorprotocol.WireFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 采集回调中写入一个传感器事件的开销。
+ *
+ * legacy* 复现最初 onSensorChanged 的做法：synchronized 包住 HashMap.put(key, event.values.clone())，
+ * 发送线程在同一把锁下读取；slots* 是现在的 SampleSlots（每个传感器一个无锁 SPSC 环形缓冲区）。
+ * 两个 Group 基准让采集线程和发送线程同时运行，体现锁竞争。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CaptureBenchmark {
+    private static final String[] KEYS = {"Accelerometer", "Orientation", "Light"};
+    private static final int[] SENSOR_IDS = {
+            WireFormat.SENSOR_ACCELEROMETER, WireFormat.SENSOR_ORIENTATION, WireFormat.SENSOR_LIGHT};
+    private static final int CAPACITY = 256;
+
+    /** 采集线程和发送线程共享的数据 */
+    public static class Store {
+        final Map<String, float[]> sensorDataMap = new HashMap<>();
+        final SampleSlots slots = new SampleSlots(CAPACITY, SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /** 单线程基准用，没有读取方 */
+    @State(Scope.Thread)
+    public static class Uncontended extends Store {
+    }
+
+    /** 同一 Group 内的线程共享 */
+    @State(Scope.Group)
+    public static class Contended extends Store {
+    }
+
+    /** 采集线程私有的事件内容，模拟 SensorEvent.values */
+    @State(Scope.Thread)
+    public static class Event {
+        final float[] values = {-9.052347f, 3.1746774f, 2.757429f};
+        long timestamp;
+        int next;
+
+        int nextIndex() {
+            values[0] += 0.001f;
+            timestamp += 2_000_000L;
+            next = next == KEYS.length - 1 ? 0 : next + 1;
+            return next;
+        }
+    }
+
+    /** 发送线程私有的读取缓冲 */
+    @State(Scope.Thread)
+    public static class Reader {
+        final float[] latest = new float[WireFormat.MAX_CHANNELS];
+    }
+
+    @Benchmark
+    public void legacySynchronizedMapPut(Uncontended store, Event event) {
+        legacyPut(store, event);
+    }
+
+    @Benchmark
+    public void slotsPush(Uncontended store, Event event) {
+        slotsPut(store, event);
+    }
+
+    private static void legacyPut(Store store, Event event) {
+        String key = KEYS[event.nextIndex()];
+        synchronized (store.sensorDataMap) {
+            store.sensorDataMap.put(key, event.values.clone());
+        }
+    }
+
+    private static void slotsPut(Store store, Event event) {
+        store.slots.push(SENSOR_IDS[event.nextIndex()], event.timestamp, event.values);
+    }
+
+    @Benchmark
+    @Group("legacyContended")
+    @GroupThreads(1)
+    public void legacyContendedWriter(Contended store, Event event) {
+        legacyPut(store, event);
+    }
+
+    @Benchmark
+    @Group("legacyContended")
+    @GroupThreads(1)
+    public void legacyContendedReader(Contended store, Reader reader, Blackhole bh) {
+        // 旧 sendDataTask 在锁内读取全部传感器的最新值
+        synchronized (store.sensorDataMap) {
+            for (String key : KEYS) {
+                float[] values = store.sensorDataMap.get(key);
+                if (values != null) {
+                    System.arraycopy(values, 0, reader.latest, 0, values.length);
+                }
+            }
+        }
+        bh.consume(reader.latest);
+    }
+
+    @Benchmark
+    @Group("slotsContended")
+    @GroupThreads(1)
+    public void slotsContendedWriter(Contended store, Event event) {
+        slotsPut(store, event);
+    }
+
+    @Benchmark
+    @Group("slotsContended")
+    @GroupThreads(1)
+    public int slotsContendedReader(Contended store) {
+        int total = 0;
+        for (int id : SENSOR_IDS) {
+            total += store.slots.drain(id);
+        }
+        return total;
+    }
+}
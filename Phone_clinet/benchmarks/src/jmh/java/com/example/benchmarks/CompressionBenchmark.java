@@ -0,0 +1,253 @@
+package com.example.benchmarks;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.FrameFormatException;
+import com.example.sensorprotocol.WireFormat;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用 Receiver/data 下实际采集的 CSV 比较原始 float32 帧与 {@link WireFormat#FLAG_DELTA} 压缩帧：
+ * 每次调用把整份数据按 samplesPerFrame 分帧编码（或解码）一遍。
+ *
+ * 吞吐以原始采样字节计：辅助计数器 sampleBytes 的速率单位为 字节/µs，即 MB/s；wireBytes 是实际写出的帧字节，
+ * 两者之比就是压缩比。Trial 开始时还会打印一次与 CSV 文本、原始帧的大小对比和各传感器的最大量化误差。
+ *
+ * CSV 路径由 build.gradle 通过系统属性 benchmarks.sampleCsv 传入。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompressionBenchmark {
+    private static final String DEFAULT_CSV = "../../Receiver/data/172.30.161.135_sensor_data.csv";
+    private static final DateTimeFormatter CSV_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    // CSV 列：Timestamp, Latitude, Longitude, Accelerometer ×3, Orientation ×3, Light
+    private static final int[] SENSORS = {
+            WireFormat.SENSOR_LOCATION, WireFormat.SENSOR_ACCELEROMETER, WireFormat.SENSOR_ORIENTATION, WireFormat.SENSOR_LIGHT
+    };
+    private static final int[] FIRST_COLUMN = {1, 3, 6, 9};
+
+    @Param({"10", "100"})
+    public int samplesPerFrame;
+
+    private long[] timestamps;
+    // 按传感器分开的采样值，sensorValues[k][i * channels + c]
+    private float[][] sensorValues;
+    private long csvBytes;
+    private long sampleBytesPerPass;
+
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final FrameDecoder decoder = new FrameDecoder();
+    private ByteBuffer out;
+    private ByteBuffer rawFrames;
+    private ByteBuffer deltaFrames;
+
+    /** 每次调用累加，JMH 按速率报告 */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long sampleBytes;
+        public long wireBytes;
+    }
+
+    /** 解码时把每个采样的数值累加起来交给 Blackhole，防止被优化掉 */
+    private static final class Sum implements FrameDecoder.Listener {
+        double sum;
+
+        @Override
+        public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+        }
+
+        @Override
+        public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+            for (int c = 0; c < channels; c++) {
+                sum += values[c];
+            }
+        }
+
+        @Override
+        public void onFrameEnd() {
+        }
+    }
+
+    private final Sum sum = new Sum();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, FrameFormatException {
+        Path csv = Paths.get(System.getProperty("benchmarks.sampleCsv", DEFAULT_CSV));
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        csvBytes = Files.size(csv);
+        List<String[]> rows = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            if (fields.length >= 10) {
+                rows.add(fields);
+            }
+        }
+        int n = rows.size();
+        timestamps = new long[n];
+        sensorValues = new float[SENSORS.length][];
+        for (int k = 0; k < SENSORS.length; k++) {
+            sensorValues[k] = new float[n * WireFormat.channels(SENSORS[k])];
+        }
+        for (int i = 0; i < n; i++) {
+            String[] fields = rows.get(i);
+            LocalDateTime time = LocalDateTime.parse(fields[0], CSV_TIME);
+            timestamps[i] = time.toInstant(ZoneOffset.UTC).toEpochMilli() * 1_000_000L;
+            for (int k = 0; k < SENSORS.length; k++) {
+                int channels = WireFormat.channels(SENSORS[k]);
+                for (int c = 0; c < channels; c++) {
+                    sensorValues[k][i * channels + c] = Float.parseFloat(fields[FIRST_COLUMN[k] + c]);
+                }
+            }
+        }
+
+        out = ByteBuffer.allocate(WireFormat.MAX_FRAME_SIZE);
+        rawFrames = ByteBuffer.allocate(WireFormat.MAX_FRAME_SIZE);
+        deltaFrames = ByteBuffer.allocate(WireFormat.MAX_FRAME_SIZE);
+        sampleBytesPerPass = encodeAll(rawFrames, 0);
+        encodeAll(deltaFrames, WireFormat.FLAG_DELTA);
+        rawFrames.flip();
+        deltaFrames.flip();
+        report(n);
+    }
+
+    private void report(int rows) throws FrameFormatException {
+        float[] maxError = new float[WireFormat.SENSOR_COUNT];
+        int[] index = new int[WireFormat.SENSOR_COUNT];
+        ByteBuffer frames = deltaFrames.duplicate();
+        while (frames.hasRemaining()) {
+            decoder.decode(frames, new FrameDecoder.Listener() {
+                @Override
+                public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+                }
+
+                @Override
+                public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+                    int k = indexOf(sensorId);
+                    int i = index[sensorId]++;
+                    for (int c = 0; c < channels; c++) {
+                        float error = Math.abs(values[c] - sensorValues[k][i * channels + c]);
+                        maxError[sensorId] = Math.max(maxError[sensorId], error);
+                    }
+                }
+
+                @Override
+                public void onFrameEnd() {
+                }
+            });
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%n%d rows, %d samples/frame: csv=%d B, raw frames=%d B, delta frames=%d B"
+                        + " (%.2fx vs raw, %.2fx vs csv)%n",
+                rows, samplesPerFrame, csvBytes, rawFrames.remaining(), deltaFrames.remaining(),
+                rawFrames.remaining() / (double) deltaFrames.remaining(), csvBytes / (double) deltaFrames.remaining()));
+        for (int sensorId : SENSORS) {
+            sb.append(String.format("  %-13s decimals=%d max error=%.3g%n", WireFormat.sensorName(sensorId),
+                    encoder.getDecimals(sensorId), maxError[sensorId]));
+        }
+        System.out.print(sb);
+    }
+
+    private static int indexOf(int sensorId) {
+        for (int k = 0; k < SENSORS.length; k++) {
+            if (SENSORS[k] == sensorId) {
+                return k;
+            }
+        }
+        throw new IllegalArgumentException("sensor " + sensorId);
+    }
+
+    /**
+     * 把全部行按 samplesPerFrame 分帧写入 target。
+     *
+     * @return 原始采样（时间戳 + float）的字节数
+     */
+    private long encodeAll(ByteBuffer target, int flags) {
+        long sampleBytes = 0;
+        int n = timestamps.length;
+        for (int start = 0, sequence = 0; start < n; start += samplesPerFrame, sequence++) {
+            int end = Math.min(n, start + samplesPerFrame);
+            // 与手机一样以发送时刻为基准，采样时间戳都在它之前
+            encoder.begin(target, 1L, sequence, timestamps[end - 1], flags);
+            for (int k = 0; k < SENSORS.length; k++) {
+                int channels = WireFormat.channels(SENSORS[k]);
+                encoder.beginBlock(SENSORS[k], channels);
+                for (int i = start; i < end; i++) {
+                    encoder.putSample(timestamps[i], sensorValues[k], i * channels);
+                }
+                encoder.endBlock();
+                sampleBytes += (long) (end - start) * (WireFormat.TIMESTAMP_SIZE + channels * 4);
+            }
+            encoder.end();
+        }
+        return sampleBytes;
+    }
+
+    private void encode(Bytes bytes, int flags) {
+        out.clear();
+        bytes.sampleBytes += encodeAll(out, flags);
+        bytes.wireBytes += out.position();
+    }
+
+    private double decode(ByteBuffer frames, Bytes bytes) throws FrameFormatException {
+        ByteBuffer in = frames.duplicate();
+        sum.sum = 0;
+        while (in.hasRemaining()) {
+            decoder.decode(in, sum);
+        }
+        bytes.sampleBytes += sampleBytesPerPass;
+        bytes.wireBytes += frames.remaining();
+        return sum.sum;
+    }
+
+    @Benchmark
+    public void encodeRaw(Bytes bytes) {
+        encode(bytes, 0);
+    }
+
+    @Benchmark
+    public void encodeDelta(Bytes bytes) {
+        encode(bytes, WireFormat.FLAG_DELTA);
+    }
+
+    @Benchmark
+    public void decodeRaw(Bytes bytes, Blackhole blackhole) throws FrameFormatException {
+        blackhole.consume(decode(rawFrames, bytes));
+    }
+
+    @Benchmark
+    public void decodeDelta(Bytes bytes, Blackhole blackhole) throws FrameFormatException {
+        blackhole.consume(decode(deltaFrames, bytes));
+    }
+}
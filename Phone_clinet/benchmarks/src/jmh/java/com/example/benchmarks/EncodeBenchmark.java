@@ -0,0 +1,164 @@
+package com.example.benchmarks;
+
+import com.example.myapplication_test.SampleRingBuffer;
+import com.example.myapplication_test.SampleSlots;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.WireFormat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次发送的完整开销：采集 samplesPerSensor 个事件（每个传感器），再编码成要写给 socket 的字节。
+ *
+ * <ul>
+ * <li>legacyMapAndJsonObject：最初的 sendDataTask，HashMap 只留每个传感器的最新值，JSONObject/JSONArray 拼一行</li>
+ * <li>slotsAndJsonBatch：现在的 JSON 兼容路径（SinkConnection.buildJsonPayload），带全部采样的 "Samples"</li>
+ * <li>slotsAndBinaryFrame：现在的二进制路径，SampleSlots 直接编码成 WireFormat 帧</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EncodeBenchmark {
+    private static final String KEY_LOCATION = "Location";
+    private static final String KEY_ACCELEROMETER = "Accelerometer";
+    private static final String KEY_ORIENTATION = "Orientation";
+    private static final String KEY_LIGHT = "Light";
+
+    @Param({"1", "50"})
+    public int samplesPerSensor;
+
+    private float[][] accelerometer;
+    private float[][] orientation;
+    private float[] light;
+    private final float[] location = {30.2741f, 120.1551f};
+    private long timestamp;
+
+    private final Map<String, float[]> sensorDataMap = new HashMap<>();
+    private SampleSlots slots;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final SampleSlots.EncodeOptions options = new SampleSlots.EncodeOptions();
+    private ByteBuffer frameBuffer;
+    private final float[] latestValues = new float[WireFormat.MAX_CHANNELS];
+
+    @Setup
+    public void setUp() {
+        accelerometer = new float[samplesPerSensor][];
+        orientation = new float[samplesPerSensor][];
+        light = new float[samplesPerSensor];
+        for (int i = 0; i < samplesPerSensor; i++) {
+            double phase = 0.1 * i;
+            accelerometer[i] = new float[]{
+                    (float) (-9.05 + 0.5 * Math.sin(phase)), (float) (3.17 + 0.5 * Math.cos(phase)), 2.757429f};
+            orientation[i] = new float[]{(float) (327.5 + Math.sin(phase)), -57.22208f, -70.926636f};
+            light[i] = (float) (100 + 10 * Math.sin(phase));
+        }
+        slots = new SampleSlots(Math.max(64, samplesPerSensor * 2), SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        frameBuffer = ByteBuffer.allocateDirect(slots.maxFrameSize());
+    }
+
+    @Benchmark
+    public byte[] legacyMapAndJsonObject() {
+        for (int i = 0; i < samplesPerSensor; i++) {
+            synchronized (sensorDataMap) {
+                sensorDataMap.put(KEY_ACCELEROMETER, accelerometer[i].clone());
+                sensorDataMap.put(KEY_ORIENTATION, orientation[i].clone());
+                sensorDataMap.put(KEY_LIGHT, new float[]{light[i]});
+            }
+        }
+        synchronized (sensorDataMap) {
+            sensorDataMap.put(KEY_LOCATION, location.clone());
+        }
+        JSONObject json = new JSONObject();
+        synchronized (sensorDataMap) {
+            json.put(KEY_LOCATION, new JSONArray(sensorDataMap.get(KEY_LOCATION)));
+            json.put(KEY_ACCELEROMETER, new JSONArray(sensorDataMap.get(KEY_ACCELEROMETER)));
+            json.put(KEY_ORIENTATION, new JSONArray(sensorDataMap.get(KEY_ORIENTATION)));
+            json.put(KEY_LIGHT, sensorDataMap.get(KEY_LIGHT)[0]);
+        }
+        // writer.println(json.toString())
+        return (json.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void captureIntoSlots() {
+        for (int i = 0; i < samplesPerSensor; i++) {
+            timestamp += 20_000_000L;
+            slots.push(WireFormat.SENSOR_ACCELEROMETER, timestamp, accelerometer[i]);
+            slots.push(WireFormat.SENSOR_ORIENTATION, timestamp, orientation[i]);
+            slots.pushConstant(WireFormat.SENSOR_LIGHT, timestamp, light[i]);
+        }
+        slots.push(WireFormat.SENSOR_LOCATION, timestamp, location);
+    }
+
+    @Benchmark
+    public byte[] slotsAndJsonBatch() {
+        captureIntoSlots();
+        // 与 SinkConnection.buildJsonPayload 相同的构造方式
+        JSONObject json = new JSONObject();
+        JSONObject samples = new JSONObject();
+        for (int id = 1; id < SampleSlots.SLOT_COUNT; id++) {
+            SampleRingBuffer buffer = slots.get(id);
+            String key = WireFormat.sensorName(id);
+            int channels = buffer.getChannels();
+            if (buffer.copyLatest(latestValues)) {
+                if (KEY_LIGHT.equals(key)) {
+                    json.put(KEY_LIGHT, latestValues[0]);
+                } else {
+                    JSONArray latest = new JSONArray();
+                    for (int c = 0; c < channels; c++) {
+                        latest.put((double) latestValues[c]);
+                    }
+                    json.put(key, latest);
+                }
+            }
+            int count = slots.drain(id);
+            if (count == 0) {
+                continue;
+            }
+            long[] ts = slots.drainedTimestamps();
+            float[] vs = slots.drainedValues();
+            JSONArray t = new JSONArray();
+            JSONArray v = new JSONArray();
+            for (int i = 0; i < count; i++) {
+                t.put(ts[i]);
+                for (int c = 0; c < channels; c++) {
+                    v.put((double) vs[i * channels + c]);
+                }
+            }
+            JSONObject block = new JSONObject();
+            block.put("t", t);
+            block.put("v", v);
+            samples.put(key, block);
+        }
+        json.put("Samples", samples);
+        return (json.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int slotsAndBinaryFrame() {
+        captureIntoSlots();
+        frameBuffer.clear();
+        return slots.encodeFrame(slots.primaryCursor(), encoder, frameBuffer, 42L, timestamp, timestamp, options);
+    }
+}
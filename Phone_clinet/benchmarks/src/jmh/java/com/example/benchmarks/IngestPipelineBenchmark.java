@@ -0,0 +1,104 @@
+package com.example.benchmarks;
+
+import com.example.receiver.IngestPipeline;
+import com.example.receiver.RollupStore;
+import com.example.receiver.SensorRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 接收端分区入库流水线随分区数（入库线程数）的扩展性：4 个线程模拟网络线程，各自轮流发送 50 台设备的记录，
+ * 下游是 {@link RollupStore}。队列满时生产者等待，稳态吞吐即各分区入库的总吞吐。
+ *
+ * 分区数不应超过空闲核数（4 个生产者另占核），否则测到的是线程争抢；单核机器上各档结果相近，只能看开销。
+ * Trial 结束时打印各分区的队列深度、忙碌比例和生产者等待时间。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class IngestPipelineBenchmark {
+    private static final int DEVICES_PER_PRODUCER = 50;
+    private static final int BATCH = 1000;
+    private static final long START_MILLIS = 1_714_568_340_000L;
+
+    @Param({"1", "2", "4", "8"})
+    public int partitions;
+
+    private IngestPipeline pipeline;
+    private final AtomicInteger producers = new AtomicInteger();
+
+    /** 每个生产者线程自己的设备和复用的记录，与网络线程一样 */
+    @State(Scope.Thread)
+    public static class Producer {
+        final SensorRecord record = new SensorRecord();
+        final String[] userIds = new String[DEVICES_PER_PRODUCER];
+        final Random random = new Random(1);
+        long row;
+
+        @Setup(Level.Trial)
+        public void setUp(IngestPipelineBenchmark benchmark) {
+            int index = benchmark.producers.getAndIncrement();
+            for (int i = 0; i < DEVICES_PER_PRODUCER; i++) {
+                userIds[i] = "10." + index + ".0." + i;
+            }
+            record.hasAccelerometer = true;
+            record.hasOrientation = true;
+            record.hasLight = true;
+            record.light = 110.0250015258789;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pipeline = new IngestPipeline(partitions, IngestPipeline.DEFAULT_QUEUE_CAPACITY, new RollupStore());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%npartitions=%d %s%n", partitions, pipeline.summary());
+        pipeline.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void ingest(Producer p) {
+        SensorRecord r = p.record;
+        for (int i = 0; i < BATCH; i++, p.row++) {
+            r.userId = p.userIds[(int) (p.row % DEVICES_PER_PRODUCER)];
+            // 每台设备 50Hz
+            r.receivedMillis = START_MILLIS + p.row / DEVICES_PER_PRODUCER * 20;
+            r.hasLocation = p.row % 500 == 0;
+            r.latitude = 30.274135;
+            r.longitude = 120.155072;
+            r.accelerometer[0] = (float) (-9.05 + p.random.nextGaussian() * 0.05);
+            r.accelerometer[1] = (float) (3.17 + p.random.nextGaussian() * 0.05);
+            r.accelerometer[2] = (float) (2.75 + p.random.nextGaussian() * 0.05);
+            r.orientation[0] = (float) (p.row / DEVICES_PER_PRODUCER % 360);
+            r.orientation[1] = (float) -12.5;
+            r.orientation[2] = (float) 3.25;
+            pipeline.accept(r);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.benchmarks;
+
+import com.example.receiver.JsonLineParser;
+import com.example.receiver.SensorRecord;
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.FrameFormatException;
+import com.example.sensorprotocol.WireFormat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收端把一次 read 得到的字节切分成消息并取出传感器值的开销，每次操作对应一条消息。
+ *
+ * <ul>
+ * <li>legacyStringSplitAndJsonObject：receiver.py 做法在 JVM 上的对应（解码成字符串、按换行 split、逐行建 JSON 对象树）</li>
+ * <li>inPlaceJsonLines：接收端模块现在的做法，JsonLineParser 直接在字节缓冲区上解析</li>
+ * <li>binaryFrames：二进制协议，FrameDecoder 逐帧解码</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReceiverParseBenchmark {
+    // 一次 read 中的消息数
+    private static final int MESSAGES = 64;
+
+    private byte[] jsonChunk;
+    private ByteBuffer frameChunk;
+    private final JsonLineParser parser = new JsonLineParser();
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final SensorRecord record = new SensorRecord();
+    private final RecordFiller filler = new RecordFiller(record);
+
+    @Setup
+    public void setUp() {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        frameChunk = ByteBuffer.allocate(MESSAGES * 256);
+        FrameEncoder encoder = new FrameEncoder();
+        float[] values = new float[3];
+        for (int i = 0; i < MESSAGES; i++) {
+            double phase = 0.1 * i;
+            float ax = (float) (-9.05 + 0.5 * Math.sin(phase));
+            float ay = (float) (3.17 + 0.5 * Math.cos(phase));
+            float light = (float) (100 + 10 * Math.sin(phase));
+            String line = "{\"Location\":[-3,-3],\"Accelerometer\":[" + ax + "," + ay + ",2.757429],"
+                    + "\"Orientation\":[327.57257,-57.22208,-70.926636],\"Light\":" + light + "}\n";
+            json.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+
+            encoder.begin(frameChunk, 42L, i, 1_000_000L);
+            values[0] = -3f;
+            values[1] = -3f;
+            putBlock(encoder, WireFormat.SENSOR_LOCATION, 2, values);
+            values[0] = ax;
+            values[1] = ay;
+            values[2] = 2.757429f;
+            putBlock(encoder, WireFormat.SENSOR_ACCELEROMETER, 3, values);
+            values[0] = 327.57257f;
+            values[1] = -57.22208f;
+            values[2] = -70.926636f;
+            putBlock(encoder, WireFormat.SENSOR_ORIENTATION, 3, values);
+            values[0] = light;
+            putBlock(encoder, WireFormat.SENSOR_LIGHT, 1, values);
+            encoder.end();
+        }
+        jsonChunk = json.toByteArray();
+        frameChunk.flip();
+    }
+
+    private static void putBlock(FrameEncoder encoder, int sensorId, int channels, float[] values) {
+        encoder.beginBlock(sensorId, channels);
+        encoder.putSample(1_000_000L, values, 0);
+        encoder.endBlock();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void legacyStringSplitAndJsonObject(Blackhole bh) {
+        String buffer = new String(jsonChunk, StandardCharsets.UTF_8);
+        for (String line : buffer.split("\n")) {
+            JSONObject json = new JSONObject(line.trim());
+            JSONArray location = json.optJSONArray("Location");
+            if (location != null && location.length() == 2) {
+                record.latitude = location.getDouble(0);
+                record.longitude = location.getDouble(1);
+            }
+            JSONArray accelerometer = json.optJSONArray("Accelerometer");
+            if (accelerometer != null && accelerometer.length() == 3) {
+                for (int c = 0; c < 3; c++) {
+                    record.accelerometer[c] = accelerometer.getDouble(c);
+                }
+            }
+            JSONArray orientation = json.optJSONArray("Orientation");
+            if (orientation != null && orientation.length() == 3) {
+                for (int c = 0; c < 3; c++) {
+                    record.orientation[c] = orientation.getDouble(c);
+                }
+            }
+            record.light = json.optDouble("Light");
+            bh.consume(record);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void inPlaceJsonLines(Blackhole bh) {
+        byte[] a = jsonChunk;
+        int start = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == '\n') {
+                bh.consume(parser.parse(a, start, i, record));
+                bh.consume(record);
+                start = i + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void binaryFrames(Blackhole bh) throws FrameFormatException {
+        frameChunk.rewind();
+        while (decoder.decode(frameChunk, filler) > 0) {
+            bh.consume(record);
+        }
+    }
+
+    /** 这里的帧每个传感器只有一个采样、时间戳相同，直接填进一条记录，与接收端 Connection 得到的结果相同 */
+    private static final class RecordFiller implements FrameDecoder.Listener {
+        private final SensorRecord record;
+
+        RecordFiller(SensorRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+            record.clearSensors();
+        }
+
+        @Override
+        public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+            switch (sensorId) {
+                case WireFormat.SENSOR_LOCATION:
+                    record.hasLocation = true;
+                    record.latitude = values[0];
+                    record.longitude = values[1];
+                    break;
+                case WireFormat.SENSOR_ACCELEROMETER:
+                    record.hasAccelerometer = true;
+                    for (int c = 0; c < 3; c++) {
+                        record.accelerometer[c] = values[c];
+                    }
+                    break;
+                case WireFormat.SENSOR_ORIENTATION:
+                    record.hasOrientation = true;
+                    for (int c = 0; c < 3; c++) {
+                        record.orientation[c] = values[c];
+                    }
+                    break;
+                case WireFormat.SENSOR_LIGHT:
+                    record.hasLight = true;
+                    record.light = values[0];
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onFrameEnd() {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.benchmarks;
+
+import com.example.receiver.ColumnStore;
+import com.example.receiver.CsvSink;
+import com.example.receiver.RecordSink;
+import com.example.receiver.SensorRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收端落盘的吞吐，每次操作对应一条记录，100 台设备轮流写入：
+ *
+ * <ul>
+ * <li>csv：CsvSink，按设备缓冲后追加文本行</li>
+ * <li>columns：ColumnStore，按列攒块后 delta / Gorilla 编码</li>
+ * </ul>
+ *
+ * Trial 结束时打印写出的字节数，用来比较两种格式的大小。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StorageBenchmark {
+    private static final int DEVICES = 100;
+    private static final int BATCH = 1000;
+    private static final long START_MILLIS = 1_714_568_340_000L;
+
+    @Param({"csv", "columns"})
+    public String format;
+
+    private File dir;
+    private RecordSink sink;
+    private final SensorRecord record = new SensorRecord();
+    private final String[] userIds = new String[DEVICES];
+    private final Random random = new Random(1);
+    private long row;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("storage-bench").toFile();
+        sink = format.equals("csv") ? new CsvSink(dir) : new ColumnStore(dir);
+        for (int i = 0; i < DEVICES; i++) {
+            userIds[i] = "10.0.0." + i;
+        }
+        record.hasAccelerometer = true;
+        record.hasOrientation = true;
+        record.hasLight = true;
+        record.light = 110.0250015258789;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ((Closeable) sink).close();
+        long bytes = deleteRecursively(dir);
+        System.out.printf("%n%s: %d rows, %.1f bytes/row%n", format, row, bytes / (double) row);
+    }
+
+    private static long deleteRecursively(File file) {
+        long bytes = file.isFile() ? file.length() : 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                bytes += deleteRecursively(child);
+            }
+        }
+        file.delete();
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void ingest() {
+        SensorRecord r = record;
+        for (int i = 0; i < BATCH; i++, row++) {
+            r.userId = userIds[(int) (row % DEVICES)];
+            // 每台设备 50Hz
+            r.receivedMillis = START_MILLIS + row / DEVICES * 20;
+            r.hasLocation = row % 500 == 0;
+            r.latitude = 30.274135;
+            r.longitude = 120.155072;
+            r.accelerometer[0] = (float) (-9.05 + random.nextGaussian() * 0.05);
+            r.accelerometer[1] = (float) (3.17 + random.nextGaussian() * 0.05);
+            r.accelerometer[2] = (float) (2.75 + random.nextGaussian() * 0.05);
+            r.orientation[0] = (float) (row / DEVICES % 360);
+            r.orientation[1] = (float) -12.5;
+            r.orientation[2] = (float) 3.25;
+            sink.accept(r);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.sensorprotocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link WireFormat#FLAG_DELTA} 数据块用到的量化和 zigzag varint 编码，编码端和解码端共用。
+ */
+final class DeltaCoding {
+    private DeltaCoding() {
+    }
+
+    private static final double[] POW10 = new double[WireFormat.MAX_DECIMALS + 1];
+
+    static {
+        double scale = 1;
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = scale;
+            scale *= 10;
+        }
+    }
+
+    static double scale(int decimals) {
+        return POW10[decimals];
+    }
+
+    /**
+     * @return round(value × scale)，超出 int 范围的截断到边界，NaN 为 0
+     */
+    static int quantize(float value, double scale) {
+        double scaled = value * scale;
+        if (scaled >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        if (scaled <= Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) Math.round(scaled);
+    }
+
+    static float dequantize(int quantized, double scale) {
+        return (float) (quantized / scale);
+    }
+
+    /**
+     * 写入 zigzag varint。差值按 int 溢出回绕，解码端同样回绕，结果不变。
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.sensorprotocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 从字节流中解出 {@link WireFormat} 帧，通过回调逐个交出采样。
+ * 回调中的 values 数组由解码器复用，需要保存时请自行复制。不是线程安全的。
+ *
+ * {@link WireFormat#FLAG_METRICS} 帧中的指标只交给同时实现了 {@link MetricsListener} 的 listener，否则跳过；
+ * {@link WireFormat#FLAG_FEATURES} 帧中的窗口特征同样只交给 {@link FeaturesListener}，
+ * {@link WireFormat#FLAG_TRACE} 帧中的时刻只交给 {@link TraceListener}。
+ */
+public class FrameDecoder {
+
+    public interface Listener {
+        void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags);
+
+        void onSample(int sensorId, long timestampNanos, float[] values, int channels);
+
+        void onFrameEnd();
+    }
+
+    /** 接收 {@link WireFormat#FLAG_METRICS} 帧中的指标，在 onFrameStart 与 onFrameEnd 之间逐个回调 */
+    public interface MetricsListener {
+        void onMetric(int metricId, long value);
+    }
+
+    /**
+     * 接收 {@link WireFormat#FLAG_FEATURES} 帧中的窗口特征，在 onFrameStart 之后、该帧的采样之前逐个回调。
+     * features 由解码器复用。
+     */
+    public interface FeaturesListener {
+        void onFeatures(WindowFeatures features);
+    }
+
+    /**
+     * 接收 {@link WireFormat#FLAG_TRACE} 帧中的时刻，在 onFrameStart 与 onFrameEnd 之间回调一次；
+     * 采集时刻是帧头的 baseTimestampNanos，被追踪的数据帧的序号是帧头的 sequence。
+     */
+    public interface TraceListener {
+        void onTrace(int sensorId, long enqueueNanos, long encodeNanos, long writeNanos);
+    }
+
+    private final float[] values = new float[WireFormat.MAX_CHANNELS];
+    private final WindowFeatures features = new WindowFeatures();
+    // FLAG_DELTA 解码状态
+    private final int[] quantized = new int[WireFormat.MAX_CHANNELS];
+    private int cursor;
+
+    /**
+     * 若 in 的当前位置有一整帧，则解码它并前移 position；否则 position 不变。
+     * in 的字节序会被设为小端。
+     *
+     * @return 消耗的字节数，数据不足一帧时返回 0
+     */
+    public int decode(ByteBuffer in, Listener listener) throws FrameFormatException {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        int start = in.position();
+        if (in.remaining() < WireFormat.LENGTH_FIELD_SIZE) {
+            return 0;
+        }
+        int frameLength = in.getInt(start);
+        int total = frameLength + WireFormat.LENGTH_FIELD_SIZE;
+        if (frameLength < WireFormat.HEADER_SIZE - WireFormat.LENGTH_FIELD_SIZE || total > WireFormat.MAX_FRAME_SIZE) {
+            throw new FrameFormatException("bad frame length: " + frameLength);
+        }
+        if (in.remaining() < total) {
+            return 0;
+        }
+        int version = in.get(start + 4) & 0xFF;
+        if (version != WireFormat.VERSION) {
+            throw new FrameFormatException("unsupported frame version: " + version);
+        }
+        int flags = in.get(start + 5) & 0xFF;
+        int blockCount = in.getShort(start + 6) & 0xFFFF;
+        long deviceId = in.getLong(start + 8);
+        long sequence = in.getLong(start + 16);
+        long baseTimestampNanos = in.getLong(start + 24);
+
+        int end = start + total;
+        int pos = start + WireFormat.HEADER_SIZE;
+        listener.onFrameStart(deviceId, sequence, baseTimestampNanos, flags);
+        if ((flags & WireFormat.FLAG_METRICS) != 0) {
+            decodeMetrics(in, pos, end, blockCount, listener);
+        } else if ((flags & WireFormat.FLAG_TRACE) != 0) {
+            decodeTrace(in, pos, end, listener);
+        } else {
+            if ((flags & WireFormat.FLAG_FEATURES) != 0) {
+                pos = decodeFeatures(in, pos, end, baseTimestampNanos, listener);
+            }
+            if ((flags & WireFormat.FLAG_DELTA) != 0) {
+                decodeDeltaBlocks(in, pos, end, blockCount, baseTimestampNanos, listener);
+            } else {
+                decodeBlocks(in, pos, end, blockCount, baseTimestampNanos, listener);
+            }
+        }
+        listener.onFrameEnd();
+        in.position(end);
+        return total;
+    }
+
+    private static void decodeMetrics(ByteBuffer in, int pos, int end, int count, Listener listener)
+            throws FrameFormatException {
+        if (pos + count * WireFormat.METRIC_ENTRY_SIZE > end) {
+            throw new FrameFormatException("truncated metrics");
+        }
+        if (!(listener instanceof MetricsListener)) {
+            return;
+        }
+        MetricsListener metrics = (MetricsListener) listener;
+        for (int i = 0; i < count; i++) {
+            metrics.onMetric(in.getShort(pos) & 0xFFFF, in.getLong(pos + 2));
+            pos += WireFormat.METRIC_ENTRY_SIZE;
+        }
+    }
+
+    private static void decodeTrace(ByteBuffer in, int pos, int end, Listener listener)
+            throws FrameFormatException {
+        if (pos + WireFormat.TRACE_SIZE > end) {
+            throw new FrameFormatException("truncated trace");
+        }
+        if (listener instanceof TraceListener) {
+            ((TraceListener) listener).onTrace(in.get(pos) & 0xFF, in.getLong(pos + 1), in.getLong(pos + 9),
+                    in.getLong(pos + 17));
+        }
+    }
+
+    /**
+     * @return 特征段之后的位置
+     */
+    private int decodeFeatures(ByteBuffer in, int pos, int end, long baseTimestampNanos, Listener listener)
+            throws FrameFormatException {
+        if (pos + WireFormat.FEATURE_COUNT_SIZE > end) {
+            throw new FrameFormatException("truncated feature count");
+        }
+        int count = in.getShort(pos) & 0xFFFF;
+        pos += WireFormat.FEATURE_COUNT_SIZE;
+        FeaturesListener featuresListener = listener instanceof FeaturesListener ? (FeaturesListener) listener : null;
+        WindowFeatures f = features;
+        for (int i = 0; i < count; i++) {
+            if (pos + WireFormat.FEATURE_HEADER_SIZE > end) {
+                throw new FrameFormatException("truncated features");
+            }
+            int bandCount = in.get(pos + 30) & 0xFF;
+            if (bandCount > WindowFeatures.MAX_BANDS) {
+                throw new FrameFormatException("bad band count: " + bandCount);
+            }
+            if (pos + WireFormat.featureSize(bandCount) > end) {
+                throw new FrameFormatException("truncated features");
+            }
+            f.sensorId = in.get(pos) & 0xFF;
+            f.channel = in.get(pos + 1) & 0xFF;
+            f.sampleCount = in.getShort(pos + 2) & 0xFFFF;
+            f.endTimestampNanos = baseTimestampNanos + in.getInt(pos + 4) * 1000L;
+            f.durationNanos = (in.getInt(pos + 8) & 0xFFFFFFFFL) * 1000L;
+            f.mean = in.getFloat(pos + 12);
+            f.rms = in.getFloat(pos + 16);
+            f.min = in.getFloat(pos + 20);
+            f.max = in.getFloat(pos + 24);
+            f.zeroCrossings = in.getShort(pos + 28) & 0xFFFF;
+            f.bandCount = bandCount;
+            pos += WireFormat.FEATURE_HEADER_SIZE;
+            for (int b = 0; b < bandCount; b++) {
+                f.bands[b] = in.getFloat(pos);
+                pos += 4;
+            }
+            if (featuresListener != null) {
+                featuresListener.onFeatures(f);
+            }
+        }
+        return pos;
+    }
+
+    private void decodeBlocks(ByteBuffer in, int pos, int end, int blockCount, long baseTimestampNanos,
+                              Listener listener) throws FrameFormatException {
+        for (int b = 0; b < blockCount; b++) {
+            if (pos + WireFormat.BLOCK_HEADER_SIZE > end) {
+                throw new FrameFormatException("truncated block header");
+            }
+            int sensorId = in.get(pos) & 0xFF;
+            int channels = in.get(pos + 1) & 0xFF;
+            int sampleCount = in.getShort(pos + 2) & 0xFFFF;
+            if (channels == 0 || channels > WireFormat.MAX_CHANNELS) {
+                throw new FrameFormatException("bad channel count: " + channels);
+            }
+            pos += WireFormat.BLOCK_HEADER_SIZE;
+            if (pos + sampleCount * (WireFormat.TIMESTAMP_SIZE + channels * 4) > end) {
+                throw new FrameFormatException("truncated block");
+            }
+            for (int s = 0; s < sampleCount; s++) {
+                long timestampNanos = baseTimestampNanos + in.getInt(pos) * 1000L;
+                pos += WireFormat.TIMESTAMP_SIZE;
+                for (int c = 0; c < channels; c++) {
+                    values[c] = in.getFloat(pos);
+                    pos += 4;
+                }
+                listener.onSample(sensorId, timestampNanos, values, channels);
+            }
+        }
+    }
+
+    private void decodeDeltaBlocks(ByteBuffer in, int pos, int end, int blockCount, long baseTimestampNanos,
+                                   Listener listener) throws FrameFormatException {
+        cursor = pos;
+        for (int b = 0; b < blockCount; b++) {
+            if (cursor + WireFormat.DELTA_BLOCK_HEADER_SIZE > end) {
+                throw new FrameFormatException("truncated block header");
+            }
+            int sensorId = in.get(cursor) & 0xFF;
+            int channels = in.get(cursor + 1) & 0xFF;
+            int sampleCount = in.getShort(cursor + 2) & 0xFFFF;
+            int decimals = in.get(cursor + 4) & 0xFF;
+            if (channels == 0 || channels > WireFormat.MAX_CHANNELS) {
+                throw new FrameFormatException("bad channel count: " + channels);
+            }
+            if (decimals > WireFormat.MAX_DECIMALS) {
+                throw new FrameFormatException("bad decimals: " + decimals);
+            }
+            cursor += WireFormat.DELTA_BLOCK_HEADER_SIZE;
+            // 每个数值至少 1 字节，先粗略检查，避免损坏的 sampleCount 导致长时间空转
+            if (cursor + sampleCount * (1 + channels) > end) {
+                throw new FrameFormatException("truncated block");
+            }
+            double scale = DeltaCoding.scale(decimals);
+            int offset = 0;
+            int interval = 0;
+            for (int c = 0; c < channels; c++) {
+                quantized[c] = 0;
+            }
+            for (int s = 0; s < sampleCount; s++) {
+                if (s == 0) {
+                    offset = readVarint(in, end);
+                } else {
+                    interval += readVarint(in, end);
+                    offset += interval;
+                }
+                for (int c = 0; c < channels; c++) {
+                    quantized[c] += readVarint(in, end);
+                    values[c] = DeltaCoding.dequantize(quantized[c], scale);
+                }
+                listener.onSample(sensorId, baseTimestampNanos + offset * 1000L, values, channels);
+            }
+        }
+    }
+
+    private int readVarint(ByteBuffer in, int end) throws FrameFormatException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (cursor >= end) {
+                throw new FrameFormatException("truncated block");
+            }
+            int b = in.get(cursor++);
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new FrameFormatException("varint too long");
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.sensorprotocol;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 把采样写成 {@link WireFormat} 描述的二进制帧。编码器本身可重复使用，编码过程不分配对象。
+ *
+ * <pre>
+ * encoder.begin(buffer, deviceId, sequence, baseTimestampNanos);
+ * encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+ * encoder.putSample(event.timestamp, values, 0);
+ * encoder.endBlock();
+ * int frameLength = encoder.end();
+ * </pre>
+ *
+ * begin 时带上 {@link WireFormat#FLAG_DELTA} 则数据块使用压缩编码，精度按 {@link #setDecimals} 设置，
+ * 默认取 {@link WireFormat#defaultDecimals}。
+ *
+ * begin 时带上 {@link WireFormat#FLAG_METRICS} 则用 {@link #putMetric} 写入指标，不写数据块。
+ *
+ * begin 时带上 {@link WireFormat#FLAG_FEATURES} 则先用 {@link #putFeatures} 写入窗口特征，再写数据块。
+ *
+ * begin 时带上 {@link WireFormat#FLAG_TRACE} 则用 {@link #putTrace} 写入追踪的时刻，不写数据块。
+ *
+ * 不是线程安全的。
+ */
+public class FrameEncoder {
+    private ByteBuffer buffer;
+    private int frameStart;
+    private int blockCount;
+    private long baseTimestampNanos;
+    // FLAG_FEATURES 帧中 featureCount 字段的位置，其他帧为 -1
+    private int featureCountPos;
+    private int featureCount;
+
+    private int blockStart = -1;
+    private int blockChannels;
+    private int blockSamples;
+
+    // FLAG_DELTA 编码的状态，每个数据块开始时重置
+    private final int[] decimals = new int[WireFormat.SENSOR_COUNT];
+    private boolean delta;
+    private double blockScale;
+    private int previousOffset;
+    private int previousInterval;
+    private final int[] previousValues = new int[WireFormat.MAX_CHANNELS];
+
+    public FrameEncoder() {
+        for (int id = 0; id < decimals.length; id++) {
+            decimals[id] = WireFormat.defaultDecimals(id);
+        }
+    }
+
+    /**
+     * 设置某个传感器在 {@link WireFormat#FLAG_DELTA} 帧中的量化精度（小数位数）。
+     */
+    public void setDecimals(int sensorId, int decimals) {
+        if (sensorId <= 0 || sensorId >= WireFormat.SENSOR_COUNT) {
+            throw new IllegalArgumentException("unknown sensor id: " + sensorId);
+        }
+        if (decimals < 0 || decimals > WireFormat.MAX_DECIMALS) {
+            throw new IllegalArgumentException("decimals out of range: " + decimals);
+        }
+        this.decimals[sensorId] = decimals;
+    }
+
+    public int getDecimals(int sensorId) {
+        return sensorId > 0 && sensorId < WireFormat.SENSOR_COUNT
+                ? decimals[sensorId] : WireFormat.defaultDecimals(sensorId);
+    }
+
+    /**
+     * 在 buffer 的当前位置开始一帧。buffer 的字节序会被设为小端。
+     */
+    public void begin(ByteBuffer buffer, long deviceId, long sequence, long baseTimestampNanos) {
+        begin(buffer, deviceId, sequence, baseTimestampNanos, 0);
+    }
+
+    public void begin(ByteBuffer buffer, long deviceId, long sequence, long baseTimestampNanos, int flags) {
+        if (buffer.remaining() < WireFormat.HEADER_SIZE) {
+            throw new BufferOverflowException();
+        }
+        this.buffer = buffer;
+        this.baseTimestampNanos = baseTimestampNanos;
+        this.delta = (flags & WireFormat.FLAG_DELTA) != 0;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        frameStart = buffer.position();
+        blockCount = 0;
+        blockStart = -1;
+
+        buffer.putInt(0); // frameLength，end() 时回填
+        buffer.put((byte) WireFormat.VERSION);
+        buffer.put((byte) flags);
+        buffer.putShort((short) 0); // blockCount，end() 时回填
+        buffer.putLong(deviceId);
+        buffer.putLong(sequence);
+        buffer.putLong(baseTimestampNanos);
+        featureCount = 0;
+        featureCountPos = -1;
+        if ((flags & WireFormat.FLAG_FEATURES) != 0) {
+            featureCountPos = buffer.position();
+            buffer.putShort((short) 0); // featureCount，end() 时回填
+        }
+    }
+
+    public void beginBlock(int sensorId, int channels) {
+        if (blockStart >= 0) {
+            throw new IllegalStateException("previous block not ended");
+        }
+        if (channels <= 0 || channels > WireFormat.MAX_CHANNELS) {
+            throw new IllegalArgumentException("channels out of range: " + channels);
+        }
+        blockStart = buffer.position();
+        blockChannels = channels;
+        blockSamples = 0;
+        buffer.put((byte) sensorId);
+        buffer.put((byte) channels);
+        buffer.putShort((short) 0); // sampleCount，endBlock() 时回填
+        if (delta) {
+            int blockDecimals = getDecimals(sensorId);
+            buffer.put((byte) blockDecimals);
+            blockScale = DeltaCoding.scale(blockDecimals);
+            previousOffset = 0;
+            previousInterval = 0;
+            for (int c = 0; c < channels; c++) {
+                previousValues[c] = 0;
+            }
+        }
+    }
+
+    /**
+     * 写入一个采样，数值取自 values[offset, offset + channels)。
+     */
+    public void putSample(long timestampNanos, float[] values, int offset) {
+        if (blockSamples == WireFormat.MAX_SAMPLES_PER_BLOCK) {
+            throw new IllegalStateException("too many samples in one block");
+        }
+        int offsetMicros = (int) ((timestampNanos - baseTimestampNanos) / 1000L);
+        if (delta) {
+            putDeltaSample(offsetMicros, values, offset);
+        } else {
+            buffer.putInt(offsetMicros);
+            for (int c = 0; c < blockChannels; c++) {
+                buffer.putFloat(values[offset + c]);
+            }
+        }
+        blockSamples++;
+    }
+
+    private void putDeltaSample(int offsetMicros, float[] values, int offset) {
+        if (blockSamples == 0) {
+            DeltaCoding.putVarint(buffer, offsetMicros);
+        } else {
+            int interval = offsetMicros - previousOffset;
+            // 第二个采样时 previousInterval 为 0，写入的就是间隔本身
+            DeltaCoding.putVarint(buffer, interval - previousInterval);
+            previousInterval = interval;
+        }
+        previousOffset = offsetMicros;
+        for (int c = 0; c < blockChannels; c++) {
+            int quantized = DeltaCoding.quantize(values[offset + c], blockScale);
+            DeltaCoding.putVarint(buffer, quantized - previousValues[c]);
+            previousValues[c] = quantized;
+        }
+    }
+
+    /**
+     * 在 {@link WireFormat#FLAG_METRICS} 帧中写入一个指标。
+     */
+    public void putMetric(int metricId, long value) {
+        if (blockStart >= 0) {
+            throw new IllegalStateException("metrics cannot be mixed with data blocks");
+        }
+        if (blockCount == WireFormat.MAX_SAMPLES_PER_BLOCK) {
+            throw new IllegalStateException("too many metrics in one frame");
+        }
+        buffer.putShort((short) metricId);
+        buffer.putLong(value);
+        blockCount++;
+    }
+
+    /**
+     * 在 {@link WireFormat#FLAG_FEATURES} 帧中写入一项窗口特征，须在全部数据块之前。
+     */
+    public void putFeatures(WindowFeatures f) {
+        if (featureCountPos < 0) {
+            throw new IllegalStateException("frame was not started with FLAG_FEATURES");
+        }
+        if (blockStart >= 0 || blockCount > 0) {
+            throw new IllegalStateException("features must precede data blocks");
+        }
+        if (featureCount == WireFormat.MAX_SAMPLES_PER_BLOCK) {
+            throw new IllegalStateException("too many features in one frame");
+        }
+        if (f.bandCount < 0 || f.bandCount > WindowFeatures.MAX_BANDS) {
+            throw new IllegalArgumentException("band count out of range: " + f.bandCount);
+        }
+        buffer.put((byte) f.sensorId);
+        buffer.put((byte) f.channel);
+        buffer.putShort((short) Math.min(f.sampleCount, 0xFFFF));
+        buffer.putInt((int) ((f.endTimestampNanos - baseTimestampNanos) / 1000L));
+        buffer.putInt((int) (f.durationNanos / 1000L));
+        buffer.putFloat(f.mean);
+        buffer.putFloat(f.rms);
+        buffer.putFloat(f.min);
+        buffer.putFloat(f.max);
+        buffer.putShort((short) Math.min(f.zeroCrossings, 0xFFFF));
+        buffer.put((byte) f.bandCount);
+        for (int b = 0; b < f.bandCount; b++) {
+            buffer.putFloat(f.bands[b]);
+        }
+        featureCount++;
+    }
+
+    /**
+     * 在 {@link WireFormat#FLAG_TRACE} 帧中写入被追踪采样在手机上经过各环节的时刻，每帧一次。
+     */
+    public void putTrace(int sensorId, long enqueueNanos, long encodeNanos, long writeNanos) {
+        if (blockStart >= 0 || blockCount > 0 || buffer.position() != frameStart + WireFormat.HEADER_SIZE) {
+            throw new IllegalStateException("trace must be the only content of the frame");
+        }
+        buffer.put((byte) sensorId);
+        buffer.putLong(enqueueNanos);
+        buffer.putLong(encodeNanos);
+        buffer.putLong(writeNanos);
+    }
+
+    /**
+     * 给当前帧加上 {@link WireFormat#FLAG_TRACED}。被追踪的采样是否在帧里要写完数据块才知道，所以不在 begin 时给出。
+     */
+    public void markTraced() {
+        buffer.put(frameStart + 5, (byte) (buffer.get(frameStart + 5) | WireFormat.FLAG_TRACED));
+    }
+
+    /**
+     * 结束当前数据块。空数据块会被撤销，不占用帧空间。
+     */
+    public void endBlock() {
+        if (blockSamples == 0) {
+            buffer.position(blockStart);
+        } else {
+            buffer.putShort(blockStart + 2, (short) blockSamples);
+            blockCount++;
+        }
+        blockStart = -1;
+    }
+
+    /**
+     * 回填帧长度和数据块数。
+     *
+     * @return 整帧的字节数（含长度字段）
+     */
+    public int end() {
+        if (blockStart >= 0) {
+            endBlock();
+        }
+        int frameLength = buffer.position() - frameStart;
+        buffer.putInt(frameStart, frameLength - WireFormat.LENGTH_FIELD_SIZE);
+        buffer.putShort(frameStart + 6, (short) blockCount);
+        if (featureCountPos >= 0) {
+            buffer.putShort(featureCountPos, (short) featureCount);
+        }
+        buffer = null;
+        return frameLength;
+    }
+
+    /**
+     * @return 当前帧已写入的数据块数（不含正在写的块）
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return 当前帧已写入的窗口特征数
+     */
+    public int getFeatureCount() {
+        return featureCount;
+    }
+}
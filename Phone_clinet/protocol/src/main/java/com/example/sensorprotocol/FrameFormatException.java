@@ -0,0 +1,14 @@
+package com.example.sensorprotocol;
+
+import java.io.IOException;
+
+/**
+ * 收到的数据不是合法的二进制帧（版本不符、长度越界或数据块不完整）。
+ */
+public class FrameFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public FrameFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.sensorprotocol;
+
+/**
+ * 连接建立后的协议协商。
+ *
+ * 手机先发送一行 JSON：{"Hello":{"proto":"ssp1","device":"&lt;16 位十六进制&gt;","session":"&lt;16 位十六进制&gt;"}}。
+ * 旧的接收端会把它当作一条没有传感器数据的普通消息忽略，也不会回复，手机在超时后继续使用换行分隔的 JSON；
+ * 支持二进制帧的接收端回复一行 "OK ssp1"，之后手机发送的全部是 {@link WireFormat} 帧。
+ *
+ * 接收端回复 "OK ssp1 ack" 表示它会在处理完每一帧后回一行 "ACK &lt;序号&gt;"。手机据此保留未确认的帧，
+ * 断线重连（同一 session）后从最后确认的序号之后重发；接收端按 (device, session, 序号) 去掉重复帧。
+ * ACK 是累计确认，"ACK n" 表示 n 及之前的帧都已处理，接收端可以把连续几帧的确认合并成一行。
+ *
+ * 二进制模式下接收端还可以随时发送 "PING &lt;编号&gt;" 估计手机的时钟偏差：手机读到后立即回一个
+ * {@link WireFormat#FLAG_CLOCK_PONG} 帧，带上编号和此刻的 SystemClock.elapsedRealtimeNanos()，
+ * 即 SensorEvent.timestamp 所用的时钟。接收端用发出 PING 和收到应答的时刻按 NTP 的方法算出偏差和往返时延，
+ * 据此把采样时间戳换算成自己的墙上时间。不认识 PING 的旧手机会忽略这一行。
+ *
+ * 回复中带 "delta"（如 "OK ssp1 ack delta"）表示接收端能解 {@link WireFormat#FLAG_DELTA} 压缩帧，手机此后发送的帧都压缩；
+ * 不带时手机发送原始 float 帧。功能词之间以空格分隔，不认识的功能词忽略。
+ *
+ * 回复中带 "metrics" 表示接收端收集运行指标，手机会定期在同一连接上发送 {@link WireFormat#FLAG_METRICS} 帧。
+ *
+ * 回复中带 "features" 表示接收端能处理 {@link WireFormat#FLAG_FEATURES} 帧，手机设为特征模式时才会发送；
+ * 不带时特征模式的手机仍发送原始采样。
+ *
+ * 回复中带 "hold=&lt;毫秒&gt;"（如 "OK ssp1 ack delta hold=5000"）表示接收端能把 {@link WireFormat#FLAG_HELD} 帧还原成
+ * 逐帧保持的序列，数值是它要求的心跳间隔。不带时手机不做死区过滤。
+ *
+ * 回复中带 "trace" 表示接收端统计端到端延迟，手机会抽样追踪采样并发送 {@link WireFormat#FLAG_TRACE} 帧。
+ *
+ * 回复中带 "sensors=&lt;编号,...&gt;"（如 "sensors=1,2,3,4"）表示接收端只保存这些传感器，手机不发送其余传感器的采样；
+ * 不带时手机发送全部传感器。
+ *
+ * 接收端也可以发送一行 "CONFIG ..." 修改手机的采集设置（启用哪些传感器、采样周期、批处理延迟），见 {@link SensorConfig}。
+ */
+public final class Handshake {
+    private Handshake() {
+    }
+
+    public static final String PROTOCOL_BINARY_V1 = "ssp1";
+    public static final String REPLY_PREFIX = "OK ";
+    public static final String ACK_FEATURE = "ack";
+    public static final String DELTA_FEATURE = "delta";
+    public static final String METRICS_FEATURE = "metrics";
+    public static final String FEATURES_FEATURE = "features";
+    public static final String HOLD_FEATURE = "hold";
+    public static final String TRACE_FEATURE = "trace";
+    public static final String SENSORS_FEATURE = "sensors";
+    /** {@link #parseSensorMask} 的返回值，表示接收端没有限定传感器 */
+    public static final int ALL_SENSORS = -1;
+    public static final String ACK_PREFIX = "ACK ";
+    public static final String PING_PREFIX = "PING ";
+    // 等待接收端回复的时间，超时即视为旧接收端
+    public static final int REPLY_TIMEOUT_MS = 1500;
+
+    public static String helloLine(long deviceId) {
+        return "{\"Hello\":{\"proto\":\"" + PROTOCOL_BINARY_V1 + "\",\"device\":\"" + formatDeviceId(deviceId) + "\"}}";
+    }
+
+    /**
+     * 带会话编号的 Hello。同一会话内的重连沿用同一个编号，帧序号也不归零。
+     */
+    public static String helloLine(long deviceId, long sessionId) {
+        return "{\"Hello\":{\"proto\":\"" + PROTOCOL_BINARY_V1 + "\",\"device\":\"" + formatDeviceId(deviceId)
+                + "\",\"session\":\"" + formatDeviceId(sessionId) + "\"}}";
+    }
+
+    /**
+     * @return 行内容是 Hello 消息时返回其中的设备编号字符串，否则返回 null
+     */
+    public static String parseHelloDevice(String line) {
+        return parseHelloField(line, "device");
+    }
+
+    /**
+     * @return Hello 消息中的会话编号字符串，没有时返回 null
+     */
+    public static String parseHelloSession(String line) {
+        return parseHelloField(line, "session");
+    }
+
+    private static String parseHelloField(String line, String field) {
+        if (!isHello(line)) {
+            return null;
+        }
+        String marker = "\"" + field + "\":\"";
+        int start = line.indexOf(marker);
+        if (start < 0) {
+            return null;
+        }
+        start += marker.length();
+        int end = line.indexOf('"', start);
+        return end > start ? line.substring(start, end) : null;
+    }
+
+    public static boolean isHello(String line) {
+        return line.startsWith("{\"Hello\"") && line.contains("\"proto\":\"" + PROTOCOL_BINARY_V1 + "\"");
+    }
+
+    /**
+     * 接收端在回复中声明的功能，例如
+     * <pre>
+     * Handshake.acceptLine(new Handshake.Accept().acks().delta().hold(5000).trace())
+     * </pre>
+     * 什么都不声明时回复为 "OK ssp1"。
+     */
+    public static final class Accept {
+        private boolean acks;
+        private boolean delta;
+        private boolean metrics;
+        private boolean features;
+        private long heartbeatMillis;
+        private boolean trace;
+        private int sensorMask;
+
+        /** 逐帧回复 ACK */
+        public Accept acks() {
+            acks = true;
+            return this;
+        }
+
+        /** 能解 {@link WireFormat#FLAG_DELTA} 压缩帧 */
+        public Accept delta() {
+            delta = true;
+            return this;
+        }
+
+        /** 收集 {@link WireFormat#FLAG_METRICS} 指标帧 */
+        public Accept metrics() {
+            metrics = true;
+            return this;
+        }
+
+        /** 能处理 {@link WireFormat#FLAG_FEATURES} 特征帧 */
+        public Accept features() {
+            features = true;
+            return this;
+        }
+
+        /**
+         * @param heartbeatMillis 死区过滤的心跳间隔，0 表示不接收 {@link WireFormat#FLAG_HELD} 帧
+         */
+        public Accept hold(long heartbeatMillis) {
+            this.heartbeatMillis = heartbeatMillis;
+            return this;
+        }
+
+        /** 统计延迟，接收 {@link WireFormat#FLAG_TRACE} 追踪帧 */
+        public Accept trace() {
+            trace = true;
+            return this;
+        }
+
+        /**
+         * 声明接收端保存这个传感器。一个都没有声明时不限定，手机发送全部传感器。
+         *
+         * @throws IllegalArgumentException 不是 {@link WireFormat} 定义的传感器编号
+         */
+        public Accept sensor(int sensorId) {
+            if (sensorId <= 0 || sensorId >= WireFormat.SENSOR_COUNT) {
+                throw new IllegalArgumentException("unknown sensor id: " + sensorId);
+            }
+            sensorMask |= 1 << sensorId;
+            return this;
+        }
+    }
+
+    /**
+     * @return 不含换行符的回复行
+     */
+    public static String acceptLine(Accept accept) {
+        StringBuilder sb = new StringBuilder(REPLY_PREFIX).append(PROTOCOL_BINARY_V1);
+        if (accept.acks) {
+            sb.append(' ').append(ACK_FEATURE);
+        }
+        if (accept.delta) {
+            sb.append(' ').append(DELTA_FEATURE);
+        }
+        if (accept.metrics) {
+            sb.append(' ').append(METRICS_FEATURE);
+        }
+        if (accept.features) {
+            sb.append(' ').append(FEATURES_FEATURE);
+        }
+        if (accept.heartbeatMillis > 0) {
+            sb.append(' ').append(HOLD_FEATURE).append('=').append(accept.heartbeatMillis);
+        }
+        if (accept.trace) {
+            sb.append(' ').append(TRACE_FEATURE);
+        }
+        if (accept.sensorMask != 0) {
+            sb.append(' ').append(SENSORS_FEATURE).append('=');
+            char separator = 0;
+            for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+                if ((accept.sensorMask & 1 << id) != 0) {
+                    if (separator != 0) {
+                        sb.append(separator);
+                    }
+                    sb.append(id);
+                    separator = ',';
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    public static boolean isAccept(String line) {
+        if (line == null) {
+            return false;
+        }
+        String trimmed = line.trim();
+        String accept = REPLY_PREFIX + PROTOCOL_BINARY_V1;
+        return trimmed.startsWith(accept) && (trimmed.length() == accept.length() || trimmed.charAt(accept.length()) == ' ');
+    }
+
+    /**
+     * @return 接收端是否承诺逐帧回复 ACK
+     */
+    public static boolean acceptsAcks(String line) {
+        return hasFeature(line, ACK_FEATURE);
+    }
+
+    /**
+     * @return 接收端能否解 {@link WireFormat#FLAG_DELTA} 压缩帧
+     */
+    public static boolean acceptsDelta(String line) {
+        return hasFeature(line, DELTA_FEATURE);
+    }
+
+    /**
+     * @return 接收端是否收集 {@link WireFormat#FLAG_METRICS} 指标帧
+     */
+    public static boolean acceptsMetrics(String line) {
+        return hasFeature(line, METRICS_FEATURE);
+    }
+
+    /**
+     * @return 接收端能否处理 {@link WireFormat#FLAG_FEATURES} 特征帧
+     */
+    public static boolean acceptsFeatures(String line) {
+        return hasFeature(line, FEATURES_FEATURE);
+    }
+
+    /**
+     * @return 接收端是否统计延迟、接收 {@link WireFormat#FLAG_TRACE} 追踪帧
+     */
+    public static boolean acceptsTrace(String line) {
+        return hasFeature(line, TRACE_FEATURE);
+    }
+
+    /**
+     * @return 接收端要求的死区过滤心跳间隔（毫秒），不接收 {@link WireFormat#FLAG_HELD} 帧时返回 -1
+     */
+    public static long parseHeartbeatMillis(String line) {
+        if (!isAccept(line)) {
+            return -1;
+        }
+        String prefix = HOLD_FEATURE + "=";
+        String[] words = line.trim().split(" +");
+        for (int i = 2; i < words.length; i++) {
+            if (words[i].startsWith(prefix)) {
+                try {
+                    long millis = Long.parseLong(words[i].substring(prefix.length()));
+                    return millis > 0 ? millis : -1;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 接收端保存的传感器，第 n 位对应编号 n；回复中没有 sensors 或无法解析时返回 {@link #ALL_SENSORS}
+     */
+    public static int parseSensorMask(String line) {
+        if (!isAccept(line)) {
+            return ALL_SENSORS;
+        }
+        String prefix = SENSORS_FEATURE + "=";
+        String[] words = line.trim().split(" +");
+        for (int i = 2; i < words.length; i++) {
+            if (words[i].startsWith(prefix)) {
+                int mask = 0;
+                for (String id : words[i].substring(prefix.length()).split(",")) {
+                    try {
+                        int sensorId = Integer.parseInt(id);
+                        if (sensorId > 0 && sensorId < Integer.SIZE) {
+                            mask |= 1 << sensorId;
+                        }
+                    } catch (NumberFormatException e) {
+                        return ALL_SENSORS;
+                    }
+                }
+                return mask;
+            }
+        }
+        return ALL_SENSORS;
+    }
+
+    private static boolean hasFeature(String line, String feature) {
+        if (!isAccept(line)) {
+            return false;
+        }
+        String[] words = line.trim().split(" +");
+        for (int i = 2; i < words.length; i++) {
+            if (words[i].equals(feature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String ackLine(long sequence) {
+        return ACK_PREFIX + sequence;
+    }
+
+    /**
+     * @return ACK 行中的帧序号，不是 ACK 行时返回 -1
+     */
+    public static long parseAck(CharSequence line) {
+        return parseNumber(line, ACK_PREFIX);
+    }
+
+    public static String pingLine(long id) {
+        return PING_PREFIX + id;
+    }
+
+    /**
+     * @return PING 行中的编号，不是 PING 行时返回 -1
+     */
+    public static long parsePing(CharSequence line) {
+        return parseNumber(line, PING_PREFIX);
+    }
+
+    private static long parseNumber(CharSequence line, String prefix) {
+        int n = line.length();
+        if (n <= prefix.length()) {
+            return -1;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(i) != prefix.charAt(i)) {
+                return -1;
+            }
+        }
+        long value = 0;
+        for (int i = prefix.length(); i < n; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public static String formatDeviceId(long deviceId) {
+        String hex = Long.toHexString(deviceId);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    public static long parseDeviceId(String hex) {
+        return Long.parseUnsignedLong(hex, 16);
+    }
+}
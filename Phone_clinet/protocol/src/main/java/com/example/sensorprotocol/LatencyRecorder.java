@@ -0,0 +1,136 @@
+package com.example.sensorprotocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按 HdrHistogram 的思路记录非负整数的分布（耗时、批大小、队列深度）：0..15 各占一个桶，之后每个 2 的幂区间
+ * 等分为 16 个桶，相对误差不超过 1/16。桶数固定，record 只做一次原子自增和一次比较，不分配对象，可在多个线程同时调用。
+ *
+ * 记录是累计的；需要一段时间内的分布时，每个读者用自己的 {@link Interval} 与上次读到的计数相减，互不干扰。
+ * 手机端的运行指标和接收端的延迟追踪都用它。
+ */
+public final class LatencyRecorder {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 超过约 18 分钟（纳秒）的值都记入最后一个桶
+    static final long MAX_VALUE = (1L << 40) - 1;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return 自创建以来记录的次数
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public Interval newInterval() {
+        return new Interval();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return 落入该桶的最大值
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * 一个读者的上次读数。不是线程安全的，每个读者各用一个。
+     */
+    public final class Interval {
+        private final long[] previous = new long[BUCKET_COUNT];
+        private final long[] delta = new long[BUCKET_COUNT];
+        private long count;
+        private long maxSeen;
+
+        private Interval() {
+        }
+
+        /**
+         * 统计自上次调用（或创建）以来的记录，按 {@link MetricId} 的 STAT_* 下标写入 stats：
+         * 次数、p50、p90、p99、最大值。分位数取所在桶的上界，但不超过记录过的最大值；没有记录时全为 0。
+         *
+         * @param stats 长度至少为 {@link MetricId#STAT_COUNT_ALL}
+         */
+        public void collect(long[] stats) {
+            long count = 0;
+            int highest = -1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long current = buckets.get(i);
+                long d = current - previous[i];
+                previous[i] = current;
+                delta[i] = d;
+                if (d > 0) {
+                    count += d;
+                    highest = i;
+                }
+            }
+            this.count = count;
+            maxSeen = max.get();
+            stats[MetricId.STAT_COUNT] = count;
+            if (count == 0) {
+                stats[MetricId.STAT_P50] = 0;
+                stats[MetricId.STAT_P90] = 0;
+                stats[MetricId.STAT_P99] = 0;
+                stats[MetricId.STAT_MAX] = 0;
+                return;
+            }
+            stats[MetricId.STAT_P50] = valueAtQuantile(0.50);
+            stats[MetricId.STAT_P90] = valueAtQuantile(0.90);
+            stats[MetricId.STAT_P99] = valueAtQuantile(0.99);
+            stats[MetricId.STAT_MAX] = Math.min(bucketUpperBound(highest), maxSeen);
+        }
+
+        /**
+         * @return 上次 {@link #collect} 统计的记录中的任意分位数（如 0.999），取法与 collect 相同；没有记录时为 0
+         */
+        public long valueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * quantile));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += delta[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), maxSeen);
+                }
+            }
+            return maxSeen;
+        }
+    }
+}
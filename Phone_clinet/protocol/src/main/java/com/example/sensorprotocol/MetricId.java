@@ -0,0 +1,88 @@
+package com.example.sensorprotocol;
+
+/**
+ * {@link WireFormat#FLAG_METRICS} 帧中的指标编号：高 8 位是指标种类（KIND_*），低 8 位对计数类指标是传感器编号
+ * （不分传感器的为 0），对分布类指标是统计量（STAT_*）。
+ *
+ * 计数是手机进程启动以来的累计值，接收端按两次上报之差计算速率；分布是同一连接上两次上报之间的记录，
+ * 分位数的相对误差不超过 1/16。
+ */
+public final class MetricId {
+    private MetricId() {
+    }
+
+    // 计数：收到的传感器事件，低 8 位为传感器编号
+    public static final int KIND_SENSOR_EVENTS = 1;
+    // 计数：发送前被环形缓冲区覆盖、没能发出的采样，按接收端分别累计后相加
+    public static final int KIND_SAMPLES_DROPPED = 2;
+    // 计数：连接意外中断后转入重连的次数
+    public static final int KIND_RECONNECTS = 3;
+    // 分布：每帧的采样数
+    public static final int KIND_BATCH_SAMPLES = 4;
+    // 分布：编码一帧的耗时，纳秒
+    public static final int KIND_ENCODE_NANOS = 5;
+    // 分布：一次 socket 写入的耗时，纳秒
+    public static final int KIND_WRITE_NANOS = 6;
+    // 分布：每次发送时尚未确认的帧数
+    public static final int KIND_QUEUE_DEPTH = 7;
+    // 种类上限（不含）
+    public static final int KIND_COUNT = 8;
+
+    public static final int STAT_COUNT = 0;
+    public static final int STAT_P50 = 1;
+    public static final int STAT_P90 = 2;
+    public static final int STAT_P99 = 3;
+    public static final int STAT_MAX = 4;
+    // 统计量上限（不含）
+    public static final int STAT_COUNT_ALL = 5;
+
+    private static final String[] KIND_NAMES = {
+            null, "events", "dropped", "reconnects", "batchSamples", "encodeNanos", "writeNanos", "queueDepth"
+    };
+    private static final String[] STAT_NAMES = {"count", "p50", "p90", "p99", "max"};
+
+    public static int of(int kind, int sub) {
+        return kind << 8 | sub;
+    }
+
+    public static int kind(int metricId) {
+        return metricId >>> 8;
+    }
+
+    public static int sub(int metricId) {
+        return metricId & 0xFF;
+    }
+
+    /**
+     * @return 该种类是否为分布（低 8 位为统计量）
+     */
+    public static boolean isDistribution(int kind) {
+        return kind >= KIND_BATCH_SAMPLES && kind < KIND_COUNT;
+    }
+
+    /**
+     * @return 种类名称，如 "encodeNanos"；未知种类返回 null
+     */
+    public static String kindName(int kind) {
+        return kind > 0 && kind < KIND_COUNT ? KIND_NAMES[kind] : null;
+    }
+
+    /**
+     * @return 用于日志和显示的名称，如 "events.Accelerometer"、"writeNanos.p99"；未知编号返回 null
+     */
+    public static String name(int metricId) {
+        int kind = kind(metricId);
+        int sub = sub(metricId);
+        if (kind <= 0 || kind >= KIND_COUNT) {
+            return null;
+        }
+        if (isDistribution(kind)) {
+            return sub < STAT_COUNT_ALL ? KIND_NAMES[kind] + "." + STAT_NAMES[sub] : null;
+        }
+        if (sub == 0) {
+            return KIND_NAMES[kind];
+        }
+        String sensor = WireFormat.sensorName(sub);
+        return sensor != null ? KIND_NAMES[kind] + "." + sensor : null;
+    }
+}
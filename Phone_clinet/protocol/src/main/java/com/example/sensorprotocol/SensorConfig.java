@@ -0,0 +1,143 @@
+package com.example.sensorprotocol;
+
+/**
+ * 接收端下发的采集设置：每个传感器是否启用、采样周期和硬件 FIFO 批处理延迟，单位都是微秒。
+ *
+ * 握手成功后接收端可以发送一行，例如
+ * <pre>
+ * CONFIG Accelerometer=5000/1000000 Gyroscope=5000/1000000 Orientation=off Location=1000000
+ * </pre>
+ * 键名与 {@link WireFormat#sensorName} 相同；"/延迟" 省略时为 0，即不批处理；"off" 表示停用。
+ * 行中没有出现的传感器保持手机当前的设置，不认识的键名忽略，以便接收端先于手机支持新传感器。
+ * 位置的周期对应 requestLocationUpdates 的最小时间间隔，批处理延迟对位置不起作用。
+ */
+public final class SensorConfig {
+    public static final String PREFIX = "CONFIG ";
+    public static final String OFF = "off";
+
+    // 下标为传感器编号
+    private final boolean[] present = new boolean[WireFormat.SENSOR_COUNT];
+    private final boolean[] enabled = new boolean[WireFormat.SENSOR_COUNT];
+    private final int[] periodUs = new int[WireFormat.SENSOR_COUNT];
+    private final int[] maxReportLatencyUs = new int[WireFormat.SENSOR_COUNT];
+
+    /**
+     * 启用传感器并设置采样周期和批处理延迟。
+     */
+    public SensorConfig set(int sensorId, int periodUs, int maxReportLatencyUs) {
+        checkId(sensorId);
+        if (periodUs < 0 || maxReportLatencyUs < 0) {
+            throw new IllegalArgumentException("negative period or latency");
+        }
+        present[sensorId] = true;
+        enabled[sensorId] = true;
+        this.periodUs[sensorId] = periodUs;
+        this.maxReportLatencyUs[sensorId] = maxReportLatencyUs;
+        return this;
+    }
+
+    public SensorConfig disable(int sensorId) {
+        checkId(sensorId);
+        present[sensorId] = true;
+        enabled[sensorId] = false;
+        periodUs[sensorId] = 0;
+        maxReportLatencyUs[sensorId] = 0;
+        return this;
+    }
+
+    private static void checkId(int sensorId) {
+        if (WireFormat.sensorName(sensorId) == null) {
+            throw new IllegalArgumentException("unknown sensor id: " + sensorId);
+        }
+    }
+
+    /**
+     * @return 这份设置是否涉及该传感器
+     */
+    public boolean has(int sensorId) {
+        return sensorId > 0 && sensorId < WireFormat.SENSOR_COUNT && present[sensorId];
+    }
+
+    public boolean isEnabled(int sensorId) {
+        return has(sensorId) && enabled[sensorId];
+    }
+
+    public int getPeriodUs(int sensorId) {
+        return has(sensorId) ? periodUs[sensorId] : 0;
+    }
+
+    public int getMaxReportLatencyUs(int sensorId) {
+        return has(sensorId) ? maxReportLatencyUs[sensorId] : 0;
+    }
+
+    /**
+     * @return 不含换行符的 CONFIG 行
+     */
+    public String toLine() {
+        StringBuilder sb = new StringBuilder(PREFIX.trim());
+        for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+            if (!present[id]) {
+                continue;
+            }
+            sb.append(' ').append(WireFormat.sensorName(id)).append('=');
+            if (!enabled[id]) {
+                sb.append(OFF);
+                continue;
+            }
+            sb.append(periodUs[id]);
+            if (maxReportLatencyUs[id] > 0) {
+                sb.append('/').append(maxReportLatencyUs[id]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 行内容不是 CONFIG 行或格式不对时返回 null
+     */
+    public static SensorConfig parse(CharSequence line) {
+        String text = line.toString().trim();
+        if (!text.startsWith(PREFIX)) {
+            return null;
+        }
+        SensorConfig config = new SensorConfig();
+        for (String entry : text.substring(PREFIX.length()).trim().split("\\s+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                return null;
+            }
+            int id = WireFormat.sensorId(entry.substring(0, eq));
+            String value = entry.substring(eq + 1);
+            int slash = value.indexOf('/');
+            int period;
+            int latency;
+            try {
+                if (OFF.equals(value)) {
+                    if (id != 0) {
+                        config.disable(id);
+                    }
+                    continue;
+                }
+                period = Integer.parseInt(slash < 0 ? value : value.substring(0, slash));
+                latency = slash < 0 ? 0 : Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (period < 0 || latency < 0) {
+                return null;
+            }
+            if (id != 0) {
+                config.set(id, period, latency);
+            }
+        }
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.sensorprotocol;
+
+/**
+ * 一个通道一个窗口的特征摘要，{@link WireFormat#FLAG_FEATURES} 帧中的一项。
+ * 编码端和解码端都复用同一个对象，不在热路径上分配。
+ */
+public final class WindowFeatures {
+    public static final int MAX_BANDS = 64;
+
+    public int sensorId;
+    public int channel;
+    // 窗口内的采样数
+    public int sampleCount;
+    // 窗口内最后一个采样的时间戳（SensorEvent.timestamp 同一时钟）
+    public long endTimestampNanos;
+    // 窗口内第一个到最后一个采样的时间跨度
+    public long durationNanos;
+    public float mean;
+    public float rms;
+    public float min;
+    public float max;
+    // 去掉均值后过零的次数
+    public int zeroCrossings;
+    public int bandCount;
+    // 从 0 到采样率一半等分成 bandCount 个频带，各频带（去均值、加汉宁窗后）的能量；各频带之和约等于窗口内的方差
+    public final float[] bands = new float[MAX_BANDS];
+
+    public void copyFrom(WindowFeatures other) {
+        sensorId = other.sensorId;
+        channel = other.channel;
+        sampleCount = other.sampleCount;
+        endTimestampNanos = other.endTimestampNanos;
+        durationNanos = other.durationNanos;
+        mean = other.mean;
+        rms = other.rms;
+        min = other.min;
+        max = other.max;
+        zeroCrossings = other.zeroCrossings;
+        bandCount = other.bandCount;
+        System.arraycopy(other.bands, 0, bands, 0, bandCount);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.sensorprotocol;
+
+/**
+ * 二进制帧格式（版本 1）的常量定义。所有多字节字段均为小端序。
+ *
+ * <pre>
+ * 帧头（32 字节）
+ *   u32  frameLength        之后的字节数（不含本字段）
+ *   u8   version            当前为 1
+ *   u8   flags              见 FLAG_*
+ *   u16  blockCount
+ *   i64  deviceId
+ *   i64  sequence           每帧递增
+ *   i64  baseTimestampNanos 样本时间戳的基准（SensorEvent.timestamp 同一时钟）
+ * 数据块（重复 blockCount 次）
+ *   u8   sensorId           见 SENSOR_*
+ *   u8   channels           每个采样的 float 个数
+ *   u16  sampleCount
+ *   采样（重复 sampleCount 次）
+ *     i32  offsetMicros     相对 baseTimestampNanos 的微秒偏移
+ *     f32 × channels
+ * </pre>
+ *
+ * 带 {@link #FLAG_DELTA} 的帧中数据块改为压缩编码，接收端在握手时声明支持后手机才会使用，见 {@link Handshake}：
+ * <pre>
+ *   u8   sensorId
+ *   u8   channels
+ *   u16  sampleCount
+ *   u8   decimals           量化精度，数值按 round(value × 10^decimals) 取整
+ *   采样（重复 sampleCount 次）
+ *     varint  时间戳          第一个采样为 offsetMicros，第二个为与前一采样的间隔，之后为间隔之差
+ *     varint × channels     量化值与上一采样同一通道之差，第一个采样与 0 相减
+ * </pre>
+ * varint 是 zigzag 编码的 32 位有符号整数，每字节 7 位、低位在前，最高位为 1 表示后面还有字节。
+ * 采样率稳定时时间戳只占 1 字节，缓慢变化的通道只占 1～2 字节。量化误差不超过 0.5 × 10^-decimals；
+ * 量化值超出 int 范围的按边界截断，NaN 编码为 0。
+ *
+ * 带 {@link #FLAG_CLOCK_PONG} 的帧是对接收端 PING 的应答，不含数据块，不占用帧序号，也不需要确认：
+ * sequence 是 PING 的编号，baseTimestampNanos 是手机读到 PING 时的采样时钟，见 {@link Handshake}。
+ *
+ * 带 {@link #FLAG_METRICS} 的帧是手机定期上报的运行指标，同样不占用帧序号、不需要确认：sequence 是该连接上的上报次数，
+ * baseTimestampNanos 是上报时的采样时钟，blockCount 是指标个数，之后每个指标
+ * <pre>
+ *   u16  metricId           见 {@link MetricId}
+ *   i64  value
+ * </pre>
+ * 接收端在握手时声明支持后手机才会发送，不认识的 metricId 忽略。
+ *
+ * 带 {@link #FLAG_FEATURES} 的帧在帧头之后、数据块之前先有一段窗口特征（见 {@link WindowFeatures}），
+ * 用于手机只上传振动类传感器的摘要、不上传原始采样的“特征”模式。这种帧与普通数据帧一样占用帧序号、需要确认，
+ * 数据块（如位置、光线）照常编码，可以同时带 {@link #FLAG_DELTA}：
+ * <pre>
+ *   u16  featureCount
+ *   特征（重复 featureCount 次）
+ *     u8   sensorId
+ *     u8   channel          通道下标
+ *     u16  sampleCount      窗口内的采样数
+ *     i32  endOffsetMicros  窗口内最后一个采样相对 baseTimestampNanos 的微秒偏移
+ *     i32  durationMicros   窗口内第一个到最后一个采样的时间跨度
+ *     f32  mean
+ *     f32  rms
+ *     f32  min
+ *     f32  max
+ *     u16  zeroCrossings
+ *     u8   bandCount
+ *     f32 × bandCount       频带能量
+ * </pre>
+ * 接收端在握手时声明支持后手机才会发送。
+ *
+ * 带 {@link #FLAG_HELD} 的帧使用死区过滤：采样与该传感器上一次发出的值相差不超过阈值时不发送，帧中没有出现的传感器
+ * 视为保持上一个值不变。手机对每个有数据的传感器至少每隔一个心跳间隔（接收端在握手时给出，见 {@link Handshake}）
+ * 发一次当前值，接收端据此区分“没变”和“没了”：超过两个心跳间隔没有收到的传感器不再保持。帧格式不变。
+ *
+ * UDP 传输（实时看板用，丢掉迟到的采样而不是等它）：每个数据报恰好是一帧，长度不超过 {@link #MAX_DATAGRAM_SIZE}，
+ * 不握手、不确认、不重发。帧头的 deviceId 标识手机，sequence 每个数据报加 1、每次开始发送时从随机值起步，
+ * 接收端据此统计丢失、乱序和重复，比已收到的最新序号旧的数据报直接丢弃。数据块可以带 {@link #FLAG_DELTA}，
+ * 不使用特征帧和死区过滤（丢包后保持值没有意义）。接收端向数据报的来源地址发送内容为 "PING &lt;编号&gt;" 的数据报，
+ * 手机用一个 {@link #FLAG_CLOCK_PONG} 帧的数据报应答，与 TCP 上的时钟同步相同。
+ *
+ * 延迟追踪：手机大约每秒抽样一个采样，它所在的数据帧带 {@link #FLAG_TRACED}，格式不变。这一帧交给内核之后，
+ * 手机再发一个带 {@link #FLAG_TRACE} 的追踪帧，与指标帧一样不占用帧序号、不需要确认：sequence 是被追踪的数据帧的序号，
+ * baseTimestampNanos 是该采样的时间戳（采集时刻），blockCount 为 0，之后是它在手机上经过各环节的时刻（同一时钟）：
+ * <pre>
+ *   u8   sensorId
+ *   i64  enqueueNanos       写入环形缓冲区
+ *   i64  encodeNanos        所在的帧编码完成
+ *   i64  writeNanos         所在的帧交给内核
+ * </pre>
+ * 接收端在握手时声明支持后手机才会追踪，见 {@link Handshake}；UDP 上总是追踪，追踪帧单独一个数据报。
+ */
+public final class WireFormat {
+    private WireFormat() {
+    }
+
+    public static final int VERSION = 1;
+
+    public static final int LENGTH_FIELD_SIZE = 4;
+    public static final int HEADER_SIZE = 32;
+    public static final int BLOCK_HEADER_SIZE = 4;
+    public static final int TIMESTAMP_SIZE = 4;
+    public static final int DELTA_BLOCK_HEADER_SIZE = 5;
+    public static final int MAX_VARINT_SIZE = 5;
+
+    // 单帧上限，防止损坏的长度字段导致接收端分配过大的缓冲区
+    public static final int MAX_FRAME_SIZE = 1 << 20;
+    // UDP 数据报（一帧）的上限：以太网 MTU 1500 减去 IP/UDP 头仍有余量，不会分片
+    public static final int MAX_DATAGRAM_SIZE = 1400;
+    public static final int MAX_CHANNELS = 16;
+    public static final int MAX_SAMPLES_PER_BLOCK = 0xFFFF;
+
+    // 时钟同步应答帧
+    public static final int FLAG_CLOCK_PONG = 0x01;
+    // 数据块使用量化 + 差分 + varint 编码
+    public static final int FLAG_DELTA = 0x02;
+    // 运行指标上报帧
+    public static final int FLAG_METRICS = 0x04;
+    public static final int METRIC_ENTRY_SIZE = 10;
+    // 带窗口特征的数据帧
+    public static final int FLAG_FEATURES = 0x08;
+    public static final int FEATURE_COUNT_SIZE = 2;
+    public static final int FEATURE_HEADER_SIZE = 31;
+    // 帧中没有的传感器保持上一个值（死区过滤）
+    public static final int FLAG_HELD = 0x10;
+    // 含被追踪采样的数据帧
+    public static final int FLAG_TRACED = 0x20;
+    // 追踪帧
+    public static final int FLAG_TRACE = 0x40;
+    public static final int TRACE_SIZE = 25;
+    // 10^9 × 2 已接近 int 上限，更高的精度没有意义
+    public static final int MAX_DECIMALS = 9;
+
+    // 传感器编号，与 JSON 模式中的键名一一对应
+    public static final int SENSOR_LOCATION = 1;
+    public static final int SENSOR_ACCELEROMETER = 2;
+    public static final int SENSOR_ORIENTATION = 3;
+    public static final int SENSOR_LIGHT = 4;
+    public static final int SENSOR_GYROSCOPE = 5;
+    public static final int SENSOR_MAGNETOMETER = 6;
+    // x·sin(θ/2)、y·sin(θ/2)、z·sin(θ/2)、cos(θ/2)
+    public static final int SENSOR_ROTATION_VECTOR = 7;
+    public static final int SENSOR_PRESSURE = 8;
+    // 编号上限（不含），可用作按编号索引的数组长度
+    public static final int SENSOR_COUNT = 9;
+
+    private static final String[] SENSOR_NAMES = {
+            null, "Location", "Accelerometer", "Orientation", "Light",
+            "Gyroscope", "Magnetometer", "RotationVector", "Pressure"
+    };
+    private static final int[] SENSOR_CHANNELS = {0, 2, 3, 3, 1, 3, 3, 4, 1};
+    // 各传感器默认的量化精度（小数位数），与传感器本身的分辨率相当：
+    // 经纬度 1e-6 度约 0.1 米，加速度 1 mm/s²，方向 0.01 度，光线 0.1 lux，角速度 1e-4 rad/s，
+    // 磁场 0.01 µT，旋转矢量 1e-5，气压 0.01 hPa
+    private static final int[] SENSOR_DECIMALS = {0, 6, 3, 2, 1, 4, 2, 5, 2};
+    private static final int UNKNOWN_SENSOR_DECIMALS = 4;
+
+    /**
+     * @return JSON 模式下使用的键名，未知编号返回 null
+     */
+    public static String sensorName(int sensorId) {
+        return sensorId > 0 && sensorId < SENSOR_NAMES.length ? SENSOR_NAMES[sensorId] : null;
+    }
+
+    /**
+     * @return 每个采样的 float 个数，未知编号返回 0
+     */
+    public static int channels(int sensorId) {
+        return sensorId > 0 && sensorId < SENSOR_COUNT ? SENSOR_CHANNELS[sensorId] : 0;
+    }
+
+    /**
+     * @return {@link #FLAG_DELTA} 编码时的默认量化精度（小数位数）
+     */
+    public static int defaultDecimals(int sensorId) {
+        return sensorId > 0 && sensorId < SENSOR_COUNT ? SENSOR_DECIMALS[sensorId] : UNKNOWN_SENSOR_DECIMALS;
+    }
+
+    /**
+     * @return 键名对应的传感器编号，未知键名返回 0
+     */
+    public static int sensorId(String name) {
+        for (int i = 1; i < SENSOR_NAMES.length; i++) {
+            if (SENSOR_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return 一个包含 sampleCount 个采样的数据块的编码长度
+     */
+    public static int blockSize(int channels, int sampleCount) {
+        return BLOCK_HEADER_SIZE + sampleCount * (TIMESTAMP_SIZE + channels * 4);
+    }
+
+    /**
+     * @return 一项带 bandCount 个频带的窗口特征的编码长度
+     */
+    public static int featureSize(int bandCount) {
+        return FEATURE_HEADER_SIZE + bandCount * 4;
+    }
+
+    /**
+     * @return 带 {@link #FLAG_DELTA} 时一个数据块编码长度的上限，实际长度通常只有它的几分之一
+     */
+    public static int maxDeltaBlockSize(int channels, int sampleCount) {
+        return DELTA_BLOCK_HEADER_SIZE + sampleCount * (1 + channels) * MAX_VARINT_SIZE;
+    }
+}
@@ -0,0 +1,525 @@
+package com.example.sensorprotocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+    private static final long DEVICE_ID = 0x1234_5678_9abc_def0L;
+    private static final long BASE_NS = 5_000_000_000L;
+
+    private static class Recorder implements FrameDecoder.Listener {
+        long deviceId;
+        long sequence;
+        long baseTimestampNanos;
+        int flags;
+        int frames;
+        final List<Integer> sensorIds = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        final List<float[]> values = new ArrayList<>();
+
+        @Override
+        public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+            this.deviceId = deviceId;
+            this.sequence = sequence;
+            this.baseTimestampNanos = baseTimestampNanos;
+            this.flags = flags;
+        }
+
+        @Override
+        public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+            sensorIds.add(sensorId);
+            timestamps.add(timestampNanos);
+            float[] copy = new float[channels];
+            System.arraycopy(values, 0, copy, 0, channels);
+            this.values.add(copy);
+        }
+
+        @Override
+        public void onFrameEnd() {
+            frames++;
+        }
+    }
+
+    private static int encodeAccelerometer(FrameEncoder encoder, ByteBuffer buffer, long sequence, int samples) {
+        float[] xyz = new float[3];
+        encoder.begin(buffer, DEVICE_ID, sequence, BASE_NS);
+        encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+        for (int i = 0; i < samples; i++) {
+            xyz[0] = -9.052347f + i * 0.01f;
+            xyz[1] = 3.1746774f;
+            xyz[2] = 2.757429f - i;
+            encoder.putSample(BASE_NS + i * 2_000_000L, xyz, 0);
+        }
+        encoder.endBlock();
+        encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1); // 空块会被撤销
+        encoder.endBlock();
+        return encoder.end();
+    }
+
+    @Test
+    public void roundTripsHeaderAndSamples() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        FrameEncoder encoder = new FrameEncoder();
+        int length = encodeAccelerometer(encoder, buffer, 42L, 10);
+        assertEquals(WireFormat.HEADER_SIZE + WireFormat.blockSize(3, 10), length);
+
+        buffer.flip();
+        Recorder recorder = new Recorder();
+        assertEquals(length, new FrameDecoder().decode(buffer, recorder));
+        assertEquals(1, recorder.frames);
+        assertEquals(DEVICE_ID, recorder.deviceId);
+        assertEquals(42L, recorder.sequence);
+        assertEquals(BASE_NS, recorder.baseTimestampNanos);
+        assertEquals(10, recorder.values.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(WireFormat.SENSOR_ACCELEROMETER, (int) recorder.sensorIds.get(i));
+            assertEquals(BASE_NS + i * 2_000_000L, (long) recorder.timestamps.get(i));
+            assertEquals(-9.052347f + i * 0.01f, recorder.values.get(i)[0], 0f);
+            assertEquals(2.757429f - i, recorder.values.get(i)[2], 0f);
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void waitsForCompleteFrame() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        FrameEncoder encoder = new FrameEncoder();
+        int first = encodeAccelerometer(encoder, buffer, 1L, 3);
+        encodeAccelerometer(encoder, buffer, 2L, 5);
+        buffer.flip();
+
+        ByteBuffer partial = buffer.duplicate();
+        partial.limit(first + 10);
+        Recorder recorder = new Recorder();
+        FrameDecoder decoder = new FrameDecoder();
+        assertEquals(first, decoder.decode(partial, recorder));
+        assertEquals(0, decoder.decode(partial, recorder));
+        assertEquals(first, partial.position());
+
+        buffer.position(first);
+        assertTrue(decoder.decode(buffer, recorder) > 0);
+        assertEquals(2, recorder.frames);
+        assertEquals(2L, recorder.sequence);
+        assertEquals(8, recorder.values.size());
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void rejectsUnknownVersion() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        encodeAccelerometer(new FrameEncoder(), buffer, 1L, 1);
+        buffer.put(4, (byte) 99);
+        buffer.flip();
+        new FrameDecoder().decode(buffer, new Recorder());
+    }
+
+    @Test
+    public void isSmallerThanJsonSamples() {
+        int samples = 500;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int binary = encodeAccelerometer(new FrameEncoder(), buffer, 1L, samples);
+
+        // 与 SensorSenderService JSON 模式中 "Samples" 的写法相同
+        StringBuilder t = new StringBuilder();
+        StringBuilder v = new StringBuilder();
+        for (int i = 0; i < samples; i++) {
+            if (i > 0) {
+                t.append(',');
+                v.append(',');
+            }
+            t.append(BASE_NS + 1_234_567_890_000L + i * 2_000_000L);
+            v.append(-9.052347f + i * 0.01f).append(',').append(3.1746774f).append(',').append(2.757429f - i);
+        }
+        String json = "{\"Samples\":{\"Accelerometer\":{\"t\":[" + t + "],\"v\":[" + v + "]}}}\n";
+        int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+        // 原始 float32 约为 JSON 文本的 1/2.8，进一步压缩需要差分编码
+        assertTrue("binary=" + binary + " json=" + jsonBytes, binary * 5 < jsonBytes * 2);
+    }
+
+    @Test
+    public void handshakeLines() {
+        String hello = Handshake.helloLine(DEVICE_ID);
+        assertTrue(Handshake.isHello(hello));
+        assertEquals(DEVICE_ID, Handshake.parseDeviceId(Handshake.parseHelloDevice(hello)));
+        assertEquals(-1L, Handshake.parseDeviceId(Handshake.formatDeviceId(-1L)));
+        assertTrue(Handshake.isAccept(Handshake.acceptLine(new Handshake.Accept()) + "\r\n"));
+        assertFalse(Handshake.isHello("{\"Accelerometer\":[1,2,3]}"));
+    }
+
+    @Test
+    public void sessionAndAckLines() {
+        String hello = Handshake.helloLine(DEVICE_ID, 0xabcdefL);
+        assertTrue(Handshake.isHello(hello));
+        assertEquals(DEVICE_ID, Handshake.parseDeviceId(Handshake.parseHelloDevice(hello)));
+        assertEquals("0000000000abcdef", Handshake.parseHelloSession(hello));
+        assertNull(Handshake.parseHelloSession(Handshake.helloLine(DEVICE_ID)));
+
+        assertTrue(Handshake.isAccept("OK ssp1 ack\n"));
+        assertTrue(Handshake.acceptsAcks("OK ssp1 ack"));
+        assertFalse(Handshake.acceptsAcks("OK ssp1"));
+        assertTrue(Handshake.acceptsDelta("OK ssp1 delta ack"));
+        assertFalse(Handshake.acceptsDelta("OK ssp1 ack"));
+        assertFalse(Handshake.isAccept("OK ssp10"));
+        assertEquals(-1L, Handshake.parseHeartbeatMillis("OK ssp1 hold=x"));
+
+        String acks = Handshake.acceptLine(new Handshake.Accept().acks());
+        assertEquals("OK ssp1 ack", acks);
+        assertTrue(Handshake.acceptsAcks(acks));
+        assertFalse(Handshake.acceptsDelta(acks));
+        assertEquals(-1L, Handshake.parseHeartbeatMillis(Handshake.acceptLine(new Handshake.Accept().hold(0))));
+
+        String all = Handshake.acceptLine(new Handshake.Accept().acks().delta().metrics().features().hold(5000).trace());
+        assertEquals("OK ssp1 ack delta metrics features hold=5000 trace", all);
+        assertTrue(Handshake.isAccept(all));
+        assertTrue(Handshake.acceptsAcks(all));
+        assertTrue(Handshake.acceptsDelta(all));
+        assertTrue(Handshake.acceptsMetrics(all));
+        assertTrue(Handshake.acceptsFeatures(all));
+        assertEquals(5000L, Handshake.parseHeartbeatMillis(all));
+        assertTrue(Handshake.acceptsTrace(all));
+        String noTrace = Handshake.acceptLine(new Handshake.Accept().acks().delta().hold(5000));
+        assertFalse(Handshake.acceptsTrace(noTrace));
+        assertFalse(Handshake.acceptsFeatures(noTrace));
+        assertEquals(Handshake.ALL_SENSORS, Handshake.parseSensorMask(noTrace));
+
+        String stored = Handshake.acceptLine(new Handshake.Accept().acks()
+                .sensor(WireFormat.SENSOR_LIGHT).sensor(WireFormat.SENSOR_LOCATION));
+        assertEquals("OK ssp1 ack sensors=1,4", stored);
+        assertTrue(Handshake.acceptsAcks(stored));
+        assertEquals(1 << WireFormat.SENSOR_LOCATION | 1 << WireFormat.SENSOR_LIGHT, Handshake.parseSensorMask(stored));
+        assertEquals(Handshake.ALL_SENSORS, Handshake.parseSensorMask("OK ssp1 sensors=1,x"));
+        for (int bad : new int[]{0, -1, WireFormat.SENSOR_COUNT, 32}) {
+            try {
+                new Handshake.Accept().sensor(bad);
+                fail("accepted sensor id " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+
+        assertEquals(42L, Handshake.parseAck(Handshake.ackLine(42)));
+        assertEquals(-1L, Handshake.parseAck("ACK "));
+        assertEquals(-1L, Handshake.parseAck("ACK 1x"));
+        assertEquals(-1L, Handshake.parseAck("OK ssp1"));
+    }
+
+    @Test
+    public void pingLinesAndPongFrames() throws FrameFormatException {
+        assertEquals(7L, Handshake.parsePing(Handshake.pingLine(7)));
+        assertEquals(-1L, Handshake.parsePing(Handshake.ackLine(7)));
+        assertEquals(-1L, Handshake.parseAck(Handshake.pingLine(7)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 7, BASE_NS, WireFormat.FLAG_CLOCK_PONG);
+        assertEquals(WireFormat.HEADER_SIZE, encoder.end());
+        buffer.flip();
+        Recorder recorder = new Recorder();
+        assertEquals(WireFormat.HEADER_SIZE, new FrameDecoder().decode(buffer, recorder));
+        assertEquals(WireFormat.FLAG_CLOCK_PONG, recorder.flags);
+        assertEquals(7L, recorder.sequence);
+        assertEquals(BASE_NS, recorder.baseTimestampNanos);
+        assertEquals(1, recorder.frames);
+        assertTrue(recorder.sensorIds.isEmpty());
+    }
+
+    @Test
+    public void metricsFramesRoundTrip() throws FrameFormatException {
+        int events = MetricId.of(MetricId.KIND_SENSOR_EVENTS, WireFormat.SENSOR_ACCELEROMETER);
+        int p99 = MetricId.of(MetricId.KIND_WRITE_NANOS, MetricId.STAT_P99);
+        assertEquals("events.Accelerometer", MetricId.name(events));
+        assertEquals("writeNanos.p99", MetricId.name(p99));
+        assertNull(MetricId.name(MetricId.of(MetricId.KIND_WRITE_NANOS, 200)));
+        assertNull(MetricId.name(0xFFFF));
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 3, BASE_NS, WireFormat.FLAG_METRICS);
+        encoder.putMetric(events, 123_456_789_012L);
+        encoder.putMetric(p99, -1);
+        assertEquals(WireFormat.HEADER_SIZE + 2 * WireFormat.METRIC_ENTRY_SIZE, encoder.end());
+        buffer.flip();
+
+        List<Long> metrics = new ArrayList<>();
+        class MetricsRecorder extends Recorder implements FrameDecoder.MetricsListener {
+            @Override
+            public void onMetric(int metricId, long value) {
+                metrics.add((long) metricId);
+                metrics.add(value);
+            }
+        }
+        MetricsRecorder recorder = new MetricsRecorder();
+        new FrameDecoder().decode(buffer.duplicate(), recorder);
+        assertEquals(WireFormat.FLAG_METRICS, recorder.flags);
+        assertEquals(3L, recorder.sequence);
+        assertEquals(1, recorder.frames);
+        assertTrue(recorder.sensorIds.isEmpty());
+        assertEquals(Arrays.asList((long) events, 123_456_789_012L, (long) p99, -1L), metrics);
+
+        // 不收集指标的接收端照常解码，只是跳过指标
+        Recorder plain = new Recorder();
+        assertEquals(buffer.remaining(), new FrameDecoder().decode(buffer, plain));
+        assertEquals(1, plain.frames);
+    }
+
+    @Test
+    public void tracedFramesAndTraceFrames() throws FrameFormatException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 9, BASE_NS, WireFormat.FLAG_DELTA);
+        encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1);
+        encoder.putSample(BASE_NS, new float[]{110f}, 0);
+        encoder.endBlock();
+        encoder.markTraced();
+        encoder.end();
+        encoder.begin(buffer, DEVICE_ID, 9, BASE_NS - 3000, WireFormat.FLAG_TRACE);
+        encoder.putTrace(WireFormat.SENSOR_LIGHT, BASE_NS - 2000, BASE_NS - 1000, BASE_NS);
+        assertEquals(WireFormat.HEADER_SIZE + WireFormat.TRACE_SIZE, encoder.end());
+        buffer.flip();
+
+        long[] trace = new long[4];
+        class TraceRecorder extends Recorder implements FrameDecoder.TraceListener {
+            @Override
+            public void onTrace(int sensorId, long enqueueNanos, long encodeNanos, long writeNanos) {
+                trace[0] = sensorId;
+                trace[1] = enqueueNanos;
+                trace[2] = encodeNanos;
+                trace[3] = writeNanos;
+            }
+        }
+        TraceRecorder recorder = new TraceRecorder();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.decode(buffer, recorder);
+        assertEquals(WireFormat.FLAG_DELTA | WireFormat.FLAG_TRACED, recorder.flags);
+        assertEquals(110f, recorder.values.get(0)[0], 0.05f);
+        decoder.decode(buffer, recorder);
+        assertEquals(WireFormat.FLAG_TRACE, recorder.flags);
+        assertEquals(9L, recorder.sequence);
+        assertEquals(BASE_NS - 3000, recorder.baseTimestampNanos);
+        assertArrayEquals(new long[]{WireFormat.SENSOR_LIGHT, BASE_NS - 2000, BASE_NS - 1000, BASE_NS}, trace);
+        assertEquals(1, recorder.sensorIds.size());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void featureFramesRoundTripAlongsideRawBlocks() throws FrameFormatException {
+        WindowFeatures f = new WindowFeatures();
+        f.sensorId = WireFormat.SENSOR_ACCELEROMETER;
+        f.channel = 2;
+        f.sampleCount = 256;
+        f.endTimestampNanos = BASE_NS + 1_280_000_000L;
+        f.durationNanos = 1_275_000_000L;
+        f.mean = 9.81f;
+        f.rms = 9.9f;
+        f.min = -3.5f;
+        f.max = 20.25f;
+        f.zeroCrossings = 37;
+        f.bandCount = 8;
+        for (int i = 0; i < f.bandCount; i++) {
+            f.bands[i] = i * 0.125f;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 6, BASE_NS, WireFormat.FLAG_FEATURES | WireFormat.FLAG_DELTA);
+        encoder.putFeatures(f);
+        f.channel = 0;
+        f.bandCount = 0;
+        encoder.putFeatures(f);
+        encoder.beginBlock(WireFormat.SENSOR_LOCATION, 2);
+        encoder.putSample(BASE_NS, new float[]{30.274135f, 120.155072f}, 0);
+        encoder.endBlock();
+        assertEquals(2, encoder.getFeatureCount());
+        int length = encoder.end();
+        assertTrue(length < WireFormat.HEADER_SIZE + WireFormat.FEATURE_COUNT_SIZE
+                + WireFormat.featureSize(8) + WireFormat.featureSize(0) + WireFormat.maxDeltaBlockSize(2, 1));
+
+        List<WindowFeatures> decoded = new ArrayList<>();
+        class FeaturesRecorder extends Recorder implements FrameDecoder.FeaturesListener {
+            @Override
+            public void onFeatures(WindowFeatures features) {
+                WindowFeatures copy = new WindowFeatures();
+                copy.copyFrom(features);
+                decoded.add(copy);
+            }
+        }
+        buffer.flip();
+        FeaturesRecorder recorder = new FeaturesRecorder();
+        assertEquals(length, new FrameDecoder().decode(buffer.duplicate(), recorder));
+        assertEquals(1, recorder.frames);
+        assertEquals(2, decoded.size());
+        WindowFeatures first = decoded.get(0);
+        assertEquals(WireFormat.SENSOR_ACCELEROMETER, first.sensorId);
+        assertEquals(2, first.channel);
+        assertEquals(256, first.sampleCount);
+        // 时间以微秒传输
+        assertEquals(BASE_NS + 1_280_000_000L, first.endTimestampNanos);
+        assertEquals(1_275_000_000L, first.durationNanos);
+        assertEquals(9.81f, first.mean, 0);
+        assertEquals(9.9f, first.rms, 0);
+        assertEquals(-3.5f, first.min, 0);
+        assertEquals(20.25f, first.max, 0);
+        assertEquals(37, first.zeroCrossings);
+        assertEquals(8, first.bandCount);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i * 0.125f, first.bands[i], 0);
+        }
+        assertEquals(0, decoded.get(1).channel);
+        assertEquals(0, decoded.get(1).bandCount);
+        assertEquals(List.of(WireFormat.SENSOR_LOCATION), recorder.sensorIds);
+        assertEquals(30.274135f, recorder.values.get(0)[0], 0.5e-6f + 2e-6f);
+
+        // 不关心特征的接收端跳过特征段，数据块照常解码
+        Recorder plain = new Recorder();
+        assertEquals(length, new FrameDecoder().decode(buffer, plain));
+        assertEquals(List.of(WireFormat.SENSOR_LOCATION), plain.sensorIds);
+    }
+
+    @Test
+    public void sensorConfigLinesRoundTrip() {
+        SensorConfig config = SensorConfig.parse(
+                "CONFIG Accelerometer=5000/1000000 Orientation=off Location=1000000 Thermometer=100");
+        assertNotNull(config);
+        assertTrue(config.isEnabled(WireFormat.SENSOR_ACCELEROMETER));
+        assertEquals(5000, config.getPeriodUs(WireFormat.SENSOR_ACCELEROMETER));
+        assertEquals(1_000_000, config.getMaxReportLatencyUs(WireFormat.SENSOR_ACCELEROMETER));
+        assertTrue(config.has(WireFormat.SENSOR_ORIENTATION));
+        assertFalse(config.isEnabled(WireFormat.SENSOR_ORIENTATION));
+        assertEquals(0, config.getMaxReportLatencyUs(WireFormat.SENSOR_LOCATION));
+        // 没出现的传感器保持原设置，不认识的键名忽略
+        assertFalse(config.has(WireFormat.SENSOR_LIGHT));
+        assertEquals("CONFIG Location=1000000 Accelerometer=5000/1000000 Orientation=off", config.toLine());
+        assertEquals(config.toLine(), SensorConfig.parse(config.toLine()).toLine());
+
+        assertNull(SensorConfig.parse(Handshake.ackLine(3)));
+        assertNull(SensorConfig.parse("CONFIG Accelerometer=fast"));
+        assertNull(SensorConfig.parse("CONFIG Accelerometer=-1"));
+    }
+
+    @Test
+    public void rotationVectorHasFourChannels() throws FrameFormatException {
+        assertEquals(4, WireFormat.channels(WireFormat.SENSOR_ROTATION_VECTOR));
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 1, BASE_NS);
+        encoder.beginBlock(WireFormat.SENSOR_ROTATION_VECTOR, 4);
+        encoder.putSample(BASE_NS, new float[]{0.1f, 0.2f, 0.3f, 0.9f}, 0);
+        encoder.endBlock();
+        encoder.beginBlock(WireFormat.SENSOR_PRESSURE, 1);
+        encoder.putSample(BASE_NS + 1000, new float[]{1013.25f}, 0);
+        encoder.endBlock();
+        encoder.end();
+        buffer.flip();
+        Recorder recorder = new Recorder();
+        new FrameDecoder().decode(buffer, recorder);
+        assertEquals(List.of(WireFormat.SENSOR_ROTATION_VECTOR, WireFormat.SENSOR_PRESSURE), recorder.sensorIds);
+        assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f, 0.9f}, recorder.values.get(0), 0);
+        assertArrayEquals(new float[]{1013.25f}, recorder.values.get(1), 0);
+    }
+
+    @Test
+    public void deltaFramesRoundTripWithinPrecision() throws FrameFormatException {
+        int samples = 500;
+        Random random = new Random(7);
+        long[] timestamps = new long[samples];
+        float[] values = new float[samples * 3];
+        // 以 200Hz 为主、带抖动的时间戳，第一个采样早于帧基准时间
+        long t = BASE_NS - 40_000_000L;
+        float x = -9.052347f;
+        float y = 3.1746774f;
+        float z = 2.757429f;
+        for (int i = 0; i < samples; i++) {
+            t += 5_000_000L + (random.nextInt(200) - 100) * 1000L;
+            timestamps[i] = t;
+            x += (float) (random.nextGaussian() * 0.05);
+            y += (float) (random.nextGaussian() * 0.05);
+            z += (float) (random.nextGaussian() * 0.05);
+            values[i * 3] = x;
+            values[i * 3 + 1] = y;
+            values[i * 3 + 2] = z;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 3, BASE_NS, WireFormat.FLAG_DELTA);
+        encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+        for (int i = 0; i < samples; i++) {
+            encoder.putSample(timestamps[i], values, i * 3);
+        }
+        encoder.endBlock();
+        int length = encoder.end();
+        assertTrue(length <= WireFormat.HEADER_SIZE + WireFormat.maxDeltaBlockSize(3, samples));
+        // 原始 float32 每采样 16 字节，3 位小数的随机游走每通道约 1～2 字节
+        assertTrue("delta=" + length, length * 2 < WireFormat.HEADER_SIZE + WireFormat.blockSize(3, samples));
+
+        buffer.flip();
+        Recorder recorder = new Recorder();
+        assertEquals(length, new FrameDecoder().decode(buffer, recorder));
+        assertEquals(WireFormat.FLAG_DELTA, recorder.flags);
+        assertEquals(samples, recorder.values.size());
+        float bound = 0.5e-3f + 1e-6f;
+        for (int i = 0; i < samples; i++) {
+            assertEquals(timestamps[i], (long) recorder.timestamps.get(i));
+            for (int c = 0; c < 3; c++) {
+                assertEquals(values[i * 3 + c], recorder.values.get(i)[c], bound);
+            }
+        }
+    }
+
+    @Test
+    public void deltaFramesHandleExtremeValuesAndSeveralBlocks() throws FrameFormatException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setDecimals(WireFormat.SENSOR_LIGHT, 0);
+        assertEquals(0, encoder.getDecimals(WireFormat.SENSOR_LIGHT));
+        assertEquals(WireFormat.defaultDecimals(WireFormat.SENSOR_LOCATION), encoder.getDecimals(WireFormat.SENSOR_LOCATION));
+        encoder.begin(buffer, DEVICE_ID, 4, BASE_NS, WireFormat.FLAG_DELTA);
+        encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1);
+        encoder.putSample(BASE_NS, new float[]{110.4f}, 0);
+        encoder.putSample(BASE_NS + 1_000_000_000L, new float[]{Float.NaN}, 0);
+        encoder.putSample(BASE_NS + 1_000_001_000L, new float[]{1e30f}, 0);
+        encoder.putSample(BASE_NS - 5_000_000L, new float[]{-1e30f}, 0);
+        encoder.endBlock();
+        encoder.beginBlock(WireFormat.SENSOR_LOCATION, 2);
+        encoder.putSample(BASE_NS, new float[]{30.274135f, 120.155072f}, 0);
+        encoder.putSample(BASE_NS, new float[]{-3f, -3f}, 0);
+        encoder.endBlock();
+        encoder.end();
+
+        buffer.flip();
+        Recorder recorder = new Recorder();
+        new FrameDecoder().decode(buffer, recorder);
+        assertEquals(List.of(4, 4, 4, 4, 1, 1), recorder.sensorIds);
+        assertEquals(110f, recorder.values.get(0)[0], 0);
+        assertEquals(0f, recorder.values.get(1)[0], 0);
+        assertEquals((float) Integer.MAX_VALUE, recorder.values.get(2)[0], 0);
+        assertEquals((float) Integer.MIN_VALUE, recorder.values.get(3)[0], 0);
+        assertEquals(BASE_NS + 1_000_001_000L, (long) recorder.timestamps.get(2));
+        assertEquals(BASE_NS - 5_000_000L, (long) recorder.timestamps.get(3));
+        assertEquals(30.274135f, recorder.values.get(4)[0], 0.5e-6f + 2e-6f);
+        assertEquals(120.155072f, recorder.values.get(4)[1], 0.5e-6f + 8e-6f);
+        assertArrayEquals(new float[]{-3f, -3f}, recorder.values.get(5), 0);
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void rejectsTruncatedDeltaBlock() throws FrameFormatException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.begin(buffer, DEVICE_ID, 5, BASE_NS, WireFormat.FLAG_DELTA);
+        encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+        for (int i = 0; i < 10; i++) {
+            encoder.putSample(BASE_NS + i * 1_000_000L, new float[]{i * 100f, -i * 100f, 1e4f}, 0);
+        }
+        int length = encoder.end();
+        // 改短帧长度，最后一个采样的 varint 落在帧外
+        buffer.putInt(0, length - WireFormat.LENGTH_FIELD_SIZE - 2);
+        buffer.flip();
+        new FrameDecoder().decode(buffer, new Recorder());
+    }
+}
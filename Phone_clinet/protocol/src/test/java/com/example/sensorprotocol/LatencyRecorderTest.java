@@ -0,0 +1,68 @@
+package com.example.sensorprotocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithinOneSixteenth() {
+        long previousUpper = -1;
+        for (int i = 0; i < LatencyRecorder.BUCKET_COUNT; i++) {
+            long upper = LatencyRecorder.bucketUpperBound(i);
+            // 桶首尾相接，上界落回本桶
+            assertEquals(i, LatencyRecorder.bucketIndex(previousUpper + 1));
+            assertEquals(i, LatencyRecorder.bucketIndex(upper));
+            long lower = previousUpper + 1;
+            assertTrue("bucket " + i, upper - lower <= Math.max(0, lower / 16));
+            previousUpper = upper;
+        }
+        assertEquals(LatencyRecorder.MAX_VALUE, previousUpper);
+    }
+
+    @Test
+    public void intervalsReportPercentilesSinceLastCollect() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        LatencyRecorder.Interval interval = recorder.newInterval();
+        long[] stats = new long[MetricId.STAT_COUNT_ALL];
+        for (int i = 1; i <= 1000; i++) {
+            recorder.record(i * 1000L);
+        }
+        interval.collect(stats);
+        assertEquals(1000, stats[MetricId.STAT_COUNT]);
+        assertEquals(500_000, stats[MetricId.STAT_P50], 500_000 / 16.0);
+        assertEquals(900_000, stats[MetricId.STAT_P90], 900_000 / 16.0);
+        assertEquals(990_000, stats[MetricId.STAT_P99], 990_000 / 16.0);
+        assertEquals(1_000_000, stats[MetricId.STAT_MAX]);
+
+        assertEquals(999_000, interval.valueAtQuantile(0.999), 999_000 / 16.0);
+
+        interval.collect(stats);
+        assertArrayEquals(new long[MetricId.STAT_COUNT_ALL], stats);
+        assertEquals(0, interval.valueAtQuantile(0.999));
+
+        recorder.record(7);
+        recorder.record(-5);
+        interval.collect(stats);
+        assertEquals(2, stats[MetricId.STAT_COUNT]);
+        assertEquals(0, stats[MetricId.STAT_P50]);
+        assertEquals(7, stats[MetricId.STAT_MAX]);
+        assertEquals(1002, recorder.getCount());
+    }
+
+    @Test
+    public void readersHaveIndependentIntervals() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        LatencyRecorder.Interval first = recorder.newInterval();
+        LatencyRecorder.Interval second = recorder.newInterval();
+        long[] stats = new long[MetricId.STAT_COUNT_ALL];
+        recorder.record(100);
+        first.collect(stats);
+        assertEquals(1, stats[MetricId.STAT_COUNT]);
+        recorder.record(Long.MAX_VALUE);
+        second.collect(stats);
+        assertEquals(2, stats[MetricId.STAT_COUNT]);
+        assertEquals(LatencyRecorder.MAX_VALUE, stats[MetricId.STAT_MAX]);
+    }
+}
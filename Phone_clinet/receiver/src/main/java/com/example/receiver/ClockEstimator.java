@@ -0,0 +1,160 @@
+package com.example.receiver;
+
+/**
+ * 估计一台手机的采样时钟（SystemClock.elapsedRealtimeNanos，即 SensorEvent.timestamp 所用的时钟）
+ * 相对接收端墙上时间的偏差和漂移，方法与 NTP 相同：接收端在 t1 发出 PING，手机读到时记下自己的时钟 t2 并应答，
+ * 接收端在 t4 收到应答。偏差 θ = t2 - (t1 + t4) / 2，误差不超过往返时延 (t4 - t1) 的一半。
+ *
+ * 排队、重传和调度只会让时延变长，所以最近 {@link #WINDOW} 次交换中只取往返时延接近最小值的那些，
+ * 对它们做 θ 随时间的最小二乘直线拟合，斜率就是两个时钟的相对漂移。覆盖时间太短或样本太少时不估计漂移，
+ * 直接取时延最小的一次。
+ *
+ * {@link #addSample} 由处理该设备连接的网络线程调用；拟合结果是不可变的 {@link Fit}，整体发布，可在任意线程读取。
+ */
+public final class ClockEstimator {
+    static final int WINDOW = 64;
+    // 时延不超过最小时延加上 max(该值, 最小时延的 1/4) 的样本参与拟合
+    private static final long RTT_SLACK_NANOS = 2_000_000L;
+    // 估计漂移所需的最短覆盖时间和最少样本数
+    private static final long MIN_DRIFT_SPAN_NANOS = 30_000_000_000L;
+    private static final int MIN_DRIFT_SAMPLES = 4;
+    // 手机晶振的漂移一般在几十 ppm 以内，超出范围说明拟合被异常样本带偏
+    private static final double MAX_DRIFT = 500e-6;
+
+    // 接收端的墙上时间以单调时钟推算，不受系统时间跳变影响
+    private static final long WALL_ANCHOR_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long MONOTONIC_ANCHOR_NANOS = System.nanoTime();
+
+    /**
+     * @return 接收端当前的墙上时间（纳秒，Unix 纪元）
+     */
+    public static long wallNanos() {
+        return WALL_ANCHOR_NANOS + (System.nanoTime() - MONOTONIC_ANCHOR_NANOS);
+    }
+
+    /** 一次拟合的结果：在接收端墙上时间 t，手机时钟 = t + offsetNanos + drift × (t - referenceNanos) */
+    public static final class Fit {
+        public final long referenceNanos;
+        public final long offsetNanos;
+        public final double drift;
+        /** 窗口内的最小往返时延，偏差的误差不超过它的一半 */
+        public final long rttNanos;
+        /** 参与拟合的样本数 */
+        public final int samples;
+
+        Fit(long referenceNanos, long offsetNanos, double drift, long rttNanos, int samples) {
+            this.referenceNanos = referenceNanos;
+            this.offsetNanos = offsetNanos;
+            this.drift = drift;
+            this.rttNanos = rttNanos;
+            this.samples = samples;
+        }
+
+        /**
+         * @return 手机时钟 deviceNanos 对应的接收端墙上时间（纳秒）
+         */
+        public long toWallNanos(long deviceNanos) {
+            // 先减去参考点处的手机时钟，只对较小的差值做浮点运算，避免纪元纳秒在 double 中丢失精度
+            long sinceReference = deviceNanos - (referenceNanos + offsetNanos);
+            return referenceNanos + Math.round(sinceReference / (1 + drift));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("offset=%.3f ms drift=%.2f ppm rtt=%.3f ms samples=%d",
+                    offsetNanos / 1e6, drift * 1e6, rttNanos / 1e6, samples);
+        }
+    }
+
+    private final long[] sendNanos = new long[WINDOW];
+    private final long[] deviceNanos = new long[WINDOW];
+    private final long[] receiveNanos = new long[WINDOW];
+    private int count;
+    private int next;
+    private volatile Fit fit;
+
+    /**
+     * 记录一次 PING 交换并重新拟合。
+     *
+     * @param sendNanos    发出 PING 的接收端墙上时间 t1
+     * @param deviceNanos  手机读到 PING 时的手机时钟 t2
+     * @param receiveNanos 收到应答的接收端墙上时间 t4
+     */
+    public synchronized void addSample(long sendNanos, long deviceNanos, long receiveNanos) {
+        if (receiveNanos < sendNanos) {
+            return;
+        }
+        this.sendNanos[next] = sendNanos;
+        this.deviceNanos[next] = deviceNanos;
+        this.receiveNanos[next] = receiveNanos;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+        fit = computeFit();
+    }
+
+    /**
+     * @return 最新的拟合结果，还没有任何样本时返回 null
+     */
+    public Fit getFit() {
+        return fit;
+    }
+
+    private Fit computeFit() {
+        long minRtt = Long.MAX_VALUE;
+        int best = 0;
+        for (int i = 0; i < count; i++) {
+            long rtt = receiveNanos[i] - sendNanos[i];
+            if (rtt < minRtt) {
+                minRtt = rtt;
+                best = i;
+            }
+        }
+        long bestMidpoint = midpoint(best);
+        long bestOffset = deviceNanos[best] - bestMidpoint;
+        long threshold = minRtt + Math.max(RTT_SLACK_NANOS, minRtt / 4);
+
+        // 以时延最小的样本为原点，对相对值做拟合
+        int n = 0;
+        double sumX = 0;
+        double sumY = 0;
+        long minX = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (receiveNanos[i] - sendNanos[i] > threshold) {
+                continue;
+            }
+            long x = midpoint(i) - bestMidpoint;
+            sumX += x;
+            sumY += deviceNanos[i] - midpoint(i) - bestOffset;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            n++;
+        }
+        if (n < MIN_DRIFT_SAMPLES || maxX - minX < MIN_DRIFT_SPAN_NANOS) {
+            return new Fit(bestMidpoint, bestOffset, 0, minRtt, 1);
+        }
+        double meanX = sumX / n;
+        double meanY = sumY / n;
+        double sxx = 0;
+        double sxy = 0;
+        for (int i = 0; i < count; i++) {
+            if (receiveNanos[i] - sendNanos[i] > threshold) {
+                continue;
+            }
+            double dx = midpoint(i) - bestMidpoint - meanX;
+            sxx += dx * dx;
+            sxy += dx * (deviceNanos[i] - midpoint(i) - bestOffset - meanY);
+        }
+        double drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, sxy / sxx));
+        // 参考点取拟合样本的时间重心，那里的偏差估计最准
+        long reference = bestMidpoint + Math.round(meanX);
+        long offset = bestOffset + Math.round(meanY);
+        return new Fit(reference, offset, drift, minRtt, n);
+    }
+
+    private long midpoint(int i) {
+        return sendNanos[i] + (receiveNanos[i] - sendNanos[i]) / 2;
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.receiver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ColumnStore} 数据块中各列的编码。
+ *
+ * <ul>
+ * <li>时间戳：第一个值写在块头，之后是二阶差分（相邻间隔之差）的 zigzag varint。手机按固定频率发送时
+ * 二阶差分几乎都是 0，每行 1 字节</li>
+ * <li>浮点列：Gorilla（Facebook 的时间序列压缩）XOR 编码。与上一个值相同只占 1 位；不同时只写异或结果中间的有效位，
+ * 前导零和尾随零的位数与上一个值相同时沿用，不再重复写。float 转成的 double 尾数后 29 位全是 0，压缩效果尤其好</li>
+ * </ul>
+ *
+ * 不是线程安全的。
+ */
+final class ColumnCodec {
+    private ColumnCodec() {
+    }
+
+    /**
+     * 写入 out 的当前位置，空间不足时抛出 BufferOverflowException。
+     */
+    static void encodeTimestamps(long[] timestamps, int count, ByteBuffer out) {
+        long previous = count > 0 ? timestamps[0] : 0;
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - previous;
+            long dod = delta - previousDelta;
+            putVarLong(out, dod << 1 ^ dod >> 63);
+            previous = timestamps[i];
+            previousDelta = delta;
+        }
+    }
+
+    static void decodeTimestamps(ByteBuffer in, long first, long[] timestamps, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        timestamps[0] = first;
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            long v = getVarLong(in);
+            delta += (v >>> 1) ^ -(v & 1);
+            timestamps[i] = timestamps[i - 1] + delta;
+        }
+    }
+
+    static void putVarLong(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) (v | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long getVarLong(ByteBuffer in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("truncated column");
+            }
+            int b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    /**
+     * @return 最多需要的字节数，用来预留空间
+     */
+    static int maxDoublesSize(int count) {
+        // 最坏情况每个值 2 + 5 + 6 + 64 位
+        return (count * 77 + 7) / 8 + 8;
+    }
+
+    /**
+     * Gorilla XOR 编码 values[0, count)，按字节对齐写入 out。
+     */
+    static void encodeDoubles(double[] values, int count, ByteBuffer out) {
+        BitWriter bits = new BitWriter(out);
+        long previous = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 0; i < count; i++) {
+            long v = Double.doubleToRawLongBits(values[i]);
+            if (i == 0) {
+                bits.write(v, 64);
+                previous = v;
+                continue;
+            }
+            long xor = v ^ previous;
+            previous = v;
+            if (xor == 0) {
+                bits.write(0, 1);
+                continue;
+            }
+            // 前导零用 5 位保存，最多 31
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                bits.write(0b10, 2);
+                bits.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                bits.write(0b11, 2);
+                bits.write(leading, 5);
+                // 有效位数 1..64，64 写成 0
+                bits.write(significant & 63, 6);
+                bits.write(xor >>> trailing, significant);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        bits.finish();
+    }
+
+    static void decodeDoubles(ByteBuffer in, double[] values, int count) throws IOException {
+        BitReader bits = new BitReader(in);
+        long previous = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                previous = bits.read(64);
+            } else if (bits.read(1) != 0) {
+                if (bits.read(1) != 0) {
+                    leading = (int) bits.read(5);
+                    int significant = (int) bits.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                    if (trailing < 0) {
+                        throw new IOException("bad XOR block");
+                    }
+                }
+                previous ^= bits.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    /** 高位在前写入，满 8 字节时写出 */
+    private static final class BitWriter {
+        private final ByteBuffer out;
+        private long buffer;
+        private int used;
+
+        BitWriter(ByteBuffer out) {
+            this.out = out;
+        }
+
+        void write(long value, int bitCount) {
+            if (bitCount == 0) {
+                return;
+            }
+            if (bitCount < 64) {
+                value &= (1L << bitCount) - 1;
+            }
+            int free = 64 - used;
+            if (bitCount < free) {
+                buffer |= value << (free - bitCount);
+                used += bitCount;
+                return;
+            }
+            // 填满当前的 64 位后写出，剩余的位留到下一个字
+            int rest = bitCount - free;
+            buffer |= value >>> rest;
+            putLong(buffer);
+            buffer = rest == 0 ? 0 : value << (64 - rest);
+            used = rest;
+        }
+
+        void finish() {
+            for (int shift = 56; used > 0; shift -= 8, used -= 8) {
+                out.put((byte) (buffer >>> shift));
+            }
+            used = 0;
+            buffer = 0;
+        }
+
+        private void putLong(long v) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.put((byte) (v >>> shift));
+            }
+        }
+    }
+
+    private static final class BitReader {
+        private final ByteBuffer in;
+        private long buffer;
+        private int available;
+
+        BitReader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        long read(int bitCount) throws IOException {
+            long result = 0;
+            while (bitCount > 0) {
+                if (available == 0) {
+                    if (!in.hasRemaining()) {
+                        throw new IOException("truncated column");
+                    }
+                    buffer = in.get() & 0xFF;
+                    available = 8;
+                }
+                int take = Math.min(bitCount, available);
+                long chunk = (buffer >>> (available - take)) & ((1L << take) - 1);
+                result = result << take | chunk;
+                available -= take;
+                bitCount -= take;
+            }
+            return result;
+        }
+    }
+}
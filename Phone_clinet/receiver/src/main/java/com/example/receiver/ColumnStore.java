@@ -0,0 +1,524 @@
+package com.example.receiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 列式时间序列存储，替代逐行追加的 CSV。
+ *
+ * 每台设备一个目录，按时间（默认每小时，UTC）分区，每个分区两个文件：
+ * <pre>
+ *   store/&lt;设备&gt;/20240501T1300Z.col   数据块，依次追加
+ *   store/&lt;设备&gt;/20240501T1300Z.idx   稀疏时间索引，每个数据块一条
+ * </pre>
+ * 每个分区的记录先按列攒在内存里，攒满 {@link #BLOCK_ROWS} 行、分区关闭、或最早一行已等待超过 sealAgeMillis
+ * （由定时的 {@link #flush} 检查）时编码成一个数据块，一次写给内核。
+ * 每台设备同时打开最新的分区和之前的一个分区，分区边界附近乱序到达的迟到记录直接写进后者，不必反复关闭、重开文件；
+ * 之前的分区 {@link #PARTITION_GRACE_MILLIS} 没有写入后由 flush 关闭。数据块（小端）：
+ * <pre>
+ *   u32  magic              "SCB1"
+ *   u32  blockBytes         含块头
+ *   u32  rowCount
+ *   u32  reserved
+ *   i64  minTimestamp       毫秒
+ *   i64  maxTimestamp
+ *   i64  firstTimestamp
+ *   u32[11] 各列字节数      时间戳、传感器掩码、纬度、经度、加速度 xyz、方向 xyz、光线
+ *   各列内容
+ * </pre>
+ * 时间戳列和浮点列的编码见 {@link ColumnCodec}。传感器掩码列是 (u8 掩码, varint 连续行数) 的游程编码，
+ * 掩码位依次为位置、加速度、方向、光线；每个浮点列只保存对应传感器存在的那些行。
+ *
+ * 索引项（小端，32 字节）：i64 minTimestamp、i64 maxTimestamp、i64 块在 .col 中的偏移、u32 rowCount、u32 blockBytes。
+ * 先写数据块再写索引；打开已有分区时按块头补回缺失的索引项，并截掉写了一半的数据块。
+ *
+ * 与 {@link CsvSink} 一样，同一设备的写入互斥，不同设备之间互不影响。读取见 {@link ColumnStoreReader}，
+ * 导出 CSV 见 {@link CsvExport}。
+ */
+public class ColumnStore implements RecordSink, Closeable {
+    private static final Logger LOG = Logger.getLogger(ColumnStore.class.getName());
+
+    static final int BLOCK_MAGIC = 0x31424353; // "SCB1"
+    static final int COLUMN_COUNT = 11;
+    static final int BLOCK_HEADER_SIZE = 40 + COLUMN_COUNT * 4;
+    static final int INDEX_ENTRY_SIZE = 32;
+    static final String DATA_SUFFIX = ".col";
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final int COLUMN_TIMESTAMP = 0;
+    static final int COLUMN_PRESENCE = 1;
+    // 浮点列的下标从 FIRST_VALUE_COLUMN 开始，依次为纬度、经度、加速度 xyz、方向 xyz、光线
+    static final int FIRST_VALUE_COLUMN = 2;
+    static final int VALUE_COLUMNS = COLUMN_COUNT - FIRST_VALUE_COLUMN;
+
+    static final int HAS_LOCATION = 1;
+    static final int HAS_ACCELEROMETER = 2;
+    static final int HAS_ORIENTATION = 4;
+    static final int HAS_LIGHT = 8;
+    // 每个浮点列属于哪个传感器
+    static final int[] VALUE_COLUMN_SENSOR = {
+            HAS_LOCATION, HAS_LOCATION,
+            HAS_ACCELEROMETER, HAS_ACCELEROMETER, HAS_ACCELEROMETER,
+            HAS_ORIENTATION, HAS_ORIENTATION, HAS_ORIENTATION,
+            HAS_LIGHT
+    };
+
+    public static final int BLOCK_ROWS = 1024;
+    public static final long DEFAULT_PARTITION_MILLIS = 3_600_000L;
+    public static final long DEFAULT_SEAL_AGE_MILLIS = 5_000L;
+    private static final int INITIAL_ROWS = 64;
+    // 上一个分区多久没有迟到记录后关闭
+    static final long PARTITION_GRACE_MILLIS = 60_000L;
+
+    static final DateTimeFormatter PARTITION_NAME =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmm'Z'").withZone(ZoneOffset.UTC);
+
+    private final File dir;
+    private final long partitionMillis;
+    private final long sealAgeMillis;
+    private final ConcurrentHashMap<String, DeviceWriter> writers = new ConcurrentHashMap<>();
+    // 编码缓冲区按线程复用，不必每台设备各占一块
+    private final ThreadLocal<ByteBuffer> encodeBuffers = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(maxBlockSize(BLOCK_ROWS)).order(ByteOrder.LITTLE_ENDIAN));
+    private final LongAdder partitionOpens = new LongAdder();
+    private volatile boolean closed;
+
+    public ColumnStore(File dir) throws IOException {
+        this(dir, DEFAULT_PARTITION_MILLIS, DEFAULT_SEAL_AGE_MILLIS);
+    }
+
+    /**
+     * @param partitionMillis 分区长度，须能整除一天
+     * @param sealAgeMillis   未满的块最多在内存中等待多久，决定进程崩溃时最多丢失多少数据
+     */
+    public ColumnStore(File dir, long partitionMillis, long sealAgeMillis) throws IOException {
+        if (partitionMillis < 60_000 || 86_400_000L % partitionMillis != 0) {
+            throw new IllegalArgumentException("partition length must divide a day: " + partitionMillis);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create store directory " + dir);
+        }
+        this.dir = dir;
+        this.partitionMillis = partitionMillis;
+        this.sealAgeMillis = sealAgeMillis;
+    }
+
+    /**
+     * @return 设备目录名：来源标识中文件名不能用的字符（如 IPv6 地址中的 ':'）换成 '_'
+     */
+    static String deviceDirName(String userId) {
+        StringBuilder sb = new StringBuilder(userId.length());
+        for (int i = 0; i < userId.length(); i++) {
+            char c = userId.charAt(i);
+            boolean safe = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '-' || c == '_';
+            sb.append(safe ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    static int maxBlockSize(int rows) {
+        return BLOCK_HEADER_SIZE + rows * 10 + rows * 6 + VALUE_COLUMNS * ColumnCodec.maxDoublesSize(rows);
+    }
+
+    @Override
+    public void accept(SensorRecord record) {
+        if (closed) {
+            return;
+        }
+        DeviceWriter writer = writers.computeIfAbsent(record.userId,
+                userId -> new DeviceWriter(new File(dir, deviceDirName(userId))));
+        synchronized (writer) {
+            try {
+                writer.append(record);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to write " + writer.dir, e);
+            }
+        }
+    }
+
+    /**
+     * 把等待超过 sealAgeMillis 的块写给内核，关掉不再有迟到记录的旧分区，由定时器调用。
+     */
+    public void flush() {
+        long now = System.currentTimeMillis();
+        flushWriters(now - sealAgeMillis, now - PARTITION_GRACE_MILLIS);
+    }
+
+    /**
+     * 把全部未满的块写给内核。
+     */
+    public void flushAll() {
+        flushWriters(Long.MAX_VALUE, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return 打开过的分区数，一个分区关闭后再打开算两次
+     */
+    public long getPartitionOpens() {
+        return partitionOpens.sum();
+    }
+
+    private void flushWriters(long startedBeforeMillis, long idleBeforeMillis) {
+        for (DeviceWriter writer : writers.values()) {
+            synchronized (writer) {
+                try {
+                    writer.flush(startedBeforeMillis, idleBeforeMillis);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to flush " + writer.dir, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (DeviceWriter writer : writers.values()) {
+            synchronized (writer) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to close " + writer.dir, e);
+                }
+            }
+        }
+        writers.clear();
+    }
+
+    private final class DeviceWriter {
+        final File dir;
+        // 最新的分区，和它之前打开的一个分区（接收边界附近的迟到记录），都可能为 null
+        Partition current;
+        Partition previous;
+
+        DeviceWriter(File dir) {
+            this.dir = dir;
+        }
+
+        void append(SensorRecord r) throws IOException {
+            long timestamp = r.timestampMillis();
+            long start = Math.floorDiv(timestamp, partitionMillis) * partitionMillis;
+            Partition partition;
+            if (current != null && current.start == start) {
+                partition = current;
+            } else if (previous != null && previous.start == start) {
+                partition = previous;
+                partition.lastAppendWallMillis = System.currentTimeMillis();
+            } else {
+                partition = open(start);
+            }
+            partition.append(r, timestamp);
+        }
+
+        /**
+         * 打开一个分区。比当前分区新时它成为当前分区，原来的当前分区留作上一个分区；
+         * 否则它替换上一个分区。被挤掉的分区写出未满的块后关闭。
+         */
+        private Partition open(long start) throws IOException {
+            Partition opened = new Partition(dir, start);
+            partitionOpens.increment();
+            Partition retired = previous;
+            if (current == null || start > current.start) {
+                previous = current;
+                current = opened;
+            } else {
+                previous = opened;
+            }
+            if (previous != null) {
+                previous.lastAppendWallMillis = System.currentTimeMillis();
+            }
+            if (retired != null) {
+                retired.close();
+            }
+            return opened;
+        }
+
+        /**
+         * @param startedBeforeMillis 块的第一行在此之前写入时写出
+         * @param idleBeforeMillis    上一个分区在此之后没有写入时关闭
+         */
+        void flush(long startedBeforeMillis, long idleBeforeMillis) throws IOException {
+            if (current != null) {
+                current.sealIfStartedBefore(startedBeforeMillis);
+            }
+            if (previous != null) {
+                previous.sealIfStartedBefore(startedBeforeMillis);
+                if (previous.lastAppendWallMillis <= idleBeforeMillis) {
+                    Partition retired = previous;
+                    previous = null;
+                    retired.close();
+                }
+            }
+        }
+
+        void close() throws IOException {
+            Partition first = current;
+            Partition second = previous;
+            current = null;
+            previous = null;
+            try {
+                if (first != null) {
+                    first.close();
+                }
+            } finally {
+                if (second != null) {
+                    second.close();
+                }
+            }
+        }
+    }
+
+    /** 一台设备的一个分区：两个文件和正在攒的块 */
+    private final class Partition {
+        final File dir;
+        // 分区的起始时刻
+        final long start;
+        final FileChannel data;
+        final FileChannel index;
+        long dataSize;
+        long indexSize;
+        final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // 当前块的各列，容量按需倍增到 BLOCK_ROWS
+        long[] timestamps = new long[INITIAL_ROWS];
+        byte[] presence = new byte[INITIAL_ROWS];
+        final double[][] values = new double[VALUE_COLUMNS][INITIAL_ROWS];
+        final int[] valueCounts = new int[VALUE_COLUMNS];
+        final int[] columnLengths = new int[COLUMN_COUNT];
+        int rows;
+        long minTimestamp;
+        long maxTimestamp;
+        long firstRowWallMillis;
+        // 作为上一个分区时最近一次写入的时刻，当前分区不维护
+        long lastAppendWallMillis;
+
+        Partition(File dir, long start) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            this.dir = dir;
+            this.start = start;
+            String name = PARTITION_NAME.format(Instant.ofEpochMilli(start));
+            data = FileChannel.open(new File(dir, name + DATA_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                index = FileChannel.open(new File(dir, name + INDEX_SUFFIX).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                data.close();
+                throw e;
+            }
+            try {
+                recover();
+            } catch (IOException e) {
+                closeFiles();
+                throw e;
+            }
+        }
+
+        void append(SensorRecord r, long timestamp) throws IOException {
+            if (rows == timestamps.length) {
+                grow();
+            }
+            int mask = 0;
+            if (r.hasLocation) {
+                mask |= HAS_LOCATION;
+                put(0, r.latitude);
+                put(1, r.longitude);
+            }
+            if (r.hasAccelerometer) {
+                mask |= HAS_ACCELEROMETER;
+                put(2, r.accelerometer[0]);
+                put(3, r.accelerometer[1]);
+                put(4, r.accelerometer[2]);
+            }
+            if (r.hasOrientation) {
+                mask |= HAS_ORIENTATION;
+                put(5, r.orientation[0]);
+                put(6, r.orientation[1]);
+                put(7, r.orientation[2]);
+            }
+            if (r.hasLight) {
+                mask |= HAS_LIGHT;
+                put(8, r.light);
+            }
+            if (rows == 0) {
+                minTimestamp = timestamp;
+                maxTimestamp = timestamp;
+                firstRowWallMillis = System.currentTimeMillis();
+            } else {
+                minTimestamp = Math.min(minTimestamp, timestamp);
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+            }
+            timestamps[rows] = timestamp;
+            presence[rows] = (byte) mask;
+            rows++;
+            if (rows == BLOCK_ROWS) {
+                seal();
+            }
+        }
+
+        private void put(int column, double value) {
+            values[column][valueCounts[column]++] = value;
+        }
+
+        private void grow() {
+            int capacity = Math.min(timestamps.length * 2, BLOCK_ROWS);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            presence = Arrays.copyOf(presence, capacity);
+            for (int c = 0; c < VALUE_COLUMNS; c++) {
+                values[c] = Arrays.copyOf(values[c], capacity);
+            }
+        }
+
+        /**
+         * 让索引与数据文件一致：丢弃指向文件外的索引项，为有完整块头却没有索引的块补上索引，截掉残缺的块。
+         */
+        private void recover() throws IOException {
+            long entries = index.size() / INDEX_ENTRY_SIZE;
+            long end = 0;
+            long size = data.size();
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long valid = 0;
+            for (long i = 0; i < entries; i++) {
+                entry.clear();
+                readFully(index, entry, i * INDEX_ENTRY_SIZE);
+                long offset = entry.getLong(16);
+                int bytes = entry.getInt(28);
+                if (offset != end || offset + bytes > size) {
+                    break;
+                }
+                end = offset + bytes;
+                valid++;
+            }
+            indexSize = valid * INDEX_ENTRY_SIZE;
+            index.truncate(indexSize);
+
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (end + BLOCK_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(data, header, end);
+                int bytes = header.getInt(4);
+                if (header.getInt(0) != BLOCK_MAGIC || bytes < BLOCK_HEADER_SIZE || end + bytes > size) {
+                    break;
+                }
+                writeIndexEntry(header.getLong(16), header.getLong(24), end, header.getInt(8), bytes);
+                end += bytes;
+            }
+            if (end < size) {
+                LOG.warning("Truncating " + (size - end) + " bytes of incomplete block in " + dir + " partition "
+                        + PARTITION_NAME.format(Instant.ofEpochMilli(start)));
+                data.truncate(end);
+            }
+            dataSize = end;
+        }
+
+        void sealIfStartedBefore(long startedBeforeMillis) throws IOException {
+            if (rows > 0 && firstRowWallMillis <= startedBeforeMillis) {
+                seal();
+            }
+        }
+
+        void seal() throws IOException {
+            ByteBuffer out = encodeBuffers.get();
+            out.clear();
+            out.position(BLOCK_HEADER_SIZE);
+            int[] lengths = columnLengths;
+
+            int start = out.position();
+            ColumnCodec.encodeTimestamps(timestamps, rows, out);
+            lengths[COLUMN_TIMESTAMP] = out.position() - start;
+
+            start = out.position();
+            for (int i = 0; i < rows; ) {
+                int run = 1;
+                while (i + run < rows && presence[i + run] == presence[i]) {
+                    run++;
+                }
+                out.put(presence[i]);
+                ColumnCodec.putVarLong(out, run);
+                i += run;
+            }
+            lengths[COLUMN_PRESENCE] = out.position() - start;
+
+            for (int c = 0; c < VALUE_COLUMNS; c++) {
+                start = out.position();
+                ColumnCodec.encodeDoubles(values[c], valueCounts[c], out);
+                lengths[FIRST_VALUE_COLUMN + c] = out.position() - start;
+            }
+
+            int blockBytes = out.position();
+            out.putInt(0, BLOCK_MAGIC);
+            out.putInt(4, blockBytes);
+            out.putInt(8, rows);
+            out.putInt(12, 0);
+            out.putLong(16, minTimestamp);
+            out.putLong(24, maxTimestamp);
+            out.putLong(32, timestamps[0]);
+            for (int c = 0; c < COLUMN_COUNT; c++) {
+                out.putInt(40 + c * 4, lengths[c]);
+            }
+            out.flip();
+            long offset = dataSize;
+            while (out.hasRemaining()) {
+                data.write(out, offset + out.position());
+            }
+            dataSize += blockBytes;
+            writeIndexEntry(minTimestamp, maxTimestamp, offset, rows, blockBytes);
+
+            rows = 0;
+            Arrays.fill(valueCounts, 0);
+        }
+
+        private void writeIndexEntry(long min, long max, long offset, int rowCount, int blockBytes) throws IOException {
+            ByteBuffer e = indexEntry;
+            e.clear();
+            e.putLong(min).putLong(max).putLong(offset).putInt(rowCount).putInt(blockBytes);
+            e.flip();
+            while (e.hasRemaining()) {
+                index.write(e, indexSize + e.position());
+            }
+            indexSize += INDEX_ENTRY_SIZE;
+        }
+
+        private void closeFiles() throws IOException {
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+
+        void close() throws IOException {
+            try {
+                if (rows > 0) {
+                    seal();
+                }
+            } finally {
+                closeFiles();
+            }
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.receiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 读取 {@link ColumnStore} 写下的数据：按分区文件名和稀疏索引跳过时间范围之外的数据块，只解码相交的块。
+ * 可以在接收端运行时读取，最多看不到还在内存中、未写给内核的块。不是线程安全的。
+ */
+public class ColumnStoreReader {
+    private final File dir;
+    private final SensorRecord record = new SensorRecord();
+    private ByteBuffer block = ByteBuffer.allocate(ColumnStore.maxBlockSize(ColumnStore.BLOCK_ROWS))
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final long[] timestamps = new long[ColumnStore.BLOCK_ROWS];
+    private final byte[] presence = new byte[ColumnStore.BLOCK_ROWS];
+    private final double[][] values = new double[ColumnStore.VALUE_COLUMNS][ColumnStore.BLOCK_ROWS];
+    private final int[] valueIndex = new int[ColumnStore.VALUE_COLUMNS];
+
+    public ColumnStoreReader(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return 有数据的设备目录名，已排序
+     */
+    public List<String> devices() {
+        List<String> devices = new ArrayList<>();
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children != null) {
+            for (File child : children) {
+                devices.add(child.getName());
+            }
+        }
+        devices.sort(null);
+        return devices;
+    }
+
+    /**
+     * 按存储顺序交出该设备时间戳在 [fromMillis, toMillis) 内的记录。块内按到达顺序，不保证时间戳严格递增。
+     * 交出的记录 userId 为设备目录名，receivedMillis 为存储的时间戳，capturedMillis 为 0。
+     *
+     * @return 交出的记录数
+     */
+    public long scan(String device, long fromMillis, long toMillis, RecordSink out) throws IOException {
+        File deviceDir = new File(dir, device);
+        File[] files = deviceDir.listFiles((d, name) -> name.endsWith(ColumnStore.INDEX_SUFFIX));
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        record.userId = device;
+        long emitted = 0;
+        for (File indexFile : files) {
+            String name = indexFile.getName();
+            name = name.substring(0, name.length() - ColumnStore.INDEX_SUFFIX.length());
+            long partitionStart;
+            try {
+                partitionStart = Instant.from(ColumnStore.PARTITION_NAME.parse(name)).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            if (partitionStart >= toMillis) {
+                break;
+            }
+            emitted += scanPartition(indexFile, new File(deviceDir, name + ColumnStore.DATA_SUFFIX), fromMillis,
+                    toMillis, out);
+        }
+        return emitted;
+    }
+
+    private long scanPartition(File indexFile, File dataFile, long fromMillis, long toMillis, RecordSink out)
+            throws IOException {
+        ByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size() / ColumnStore.INDEX_ENTRY_SIZE * ColumnStore.INDEX_ENTRY_SIZE;
+            index = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            ColumnStore.readFully(channel, index, 0);
+        }
+        long emitted = 0;
+        try (FileChannel data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+            for (int pos = 0; pos < index.capacity(); pos += ColumnStore.INDEX_ENTRY_SIZE) {
+                long min = index.getLong(pos);
+                long max = index.getLong(pos + 8);
+                if (max < fromMillis || min >= toMillis) {
+                    continue;
+                }
+                long offset = index.getLong(pos + 16);
+                int bytes = index.getInt(pos + 28);
+                emitted += scanBlock(data, offset, bytes, fromMillis, toMillis, out);
+            }
+        }
+        return emitted;
+    }
+
+    private long scanBlock(FileChannel data, long offset, int bytes, long fromMillis, long toMillis, RecordSink out)
+            throws IOException {
+        if (bytes > block.capacity()) {
+            block = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        block.clear().limit(bytes);
+        ColumnStore.readFully(data, block, offset);
+        if (block.getInt(0) != ColumnStore.BLOCK_MAGIC || block.getInt(4) != bytes) {
+            throw new IOException("bad block at offset " + offset);
+        }
+        int rows = block.getInt(8);
+        if (rows < 0 || rows > ColumnStore.BLOCK_ROWS) {
+            throw new IOException("bad row count " + rows + " at offset " + offset);
+        }
+        long first = block.getLong(32);
+        int pos = ColumnStore.BLOCK_HEADER_SIZE;
+
+        int length = block.getInt(40 + ColumnStore.COLUMN_TIMESTAMP * 4);
+        ColumnCodec.decodeTimestamps(column(pos, length), first, timestamps, rows);
+        pos += length;
+
+        length = block.getInt(40 + ColumnStore.COLUMN_PRESENCE * 4);
+        ByteBuffer runs = column(pos, length);
+        for (int row = 0; row < rows; ) {
+            if (!runs.hasRemaining()) {
+                throw new IOException("truncated presence column at offset " + offset);
+            }
+            byte mask = runs.get();
+            long run = ColumnCodec.getVarLong(runs);
+            if (run <= 0 || row + run > rows) {
+                throw new IOException("bad presence run at offset " + offset);
+            }
+            Arrays.fill(presence, row, row + (int) run, mask);
+            row += (int) run;
+        }
+        pos += length;
+
+        for (int c = 0; c < ColumnStore.VALUE_COLUMNS; c++) {
+            int sensor = ColumnStore.VALUE_COLUMN_SENSOR[c];
+            int count = 0;
+            for (int row = 0; row < rows; row++) {
+                if ((presence[row] & sensor) != 0) {
+                    count++;
+                }
+            }
+            length = block.getInt(40 + (ColumnStore.FIRST_VALUE_COLUMN + c) * 4);
+            ColumnCodec.decodeDoubles(column(pos, length), values[c], count);
+            pos += length;
+            valueIndex[c] = 0;
+        }
+
+        long emitted = 0;
+        SensorRecord r = record;
+        for (int row = 0; row < rows; row++) {
+            int mask = presence[row];
+            r.clearSensors();
+            r.hasLocation = (mask & ColumnStore.HAS_LOCATION) != 0;
+            if (r.hasLocation) {
+                r.latitude = next(0);
+                r.longitude = next(1);
+            }
+            r.hasAccelerometer = (mask & ColumnStore.HAS_ACCELEROMETER) != 0;
+            if (r.hasAccelerometer) {
+                r.accelerometer[0] = next(2);
+                r.accelerometer[1] = next(3);
+                r.accelerometer[2] = next(4);
+            }
+            r.hasOrientation = (mask & ColumnStore.HAS_ORIENTATION) != 0;
+            if (r.hasOrientation) {
+                r.orientation[0] = next(5);
+                r.orientation[1] = next(6);
+                r.orientation[2] = next(7);
+            }
+            r.hasLight = (mask & ColumnStore.HAS_LIGHT) != 0;
+            if (r.hasLight) {
+                r.light = next(8);
+            }
+            long timestamp = timestamps[row];
+            if (timestamp >= fromMillis && timestamp < toMillis) {
+                r.receivedMillis = timestamp;
+                r.capturedMillis = 0;
+                out.accept(r);
+                emitted++;
+            }
+        }
+        return emitted;
+    }
+
+    private double next(int column) {
+        return values[column][valueIndex[column]++];
+    }
+
+    private ByteBuffer column(int pos, int length) throws IOException {
+        if (length < 0 || pos + length > block.limit()) {
+            throw new IOException("column exceeds block");
+        }
+        ByteBuffer slice = block.duplicate();
+        slice.position(pos).limit(pos + length);
+        return slice;
+    }
+}
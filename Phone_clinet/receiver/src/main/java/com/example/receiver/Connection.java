@@ -0,0 +1,461 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameFormatException;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.WindowFeatures;
+import com.example.sensorprotocol.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 一个手机连接的接收状态，只在所属的网络线程中使用。
+ *
+ * 数据读进连接自己的缓冲区后就地处理：JSON 模式按 '\n' 切行交给 {@link JsonLineParser}，
+ * 收到 Hello 后切换为二进制帧交给 {@link FrameDecoder}；处理完的字节前移覆盖，不足一行或一帧的留到下次。
+ * 一行或一帧超过缓冲区时按倍数扩容，上限为 {@link WireFormat#MAX_FRAME_SIZE}。
+ *
+ * 二进制帧中的采样按时刻拆成记录，每个不同的采样时间戳一条，同一时刻的传感器合在一条里，见 {@link FrameSamples}。
+ *
+ * 二进制模式下每次读到的帧处理完后只回一行 "ACK &lt;最后一帧的序号&gt;"：手机端把 ACK 当作累计确认，
+ * 不必像 receiver.py 那样逐帧回复。
+ *
+ * 二进制模式下还定时发送 "PING &lt;编号&gt;"，用应答帧更新该会话的 {@link ClockEstimator}，
+ * 之后每条记录按它自己的采样时间戳换算出 {@link SensorRecord#capturedMillis}。同一时刻最多一个 PING 在途。
+ *
+ * 手机定期发来的指标帧交给 {@link FleetMetrics}，与应答帧一样不去重也不确认。
+ *
+ * 死区过滤帧（{@link WireFormat#FLAG_HELD}）中没有出现的传感器由会话的 {@link StepHold} 补上保持值，
+ * 每条记录仍像 receiver.py 那样带着各传感器的当前值。
+ *
+ * 特征帧中的窗口特征先暂存，整帧解完且不是重发时才交给 {@link FeatureSink}，帧内的数据块照常生成记录。
+ *
+ * 手机抽样追踪的帧（{@link WireFormat#FLAG_TRACED}）生成的记录带着一个 {@link LatencyTracer.Trace}，
+ * 随后的追踪帧补上它在手机上的时刻；追踪帧同样不去重也不确认。
+ */
+final class Connection implements FrameDecoder.Listener, FrameDecoder.MetricsListener,
+        FrameDecoder.FeaturesListener, FrameDecoder.TraceListener {
+    private static final Logger LOG = Logger.getLogger(Connection.class.getName());
+
+    static final int INITIAL_BUFFER_BYTES = 16 * 1024;
+    private static final int REPLY_BUFFER_BYTES = 1024;
+    // "ACK " + 最长 19 位的序号 + '\n'
+    private static final int MAX_ACK_BYTES = 24;
+    private static final int MAX_PING_BYTES = 25;
+    // 握手后先密集发几次 PING，尽快得到可用的偏差估计，之后按 Settings.clockSyncIntervalMillis 发送
+    static final int FAST_PINGS = 8;
+    static final long FAST_PING_INTERVAL_NANOS = 250_000_000L;
+    private static final byte[] HELLO_PREFIX = "{\"Hello\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACK_PREFIX = Handshake.ACK_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    static final byte[] PING_PREFIX = Handshake.PING_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    final SocketChannel channel;
+    final String userId;
+    SelectionKey key;
+
+    private final ReceiverServer server;
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    // 与 in 共享数组，供 FrameDecoder 读取
+    private ByteBuffer frameView = ByteBuffer.wrap(in.array());
+    // [0, scanned) 中已确认没有换行符
+    private int scanned;
+    private final ByteBuffer out = ByteBuffer.allocate(REPLY_BUFFER_BYTES);
+
+    private boolean binaryMode;
+    // 本会话的去重序号、时钟估计和保持值，握手后才有
+    private SessionTable.Session session;
+    private final SensorRecord record = new SensorRecord();
+    private long frameSequence;
+    private long ackSequence;
+    private boolean ackPending;
+
+    private ClockEstimator clock;
+    private StepHold hold;
+    private boolean heldFrame;
+    private long pingsSent;
+    private long nextPingNanos;
+    // 在途 PING 的编号（没有时为 -1）和发出时的墙上时间
+    private long pingOutstanding = -1;
+    private long pingSentWallNanos;
+    // 本次读到数据时的墙上时间，作为应答帧的到达时刻
+    private long readWallNanos;
+    private boolean pongFrame;
+    private boolean tracedFrame;
+    private boolean traceFrame;
+    // 等待追踪帧的追踪和它所在的帧的序号
+    private LatencyTracer.Trace pendingTrace;
+    private long pendingTraceSequence;
+    // 正在解码的指标帧，其他帧为 null
+    private FleetMetrics.Report metricsReport;
+    private long frameDeviceId;
+    private long frameBaseNanos;
+    private final FrameSamples samples = new FrameSamples();
+    // 当前帧中的窗口特征，按需扩容后复用
+    private WindowFeatures[] frameFeatures = new WindowFeatures[0];
+    private int frameFeatureCount;
+
+    Connection(ReceiverServer server, SocketChannel channel, String userId) {
+        this.server = server;
+        this.channel = channel;
+        this.userId = userId;
+        record.userId = userId;
+    }
+
+    /**
+     * 连接关闭后由网络线程调用一次。
+     */
+    void onClosed() {
+        if (session != null) {
+            server.sessions.release(session, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 读取并处理一次可读事件。
+     *
+     * @return 对端已关闭或数据无法解析时返回 false，调用方应关闭连接
+     */
+    boolean onReadable(JsonLineParser parser, FrameDecoder decoder) throws IOException {
+        int n = channel.read(in);
+        readWallNanos = ClockEstimator.wallNanos();
+        if (n < 0) {
+            // 与 receiver.py 一样处理断开前缓冲区中没有换行符的最后一条消息
+            if (!binaryMode && in.position() > 0) {
+                handleLine(parser, 0, in.position());
+            }
+            return false;
+        }
+        if (!process(parser, decoder)) {
+            return false;
+        }
+        if (!in.hasRemaining() && !grow()) {
+            LOG.warning("[" + userId + "] Message larger than " + WireFormat.MAX_FRAME_SIZE + " bytes, closing.");
+            return false;
+        }
+        return flushReplies();
+    }
+
+    private boolean process(JsonLineParser parser, FrameDecoder decoder) {
+        byte[] a = in.array();
+        int limit = in.position();
+        int consumed = 0;
+        if (!binaryMode) {
+            for (int i = scanned; i < limit; i++) {
+                if (a[i] == '\n') {
+                    handleLine(parser, consumed, i);
+                    consumed = i + 1;
+                    if (binaryMode) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (binaryMode) {
+            frameView.limit(limit);
+            frameView.position(consumed);
+            try {
+                while (decoder.decode(frameView, this) > 0) {
+                    // 每次解出一帧，回调中完成处理
+                }
+            } catch (FrameFormatException e) {
+                LOG.warning("[" + userId + "] Bad binary frame: " + e.getMessage() + ", closing.");
+                return false;
+            }
+            consumed = frameView.position();
+        }
+        int remaining = limit - consumed;
+        if (consumed > 0 && remaining > 0) {
+            System.arraycopy(a, consumed, a, 0, remaining);
+        }
+        in.position(remaining);
+        scanned = remaining;
+        return true;
+    }
+
+    private boolean grow() {
+        int capacity = in.capacity();
+        if (capacity >= WireFormat.MAX_FRAME_SIZE) {
+            return false;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(capacity * 2, WireFormat.MAX_FRAME_SIZE));
+        in.flip();
+        bigger.put(in);
+        in = bigger;
+        frameView = ByteBuffer.wrap(in.array());
+        return true;
+    }
+
+    private void handleLine(JsonLineParser parser, int start, int end) {
+        byte[] a = in.array();
+        if (startsWith(a, start, end, HELLO_PREFIX)) {
+            // 握手每个连接只有一次，这里才构造字符串
+            String line = new String(a, start, end - start, StandardCharsets.UTF_8).trim();
+            if (Handshake.isHello(line)) {
+                String device = Handshake.parseHelloDevice(line);
+                String sessionId = Handshake.parseHelloSession(line);
+                session = server.sessions.open(device, sessionId, System.currentTimeMillis(), server.holdNanos());
+                clock = session.clock;
+                hold = session.hold;
+                binaryMode = true;
+                Handshake.Accept accept = new Handshake.Accept().acks().delta().metrics()
+                        .hold(server.heartbeatMillis()).trace();
+                if (server.acceptsFeatures()) {
+                    accept.features();
+                }
+                // 没有列的传感器让手机不要发
+                for (int id = 1; id < WireFormat.SENSOR_COUNT; id++) {
+                    if (SensorRecord.stores(id)) {
+                        accept.sensor(id);
+                    }
+                }
+                queueAscii(Handshake.acceptLine(accept));
+                String config = server.sensorConfigLine();
+                if (config != null) {
+                    queueAscii(config);
+                }
+                nextPingNanos = System.nanoTime();
+                LOG.info("[" + userId + "] Client switched to binary protocol: " + line);
+                return;
+            }
+        }
+        if (isBlank(a, start, end)) {
+            return;
+        }
+        record.receivedMillis = System.currentTimeMillis();
+        if (parser.parse(a, start, end, record) && record.hasAnySensor()) {
+            server.deliver(record);
+        } else {
+            server.malformed.increment();
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("[" + userId + "] Ignored message: " + new String(a, start, end - start, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] a, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (a[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte[] a, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte c = a[i];
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+        frameSequence = sequence;
+        frameBaseNanos = baseTimestampNanos;
+        samples.clear(baseTimestampNanos);
+        frameFeatureCount = 0;
+        heldFrame = (flags & WireFormat.FLAG_HELD) != 0;
+        pongFrame = (flags & WireFormat.FLAG_CLOCK_PONG) != 0;
+        tracedFrame = (flags & WireFormat.FLAG_TRACED) != 0;
+        traceFrame = (flags & WireFormat.FLAG_TRACE) != 0;
+        frameDeviceId = deviceId;
+        metricsReport = (flags & WireFormat.FLAG_METRICS) != 0 ? new FleetMetrics.Report() : null;
+    }
+
+    @Override
+    public void onMetric(int metricId, long value) {
+        metricsReport.add(metricId, value);
+    }
+
+    @Override
+    public void onFeatures(WindowFeatures features) {
+        if (frameFeatureCount == frameFeatures.length) {
+            WindowFeatures[] bigger = new WindowFeatures[Math.max(16, frameFeatures.length * 2)];
+            System.arraycopy(frameFeatures, 0, bigger, 0, frameFeatures.length);
+            for (int i = frameFeatures.length; i < bigger.length; i++) {
+                bigger[i] = new WindowFeatures();
+            }
+            frameFeatures = bigger;
+        }
+        frameFeatures[frameFeatureCount++].copyFrom(features);
+    }
+
+    /**
+     * 追踪帧的序号是被追踪的帧的序号，对不上（那一帧是重发的，或者追踪帧丢了一个）时忽略。
+     */
+    @Override
+    public void onTrace(int sensorId, long enqueueNanos, long encodeNanos, long writeNanos) {
+        if (pendingTrace == null || pendingTraceSequence != frameSequence) {
+            return;
+        }
+        pendingTrace.markDevice(frameBaseNanos, enqueueNanos, encodeNanos, writeNanos,
+                clock != null ? clock.getFit() : null);
+        pendingTrace = null;
+    }
+
+    /**
+     * 帧内的采样先存下来，整帧解完后按时刻拆成记录，见 {@link FrameSamples}。
+     */
+    @Override
+    public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+        samples.add(sensorId, timestampNanos, values, channels);
+    }
+
+    @Override
+    public void onFrameEnd() {
+        if (pongFrame) {
+            onPong();
+            return;
+        }
+        if (metricsReport != null) {
+            server.fleetMetrics.update(frameDeviceId, metricsReport, System.currentTimeMillis());
+            metricsReport = null;
+            return;
+        }
+        if (traceFrame) {
+            return;
+        }
+        int ignored = samples.takeNewlyIgnored();
+        if (ignored != 0) {
+            LOG.warning("[" + userId + "] Dropping samples of sensors without columns: " + FrameSamples.describe(ignored));
+        }
+        if (SessionTable.isNewFrame(session, frameSequence)) {
+            long now = System.currentTimeMillis();
+            ClockEstimator.Fit fit = clock != null ? clock.getFit() : null;
+            samples.sort();
+            while (samples.next(record)) {
+                hold.apply(record, samples.timestampNanos(), heldFrame);
+                record.receivedMillis = now;
+                record.capturedMillis = fit != null
+                        ? Math.floorDiv(fit.toWallNanos(samples.timestampNanos()), 1_000_000L) : 0;
+                // 追踪挂在帧内最后一条记录上，入库时刻覆盖整帧
+                if (tracedFrame && samples.isLast()) {
+                    record.trace = server.latencyTracer.start(readWallNanos);
+                    record.trace.mark(LatencyTracer.PARSE, ClockEstimator.wallNanos());
+                    pendingTrace = record.trace;
+                    pendingTraceSequence = frameSequence;
+                }
+                server.deliver(record);
+                record.trace = null;
+            }
+            for (int i = 0; i < frameFeatureCount; i++) {
+                WindowFeatures f = frameFeatures[i];
+                server.deliverFeatures(userId,
+                        fit != null ? Math.floorDiv(fit.toWallNanos(f.endTimestampNanos), 1_000_000L) : now, f);
+            }
+        } else {
+            server.duplicates.increment();
+        }
+        // 重发的帧也要确认，否则手机会一直保留它们
+        ackSequence = frameSequence;
+        ackPending = true;
+    }
+
+    /**
+     * 应答帧不占帧序号，不去重也不确认。只接受在途 PING 的应答，过期的应答没法知道发出时刻。
+     */
+    private void onPong() {
+        if (frameSequence != pingOutstanding) {
+            return;
+        }
+        pingOutstanding = -1;
+        boolean first = clock.getFit() == null;
+        clock.addSample(pingSentWallNanos, frameBaseNanos, readWallNanos);
+        server.clockSamples.increment();
+        if (first) {
+            LOG.info("[" + userId + "] Clock synchronized: " + clock.getFit());
+        } else if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("[" + userId + "] Clock " + clock.getFit());
+        }
+    }
+
+    /**
+     * 由网络线程定时调用，到时间就发送下一个 PING。上一个 PING 没有应答时直接放弃它。
+     */
+    void onTimer(long nowNanos, long intervalNanos) throws IOException {
+        if (!binaryMode || intervalNanos <= 0 || nowNanos - nextPingNanos < 0) {
+            return;
+        }
+        if (out.remaining() < MAX_PING_BYTES) {
+            // 回复都写不出去，这时测出的时延也没有意义
+            return;
+        }
+        long id = pingsSent++;
+        nextPingNanos = nowNanos + (pingsSent < FAST_PINGS ? FAST_PING_INTERVAL_NANOS : intervalNanos);
+        out.put(PING_PREFIX);
+        putDecimal(out, id);
+        out.put((byte) '\n');
+        pingOutstanding = id;
+        pingSentWallNanos = ClockEstimator.wallNanos();
+        flushReplies();
+    }
+
+    /**
+     * 把待发的回复尽量写出，写不完时关注可写事件。
+     *
+     * @return 始终返回 true，写出失败时抛出 IOException
+     */
+    boolean flushReplies() throws IOException {
+        if (ackPending && out.remaining() >= MAX_ACK_BYTES) {
+            queueAck();
+        }
+        if (out.position() > 0) {
+            out.flip();
+            channel.write(out);
+            out.compact();
+        }
+        int ops = out.position() > 0 || ackPending
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+        return true;
+    }
+
+    private void queueAck() {
+        out.put(ACK_PREFIX);
+        putDecimal(out, ackSequence);
+        out.put((byte) '\n');
+        ackPending = false;
+    }
+
+    /**
+     * 把 value 按十进制 ASCII 写在 out 的当前位置，不分配对象。
+     */
+    static void putDecimal(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        int start = out.position();
+        do {
+            out.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // 倒序写入后原地翻转
+        for (int i = start, j = out.position() - 1; i < j; i++, j--) {
+            byte t = out.get(i);
+            out.put(i, out.get(j));
+            out.put(j, t);
+        }
+    }
+
+    private void queueAscii(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            out.put((byte) line.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.receiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 离线工具：把 {@link ColumnStore} 中的数据导出成 receiver.py 格式的 CSV（每台设备一个 &lt;设备&gt;_sensor_data.csv，
+ * 布局见 {@link CsvSink}）。
+ *
+ * <pre>
+ * java -cp receiver.jar com.example.receiver.CsvExport [--store data/store] [--out export]
+ *     [--device 192.168.1.5] [--from 2024-05-01T13:00:00Z] [--to 1714572000000]
+ * </pre>
+ * 时间可以写 ISO-8601 时刻或毫秒时间戳，范围为 [from, to)；不指定设备时导出全部设备。
+ */
+public final class CsvExport {
+    private static final Logger LOG = Logger.getLogger(CsvExport.class.getName());
+
+    private CsvExport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File storeDir = new File("data/store");
+        File outDir = new File("export");
+        String device = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--store":
+                    storeDir = new File(args[i + 1]);
+                    break;
+                case "--out":
+                    outDir = new File(args[i + 1]);
+                    break;
+                case "--device":
+                    device = args[i + 1];
+                    break;
+                case "--from":
+                    from = parseTime(args[i + 1]);
+                    break;
+                case "--to":
+                    to = parseTime(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        ColumnStoreReader reader = new ColumnStoreReader(storeDir);
+        List<String> devices = device != null
+                ? Collections.singletonList(ColumnStore.deviceDirName(device)) : reader.devices();
+        try (CsvSink csv = new CsvSink(outDir)) {
+            for (String d : devices) {
+                long rows = reader.scan(d, from, to, csv);
+                LOG.info("Exported " + rows + " rows to " + csv.fileFor(d));
+            }
+        }
+    }
+
+    static long parseTime(String value) {
+        if (value.matches("-?\\d+")) {
+            return Long.parseLong(value);
+        }
+        return Instant.parse(value).toEpochMilli();
+    }
+}
@@ -0,0 +1,435 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.WireFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放 receiver.py 格式的 CSV（表头见 {@link CsvSink}，如 Receiver/data 下的文件），在没有手机时测量端到端延迟。
+ *
+ * 每个文件模拟一台手机：一条 TCP 连接，握手后按 Timestamp 列的间隔除以 --speed（1 到 100 倍速）逐行发送，
+ * 每行一帧，空的列不发送；采样时间戳用发送时的 System.nanoTime()，并像手机一样应答 PING。
+ * 接收端在握手中声明 trace 时按 --trace-ms 的间隔追踪一行：帧带 {@link WireFormat#FLAG_TRACED}，
+ * 交给内核后再发追踪帧，写入时刻即采集时刻（没有手机上的环形缓冲区）。结果看接收端的 latency 统计或 /api/latency。
+ *
+ * <pre>
+ * java -cp receiver.jar com.example.receiver.CsvReplay --data ../Receiver/data --speed 10 [--port 8888] [--trace-ms 1000]
+ * </pre>
+ */
+public final class CsvReplay {
+    public static final int MAX_SPEED = 100;
+
+    /** 回放参数 */
+    public static class Settings {
+        public String host = "127.0.0.1";
+        public int port = 8888;
+        // CSV 文件，每个文件一台设备
+        public List<File> files = new ArrayList<>();
+        public double speed = 1;
+        // 追踪间隔（设备时钟），0 表示每行都追踪
+        public long traceIntervalMillis = 1000;
+    }
+
+    /** 回放结果 */
+    public static class Result {
+        public long rows;
+        public long traces;
+        public long acked;
+        public double elapsedSeconds;
+
+        @Override
+        public String toString() {
+            return String.format("rows=%d acked=%d traces=%d in %.1f s", rows, acked, traces, elapsedSeconds);
+        }
+    }
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final int DEVICE_BUFFER_BYTES = 16 * 1024;
+    // 一帧最多四个数据块，各一个采样
+    private static final int MAX_ROW_FRAME_BYTES = 256;
+    private static final long ACK_DRAIN_MILLIS = 5000;
+
+    /** CSV 中的一行：相对第一行的毫秒数和 9 列数值，空的列为 NaN */
+    static final class Row {
+        final long offsetMillis;
+        final float[] values;
+
+        Row(long offsetMillis, float[] values) {
+            this.offsetMillis = offsetMillis;
+            this.values = values;
+        }
+    }
+
+    private final Settings settings;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final StringBuilder line = new StringBuilder(128);
+    private final Result result = new Result();
+
+    public CsvReplay(Settings settings) {
+        if (settings.speed < 1 || settings.speed > MAX_SPEED) {
+            throw new IllegalArgumentException("speed must be between 1 and " + MAX_SPEED + ": " + settings.speed);
+        }
+        this.settings = settings;
+    }
+
+    /**
+     * 读入一个 CSV 文件。时间倒退的行按上一行的时刻发送。
+     *
+     * @throws IOException 读取失败，或表头与 {@link CsvSink#HEADER} 不同
+     */
+    static List<Row> read(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).trim().equals(CsvSink.HEADER)) {
+            throw new IOException("Not a sensor CSV: " + file);
+        }
+        List<Row> rows = new ArrayList<>(lines.size() - 1);
+        long first = 0;
+        long last = 0;
+        for (int i = 1; i < lines.size(); i++) {
+            String text = lines.get(i).trim();
+            if (text.isEmpty()) {
+                continue;
+            }
+            String[] columns = text.split(",", -1);
+            if (columns.length != 10) {
+                throw new IOException(file + ":" + (i + 1) + ": expected 10 columns");
+            }
+            long millis;
+            try {
+                millis = LocalDateTime.parse(columns[0], TIMESTAMP).atZone(ZoneId.systemDefault())
+                        .toInstant().toEpochMilli();
+            } catch (RuntimeException e) {
+                throw new IOException(file + ":" + (i + 1) + ": bad timestamp " + columns[0]);
+            }
+            if (rows.isEmpty()) {
+                first = millis;
+            }
+            last = Math.max(last, millis - first);
+            float[] values = new float[9];
+            for (int c = 0; c < 9; c++) {
+                String v = columns[c + 1];
+                try {
+                    values[c] = v.isEmpty() ? Float.NaN : Float.parseFloat(v);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + (i + 1) + ": bad number " + v);
+                }
+            }
+            rows.add(new Row(last, values));
+        }
+        return rows;
+    }
+
+    private static final class Device {
+        final String name;
+        final List<Row> rows;
+        final long deviceId;
+        final long sessionId;
+        final SocketChannel channel;
+        final ByteBuffer out = ByteBuffer.allocate(DEVICE_BUFFER_BYTES);
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        boolean ready;
+        boolean tracing;
+        long startNanos;
+        int next;
+        long nextSequence;
+        long lastAck = -1;
+        long nextTraceNanos;
+        // 等待交给内核的被追踪的帧：序号（没有时为 -1）、传感器、采集时刻、编码完成时刻和帧在 out 中的末尾
+        long tracedSequence = -1;
+        int tracedSensorId;
+        long tracedCaptureNanos;
+        long tracedEncodeNanos;
+        int tracedEnd;
+
+        Device(String name, List<Row> rows, long deviceId, long sessionId, SocketChannel channel) {
+            this.name = name;
+            this.rows = rows;
+            this.deviceId = deviceId;
+            this.sessionId = sessionId;
+            this.channel = channel;
+        }
+
+        boolean done() {
+            return next >= rows.size();
+        }
+    }
+
+    /**
+     * 连接、回放全部文件，等接收端确认后关闭连接并返回统计。
+     */
+    public Result run() throws IOException {
+        Random random = new Random();
+        InetSocketAddress address = new InetSocketAddress(settings.host, settings.port);
+        List<Device> devices = new ArrayList<>();
+        long traceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(settings.traceIntervalMillis);
+        long start = System.nanoTime();
+        // 全部行都已编码的时刻，之后最多再等 ACK_DRAIN_MILLIS
+        long sentNanos = 0;
+        try (Selector selector = Selector.open()) {
+            try {
+                for (File file : settings.files) {
+                    List<Row> rows = read(file);
+                    SocketChannel channel = SocketChannel.open(address);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    channel.configureBlocking(false);
+                    Device device = new Device(file.getName(), rows, random.nextLong(), random.nextLong(), channel);
+                    channel.register(selector, SelectionKey.OP_READ, device);
+                    putAscii(device.out, Handshake.helloLine(device.deviceId, device.sessionId));
+                    devices.add(device);
+                }
+                while (true) {
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    boolean pending = false;
+                    for (Device device : devices) {
+                        if (device.ready) {
+                            sendDue(device, now, traceIntervalNanos);
+                        }
+                        flush(device);
+                        if (!device.done() || device.out.position() > 0 || device.lastAck + 1 < device.nextSequence) {
+                            pending = true;
+                        }
+                        if (device.ready && !device.done()) {
+                            wait = Math.min(wait, dueNanos(device) - now);
+                        }
+                    }
+                    if (!pending) {
+                        break;
+                    }
+                    if (sentNanos == 0 && allRowsSent(devices)) {
+                        sentNanos = now;
+                    } else if (sentNanos != 0 && now - sentNanos > TimeUnit.MILLISECONDS.toNanos(ACK_DRAIN_MILLIS)) {
+                        // 接收端迟迟不确认，不再等待
+                        break;
+                    }
+                    long waitMillis = wait == Long.MAX_VALUE ? 10 : TimeUnit.NANOSECONDS.toMillis(wait);
+                    if (waitMillis > 0) {
+                        selector.select(Math.min(waitMillis, 10));
+                    } else {
+                        selector.selectNow();
+                    }
+                    readReplies(selector);
+                }
+            } finally {
+                for (Device device : devices) {
+                    device.channel.close();
+                }
+            }
+        }
+        result.elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        for (Device device : devices) {
+            result.acked += device.lastAck + 1;
+        }
+        return result;
+    }
+
+    private long dueNanos(Device device) {
+        return device.startNanos + Math.round(device.rows.get(device.next).offsetMillis * 1e6 / settings.speed);
+    }
+
+    private static boolean allRowsSent(List<Device> devices) {
+        for (Device device : devices) {
+            if (!device.ready || !device.done()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把到了时间的行编码进发送缓冲区。等待交给内核的追踪帧没写出之前不再追踪新的行。
+     */
+    private void sendDue(Device device, long now, long traceIntervalNanos) {
+        while (!device.done() && dueNanos(device) - now <= 0 && device.out.remaining() >= MAX_ROW_FRAME_BYTES) {
+            float[] v = device.rows.get(device.next++).values;
+            // 追踪行中的第一个传感器；整行都是空的不发
+            int sensorId = present(v, 0, 2) ? WireFormat.SENSOR_LOCATION
+                    : present(v, 2, 3) ? WireFormat.SENSOR_ACCELEROMETER
+                    : present(v, 5, 3) ? WireFormat.SENSOR_ORIENTATION
+                    : present(v, 8, 1) ? WireFormat.SENSOR_LIGHT : 0;
+            if (sensorId == 0) {
+                continue;
+            }
+            long captureNanos = System.nanoTime();
+            long sequence = device.nextSequence;
+            encoder.begin(device.out, device.deviceId, sequence, captureNanos);
+            putBlock(WireFormat.SENSOR_LOCATION, 2, v, 0, captureNanos);
+            putBlock(WireFormat.SENSOR_ACCELEROMETER, 3, v, 2, captureNanos);
+            putBlock(WireFormat.SENSOR_ORIENTATION, 3, v, 5, captureNanos);
+            putBlock(WireFormat.SENSOR_LIGHT, 1, v, 8, captureNanos);
+            boolean traced = device.tracing && device.tracedSequence < 0
+                    && captureNanos - device.nextTraceNanos >= 0;
+            if (traced) {
+                encoder.markTraced();
+            }
+            encoder.end();
+            device.nextSequence++;
+            result.rows++;
+            if (traced) {
+                device.nextTraceNanos = captureNanos + traceIntervalNanos;
+                device.tracedSequence = sequence;
+                device.tracedSensorId = sensorId;
+                device.tracedCaptureNanos = captureNanos;
+                device.tracedEncodeNanos = System.nanoTime();
+                device.tracedEnd = device.out.position();
+            }
+        }
+    }
+
+    private static boolean present(float[] values, int offset, int channels) {
+        for (int c = 0; c < channels; c++) {
+            if (Float.isNaN(values[offset + c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void putBlock(int sensorId, int channels, float[] values, int offset, long timestampNanos) {
+        if (!present(values, offset, channels)) {
+            return;
+        }
+        encoder.beginBlock(sensorId, channels);
+        encoder.putSample(timestampNanos, values, offset);
+        encoder.endBlock();
+    }
+
+    /**
+     * 写出发送缓冲区；被追踪的帧整个交给内核后排入它的追踪帧，下次写出。
+     */
+    private void flush(Device device) throws IOException {
+        ByteBuffer out = device.out;
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        int written = device.channel.write(out);
+        out.compact();
+        if (device.tracedSequence < 0) {
+            return;
+        }
+        device.tracedEnd -= written;
+        if (device.tracedEnd <= 0 && out.remaining() >= WireFormat.HEADER_SIZE + WireFormat.TRACE_SIZE) {
+            long writeNanos = System.nanoTime();
+            encoder.begin(out, device.deviceId, device.tracedSequence, device.tracedCaptureNanos,
+                    WireFormat.FLAG_TRACE);
+            // 没有环形缓冲区，写入时刻即采集时刻
+            encoder.putTrace(device.tracedSensorId, device.tracedCaptureNanos, device.tracedEncodeNanos,
+                    writeNanos);
+            encoder.end();
+            device.tracedSequence = -1;
+            result.traces++;
+        }
+    }
+
+    private void readReplies(Selector selector) throws IOException {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Device device = (Device) key.attachment();
+            if (device.channel.read(device.in) < 0) {
+                throw new IOException("Receiver closed connection of " + device.name);
+            }
+            ByteBuffer in = device.in;
+            int start = 0;
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) != '\n') {
+                    continue;
+                }
+                line.setLength(0);
+                for (int j = start; j < i; j++) {
+                    line.append((char) in.get(j));
+                }
+                onLine(device, line);
+                start = i + 1;
+            }
+            in.flip();
+            in.position(start);
+            in.compact();
+            flush(device);
+        }
+    }
+
+    private void onLine(Device device, StringBuilder reply) {
+        long ack = Handshake.parseAck(reply);
+        long ping;
+        if (ack >= 0) {
+            device.lastAck = Math.max(device.lastAck, ack);
+        } else if ((ping = Handshake.parsePing(reply)) >= 0) {
+            // 与手机一样立即应答，采样时钟是 System.nanoTime()
+            if (device.out.remaining() >= WireFormat.HEADER_SIZE) {
+                encoder.begin(device.out, device.deviceId, ping, System.nanoTime(), WireFormat.FLAG_CLOCK_PONG);
+                encoder.end();
+            }
+        } else if (!device.ready && Handshake.isAccept(reply.toString())) {
+            device.ready = true;
+            device.tracing = Handshake.acceptsTrace(reply.toString());
+            device.startNanos = System.nanoTime();
+            device.nextTraceNanos = device.startNanos;
+        }
+    }
+
+    private static void putAscii(ByteBuffer out, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        File dataDir = new File("data");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host":
+                    settings.host = value;
+                    break;
+                case "--port":
+                    settings.port = Integer.parseInt(value);
+                    break;
+                case "--data":
+                    dataDir = new File(value);
+                    break;
+                case "--speed":
+                    settings.speed = Double.parseDouble(value);
+                    break;
+                case "--trace-ms":
+                    settings.traceIntervalMillis = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        File[] files = dataDir.listFiles((dir, name) -> name.endsWith(".csv"));
+        if (files == null || files.length == 0) {
+            throw new IllegalArgumentException("No CSV files in " + dataDir);
+        }
+        Arrays.sort(files);
+        settings.files.addAll(Arrays.asList(files));
+        System.out.println("Replaying " + files.length + " files from " + dataDir + " at " + settings.speed + "x");
+        Result result = new CsvReplay(settings).run();
+        System.out.println(result);
+    }
+}
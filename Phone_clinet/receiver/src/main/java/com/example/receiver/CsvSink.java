@@ -0,0 +1,217 @@
+package com.example.receiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 按来源 IP 写入 data/&lt;ip&gt;_sensor_data.csv，文件名、表头和列顺序与 receiver.py 的 save_to_csv 相同。
+ *
+ * 与 save_to_csv 每条消息打开、写一行、关闭文件不同，这里每个文件只打开一次，行先写进该文件自己的缓冲区，
+ * 缓冲区满或定时 {@link #flush()} 时才一次写给内核。同一文件的写入互斥，不同文件之间互不影响。
+ *
+ * Timestamp 列优先写换算后的采样时刻（{@link SensorRecord#timestampMillis()}），只有不知道时才像 receiver.py 那样写到达时刻。
+ */
+public class CsvSink implements RecordSink, Closeable {
+    private static final Logger LOG = Logger.getLogger(CsvSink.class.getName());
+
+    static final String HEADER = "Timestamp,Latitude,Longitude,"
+            + "Accelerometer_x,Accelerometer_y,Accelerometer_z,"
+            + "Orientation_azimuth,Orientation_pitch,Orientation_roll,Light";
+    private static final String FILE_SUFFIX = "_sensor_data.csv";
+    private static final int FILE_BUFFER_BYTES = 64 * 1024;
+
+    private final File dir;
+    private final ConcurrentHashMap<String, CsvFile> files = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public CsvSink(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create data directory " + dir);
+        }
+        this.dir = dir;
+    }
+
+    public File fileFor(String userId) {
+        return new File(dir, userId + FILE_SUFFIX);
+    }
+
+    @Override
+    public void accept(SensorRecord record) {
+        if (closed) {
+            return;
+        }
+        CsvFile file = files.computeIfAbsent(record.userId, this::open);
+        synchronized (file) {
+            try {
+                file.append(record);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to write " + file.path, e);
+            }
+        }
+    }
+
+    private CsvFile open(String userId) {
+        try {
+            return new CsvFile(fileFor(userId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 把各文件缓冲区中的行写给内核。
+     */
+    public void flush() {
+        for (CsvFile file : files.values()) {
+            synchronized (file) {
+                try {
+                    file.flush();
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to flush " + file.path, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (CsvFile file : files.values()) {
+            synchronized (file) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to close " + file.path, e);
+                }
+            }
+        }
+        files.clear();
+    }
+
+    private static final class CsvFile {
+        final File path;
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(FILE_BUFFER_BYTES);
+        final StringBuilder row = new StringBuilder(256);
+        final TimestampFormat timestamps = new TimestampFormat();
+
+        CsvFile(File path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (channel.size() == 0) {
+                row.append(HEADER).append('\n');
+                put(row);
+            }
+        }
+
+        void append(SensorRecord r) throws IOException {
+            StringBuilder sb = row;
+            sb.setLength(0);
+            timestamps.append(r.timestampMillis(), sb);
+            sb.append(',');
+            if (r.hasLocation) {
+                appendNumber(sb, r.latitude);
+                sb.append(',');
+                appendNumber(sb, r.longitude);
+            } else {
+                sb.append(',');
+            }
+            appendTriple(sb, r.hasAccelerometer, r.accelerometer);
+            appendTriple(sb, r.hasOrientation, r.orientation);
+            sb.append(',');
+            if (r.hasLight) {
+                appendNumber(sb, r.light);
+            }
+            sb.append('\n');
+            put(sb);
+        }
+
+        private static void appendTriple(StringBuilder sb, boolean present, double[] values) {
+            for (int i = 0; i < 3; i++) {
+                sb.append(',');
+                if (present) {
+                    appendNumber(sb, values[i]);
+                }
+            }
+        }
+
+        /**
+         * JSON 里的整数（如位置不可用时的 -3）原样写成整数，和 receiver.py 的输出一致。
+         */
+        private static void appendNumber(StringBuilder sb, double v) {
+            long asLong = (long) v;
+            if (asLong == v && Math.abs(v) < 1e15) {
+                sb.append(asLong);
+            } else {
+                sb.append(v);
+            }
+        }
+
+        private void put(CharSequence chars) throws IOException {
+            int n = chars.length();
+            if (buffer.remaining() < n) {
+                flush();
+            }
+            for (int i = 0; i < n; i++) {
+                // 行内只有 ASCII 字符（IP、数字和时间戳）
+                buffer.put((byte) chars.charAt(i));
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 格式化为 receiver.py 使用的 "yyyy-MM-dd HH:mm:ss.SSS"（本地时区）。秒以上的部分每秒只格式化一次。
+     */
+    static final class TimestampFormat {
+        private static final DateTimeFormatter SECONDS =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedPrefix;
+
+        void append(long epochMillis, StringBuilder out) {
+            long second = Math.floorDiv(epochMillis, 1000);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedPrefix = SECONDS.format(Instant.ofEpochSecond(second));
+            }
+            int millis = Math.floorMod(epochMillis, 1000);
+            out.append(cachedPrefix).append('.');
+            if (millis < 100) {
+                out.append('0');
+            }
+            if (millis < 10) {
+                out.append('0');
+            }
+            out.append(millis);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.FrameFormatException;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.WireFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * UDP 实时通道的接收：一个线程、一个非阻塞 DatagramChannel 和一块复用的直接内存缓冲区，每个数据报是一帧，
+ * 格式见 {@link WireFormat}。解出的记录与 TCP 连接的一样交给 {@link ReceiverServer#deliver}。
+ *
+ * 按帧头的 deviceId 记下每台手机见过的最大序号和其前 {@link #WINDOW} 个序号是否收到：
+ * 比最大序号新的帧交付，中间跳过的序号计为丢失；旧的帧不再交付，实时看板宁可丢掉也不回退，
+ * 窗口内没收到过的计为乱序（并从丢失中扣除），收到过的计为重复，更早的也计为乱序。
+ * 序号前后跳动超过 {@link #RESTART_GAP} 视为手机重新开始发送，从头计数。
+ *
+ * 还按 Settings.clockSyncIntervalMillis 向每台手机最近的来源地址发 "PING &lt;编号&gt;" 数据报，
+ * 用应答帧更新该手机的 {@link ClockEstimator}，与 TCP 连接相同。延迟追踪也与 TCP 连接相同，追踪帧是单独的数据报。
+ */
+final class DatagramReceiver implements FrameDecoder.Listener, FrameDecoder.TraceListener, Closeable {
+    private static final Logger LOG = Logger.getLogger(DatagramReceiver.class.getName());
+
+    static final int WINDOW = 64;
+    static final long RESTART_GAP = 1 << 16;
+    // UDP 载荷的上限；超过 MAX_DATAGRAM_SIZE 的数据报照样解码，不会被截断
+    private static final int RECEIVE_BUFFER_BYTES = 65_507;
+    private static final long TIMER_MILLIS = 50;
+    // 这么久没有数据报的手机不再发 PING，状态也丢掉
+    private static final long PEER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final ReceiverServer server;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread thread;
+    private final long pingIntervalNanos;
+    private volatile boolean running = true;
+
+    // 以下只在接收线程中使用
+    private final ByteBuffer in = ByteBuffer.allocateDirect(RECEIVE_BUFFER_BYTES);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64);
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final SensorRecord record = new SensorRecord();
+    private final Map<Long, Peer> peers = new HashMap<>();
+    private SocketAddress source;
+    private long readWallNanos;
+    private Peer peer;
+    private long frameSequence;
+    private long frameBaseNanos;
+    private final FrameSamples samples = new FrameSamples();
+    private boolean pongFrame;
+    private boolean metricsFrame;
+    private boolean tracedFrame;
+    private boolean traceFrame;
+    private long nextTimerNanos;
+
+    DatagramReceiver(ReceiverServer server, InetSocketAddress address, long clockSyncIntervalMillis)
+            throws IOException {
+        this.server = server;
+        pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(clockSyncIntervalMillis);
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(address);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        thread = new Thread(this::run, "receiver-udp");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(TIMER_MILLIS);
+                selector.selectedKeys().clear();
+                while ((source = channel.receive(in)) != null) {
+                    readWallNanos = ClockEstimator.wallNanos();
+                    in.flip();
+                    handleDatagram();
+                    in.clear();
+                }
+                if (pingIntervalNanos > 0) {
+                    onTimer(System.nanoTime());
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOG.log(Level.SEVERE, "UDP receiver stopped", e);
+            }
+        }
+    }
+
+    private void handleDatagram() {
+        server.datagrams.increment();
+        try {
+            if (decoder.decode(in, this) == 0 || in.hasRemaining()) {
+                // 截断的帧，或一个数据报里不止一帧
+                server.malformed.increment();
+            }
+        } catch (FrameFormatException e) {
+            server.malformed.increment();
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Bad datagram from " + source + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onFrameStart(long deviceId, long sequence, long baseTimestampNanos, int flags) {
+        peer = peers.get(deviceId);
+        if (peer == null) {
+            peer = new Peer();
+            peers.put(deviceId, peer);
+            LOG.info("UDP telemetry from " + Handshake.formatDeviceId(deviceId) + " at " + source);
+        }
+        if (!source.equals(peer.address)) {
+            peer.address = source;
+            peer.userId = ((InetSocketAddress) source).getAddress().getHostAddress();
+        }
+        peer.lastSeenNanos = System.nanoTime();
+        frameSequence = sequence;
+        frameBaseNanos = baseTimestampNanos;
+        samples.clear(baseTimestampNanos);
+        pongFrame = (flags & WireFormat.FLAG_CLOCK_PONG) != 0;
+        metricsFrame = (flags & WireFormat.FLAG_METRICS) != 0;
+        tracedFrame = (flags & WireFormat.FLAG_TRACED) != 0;
+        traceFrame = (flags & WireFormat.FLAG_TRACE) != 0;
+    }
+
+    @Override
+    public void onTrace(int sensorId, long enqueueNanos, long encodeNanos, long writeNanos) {
+        if (peer.pendingTrace == null || peer.pendingTraceSequence != frameSequence) {
+            return;
+        }
+        peer.pendingTrace.markDevice(frameBaseNanos, enqueueNanos, encodeNanos, writeNanos, peer.clock.getFit());
+        peer.pendingTrace = null;
+    }
+
+    /**
+     * 与 TCP 连接相同，整帧解完后按时刻拆成记录。
+     */
+    @Override
+    public void onSample(int sensorId, long timestampNanos, float[] values, int channels) {
+        samples.add(sensorId, timestampNanos, values, channels);
+    }
+
+    @Override
+    public void onFrameEnd() {
+        if (pongFrame) {
+            onPong();
+            return;
+        }
+        if (metricsFrame || traceFrame) {
+            // 指标走 TCP，UDP 上的忽略；追踪帧已在 onTrace 中处理
+            return;
+        }
+        // UDP 没有握手，手机发送全部传感器；同一个传感器只记一次
+        int ignored = samples.takeNewlyIgnored();
+        if (ignored != 0) {
+            LOG.warning("[" + peer.userId + "] Dropping UDP samples of sensors without columns: "
+                    + FrameSamples.describe(ignored));
+        }
+        if (!peer.accept(frameSequence) || samples.size() == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        ClockEstimator.Fit fit = peer.clock.getFit();
+        samples.sort();
+        while (samples.next(record)) {
+            record.userId = peer.userId;
+            record.receivedMillis = now;
+            record.capturedMillis = fit != null
+                    ? Math.floorDiv(fit.toWallNanos(samples.timestampNanos()), 1_000_000L) : 0;
+            if (tracedFrame && samples.isLast()) {
+                record.trace = server.latencyTracer.start(readWallNanos);
+                record.trace.mark(LatencyTracer.PARSE, ClockEstimator.wallNanos());
+                peer.pendingTrace = record.trace;
+                peer.pendingTraceSequence = frameSequence;
+            }
+            server.deliver(record);
+            record.trace = null;
+        }
+    }
+
+    private void onPong() {
+        if (frameSequence != peer.pingOutstanding) {
+            return;
+        }
+        peer.pingOutstanding = -1;
+        boolean first = peer.clock.getFit() == null;
+        peer.clock.addSample(peer.pingSentWallNanos, frameBaseNanos, readWallNanos);
+        server.clockSamples.increment();
+        if (first) {
+            LOG.info("[" + peer.userId + "] UDP clock synchronized: " + peer.clock.getFit());
+        }
+    }
+
+    /**
+     * 丢掉长时间没有数据报的手机，给其余手机按时发 PING。上一个 PING 没有应答时直接放弃它。
+     */
+    private void onTimer(long nowNanos) throws IOException {
+        if (nowNanos - nextTimerNanos < 0) {
+            return;
+        }
+        nextTimerNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(TIMER_MILLIS);
+        Iterator<Peer> it = peers.values().iterator();
+        while (it.hasNext()) {
+            Peer p = it.next();
+            if (nowNanos - p.lastSeenNanos > PEER_IDLE_NANOS) {
+                it.remove();
+                continue;
+            }
+            if (nowNanos - p.nextPingNanos < 0) {
+                continue;
+            }
+            long id = p.pingsSent++;
+            p.nextPingNanos = nowNanos
+                    + (p.pingsSent < Connection.FAST_PINGS ? Connection.FAST_PING_INTERVAL_NANOS : pingIntervalNanos);
+            out.clear();
+            out.put(Connection.PING_PREFIX);
+            Connection.putDecimal(out, id);
+            out.put((byte) '\n');
+            out.flip();
+            p.pingOutstanding = id;
+            p.pingSentWallNanos = ClockEstimator.wallNanos();
+            // 发送缓冲区满时放弃这次，下一轮再发
+            channel.send(out, p.address);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        selector.close();
+    }
+
+    /** 一台手机的序号窗口和时钟估计 */
+    private final class Peer {
+        SocketAddress address;
+        String userId;
+        long lastSeenNanos;
+        // 见过的最大序号，window 的第 i 位表示 highest - i 是否收到
+        long highest;
+        long window;
+        final ClockEstimator clock = new ClockEstimator();
+        long pingsSent;
+        long nextPingNanos = System.nanoTime();
+        long pingOutstanding = -1;
+        long pingSentWallNanos;
+        // 等待追踪帧的追踪和它所在的数据报的序号
+        LatencyTracer.Trace pendingTrace;
+        long pendingTraceSequence;
+
+        /**
+         * @return 是否交付这一帧
+         */
+        boolean accept(long sequence) {
+            long diff = sequence - highest;
+            if (window == 0 || diff > RESTART_GAP || diff < -RESTART_GAP) {
+                if (window != 0) {
+                    LOG.info("[" + userId + "] UDP sequence restarted at " + sequence);
+                }
+                highest = sequence;
+                window = 1;
+                return true;
+            }
+            if (diff > 0) {
+                server.datagramsLost.add(diff - 1);
+                window = diff >= WINDOW ? 1 : window << diff | 1;
+                highest = sequence;
+                return true;
+            }
+            if (-diff >= WINDOW) {
+                server.datagramsLate.increment();
+                return false;
+            }
+            long bit = 1L << -diff;
+            if ((window & bit) != 0) {
+                server.datagramDuplicates.increment();
+                return false;
+            }
+            window |= bit;
+            server.datagramsLost.decrement();
+            server.datagramsLate.increment();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.receiver;
+
+/**
+ * 把每条记录依次交给多个 {@link RecordSink}，例如同时写 {@link ColumnStore} 和更新 {@link RollupStore}。
+ */
+public class FanOutSink implements RecordSink {
+    private final RecordSink[] sinks;
+
+    public FanOutSink(RecordSink... sinks) {
+        this.sinks = sinks.clone();
+    }
+
+    @Override
+    public void accept(SensorRecord record) {
+        for (RecordSink sink : sinks) {
+            sink.accept(record);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.WindowFeatures;
+import com.example.sensorprotocol.WireFormat;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 把窗口特征写成 &lt;ip&gt;_features.csv，每行一个传感器通道的一个窗口：
+ *
+ * <pre>
+ * Timestamp,Sensor,Channel,Samples,Duration_ms,Mean,RMS,Min,Max,ZeroCrossings,Band_0,Band_1,...
+ * </pre>
+ * 频带从 0 到采样率（Samples / Duration）的一半等分，个数由手机设置决定。特征的数据量只有原始采样的几百分之一，
+ * 这里每个文件用一个带缓冲的 Writer，同一文件的写入互斥。
+ */
+public class FeatureCsvSink implements FeatureSink, Closeable {
+    private static final Logger LOG = Logger.getLogger(FeatureCsvSink.class.getName());
+
+    static final String HEADER = "Timestamp,Sensor,Channel,Samples,Duration_ms,Mean,RMS,Min,Max,ZeroCrossings";
+    private static final String FILE_SUFFIX = "_features.csv";
+    private static final int FILE_BUFFER_CHARS = 16 * 1024;
+
+    private final File dir;
+    private final ConcurrentHashMap<String, FeatureFile> files = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public FeatureCsvSink(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create feature directory " + dir);
+        }
+        this.dir = dir;
+    }
+
+    public File fileFor(String userId) {
+        return new File(dir, userId + FILE_SUFFIX);
+    }
+
+    @Override
+    public void accept(String userId, long capturedMillis, WindowFeatures f) {
+        if (closed) {
+            return;
+        }
+        FeatureFile file = files.computeIfAbsent(userId, this::open);
+        synchronized (file) {
+            try {
+                file.append(capturedMillis, f);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to write " + file.path, e);
+            }
+        }
+    }
+
+    private FeatureFile open(String userId) {
+        try {
+            return new FeatureFile(fileFor(userId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void flush() {
+        for (FeatureFile file : files.values()) {
+            synchronized (file) {
+                try {
+                    file.writer.flush();
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to flush " + file.path, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (FeatureFile file : files.values()) {
+            synchronized (file) {
+                try {
+                    file.writer.close();
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to close " + file.path, e);
+                }
+            }
+        }
+        files.clear();
+    }
+
+    private static final class FeatureFile {
+        final File path;
+        final Writer writer;
+        final StringBuilder row = new StringBuilder(256);
+        final CsvSink.TimestampFormat timestamps = new CsvSink.TimestampFormat();
+        // 已写入表头的频带列数
+        int headerBands = -1;
+
+        FeatureFile(File path) throws IOException {
+            this.path = path;
+            boolean empty = path.length() == 0;
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8),
+                    FILE_BUFFER_CHARS);
+            if (!empty) {
+                // 追加到已有文件时不再写表头
+                headerBands = Integer.MAX_VALUE;
+            }
+        }
+
+        void append(long millis, WindowFeatures f) throws IOException {
+            StringBuilder sb = row;
+            sb.setLength(0);
+            if (headerBands < 0) {
+                sb.append(HEADER);
+                for (int b = 0; b < f.bandCount; b++) {
+                    sb.append(",Band_").append(b);
+                }
+                sb.append('\n');
+                headerBands = f.bandCount;
+            }
+            timestamps.append(millis, sb);
+            String sensor = WireFormat.sensorName(f.sensorId);
+            sb.append(',').append(sensor != null ? sensor : String.valueOf(f.sensorId));
+            sb.append(',').append(f.channel);
+            sb.append(',').append(f.sampleCount);
+            sb.append(',').append(f.durationNanos / 1_000_000.0);
+            sb.append(',').append(f.mean);
+            sb.append(',').append(f.rms);
+            sb.append(',').append(f.min);
+            sb.append(',').append(f.max);
+            sb.append(',').append(f.zeroCrossings);
+            for (int b = 0; b < f.bandCount; b++) {
+                sb.append(',').append(f.bands[b]);
+            }
+            sb.append('\n');
+            writer.append(sb);
+        }
+    }
+}
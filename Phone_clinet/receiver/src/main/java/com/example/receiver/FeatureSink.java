@@ -0,0 +1,14 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.WindowFeatures;
+
+/**
+ * 特征模式手机上传的窗口特征的去处。与 {@link RecordSink} 一样由各个网络线程并发调用。
+ */
+public interface FeatureSink {
+    /**
+     * @param capturedMillis 窗口结束时刻换算成的墙上时间，时钟未同步时为到达时刻
+     * @param features       调用返回后即被复用，不能保留引用
+     */
+    void accept(String userId, long capturedMillis, WindowFeatures features);
+}
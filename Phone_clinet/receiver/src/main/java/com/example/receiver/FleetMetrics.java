@@ -0,0 +1,97 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.MetricId;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各手机定期上报的运行指标（{@link com.example.sensorprotocol.WireFormat#FLAG_METRICS} 帧）。
+ * 每台设备只保留最近一次上报；{@link #summary} 把全部设备汇总成一行：计数和分布的次数按设备相加，
+ * 分位数和最大值取各设备中最大的，即整个机群里最差的那台。
+ *
+ * 网络线程调用 {@link #update}，统计线程调用 {@link #summary}，上报按整份替换，不需要加锁。
+ */
+public class FleetMetrics {
+    // 超过这个时间没有上报的设备不计入汇总
+    static final long STALE_MILLIS = 60_000;
+
+    private final ConcurrentHashMap<Long, Report> devices = new ConcurrentHashMap<>();
+
+    /** 一次上报，由网络线程填好后交给 {@link #update}，之后不再修改 */
+    public static final class Report {
+        private int[] ids = new int[32];
+        private long[] values = new long[32];
+        private int size;
+        long receivedMillis;
+
+        public void add(int metricId, long value) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            ids[size] = metricId;
+            values[size] = value;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    public void update(long deviceId, Report report, long nowMillis) {
+        report.receivedMillis = nowMillis;
+        devices.put(deviceId, report);
+    }
+
+    /**
+     * @return 最近 {@link #STALE_MILLIS} 内上报过的设备数
+     */
+    public int activeDevices(long nowMillis) {
+        int count = 0;
+        for (Report report : devices.values()) {
+            if (nowMillis - report.receivedMillis <= STALE_MILLIS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 汇总最近上报过的设备。
+     *
+     * @return 按 metricId 排序的汇总值；不认识的 metricId 不计入
+     */
+    public Map<Integer, Long> aggregate(long nowMillis) {
+        TreeMap<Integer, Long> totals = new TreeMap<>();
+        for (Report report : devices.values()) {
+            if (nowMillis - report.receivedMillis > STALE_MILLIS) {
+                continue;
+            }
+            for (int i = 0; i < report.size; i++) {
+                int id = report.ids[i];
+                if (MetricId.name(id) == null) {
+                    continue;
+                }
+                long value = report.values[i];
+                boolean sum = !MetricId.isDistribution(MetricId.kind(id)) || MetricId.sub(id) == MetricId.STAT_COUNT;
+                totals.merge(id, value, sum ? Long::sum : Math::max);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * @return 形如 "devices=3 events.Accelerometer=120000 ... writeNanos.p99=850000" 的一行
+     */
+    public String summary(long nowMillis) {
+        StringBuilder sb = new StringBuilder("devices=").append(activeDevices(nowMillis));
+        for (Map.Entry<Integer, Long> e : aggregate(nowMillis).entrySet()) {
+            sb.append(' ').append(MetricId.name(e.getKey())).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+}
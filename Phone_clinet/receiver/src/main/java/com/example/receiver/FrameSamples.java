@@ -0,0 +1,140 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.WireFormat;
+
+import java.util.Arrays;
+
+/**
+ * 一个二进制帧中的全部采样。{@link com.example.sensorprotocol.FrameDecoder} 按数据块（传感器）逐个交出采样，
+ * 这里先存下来，整帧解完后按采样时间排序，用 {@link #next} 逐条生成记录：每个不同的时间戳一条，
+ * 同一时刻的不同传感器合在一条里，同一传感器在同一时刻出现两次时另起一条。帧内的采样一个也不丢。
+ *
+ * 只保存 {@link SensorRecord} 有字段的传感器，其余的忽略并记下编号，由 {@link #takeNewlyIgnored} 取出后记日志。
+ * 只在一个线程中使用，数组按需扩容后复用。
+ */
+final class FrameSamples {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long baseNanos;
+    private int count;
+    private int[] sensors = new int[INITIAL_CAPACITY];
+    private int[] channels = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private float[] values = new float[INITIAL_CAPACITY * WireFormat.MAX_CHANNELS];
+    // 排序键：高 32 位是相对帧基准的微秒数，低 32 位是采样下标，排序后同一时刻的采样保持到达顺序
+    private long[] order = new long[INITIAL_CAPACITY];
+    private int next;
+    private long groupNanos;
+    // 收到过但没有保存的传感器，第 n 位对应编号 n，不随 clear 清零
+    private int ignoredSensors;
+    private int reportedSensors;
+
+    /**
+     * 开始新的一帧。
+     */
+    void clear(long baseTimestampNanos) {
+        baseNanos = baseTimestampNanos;
+        count = 0;
+        next = 0;
+    }
+
+    void add(int sensorId, long timestampNanos, float[] sample, int channelCount) {
+        if (!SensorRecord.stores(sensorId)) {
+            if (sensorId < Integer.SIZE) {
+                ignoredSensors |= 1 << sensorId;
+            }
+            return;
+        }
+        if (count == sensors.length) {
+            grow();
+        }
+        sensors[count] = sensorId;
+        channels[count] = channelCount;
+        timestamps[count] = timestampNanos;
+        System.arraycopy(sample, 0, values, count * WireFormat.MAX_CHANNELS, channelCount);
+        // 解码出的时间戳都是帧基准加整微秒
+        order[count] = (timestampNanos - baseNanos) / 1000 << 32 | count;
+        count++;
+    }
+
+    /** 保存的采样数 */
+    int size() {
+        return count;
+    }
+
+    /**
+     * 整帧解完后调用一次，之后用 {@link #next} 取出记录。
+     */
+    void sort() {
+        Arrays.sort(order, 0, count);
+        next = 0;
+    }
+
+    /**
+     * 把下一个时刻的采样写进 record（先清掉它原有的传感器），时刻见 {@link #timestampNanos}。
+     *
+     * @return 已经取完时返回 false
+     */
+    boolean next(SensorRecord record) {
+        if (next >= count) {
+            return false;
+        }
+        record.clearSensors();
+        groupNanos = timestamps[(int) order[next]];
+        while (next < count) {
+            int i = (int) order[next];
+            if (timestamps[i] != groupNanos || record.hasSample(sensors[i])) {
+                break;
+            }
+            record.setSample(sensors[i], values, i * WireFormat.MAX_CHANNELS, channels[i]);
+            next++;
+        }
+        return true;
+    }
+
+    /** 上一次 {@link #next} 取出的记录的采样时间戳（手机时钟） */
+    long timestampNanos() {
+        return groupNanos;
+    }
+
+    /** 上一次 {@link #next} 取出的是否帧内最后一条记录 */
+    boolean isLast() {
+        return next >= count;
+    }
+
+    /**
+     * @return 上次调用以来第一次被忽略的传感器，第 n 位对应编号 n；没有时为 0
+     */
+    int takeNewlyIgnored() {
+        int fresh = ignoredSensors & ~reportedSensors;
+        reportedSensors = ignoredSensors;
+        return fresh;
+    }
+
+    /**
+     * @return 用于日志的传感器名列表，如 "Gyroscope, Pressure"
+     */
+    static String describe(int sensorMask) {
+        StringBuilder sb = new StringBuilder();
+        for (int id = 1; id < Integer.SIZE; id++) {
+            if ((sensorMask & 1 << id) == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            String name = WireFormat.sensorName(id);
+            sb.append(name != null ? name : "#" + id);
+        }
+        return sb.toString();
+    }
+
+    private void grow() {
+        int capacity = sensors.length * 2;
+        sensors = Arrays.copyOf(sensors, capacity);
+        channels = Arrays.copyOf(channels, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        values = Arrays.copyOf(values, capacity * WireFormat.MAX_CHANNELS);
+        order = Arrays.copyOf(order, capacity);
+    }
+}
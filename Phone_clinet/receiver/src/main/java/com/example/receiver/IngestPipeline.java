@@ -0,0 +1,300 @@
+package com.example.receiver;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 分区入库流水线：网络线程读取、解析、换算时钟和保持之后，把记录复制进所属分区的有界环形队列就返回，
+ * 入库和推送（下游 {@link RecordSink}，通常是存储加 {@link RollupStore}、{@link LiveHub} 的 {@link FanOutSink}）
+ * 由每个分区自己的线程完成。
+ *
+ * 设备按 userId 的哈希固定分到一个分区，同一设备的记录只经过一个队列、一个线程，顺序与到达顺序相同，
+ * 下游不需要为同一设备的先后加锁；不同设备分散到各个分区并行入库。
+ *
+ * 队列是预分配槽位的多生产者单消费者环形数组（按序号判断槽位是否可写/可读，无锁），满了说明下游跟不上，
+ * 网络线程原地等待而不是丢弃，手机那边由 TCP 流控自然减速。每个分区记录队列深度、最大深度、
+ * 网络线程因队列满而等待的时间，以及分区线程忙于入库的时间，见 {@link #summary()}。
+ */
+public class IngestPipeline implements RecordSink, Closeable {
+    private static final Logger LOG = Logger.getLogger(IngestPipeline.class.getName());
+
+    // 每个分区的队列长度，50Hz × 100 台设备约 0.8 秒
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    // 分区线程没有数据时先自旋这么多次再休眠
+    private static final int IDLE_SPINS = 100;
+    // 休眠的上限，生产者放入记录时会提前唤醒
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    // 队列满时生产者每次等待的时间
+    private static final long FULL_PARK_NANOS = 20_000L;
+
+    private final Partition[] partitions;
+    private volatile boolean running = true;
+
+    /**
+     * @param partitions 分区数，即入库线程数
+     * @param queueCapacity 每个分区的队列长度，向上取整为 2 的幂
+     * @param downstream 入库和推送；不同分区的线程会并发调用，同一设备只会由一个线程调用
+     */
+    public IngestPipeline(int partitions, int queueCapacity, RecordSink downstream) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions " + partitions);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queue capacity " + queueCapacity);
+        }
+        int capacity = Integer.highestOneBit(queueCapacity - 1) << 1;
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i, Math.max(capacity, 2), downstream);
+        }
+        for (Partition partition : this.partitions) {
+            partition.thread.start();
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * @return 设备所在的分区
+     */
+    public int partitionOf(String userId) {
+        int h = userId.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % partitions.length;
+    }
+
+    /**
+     * 复制一份放入所属分区的队列；队列满时等到有空位为止。由网络线程调用，可以并发。
+     *
+     * @throws IllegalStateException 已经关闭
+     */
+    @Override
+    public void accept(SensorRecord r) {
+        if (!running) {
+            throw new IllegalStateException("ingest pipeline closed");
+        }
+        partitions[partitionOf(r.userId)].put(r);
+    }
+
+    /**
+     * @return 已交给下游的记录数，全部分区合计
+     */
+    public long getProcessedCount() {
+        long total = 0;
+        for (Partition partition : partitions) {
+            total += partition.processed.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return 当前排队的记录数，全部分区合计
+     */
+    public long getQueuedCount() {
+        long total = 0;
+        for (Partition partition : partitions) {
+            total += partition.depth();
+        }
+        return total;
+    }
+
+    /**
+     * @return 网络线程因队列满而等待的总时间（纳秒），全部分区合计
+     */
+    public long getStallNanos() {
+        long total = 0;
+        for (Partition partition : partitions) {
+            total += partition.stallNanos.sum();
+        }
+        return total;
+    }
+
+    /**
+     * 各分区的状态，一个分区一段，例如
+     * <pre>
+     * p0 depth=12/4096 max=310 busy=41% stalls=3/0.8ms records=51200
+     * </pre>
+     * depth 为当前深度/容量，max 为上次调用以来的最大深度；busy 为上次调用以来分区线程在下游中的时间占比；
+     * stalls 为网络线程因队列满等待的次数和时间（累计）。
+     */
+    public String summary() {
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder();
+        for (Partition p : partitions) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            long busy = p.busyNanos.get();
+            long elapsed = now - p.summaryNanos;
+            double busyPercent = elapsed <= 0 ? 0 : 100.0 * (busy - p.summaryBusyNanos) / elapsed;
+            p.summaryNanos = now;
+            p.summaryBusyNanos = busy;
+            sb.append('p').append(p.index)
+                    .append(" depth=").append(p.depth()).append('/').append(p.capacity)
+                    .append(" max=").append(p.maxDepth.getAndSet(0))
+                    .append(String.format(" busy=%.0f%% stalls=%d/%.1fms", busyPercent, p.stalls.sum(),
+                            p.stallNanos.sum() / 1e6))
+                    .append(" records=").append(p.processed.get());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 停止接收新记录，等各分区把已排队的记录交给下游后返回。调用前应先停止网络线程。
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Partition partition : partitions) {
+            LockSupport.unpark(partition.thread);
+        }
+        for (Partition partition : partitions) {
+            try {
+                partition.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一个分区：环形队列加一个入库线程。
+     *
+     * 槽位 i 的序号 sequences[i] 等于 pos 时可以写入第 pos 条，等于 pos + 1 时第 pos 条可以读出，
+     * 读完设为 pos + capacity 留给下一圈。生产者用 CAS 推进 tail 抢占位置，写好槽位后再发布序号；
+     * 只有一个消费者，head 不需要 CAS。
+     */
+    private final class Partition {
+        final int index;
+        final int capacity;
+        final int mask;
+        final SensorRecord[] slots;
+        final AtomicLongArray sequences;
+        final AtomicLong tail = new AtomicLong();
+        // 只由分区线程写
+        volatile long head;
+        final RecordSink downstream;
+        final Thread thread;
+        // 分区线程是否在（或即将）休眠，生产者据此决定是否唤醒
+        volatile boolean sleeping;
+
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong maxDepth = new AtomicLong();
+        final LongAdder stalls = new LongAdder();
+        final LongAdder stallNanos = new LongAdder();
+        // 只由调用 summary() 的线程使用
+        long summaryNanos = System.nanoTime();
+        long summaryBusyNanos;
+
+        Partition(int index, int capacity, RecordSink downstream) {
+            this.index = index;
+            this.capacity = capacity;
+            mask = capacity - 1;
+            slots = new SensorRecord[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new SensorRecord();
+                sequences.set(i, i);
+            }
+            this.downstream = downstream;
+            thread = new Thread(this::run, "receiver-ingest-" + index);
+            thread.setDaemon(true);
+        }
+
+        long depth() {
+            // head 在释放槽位之后才推进，两者之间读到的深度可能多 1
+            return Math.max(0, Math.min(capacity, tail.get() - head));
+        }
+
+        void put(SensorRecord r) {
+            long pos = tail.get();
+            long stallStart = 0;
+            while (true) {
+                int slot = (int) pos & mask;
+                long diff = sequences.get(slot) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        break;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    // 满了：等分区线程腾出位置
+                    if (stallStart == 0) {
+                        stallStart = System.nanoTime();
+                        stalls.increment();
+                    }
+                    wake();
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                    pos = tail.get();
+                } else {
+                    pos = tail.get();
+                }
+            }
+            if (stallStart != 0) {
+                stallNanos.add(System.nanoTime() - stallStart);
+            }
+            int slot = (int) pos & mask;
+            slots[slot].copyFrom(r);
+            // 必须是 volatile 写：与下面 wake() 中对 sleeping 的读，和分区线程先写 sleeping 再读序号，
+            // 两边都是先写后读。lazySet 只是 release，后面的读可能提前到写之前，分区线程设好 sleeping
+            // 复查时看不到这条记录、这里也看不到 sleeping，唤醒就丢了，只能等休眠超时
+            sequences.set(slot, pos + 1);
+            long depth = Math.min(capacity, pos + 1 - head);
+            if (depth > maxDepth.get()) {
+                maxDepth.accumulateAndGet(depth, Math::max);
+            }
+            wake();
+        }
+
+        private void wake() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void run() {
+            long pos = head;
+            int idle = 0;
+            while (true) {
+                int slot = (int) pos & mask;
+                if (sequences.get(slot) != pos + 1) {
+                    if (!running && tail.get() == pos) {
+                        return;
+                    }
+                    if (++idle < IDLE_SPINS) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    sleeping = true;
+                    // 设好标志后再看一次，避免错过生产者的唤醒；与 put 中发布序号再读 sleeping 相对
+                    if (sequences.get(slot) != pos + 1 && (running || tail.get() != pos)) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                idle = 0;
+                long start = System.nanoTime();
+                try {
+                    downstream.accept(slots[slot]);
+                } catch (RuntimeException e) {
+                    // 一条记录入库失败不能让整个分区停下
+                    LOG.log(Level.WARNING, "Failed to store record from " + slots[slot].userId, e);
+                }
+                busyNanos.addAndGet(System.nanoTime() - start);
+                sequences.lazySet(slot, pos + capacity);
+                head = ++pos;
+                processed.incrementAndGet();
+            }
+        }
+    }
+}
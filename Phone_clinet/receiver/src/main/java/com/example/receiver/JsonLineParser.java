@@ -0,0 +1,365 @@
+package com.example.receiver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 直接在接收缓冲区的字节上解析手机端发送的一行 JSON，不构造字符串或对象树。
+ *
+ * 只取顶层的 "Location"（2 个数）、"Accelerometer"（3 个数）、"Orientation"（3 个数）和 "Light"（一个数），
+ * 取值规则与 receiver.py 的 parse_data 相同：长度或类型不符的字段当作没有。其余字段（包括 "Samples"）
+ * 只做语法校验后跳过。数字在常见情况下就地转换（结果与 Double.parseDouble 相同），
+ * 有效位数过多或指数过大时才退回 Double.parseDouble。
+ *
+ * 不是线程安全的，每个网络线程使用各自的实例。
+ */
+public final class JsonLineParser {
+    private static final int MAX_DEPTH = 64;
+    // 2^53，有效数字不超过它且十的幂不超过 22 时，一次乘除即可得到正确舍入的结果
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final byte[] KEY_LOCATION = ascii("Location");
+    private static final byte[] KEY_ACCELEROMETER = ascii("Accelerometer");
+    private static final byte[] KEY_ORIENTATION = ascii("Orientation");
+    private static final byte[] KEY_LIGHT = ascii("Light");
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    // 最近一次 parseNumber 的结果
+    private double number;
+    private final double[] numbers = new double[3];
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 解析 buf[start, end) 中的一行（可带首尾空白和 '\r'），结果写入 out 的传感器字段。
+     *
+     * @return 是合法的 JSON 对象时返回 true；否则返回 false，out 的内容无意义
+     */
+    public boolean parse(byte[] buf, int start, int end, SensorRecord out) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+        out.clearSensors();
+        skipWhitespace();
+        if (!consume('{')) {
+            return false;
+        }
+        skipWhitespace();
+        if (!consume('}')) {
+            while (true) {
+                skipWhitespace();
+                if (pos >= end || buf[pos] != '"') {
+                    return false;
+                }
+                int keyStart = pos + 1;
+                if (!skipString()) {
+                    return false;
+                }
+                int keyEnd = pos - 1;
+                skipWhitespace();
+                if (!consume(':')) {
+                    return false;
+                }
+                skipWhitespace();
+                if (!parseMember(keyStart, keyEnd, out)) {
+                    return false;
+                }
+                skipWhitespace();
+                if (consume(',')) {
+                    continue;
+                }
+                if (consume('}')) {
+                    break;
+                }
+                return false;
+            }
+        }
+        skipWhitespace();
+        return pos == end;
+    }
+
+    private boolean parseMember(int keyStart, int keyEnd, SensorRecord out) {
+        if (keyEquals(keyStart, keyEnd, KEY_LOCATION)) {
+            int count = parseNumberArray();
+            out.hasLocation = count == 2;
+            if (out.hasLocation) {
+                out.latitude = numbers[0];
+                out.longitude = numbers[1];
+            }
+            return count != -2;
+        }
+        if (keyEquals(keyStart, keyEnd, KEY_ACCELEROMETER)) {
+            int count = parseNumberArray();
+            out.hasAccelerometer = count == 3;
+            if (out.hasAccelerometer) {
+                System.arraycopy(numbers, 0, out.accelerometer, 0, 3);
+            }
+            return count != -2;
+        }
+        if (keyEquals(keyStart, keyEnd, KEY_ORIENTATION)) {
+            int count = parseNumberArray();
+            out.hasOrientation = count == 3;
+            if (out.hasOrientation) {
+                System.arraycopy(numbers, 0, out.orientation, 0, 3);
+            }
+            return count != -2;
+        }
+        if (keyEquals(keyStart, keyEnd, KEY_LIGHT)) {
+            if (pos < end && isNumberStart(buf[pos])) {
+                if (!parseNumber()) {
+                    return false;
+                }
+                out.hasLight = true;
+                out.light = number;
+                return true;
+            }
+            out.hasLight = false;
+            return skipValue(0);
+        }
+        return skipValue(0);
+    }
+
+    /**
+     * 解析一个值，是只含数字、最多 3 个元素的数组时把元素放进 numbers。
+     *
+     * @return 数字个数；值不是这样的数组时返回 -1；语法错误返回 -2
+     */
+    private int parseNumberArray() {
+        if (pos >= end || buf[pos] != '[') {
+            return skipValue(0) ? -1 : -2;
+        }
+        pos++;
+        skipWhitespace();
+        if (consume(']')) {
+            return 0;
+        }
+        int count = 0;
+        boolean numeric = true;
+        while (true) {
+            skipWhitespace();
+            if (pos < end && isNumberStart(buf[pos])) {
+                if (!parseNumber()) {
+                    return -2;
+                }
+                if (count < numbers.length) {
+                    numbers[count] = number;
+                } else {
+                    numeric = false;
+                }
+                count++;
+            } else {
+                numeric = false;
+                if (!skipValue(1)) {
+                    return -2;
+                }
+            }
+            skipWhitespace();
+            if (consume(',')) {
+                continue;
+            }
+            if (consume(']')) {
+                return numeric ? count : -1;
+            }
+            return -2;
+        }
+    }
+
+    private boolean skipValue(int depth) {
+        if (pos >= end || depth > MAX_DEPTH) {
+            return false;
+        }
+        byte c = buf[pos];
+        switch (c) {
+            case '{':
+                return skipContainer('}', true, depth);
+            case '[':
+                return skipContainer(']', false, depth);
+            case '"':
+                return skipString();
+            case 't':
+                return skipLiteral("true");
+            case 'f':
+                return skipLiteral("false");
+            case 'n':
+                return skipLiteral("null");
+            default:
+                return isNumberStart(c) && parseNumber();
+        }
+    }
+
+    private boolean skipContainer(char close, boolean object, int depth) {
+        pos++;
+        skipWhitespace();
+        if (consume(close)) {
+            return true;
+        }
+        while (true) {
+            skipWhitespace();
+            if (object) {
+                if (pos >= end || buf[pos] != '"' || !skipString()) {
+                    return false;
+                }
+                skipWhitespace();
+                if (!consume(':')) {
+                    return false;
+                }
+                skipWhitespace();
+            }
+            if (!skipValue(depth + 1)) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume(',')) {
+                continue;
+            }
+            return consume(close);
+        }
+    }
+
+    /**
+     * 跳过以当前位置的引号开始的字符串，结束后 pos 指向右引号之后。
+     */
+    private boolean skipString() {
+        pos++;
+        while (pos < end) {
+            byte c = buf[pos++];
+            if (c == '"') {
+                return true;
+            }
+            if (c == '\\') {
+                if (pos >= end) {
+                    return false;
+                }
+                pos++;
+            } else if ((c & 0xFF) < 0x20) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private boolean skipLiteral(String literal) {
+        int n = literal.length();
+        if (end - pos < n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (buf[pos + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        pos += n;
+        return true;
+    }
+
+    private static boolean isNumberStart(byte c) {
+        return c == '-' || (c >= '0' && c <= '9');
+    }
+
+    private boolean parseNumber() {
+        int start = pos;
+        boolean negative = consume('-');
+        long mantissa = 0;
+        int exponent = 0;
+        boolean exact = true;
+
+        int intStart = pos;
+        while (pos < end && isDigit(buf[pos])) {
+            if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (buf[pos] - '0');
+            } else {
+                exact = false;
+            }
+            pos++;
+        }
+        int intDigits = pos - intStart;
+        if (intDigits == 0 || (intDigits > 1 && buf[intStart] == '0')) {
+            return false;
+        }
+        if (consume('.')) {
+            int fracStart = pos;
+            while (pos < end && isDigit(buf[pos])) {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (buf[pos] - '0');
+                    exponent--;
+                } else if (buf[pos] != '0') {
+                    exact = false;
+                }
+                pos++;
+            }
+            if (pos == fracStart) {
+                return false;
+            }
+        }
+        if (pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buf[pos] == '+' || buf[pos] == '-')) {
+                negativeExponent = buf[pos] == '-';
+                pos++;
+            }
+            int expStart = pos;
+            int e = 0;
+            while (pos < end && isDigit(buf[pos])) {
+                if (e < 10000) {
+                    e = e * 10 + (buf[pos] - '0');
+                }
+                pos++;
+            }
+            if (pos == expStart) {
+                return false;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        if (exact && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+            number = negative ? -value : value;
+        } else {
+            number = Double.parseDouble(new String(buf, start, pos - start, StandardCharsets.US_ASCII));
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean keyEquals(int keyStart, int keyEnd, byte[] key) {
+        if (keyEnd - keyStart != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buf[keyStart + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean consume(char c) {
+        if (pos < end && buf[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                return;
+            }
+            pos++;
+        }
+    }
+}
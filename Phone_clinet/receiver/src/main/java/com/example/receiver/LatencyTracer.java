@@ -0,0 +1,187 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.LatencyRecorder;
+import com.example.sensorprotocol.MetricId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 端到端延迟追踪：手机约每秒抽样一个采样（{@link com.example.sensorprotocol.WireFormat#FLAG_TRACED}），
+ * 接收端为它建一个 {@link Trace}，沿途各环节打上时刻，相邻两个时刻都知道时把差值记入该环节的 {@link LatencyRecorder}。
+ *
+ * <pre>
+ * 采集 → enqueue → encode → write → network → 读到 → parse → store → publish
+ * </pre>
+ * 手机上的四个时刻由追踪帧带来，经该手机的 {@link ClockEstimator} 换算成接收端墙上时间；还没有时钟估计时只统计
+ * 手机内部的三个环节。network 包含时钟估计的误差（不超过往返时延的一半），store 是整个下游（存储、汇总、实时推送的槽位）
+ * 的耗时，publish 是从入库完成到 {@link LiveHub} 把这个采样放进某个订阅者的帧，没有订阅者时不统计；
+ * 推送偶尔会早于入库标记，此时记为 0。total 是采集到推送的总延迟。
+ *
+ * 每个时刻只记第一次，各环节之间可以乱序到达（追踪帧可能晚于入库），可在任意线程调用。
+ */
+public final class LatencyTracer {
+    public static final int CAPTURE = 0;
+    public static final int ENQUEUE = 1;
+    public static final int ENCODE = 2;
+    public static final int WRITE = 3;
+    public static final int READ = 4;
+    public static final int PARSE = 5;
+    public static final int STORE = 6;
+    public static final int PUBLISH = 7;
+    static final int MARKER_COUNT = 8;
+
+    /** 各环节的名字：第 i 个是时刻 i 到 i + 1 的耗时，最后一个是采集到推送的总延迟 */
+    public static final List<String> STAGES = Collections.unmodifiableList(Arrays.asList(
+            "enqueue", "encode", "write", "network", "parse", "store", "publish", "total"));
+    static final int TOTAL = MARKER_COUNT - 1;
+
+    private final LatencyRecorder[] stages = new LatencyRecorder[STAGES.size()];
+    private final LongAdder traces = new LongAdder();
+    // 只由调用 summary() 的线程使用
+    private final LatencyRecorder.Interval[] summaryIntervals = new LatencyRecorder.Interval[STAGES.size()];
+    private final long[] stats = new long[MetricId.STAT_COUNT_ALL];
+    private long summaryTraces;
+
+    public LatencyTracer() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyRecorder();
+            summaryIntervals[i] = stages[i].newInterval();
+        }
+    }
+
+    /**
+     * 开始追踪一个刚读到的采样。
+     *
+     * @param readWallNanos 读到它所在的帧时的接收端墙上时间
+     */
+    public Trace start(long readWallNanos) {
+        traces.increment();
+        Trace trace = new Trace();
+        trace.mark(READ, readWallNanos);
+        return trace;
+    }
+
+    /**
+     * @return 环节 stage（{@link #STAGES} 的下标）的累计分布，单位纳秒
+     */
+    public LatencyRecorder stage(int stage) {
+        return stages[stage];
+    }
+
+    /** 开始追踪的采样数 */
+    public long getTraceCount() {
+        return traces.sum();
+    }
+
+    /**
+     * 上次调用以来各环节的延迟，例如
+     * <pre>
+     * traces=10 enqueue=0.020/0.050/0.050ms encode=0.100/0.300/0.300ms ... total=48/95/95ms
+     * </pre>
+     * 三个数分别为 p50/p99/p999，没有记录的环节不列出。只能在一个线程中调用。
+     */
+    public String summary() {
+        long total = traces.sum();
+        StringBuilder sb = new StringBuilder("traces=").append(total - summaryTraces);
+        summaryTraces = total;
+        for (int i = 0; i < stages.length; i++) {
+            LatencyRecorder.Interval interval = summaryIntervals[i];
+            interval.collect(stats);
+            if (stats[MetricId.STAT_COUNT] == 0) {
+                continue;
+            }
+            sb.append(' ').append(STAGES.get(i)).append('=')
+                    .append(millis(interval.valueAtQuantile(0.50))).append('/')
+                    .append(millis(interval.valueAtQuantile(0.99))).append('/')
+                    .append(millis(interval.valueAtQuantile(0.999))).append("ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 把启动以来各环节的分布写成 JSON，供 /api/latency 使用：
+     * <pre>
+     * {"traces":120,"stages":{"enqueue":{"count":120,"p50":0.020,"p99":0.050,"p999":0.050,"max":0.061},...}}
+     * </pre>
+     * 时间单位为毫秒。
+     */
+    public void appendJson(StringBuilder json) {
+        json.append("{\"traces\":").append(traces.sum()).append(",\"stages\":{");
+        long[] cumulative = new long[MetricId.STAT_COUNT_ALL];
+        for (int i = 0; i < stages.length; i++) {
+            // 新的读数从零开始，读到的就是累计分布
+            LatencyRecorder.Interval interval = stages[i].newInterval();
+            interval.collect(cumulative);
+            if (i > 0) {
+                json.append(',');
+            }
+            QueryServer.appendString(json, STAGES.get(i));
+            json.append(":{\"count\":").append(cumulative[MetricId.STAT_COUNT])
+                    .append(",\"p50\":").append(millis(interval.valueAtQuantile(0.50)))
+                    .append(",\"p99\":").append(millis(interval.valueAtQuantile(0.99)))
+                    .append(",\"p999\":").append(millis(interval.valueAtQuantile(0.999)))
+                    .append(",\"max\":").append(millis(cumulative[MetricId.STAT_MAX])).append('}');
+        }
+        json.append("}}");
+    }
+
+    private static String millis(long nanos) {
+        double ms = nanos / 1e6;
+        // 也写进 JSON，小数点不能随系统区域设置变化
+        return ms >= 10 ? String.valueOf(Math.round(ms)) : String.format(Locale.ROOT, "%.3f", ms);
+    }
+
+    private void record(int stage, long nanos) {
+        stages[stage].record(nanos);
+    }
+
+    /** 一个被追踪的采样在各环节的时刻（接收端墙上时间，纳秒，0 表示还不知道） */
+    public final class Trace {
+        private final long[] marks = new long[MARKER_COUNT];
+
+        private Trace() {
+        }
+
+        /**
+         * 记下时刻 marker，已经记过的忽略（例如同一采样推送给多个订阅者）。
+         */
+        public synchronized void mark(int marker, long wallNanos) {
+            if (marks[marker] != 0) {
+                return;
+            }
+            marks[marker] = wallNanos;
+            if (marker > 0 && marks[marker - 1] != 0) {
+                record(marker - 1, wallNanos - marks[marker - 1]);
+            }
+            if (marker + 1 < MARKER_COUNT && marks[marker + 1] != 0) {
+                record(marker, marks[marker + 1] - wallNanos);
+            }
+            if ((marker == CAPTURE || marker == PUBLISH) && marks[CAPTURE] != 0 && marks[PUBLISH] != 0) {
+                record(TOTAL, marks[PUBLISH] - marks[CAPTURE]);
+            }
+        }
+
+        /**
+         * 记下追踪帧带来的手机时刻（手机采样时钟）。
+         *
+         * @param fit 该手机的时钟估计，null 时只统计手机内部的环节
+         */
+        void markDevice(long captureNanos, long enqueueNanos, long encodeNanos, long writeNanos,
+                        ClockEstimator.Fit fit) {
+            if (fit == null) {
+                record(CAPTURE, enqueueNanos - captureNanos);
+                record(ENQUEUE, encodeNanos - enqueueNanos);
+                record(ENCODE, writeNanos - encodeNanos);
+                return;
+            }
+            mark(CAPTURE, fit.toWallNanos(captureNanos));
+            mark(ENQUEUE, fit.toWallNanos(enqueueNanos));
+            mark(ENCODE, fit.toWallNanos(encodeNanos));
+            mark(WRITE, fit.toWallNanos(writeNanos));
+        }
+    }
+}
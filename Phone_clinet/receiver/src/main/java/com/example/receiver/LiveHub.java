@@ -0,0 +1,311 @@
+package com.example.receiver;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 实时推送：把收到的记录合并成固定帧率的帧，分发给订阅了特定设备和通道的浏览器（经 {@link QueryServer} 的 /api/live）。
+ *
+ * 网络线程只把每台设备各通道的最新值和样本数记到该设备自己的槽里，不做其他事；定时线程每帧取走有更新的设备，
+ * 按每个订阅者的设备和通道过滤后生成一帧 JSON：
+ *
+ * <pre>
+ * {"t":1714568340050,"devices":{"192.168.1.5":{"ts":1714568340041,"n":3,"Light":110.0,"Accelerometer_x":-9.05}}}
+ * </pre>
+ * n 为上一帧以来合并掉的样本数，ts 为最新样本的时间；没有订阅者关心的更新时不发帧。
+ *
+ * 每个订阅者有一个有界队列，满了就丢弃最旧的帧再放入新帧，慢的浏览器只会跳帧，不会拖住定时线程和网络线程。
+ *
+ * 带着延迟追踪的记录在它的值第一次放进某个订阅者的帧时打上推送时刻（{@link LatencyTracer#PUBLISH}）。
+ */
+public class LiveHub implements RecordSink, Closeable {
+    public static final int DEFAULT_FPS = 20;
+    // 订阅者最多积压的帧数，20fps 下约 0.4 秒
+    public static final int DEFAULT_QUEUE_FRAMES = 8;
+
+    private final ConcurrentHashMap<String, Latest> latest = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer;
+    private final long frameMillis;
+    private final LongAdder framesDropped = new LongAdder();
+
+    /**
+     * @param fps 每秒最多推送的帧数；0 表示不启动定时线程，由调用方（测试）自己调 {@link #tick}
+     */
+    public LiveHub(int fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps " + fps);
+        }
+        frameMillis = fps == 0 ? 0 : Math.max(1, 1000 / fps);
+        if (fps == 0) {
+            timer = null;
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "live-hub");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> tick(System.currentTimeMillis()), frameMillis, frameMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public long getFrameMillis() {
+        return frameMillis;
+    }
+
+    /**
+     * @return 因订阅者来不及取走而丢弃的帧数，全部订阅者合计
+     */
+    public long getFramesDropped() {
+        return framesDropped.sum();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void accept(SensorRecord r) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Latest slot = latest.computeIfAbsent(r.userId, Latest::new);
+        synchronized (slot) {
+            slot.timestampMillis = r.timestampMillis();
+            slot.pending++;
+            if (r.trace != null) {
+                slot.trace = r.trace;
+            }
+            if (r.hasLocation) {
+                slot.set(0, r.latitude);
+                slot.set(1, r.longitude);
+            }
+            if (r.hasAccelerometer) {
+                slot.set(2, r.accelerometer[0]);
+                slot.set(3, r.accelerometer[1]);
+                slot.set(4, r.accelerometer[2]);
+            }
+            if (r.hasOrientation) {
+                slot.set(5, r.orientation[0]);
+                slot.set(6, r.orientation[1]);
+                slot.set(7, r.orientation[2]);
+            }
+            if (r.hasLight) {
+                slot.set(8, r.light);
+            }
+        }
+    }
+
+    /**
+     * 订阅。
+     *
+     * @param devices 设备，空集合表示全部
+     * @param channels 通道名（见 {@link RollupStore#CHANNELS}，不区分大小写），空集合表示全部
+     * @throws IllegalArgumentException 通道名未知
+     */
+    public Subscriber subscribe(Set<String> devices, List<String> channels, int queueFrames) {
+        int mask = 0;
+        for (String name : channels) {
+            int channel = RollupStore.channelIndex(name);
+            if (channel < 0) {
+                throw new IllegalArgumentException("unknown channel " + name);
+            }
+            mask |= 1 << channel;
+        }
+        if (mask == 0) {
+            mask = (1 << RollupStore.CHANNEL_COUNT) - 1;
+        }
+        Subscriber subscriber = new Subscriber(new HashSet<>(devices), mask, queueFrames);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * 生成并分发一帧。
+     */
+    void tick(long nowMillis) {
+        if (subscribers.isEmpty()) {
+            latest.clear();
+            return;
+        }
+        List<Snapshot> updated = new ArrayList<>();
+        for (Latest slot : latest.values()) {
+            synchronized (slot) {
+                if (slot.pending == 0) {
+                    continue;
+                }
+                updated.add(new Snapshot(slot));
+                slot.pending = 0;
+                slot.changed = 0;
+                slot.trace = null;
+            }
+        }
+        if (updated.isEmpty()) {
+            return;
+        }
+        updated.sort((a, b) -> a.device.compareTo(b.device));
+        StringBuilder json = new StringBuilder(256);
+        for (Subscriber subscriber : subscribers) {
+            json.setLength(0);
+            if (buildFrame(subscriber, updated, nowMillis, json)) {
+                subscriber.offer(json.toString());
+            }
+        }
+        long publishedNanos = 0;
+        for (Snapshot s : updated) {
+            if (s.trace != null && s.published) {
+                if (publishedNanos == 0) {
+                    publishedNanos = ClockEstimator.wallNanos();
+                }
+                s.trace.mark(LatencyTracer.PUBLISH, publishedNanos);
+            }
+        }
+    }
+
+    private static boolean buildFrame(Subscriber subscriber, List<Snapshot> updated, long nowMillis,
+                                      StringBuilder json) {
+        json.append("{\"t\":").append(nowMillis).append(",\"devices\":{");
+        boolean any = false;
+        for (Snapshot s : updated) {
+            if (!subscriber.devices.isEmpty() && !subscriber.devices.contains(s.device)) {
+                continue;
+            }
+            int channels = s.changed & subscriber.channelMask;
+            if (channels == 0) {
+                continue;
+            }
+            if (any) {
+                json.append(',');
+            }
+            any = true;
+            s.published = true;
+            QueryServer.appendString(json, s.device);
+            json.append(":{\"ts\":").append(s.timestampMillis).append(",\"n\":").append(s.samples);
+            for (int c = 0; c < RollupStore.CHANNEL_COUNT; c++) {
+                if ((channels & 1 << c) != 0) {
+                    json.append(",\"").append(RollupStore.CHANNELS[c]).append("\":");
+                    QueryServer.appendNumber(json, s.values[c]);
+                }
+            }
+            json.append('}');
+        }
+        json.append("}}");
+        return any;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        subscribers.clear();
+    }
+
+    /** 一个订阅者，通常对应一个浏览器标签页 */
+    public final class Subscriber {
+        final Set<String> devices;
+        final int channelMask;
+        private final ArrayBlockingQueue<String> frames;
+        private volatile boolean closed;
+
+        Subscriber(Set<String> devices, int channelMask, int queueFrames) {
+            this.devices = Collections.unmodifiableSet(devices);
+            this.channelMask = channelMask;
+            frames = new ArrayBlockingQueue<>(Math.max(1, queueFrames));
+        }
+
+        /**
+         * 只由定时线程调用。队列满时丢掉最旧的帧。
+         */
+        void offer(String frame) {
+            while (!frames.offer(frame)) {
+                if (frames.poll() != null) {
+                    framesDropped.increment();
+                }
+            }
+        }
+
+        /**
+         * @return 下一帧；超时或订阅已关闭时返回 null
+         */
+        public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+            if (closed) {
+                return null;
+            }
+            return frames.poll(timeout, unit);
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        int queued() {
+            return frames.size();
+        }
+    }
+
+    /** 一台设备自上一帧以来的最新值，由该设备的网络线程写、定时线程读 */
+    private static final class Latest {
+        final String device;
+        final double[] values = new double[RollupStore.CHANNEL_COUNT];
+        // 上一帧以来更新过的通道
+        int changed;
+        int pending;
+        long timestampMillis;
+        // 上一帧以来最近一条带追踪的记录
+        LatencyTracer.Trace trace;
+
+        Latest(String device) {
+            this.device = device;
+        }
+
+        void set(int channel, double value) {
+            values[channel] = value;
+            changed |= 1 << channel;
+        }
+    }
+
+    private static final class Snapshot {
+        final String device;
+        final double[] values;
+        final int changed;
+        final int samples;
+        final long timestampMillis;
+        final LatencyTracer.Trace trace;
+        // 是否放进了至少一个订阅者的帧
+        boolean published;
+
+        Snapshot(Latest slot) {
+            device = slot.device;
+            values = Arrays.copyOf(slot.values, slot.values.length);
+            changed = slot.changed;
+            samples = slot.pending;
+            timestampMillis = slot.timestampMillis;
+            trace = slot.trace;
+        }
+    }
+}
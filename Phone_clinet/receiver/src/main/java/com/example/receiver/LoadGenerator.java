@@ -0,0 +1,451 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测客户端：模拟大量手机以固定频率向接收端发送数据。
+ *
+ * 每个模拟设备一条 TCP 连接，按设定频率每个周期发一条消息：JSON 模式发送与手机端兼容路径相同格式的一行，
+ * 二进制模式先握手，再每周期发送含 4 个传感器、各 --samples 个采样（在一个周期内均匀分布）的帧，并统计接收端确认的帧数。
+ * 接收端每个采样时刻生成一条记录，所以二进制模式的记录数是帧数乘以 --samples，吞吐要看 samples 而不是帧数。
+ * 连接由少数几个线程用 Selector 驱动；某个连接的发送缓冲区满（接收端跟不上）时跳过这一周期并计入 skipped。
+ *
+ * <pre>
+ * java -cp receiver.jar com.example.receiver.LoadGenerator --devices 1000 --rate 50 --seconds 30 --mode binary [--samples 4]
+ *     [--source-ips 64]
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    /** 压测参数 */
+    public static class Settings {
+        public String host = "127.0.0.1";
+        public int port = 8888;
+        public int devices = 1000;
+        public int rateHz = 50;
+        public int seconds = 30;
+        public boolean binary;
+        // 二进制模式下每帧中每个传感器的采样数
+        public int samplesPerFrame = 1;
+        // 大于 1 时把连接轮流绑定到 127.0.0.2 起的这么多个回环地址上，只用于连接本机的接收端。
+        // 接收端按来源 IP 区分设备、分配入库分区，都从 127.0.0.1 连过去时全部落在同一个分区
+        public int sourceAddresses = 1;
+        public int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** 压测结果 */
+    public static class Result {
+        public long sent;
+        // 接收端应生成的记录数：JSON 模式每行一条，二进制模式每帧 samplesPerFrame 条
+        public long samples;
+        public long skipped;
+        // 只在二进制模式下统计
+        public long acked;
+        public double elapsedSeconds;
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d (%.0f/s) samples=%d (%.0f/s) acked=%d skipped=%d in %.1f s",
+                    sent, sent / elapsedSeconds, samples, samples / elapsedSeconds, acked, skipped, elapsedSeconds);
+        }
+    }
+
+    // 每个设备的发送缓冲区，约能容纳一秒的 JSON 消息
+    private static final int DEVICE_BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_MESSAGE_BYTES = 512;
+    // 落后超过这么多个周期就不再追赶
+    private static final int MAX_LAG_TICKS = 10;
+    private static final long ACK_DRAIN_MILLIS = 5000;
+
+    // 预先生成一段波形和对应的 JSON 行，发送时按周期轮流取用，压测客户端自身尽量不占 CPU
+    private static final int WAVEFORM_LENGTH = 256;
+    // 每个采样点：纬度、经度、加速度 xyz、方向 xyz、光线
+    private static final float[][] WAVEFORM = new float[WAVEFORM_LENGTH][9];
+    private static final byte[][] JSON_LINES = new byte[WAVEFORM_LENGTH][];
+
+    static {
+        StringBuilder sb = new StringBuilder(MAX_MESSAGE_BYTES);
+        for (int i = 0; i < WAVEFORM_LENGTH; i++) {
+            double phase = 2 * Math.PI * i / WAVEFORM_LENGTH;
+            float[] w = WAVEFORM[i];
+            w[0] = 30.2741f;
+            w[1] = 120.1551f;
+            w[2] = (float) (-9.05 + 0.5 * Math.sin(phase));
+            w[3] = (float) (3.17 + 0.5 * Math.cos(phase));
+            w[4] = (float) (2.75 + 0.2 * Math.sin(phase * 2));
+            w[5] = (float) (327.5 + Math.sin(phase));
+            w[6] = (float) (-57.2 + Math.cos(phase));
+            w[7] = (float) (-70.9 + Math.sin(phase * 3));
+            w[8] = (float) (100 + 10 * Math.sin(phase));
+            // 与手机端 JSON 模式的顶层字段相同
+            sb.setLength(0);
+            sb.append("{\"Location\":[").append(w[0]).append(',').append(w[1])
+                    .append("],\"Accelerometer\":[").append(w[2]).append(',').append(w[3]).append(',').append(w[4])
+                    .append("],\"Orientation\":[").append(w[5]).append(',').append(w[6]).append(',').append(w[7])
+                    .append("],\"Light\":").append(w[8]).append("}\n");
+            JSON_LINES[i] = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final Settings settings;
+    // 一条消息最多占用的发送缓冲区
+    private final int messageBytes;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private volatile boolean running;
+
+    public LoadGenerator(Settings settings) {
+        int frameBytes = WireFormat.HEADER_SIZE + 4 * WireFormat.BLOCK_HEADER_SIZE
+                + settings.samplesPerFrame * (4 * WireFormat.TIMESTAMP_SIZE + WAVEFORM[0].length * 4);
+        if (settings.samplesPerFrame < 1 || frameBytes > DEVICE_BUFFER_BYTES / 2) {
+            throw new IllegalArgumentException("samples per frame out of range: " + settings.samplesPerFrame);
+        }
+        this.settings = settings;
+        messageBytes = settings.binary ? Math.max(MAX_MESSAGE_BYTES, frameBytes) : MAX_MESSAGE_BYTES;
+    }
+
+    private static final class Device {
+        final int index;
+        final long deviceId;
+        final long sessionId;
+        final SocketChannel channel;
+        final ByteBuffer out = ByteBuffer.allocateDirect(DEVICE_BUFFER_BYTES);
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        boolean ready;
+        boolean pongPending;
+        long nextSequence;
+        long lastAck = -1;
+
+        Device(int index, long deviceId, long sessionId, SocketChannel channel) {
+            this.index = index;
+            this.deviceId = deviceId;
+            this.sessionId = sessionId;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 建立全部连接，运行设定的时长后关闭连接并返回统计。
+     */
+    public Result run() throws IOException, InterruptedException {
+        Random random = new Random();
+        InetSocketAddress address = new InetSocketAddress(settings.host, settings.port);
+        int threadCount = Math.min(settings.threads, settings.devices);
+        Sender[] senders = new Sender[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            senders[t] = new Sender(t, (settings.devices - t + threadCount - 1) / threadCount);
+        }
+        try {
+            for (int i = 0; i < settings.devices; i++) {
+                SocketChannel channel = SocketChannel.open();
+                if (settings.sourceAddresses > 1) {
+                    channel.bind(new InetSocketAddress(sourceAddress(i % settings.sourceAddresses), 0));
+                }
+                channel.connect(address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                Device device = new Device(i, random.nextLong(), random.nextLong(), channel);
+                if (settings.binary) {
+                    putAscii(device.out, Handshake.helloLine(device.deviceId, device.sessionId));
+                } else {
+                    device.ready = true;
+                }
+                senders[i % threadCount].add(device);
+            }
+
+            running = true;
+            long start = System.nanoTime();
+            for (Sender sender : senders) {
+                sender.start();
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(settings.seconds));
+            running = false;
+            long elapsedNanos = System.nanoTime() - start;
+            // 二进制模式下各线程还会等待剩余的 ACK
+            for (Sender sender : senders) {
+                sender.join();
+            }
+            Result result = new Result();
+            result.elapsedSeconds = elapsedNanos / 1e9;
+            result.sent = sent.sum();
+            result.samples = samples.sum();
+            result.skipped = skipped.sum();
+            result.acked = acked.sum();
+            return result;
+        } finally {
+            for (Sender sender : senders) {
+                sender.closeAll();
+            }
+        }
+    }
+
+    private final class Sender extends Thread {
+        private final Selector selector;
+        private final Device[] devices;
+        private int deviceCount;
+        private final StringBuilder line = new StringBuilder(MAX_MESSAGE_BYTES);
+        private final FrameEncoder encoder = new FrameEncoder();
+
+        Sender(int index, int capacity) throws IOException {
+            super("load-sender-" + index);
+            selector = Selector.open();
+            devices = new Device[capacity];
+        }
+
+        void add(Device device) throws IOException {
+            device.channel.register(selector, SelectionKey.OP_READ, device);
+            devices[deviceCount++] = device;
+        }
+
+        @Override
+        public void run() {
+            long periodNanos = TimeUnit.SECONDS.toNanos(1) / settings.rateHz;
+            long nextTick = System.nanoTime();
+            long tick = 0;
+            try {
+                flushAll();
+                while (running) {
+                    long now = System.nanoTime();
+                    if (now >= nextTick) {
+                        for (int i = 0; i < deviceCount; i++) {
+                            sendOne(devices[i], tick, now, periodNanos);
+                        }
+                        flushAll();
+                        tick++;
+                        nextTick += periodNanos;
+                        if (now - nextTick > MAX_LAG_TICKS * periodNanos) {
+                            nextTick = now;
+                        }
+                    }
+                    long waitMillis = TimeUnit.NANOSECONDS.toMillis(nextTick - System.nanoTime());
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                    readReplies();
+                }
+                if (settings.binary) {
+                    drainAcks();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(getName() + " failed", e);
+            }
+        }
+
+        private void sendOne(Device device, long tick, long nowNanos, long periodNanos) {
+            if (!device.ready) {
+                return;
+            }
+            ByteBuffer out = device.out;
+            if (out.remaining() < messageBytes) {
+                skipped.increment();
+                return;
+            }
+            int step = (int) ((tick + device.index) % WAVEFORM_LENGTH);
+            if (settings.binary) {
+                int n = settings.samplesPerFrame;
+                // 第一个采样在一个周期之前，最后一个在此刻
+                long first = nowNanos - periodNanos + periodNanos / n;
+                long interval = periodNanos / n;
+                encoder.begin(out, device.deviceId, device.nextSequence++, first);
+                putBlock(WireFormat.SENSOR_LOCATION, 2, step, 0, first, interval);
+                putBlock(WireFormat.SENSOR_ACCELEROMETER, 3, step, 2, first, interval);
+                putBlock(WireFormat.SENSOR_ORIENTATION, 3, step, 5, first, interval);
+                putBlock(WireFormat.SENSOR_LIGHT, 1, step, 8, first, interval);
+                encoder.end();
+                samples.add(n);
+            } else {
+                out.put(JSON_LINES[step]);
+                samples.increment();
+            }
+            sent.increment();
+        }
+
+        private void putBlock(int sensorId, int channels, int step, int offset, long firstNanos, long intervalNanos) {
+            encoder.beginBlock(sensorId, channels);
+            for (int k = 0; k < settings.samplesPerFrame; k++) {
+                float[] w = WAVEFORM[(step * settings.samplesPerFrame + k) % WAVEFORM_LENGTH];
+                encoder.putSample(firstNanos + k * intervalNanos, w, offset);
+            }
+            encoder.endBlock();
+        }
+
+        private void flushAll() throws IOException {
+            for (int i = 0; i < deviceCount; i++) {
+                flush(devices[i]);
+            }
+        }
+
+        private void flush(Device device) throws IOException {
+            ByteBuffer out = device.out;
+            if (out.position() > 0) {
+                out.flip();
+                device.channel.write(out);
+                out.compact();
+            }
+        }
+
+        private void readReplies() throws IOException {
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                Device device = (Device) key.attachment();
+                if (device.channel.read(device.in) < 0) {
+                    throw new IOException("Receiver closed device " + device.index);
+                }
+                scanLines(device);
+                if (device.pongPending) {
+                    device.pongPending = false;
+                    flush(device);
+                }
+            }
+        }
+
+        private void scanLines(Device device) {
+            ByteBuffer in = device.in;
+            int start = 0;
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) != '\n') {
+                    continue;
+                }
+                line.setLength(0);
+                for (int j = start; j < i; j++) {
+                    line.append((char) in.get(j));
+                }
+                onLine(device, line);
+                start = i + 1;
+            }
+            in.flip();
+            in.position(start);
+            in.compact();
+        }
+
+        private void onLine(Device device, StringBuilder reply) {
+            long ack = Handshake.parseAck(reply);
+            long ping;
+            if (ack >= 0) {
+                if (ack > device.lastAck) {
+                    acked.add(ack - device.lastAck);
+                    device.lastAck = ack;
+                }
+            } else if ((ping = Handshake.parsePing(reply)) >= 0) {
+                // 与手机一样立即应答，采样时间戳用的也是 System.nanoTime()
+                if (device.out.remaining() >= WireFormat.HEADER_SIZE) {
+                    encoder.begin(device.out, device.deviceId, ping, System.nanoTime(), WireFormat.FLAG_CLOCK_PONG);
+                    encoder.end();
+                    device.pongPending = true;
+                }
+            } else if (!device.ready && Handshake.isAccept(reply.toString())) {
+                device.ready = true;
+            }
+        }
+
+        private void drainAcks() throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACK_DRAIN_MILLIS);
+            while (System.nanoTime() < deadline) {
+                flushAll();
+                boolean done = true;
+                for (int i = 0; i < deviceCount; i++) {
+                    Device d = devices[i];
+                    if (d.out.position() > 0 || d.lastAck + 1 < d.nextSequence) {
+                        done = false;
+                        break;
+                    }
+                }
+                if (done) {
+                    return;
+                }
+                selector.select(10);
+                readReplies();
+            }
+        }
+
+        void closeAll() {
+            for (int i = 0; i < deviceCount; i++) {
+                try {
+                    devices[i].channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** 第 i 个回环地址，从 127.0.0.2 开始 */
+    static String sourceAddress(int i) {
+        int host = i + 2;
+        return "127.0." + (host >> 8) + "." + (host & 0xff);
+    }
+
+    private static void putAscii(ByteBuffer out, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host":
+                    settings.host = value;
+                    break;
+                case "--port":
+                    settings.port = Integer.parseInt(value);
+                    break;
+                case "--devices":
+                    settings.devices = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    settings.rateHz = Integer.parseInt(value);
+                    break;
+                case "--seconds":
+                    settings.seconds = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    settings.threads = Integer.parseInt(value);
+                    break;
+                case "--samples":
+                    settings.samplesPerFrame = Integer.parseInt(value);
+                    break;
+                case "--source-ips":
+                    settings.sourceAddresses = Integer.parseInt(value);
+                    break;
+                case "--mode":
+                    settings.binary = "binary".equals(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        System.out.println("Simulating " + settings.devices + " devices at " + settings.rateHz + " Hz ("
+                + (settings.binary ? "binary, " + settings.samplesPerFrame + " samples per frame" : "JSON") + ") for "
+                + settings.seconds + " s");
+        Result result = new LoadGenerator(settings).run();
+        System.out.println(result);
+    }
+}
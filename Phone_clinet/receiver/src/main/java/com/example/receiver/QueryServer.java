@@ -0,0 +1,286 @@
+package com.example.receiver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 给看板用的 HTTP 查询接口，数据来自 {@link RollupStore}，不读磁盘：
+ *
+ * <pre>
+ * GET /api/devices
+ *     {"devices":["192.168.1.5",...],"channels":["Latitude",...]}
+ * GET /api/query?device=192.168.1.5&amp;channel=Light&amp;from=2024-05-01T12:00:00Z&amp;to=1714572000000&amp;resolution=60000
+ *     {"device":"192.168.1.5","channel":"Light","resolution":60000,
+ *      "points":[{"t":1714564800000,"count":3000,"min":98.5,"max":120.1,"mean":110.2},...]}
+ * </pre>
+ * device 省略或为 * 时合并全部设备；to 默认当前时刻，from 默认 to 前一小时，resolution（毫秒）默认把范围分成约 500 个点。
+ * 时间格式与 {@link CsvExport} 相同。参数错误返回 400。
+ *
+ * <pre>
+ * GET /api/live?devices=192.168.1.5,192.168.1.6&amp;channels=Light,Accelerometer_x
+ *     text/event-stream，每个事件一帧，格式见 {@link LiveHub}
+ * </pre>
+ * 实时推送（Server-Sent Events）的设备和通道省略时表示全部。每个订阅占一个线程，空闲时每 15 秒发一行注释保活。
+ *
+ * <pre>
+ * GET /api/latency
+ *     启动以来抽样追踪的各环节延迟，格式见 {@link LatencyTracer#appendJson}
+ * </pre>
+ */
+public class QueryServer implements Closeable {
+    private static final Logger LOG = Logger.getLogger(QueryServer.class.getName());
+    private static final long DEFAULT_RANGE_MILLIS = 3_600_000L;
+    private static final int DEFAULT_POINTS = 500;
+    private static final long KEEPALIVE_SECONDS = 15;
+
+    private final RollupStore rollups;
+    private final LiveHub live;
+    private final LatencyTracer latency;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param live 实时推送，null 表示不提供 /api/live
+     * @param port 0 表示由系统分配，启动后用 getPort() 查询
+     */
+    public QueryServer(RollupStore rollups, LiveHub live, String host, int port) throws IOException {
+        this(rollups, live, null, host, port);
+    }
+
+    /**
+     * @param latency 延迟追踪，null 表示不提供 /api/latency
+     */
+    public QueryServer(RollupStore rollups, LiveHub live, LatencyTracer latency, String host, int port)
+            throws IOException {
+        this.rollups = rollups;
+        this.live = live;
+        this.latency = latency;
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        // 实时推送的连接一直占着线程
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "query-http");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/devices", this::handleDevices);
+        server.createContext("/api/query", this::handleQuery);
+        if (live != null) {
+            server.createContext("/api/live", this::handleLive);
+        }
+        if (latency != null) {
+            server.createContext("/api/latency", this::handleLatency);
+        }
+    }
+
+    public void start() {
+        server.start();
+        LOG.info("Query API listening on port " + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleDevices(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder("{\"devices\":[");
+        appendStrings(json, rollups.devices().toArray(new String[0]));
+        json.append("],\"channels\":[");
+        appendStrings(json, RollupStore.CHANNELS);
+        json.append("]}");
+        respond(exchange, 200, json);
+    }
+
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String device = params.get("device");
+        if (device != null && (device.isEmpty() || device.equals("*"))) {
+            device = null;
+        }
+        String channelName = params.getOrDefault("channel", "");
+        int channel = RollupStore.channelIndex(channelName);
+        RollupStore.Series series;
+        try {
+            if (channel < 0) {
+                throw new IllegalArgumentException("unknown channel " + channelName);
+            }
+            long to = params.containsKey("to") ? CsvExport.parseTime(params.get("to")) : System.currentTimeMillis();
+            long from = params.containsKey("from") ? CsvExport.parseTime(params.get("from")) : to - DEFAULT_RANGE_MILLIS;
+            long resolution = params.containsKey("resolution")
+                    ? Long.parseLong(params.get("resolution")) : (to - from) / DEFAULT_POINTS;
+            series = rollups.query(device, channel, from, to, resolution);
+        } catch (RuntimeException e) {
+            StringBuilder json = new StringBuilder("{\"error\":");
+            appendString(json, String.valueOf(e.getMessage()));
+            respond(exchange, 400, json.append('}'));
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(64 + series.size() * 96);
+        json.append("{\"device\":");
+        if (device == null) {
+            json.append("null");
+        } else {
+            appendString(json, device);
+        }
+        json.append(",\"channel\":");
+        appendString(json, RollupStore.CHANNELS[channel]);
+        json.append(",\"resolution\":").append(series.resolutionMillis).append(",\"points\":[");
+        for (int i = 0; i < series.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"t\":").append(series.start(i)).append(",\"count\":").append(series.count(i));
+            json.append(",\"min\":");
+            appendNumber(json, series.min(i));
+            json.append(",\"max\":");
+            appendNumber(json, series.max(i));
+            json.append(",\"mean\":");
+            appendNumber(json, series.mean(i));
+            json.append('}');
+        }
+        json.append("]}");
+        respond(exchange, 200, json);
+    }
+
+    private void handleLatency(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder(1024);
+        latency.appendJson(json);
+        respond(exchange, 200, json);
+    }
+
+    private void handleLive(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        LiveHub.Subscriber subscriber;
+        try {
+            subscriber = live.subscribe(new HashSet<>(splitList(params.get("devices"))),
+                    splitList(params.get("channels")), LiveHub.DEFAULT_QUEUE_FRAMES);
+        } catch (IllegalArgumentException e) {
+            StringBuilder json = new StringBuilder("{\"error\":");
+            appendString(json, String.valueOf(e.getMessage()));
+            respond(exchange, 400, json.append('}'));
+            return;
+        }
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write(": subscribed\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            while (!subscriber.isClosed()) {
+                String frame = subscriber.poll(KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+                out.write((frame != null ? "data: " + frame + "\n\n" : ": keepalive\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // 浏览器关闭了页面
+            LOG.log(Level.FINE, "Live subscriber went away", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            live.unsubscribe(subscriber);
+            exchange.close();
+        }
+    }
+
+    private static List<String> splitList(String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(value.trim().split("\\s*,\\s*"));
+    }
+
+    private static void respond(HttpExchange exchange, int status, CharSequence body) throws IOException {
+        try {
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            // 看板由 Flask 在 8080 端口提供
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Failed to send response", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void appendStrings(StringBuilder json, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, values[i]);
+        }
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    // JSON 没有 NaN / Infinity
+    static void appendNumber(StringBuilder json, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else {
+            json.append(value);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.SensorConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 命令行入口：在 8888 端口接收手机数据并写入 data/store 下的 {@link ColumnStore}，与 receiver.py 的 socket_server 部分对应。
+ * --format csv 时仍像 receiver.py 那样直接写 data/ 下的 CSV；列式存储的数据可以用 {@link CsvExport} 离线导出成同样的 CSV。
+ * 同时在内存中维护 {@link RollupStore}，由 8081 端口的 {@link QueryServer} 提供给看板按时间范围查询，
+ * 并通过 {@link LiveHub} 按 --live-fps 合并成帧实时推送；--http-port 0 表示都关闭。
+ * 特征模式的手机上传的窗口特征写入 data/features 下的 CSV，见 {@link FeatureCsvSink}。
+ * 开启死区过滤的手机按 --heartbeat-ms 发心跳关键帧，没变的传感器由接收端保持，见 {@link StepHold}。
+ * 入库和推送按设备分到 --partitions 个分区线程并行完成（默认等于 CPU 核数），0 表示在网络线程内直接入库，
+ * 见 {@link IngestPipeline}；各分区的队列深度和等待时间随统计一起打印。
+ * UDP 实时模式的手机把数据报发到 --udp-port（默认与 --port 相同），0 表示不接收 UDP，见 {@link DatagramReceiver}。
+ * 手机抽样追踪的端到端延迟随统计一起打印，也可以从 /api/latency 查询，见 {@link LatencyTracer}；
+ * 用 {@link CsvReplay} 回放已有的 CSV 可以在没有手机时测量。
+ *
+ * <pre>
+ * java -jar receiver.jar [--port 8888] [--http-port 8081] [--live-fps 20] [--data data] [--format columns|csv] [--workers N]
+ *     [--udp-port 8888] [--partitions N] [--clock-sync-ms 2000] [--heartbeat-ms 5000]
+ *     [--sensors "Accelerometer=5000/1000000 Gyroscope=5000/1000000 Orientation=off"]
+ * </pre>
+ */
+public final class ReceiverMain {
+    private static final Logger LOG = Logger.getLogger(ReceiverMain.class.getName());
+    private static final long FLUSH_INTERVAL_SECONDS = 1;
+    private static final long STATS_INTERVAL_SECONDS = 10;
+
+    private ReceiverMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        ReceiverServer.Settings settings = new ReceiverServer.Settings();
+        settings.ingestPartitions = Runtime.getRuntime().availableProcessors();
+        File dataDir = new File("data");
+        boolean csvFormat = false;
+        int httpPort = 8081;
+        int liveFps = LiveHub.DEFAULT_FPS;
+        int udpPort = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    settings.port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--udp-port":
+                    udpPort = Integer.parseInt(args[i + 1]);
+                    if (udpPort < 0) {
+                        throw new IllegalArgumentException("--udp-port must not be negative");
+                    }
+                    break;
+                case "--http-port":
+                    httpPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--live-fps":
+                    liveFps = Integer.parseInt(args[i + 1]);
+                    if (liveFps <= 0) {
+                        throw new IllegalArgumentException("--live-fps must be positive");
+                    }
+                    break;
+                case "--data":
+                    dataDir = new File(args[i + 1]);
+                    break;
+                case "--format":
+                    if (!args[i + 1].equals("csv") && !args[i + 1].equals("columns")) {
+                        throw new IllegalArgumentException("Unknown format " + args[i + 1]);
+                    }
+                    csvFormat = args[i + 1].equals("csv");
+                    break;
+                case "--workers":
+                    settings.workerThreads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--partitions":
+                    settings.ingestPartitions = Integer.parseInt(args[i + 1]);
+                    if (settings.ingestPartitions < 0) {
+                        throw new IllegalArgumentException("--partitions must not be negative");
+                    }
+                    break;
+                case "--clock-sync-ms":
+                    settings.clockSyncIntervalMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--heartbeat-ms":
+                    settings.heartbeatMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--sensors":
+                    settings.sensorConfig = SensorConfig.parse(SensorConfig.PREFIX + args[i + 1]);
+                    if (settings.sensorConfig == null) {
+                        throw new IllegalArgumentException("Malformed sensor settings: " + args[i + 1]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (udpPort < 0) {
+            settings.udpPort = settings.port;
+        } else {
+            settings.udpPort = udpPort == 0 ? -1 : udpPort;
+        }
+
+        RecordSink sink;
+        Runnable flush;
+        Closeable store;
+        if (csvFormat) {
+            CsvSink csv = new CsvSink(dataDir);
+            sink = csv;
+            flush = csv::flush;
+            store = csv;
+        } else {
+            ColumnStore columns = new ColumnStore(new File(dataDir, "store"));
+            sink = columns;
+            flush = columns::flush;
+            store = columns;
+        }
+        LatencyTracer latency = new LatencyTracer();
+        QueryServer query = null;
+        LiveHub live = null;
+        if (httpPort > 0) {
+            RollupStore rollups = new RollupStore();
+            live = new LiveHub(liveFps);
+            sink = new FanOutSink(sink, rollups, live);
+            query = new QueryServer(rollups, live, latency, settings.host, httpPort);
+            query.start();
+        }
+        FeatureCsvSink features = new FeatureCsvSink(new File(dataDir, "features"));
+        ReceiverServer server = new ReceiverServer(settings, sink, features, latency);
+        server.start();
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "receiver-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> {
+            flush.run();
+            features.flush();
+        }, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        long[] lastRecords = {0};
+        timer.scheduleAtFixedRate(() -> {
+            long total = server.getRecordCount();
+            LOG.info(String.format(
+                    "connections=%d records/s=%.0f features=%d duplicates=%d malformed=%d clockSamples=%d",
+                    server.getConnectionCount(), (total - lastRecords[0]) / (double) STATS_INTERVAL_SECONDS,
+                    server.getFeatureCount(), server.getDuplicateCount(), server.getMalformedCount(),
+                    server.getClockSampleCount()));
+            lastRecords[0] = total;
+            if (server.getUdpPort() >= 0) {
+                LOG.info(String.format("udp datagrams=%d lost=%d late=%d duplicates=%d",
+                        server.getDatagramCount(), server.getDatagramLostCount(), server.getDatagramLateCount(),
+                        server.getDatagramDuplicateCount()));
+            }
+            IngestPipeline pipeline = server.getIngestPipeline();
+            if (pipeline != null) {
+                LOG.info("ingest " + pipeline.summary());
+            }
+            if (latency.getTraceCount() > 0) {
+                LOG.info("latency " + latency.summary());
+            }
+            FleetMetrics fleet = server.getFleetMetrics();
+            long now = System.currentTimeMillis();
+            if (fleet.activeDevices(now) > 0) {
+                LOG.info("fleet " + fleet.summary(now));
+            }
+        }, STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        QueryServer queryServer = query;
+        LiveHub liveHub = live;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (queryServer != null) {
+                liveHub.close();
+                queryServer.close();
+            }
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOG.warning("Failed to close store: " + e.getMessage());
+            }
+            features.close();
+        }, "receiver-shutdown"));
+    }
+}
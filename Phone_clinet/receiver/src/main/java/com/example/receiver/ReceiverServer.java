@@ -0,0 +1,453 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.FrameDecoder;
+import com.example.sensorprotocol.SensorConfig;
+import com.example.sensorprotocol.WindowFeatures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 接收手机数据的 TCP 服务器，协议与 receiver.py 的 socket_server 相同：换行分隔的 JSON，
+ * 或 Hello 握手后的二进制帧（带 ACK 和按会话去重）。
+ *
+ * 一个线程阻塞 accept，新连接轮流分给固定数量的网络线程；每个网络线程用一个 Selector 管理自己的全部连接，
+ * 读取、解析、时钟换算和保持都在这个线程内完成。线程数与连接数无关。
+ * 设置了入库分区时，记录经 {@link IngestPipeline} 按设备分到各分区线程入库，网络线程不等下游；
+ * 否则在网络线程内直接交给 {@link RecordSink}。
+ * 网络线程还定时给二进制连接发 PING，估计每台手机的时钟偏差，见 {@link ClockEstimator}。
+ * 构造时给了 {@link FeatureSink} 才在握手时声明接收特征帧，否则特征模式的手机仍发送原始采样。
+ * 设置了 UDP 端口时另有一个线程接收 UDP 实时模式的数据报，见 {@link DatagramReceiver}。
+ * 握手时总是声明 trace，手机抽样追踪的记录在交给 sink 之后打上入库时刻，各环节的延迟见 {@link LatencyTracer}。
+ */
+public class ReceiverServer implements Closeable {
+    private static final Logger LOG = Logger.getLogger(ReceiverServer.class.getName());
+
+    /** 服务器参数 */
+    public static class Settings {
+        public String host = "0.0.0.0";
+        // 0 表示由系统分配，启动后用 getPort() 查询
+        public int port = 8888;
+        public int workerThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        // 大量设备同时连接时 accept 队列不能太短
+        public int backlog = 1024;
+        // 时钟同步 PING 的间隔，0 表示不发送，记录只有到达时刻
+        public long clockSyncIntervalMillis = 2000;
+        // 握手后下发给手机的采集设置（SensorConfig），null 表示沿用手机自己的设置
+        public SensorConfig sensorConfig;
+        // 死区过滤的心跳间隔，握手时告诉手机；超过两个间隔没有收到的传感器不再保持。0 表示不接收死区过滤帧
+        public long heartbeatMillis = 5000;
+        // 入库分区数（线程数），见 IngestPipeline；0 表示在网络线程内直接入库
+        public int ingestPartitions = 0;
+        public int ingestQueueCapacity = IngestPipeline.DEFAULT_QUEUE_CAPACITY;
+        // UDP 实时模式的端口，-1 表示不接收，0 表示由系统分配，启动后用 getUdpPort() 查询
+        public int udpPort = -1;
+        // 没有连接的会话（去重序号、时钟估计、保持值）保留多久，手机在这段时间内重连可以接着用
+        public long sessionIdleMillis = TimeUnit.MINUTES.toMillis(30);
+    }
+
+    // 检查是否该发 PING 的周期
+    private static final long TIMER_MILLIS = 50;
+
+    private final Settings settings;
+    private final RecordSink sink;
+    private final FeatureSink featureSink;
+    final SessionTable sessions;
+    final FleetMetrics fleetMetrics = new FleetMetrics();
+    final LatencyTracer latencyTracer;
+
+    final LongAdder records = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder malformed = new LongAdder();
+    final LongAdder clockSamples = new LongAdder();
+    final LongAdder features = new LongAdder();
+    final LongAdder datagrams = new LongAdder();
+    final LongAdder datagramsLost = new LongAdder();
+    final LongAdder datagramsLate = new LongAdder();
+    final LongAdder datagramDuplicates = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private Worker[] workers;
+    private IngestPipeline pipeline;
+    private DatagramReceiver datagramReceiver;
+    private volatile boolean running;
+
+    public ReceiverServer(Settings settings, RecordSink sink) {
+        this(settings, sink, null);
+    }
+
+    /**
+     * @param featureSink 特征模式上传的窗口特征的去处，null 表示不接收特征帧
+     */
+    public ReceiverServer(Settings settings, RecordSink sink, FeatureSink featureSink) {
+        this(settings, sink, featureSink, new LatencyTracer());
+    }
+
+    /**
+     * @param latencyTracer 延迟追踪的统计，可与 {@link QueryServer} 共用
+     */
+    public ReceiverServer(Settings settings, RecordSink sink, FeatureSink featureSink, LatencyTracer latencyTracer) {
+        this.settings = settings;
+        this.sink = sink;
+        this.featureSink = featureSink;
+        this.latencyTracer = latencyTracer;
+        sessions = new SessionTable(settings.sessionIdleMillis);
+    }
+
+    boolean acceptsFeatures() {
+        return featureSink != null;
+    }
+
+    long heartbeatMillis() {
+        return settings.heartbeatMillis;
+    }
+
+    long holdNanos() {
+        return 2 * settings.heartbeatMillis * 1_000_000L;
+    }
+
+    /**
+     * @return 握手后发给手机的 CONFIG 行，没有设置时返回 null
+     */
+    String sensorConfigLine() {
+        SensorConfig config = settings.sensorConfig;
+        return config == null ? null : config.toLine();
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(settings.host, settings.port), settings.backlog);
+        if (settings.ingestPartitions > 0) {
+            pipeline = new IngestPipeline(settings.ingestPartitions, settings.ingestQueueCapacity, r -> {
+                sink.accept(r);
+                records.increment();
+                markStored(r);
+            });
+        }
+        if (settings.udpPort >= 0) {
+            try {
+                datagramReceiver = new DatagramReceiver(this, new InetSocketAddress(settings.host, settings.udpPort),
+                        settings.clockSyncIntervalMillis);
+            } catch (IOException e) {
+                serverChannel.close();
+                if (pipeline != null) {
+                    pipeline.close();
+                }
+                throw e;
+            }
+        }
+        running = true;
+        workers = new Worker[settings.workerThreads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+        acceptor = new Thread(this::acceptLoop, "receiver-accept");
+        acceptor.start();
+        if (datagramReceiver != null) {
+            datagramReceiver.start();
+        }
+        LOG.info("Receiver listening on " + serverChannel.getLocalAddress() + " with " + workers.length
+                + " network threads" + (pipeline == null ? "" : " and " + pipeline.getPartitionCount()
+                + " ingest partitions") + (datagramReceiver == null ? "" : ", UDP port " + getUdpPort()));
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /** UDP 端口，没有接收 UDP 时返回 -1 */
+    public int getUdpPort() {
+        return datagramReceiver == null ? -1 : datagramReceiver.getPort();
+    }
+
+    /** 入库流水线，没有设置分区时为 null */
+    public IngestPipeline getIngestPipeline() {
+        return pipeline;
+    }
+
+    /** 抽样追踪的端到端延迟 */
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    /** 各手机上报的运行指标 */
+    public FleetMetrics getFleetMetrics() {
+        return fleetMetrics;
+    }
+
+    /** 已交给 sink 的记录数 */
+    public long getRecordCount() {
+        return records.sum();
+    }
+
+    /** 因重发而丢弃的二进制帧数 */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /** 无法解析或不含传感器数据的 JSON 行数，以及无法解析的数据报数 */
+    public long getMalformedCount() {
+        return malformed.sum();
+    }
+
+    /** 收到的时钟同步应答数 */
+    public long getClockSampleCount() {
+        return clockSamples.sum();
+    }
+
+    /** 已交给 FeatureSink 的窗口特征数 */
+    public long getFeatureCount() {
+        return features.sum();
+    }
+
+    /** 收到的 UDP 数据报数 */
+    public long getDatagramCount() {
+        return datagrams.sum();
+    }
+
+    /** 按序号推算没有收到的数据报数，后来乱序到达的不算 */
+    public long getDatagramLostCount() {
+        return datagramsLost.sum();
+    }
+
+    /** 比已交付的序号旧、因此丢弃的数据报数 */
+    public long getDatagramLateCount() {
+        return datagramsLate.sum();
+    }
+
+    /** 重复收到而丢弃的数据报数 */
+    public long getDatagramDuplicateCount() {
+        return datagramDuplicates.sum();
+    }
+
+    /** 保存的会话数，包括最近断开、可能重连的 */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getConnectionCount() {
+        return connections.sum();
+    }
+
+    void deliver(SensorRecord record) {
+        if (pipeline != null) {
+            pipeline.accept(record);
+            return;
+        }
+        records.increment();
+        sink.accept(record);
+        markStored(record);
+    }
+
+    private static void markStored(SensorRecord record) {
+        if (record.trace != null) {
+            record.trace.mark(LatencyTracer.STORE, ClockEstimator.wallNanos());
+        }
+    }
+
+    void deliverFeatures(String userId, long capturedMillis, WindowFeatures f) {
+        features.increment();
+        featureSink.accept(userId, capturedMillis, f);
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(Level.WARNING, "Accept failed", e);
+                }
+                continue;
+            }
+            workers[next].add(channel);
+            next = (next + 1) % workers.length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (workers != null) {
+            for (Worker worker : workers) {
+                worker.selector.wakeup();
+            }
+            try {
+                acceptor.join();
+                for (Worker worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (datagramReceiver != null) {
+            datagramReceiver.close();
+        }
+        // 网络线程都停了再关，已排队的记录照常入库
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private final class Worker extends Thread {
+        final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        // 同一线程内的连接共用解析器
+        private final JsonLineParser parser = new JsonLineParser();
+        private final FrameDecoder decoder = new FrameDecoder();
+        private long nextTimerNanos;
+
+        Worker(int index) throws IOException {
+            super("receiver-net-" + index);
+            selector = Selector.open();
+        }
+
+        void add(SocketChannel channel) {
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                long pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(settings.clockSyncIntervalMillis);
+                while (running) {
+                    if (pingIntervalNanos > 0) {
+                        selector.select(TIMER_MILLIS);
+                    } else {
+                        selector.select();
+                    }
+                    registerIncoming();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        handle(key);
+                    }
+                    if (pingIntervalNanos > 0) {
+                        onTimer(pingIntervalNanos);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, getName() + " stopped", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close((Connection) key.attachment());
+                }
+                SocketChannel channel;
+                while ((channel = incoming.poll()) != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void registerIncoming() {
+            SocketChannel channel;
+            while ((channel = incoming.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+                    Connection connection = new Connection(ReceiverServer.this, channel,
+                            remote.getAddress().getHostAddress());
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.increment();
+                    LOG.fine("Connection from " + remote + " established");
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to register connection", e);
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                boolean open = true;
+                if (key.isReadable()) {
+                    open = connection.onReadable(parser, decoder);
+                }
+                if (open && key.isValid() && key.isWritable()) {
+                    open = connection.flushReplies();
+                }
+                if (!open) {
+                    close(connection);
+                }
+            } catch (IOException e) {
+                LOG.fine("[" + connection.userId + "] Connection error: " + e.getMessage());
+                close(connection);
+            }
+        }
+
+        private void onTimer(long pingIntervalNanos) {
+            long now = System.nanoTime();
+            if (now - nextTimerNanos < 0) {
+                return;
+            }
+            nextTimerNanos = now + TimeUnit.MILLISECONDS.toNanos(TIMER_MILLIS);
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    connection.onTimer(now, pingIntervalNanos);
+                } catch (IOException e) {
+                    LOG.fine("[" + connection.userId + "] Connection error: " + e.getMessage());
+                    close(connection);
+                }
+            }
+        }
+
+        private void close(Connection connection) {
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+            if (connection.key != null) {
+                connection.key.cancel();
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException ignored) {
+            }
+            connection.onClosed();
+            connections.decrement();
+            LOG.fine("[" + connection.userId + "] Connection closed");
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.receiver;
+
+/**
+ * 解析后的数据的去处。由各个网络线程并发调用，实现需自行保证线程安全，且不应长时间阻塞。
+ */
+public interface RecordSink {
+    /**
+     * @param record 调用返回后即被复用，不能保留引用
+     */
+    void accept(SensorRecord record);
+}
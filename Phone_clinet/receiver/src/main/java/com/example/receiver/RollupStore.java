@@ -0,0 +1,351 @@
+package com.example.receiver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入库时增量维护的时间汇总（rollup），供 {@link QueryServer} 按时间范围查询，不必扫描原始记录。
+ *
+ * 每台设备的每个通道（列名与 CSV 表头相同，见 {@link #CHANNELS}）按 1 秒、10 秒、1 分钟、10 分钟四档分桶，
+ * 每个桶保存 count、min、max、sum。每档是一个环形数组，只保留最近的 {@link #TIER_BUCKETS} 个桶：
+ * 1 秒档 5 分钟、10 秒档 2 小时、1 分钟档 24 小时、10 分钟档 7 天。桶按设备的最新数据推进，比最旧桶更早的迟到数据丢弃。
+ * 通道在第一次有数据时才分配，每台设备全部通道约占 0.7MB。
+ *
+ * 采样时间比接收时刻（{@link SensorRecord#receivedMillis}）晚 {@link #MAX_AHEAD_MILLIS} 以上的记录不计入：
+ * 多半是手机时钟或时钟估计出了错，否则一条这样的记录就会把各档推到未来，之后的正常数据全部当作迟到数据丢掉。
+ *
+ * 查询时选不细于所需分辨率、且仍覆盖查询起点的最粗一档，再把桶合并到所需分辨率：
+ * 24 小时、500 个点的图只读 1440 个 1 分钟桶。
+ *
+ * 同一设备的写入与查询互斥，不同设备之间互不影响。
+ */
+public class RollupStore implements RecordSink {
+    /** 通道名，与 CSV 表头（{@link CsvSink}）的列名相同 */
+    public static final String[] CHANNELS = {
+            "Latitude", "Longitude",
+            "Accelerometer_x", "Accelerometer_y", "Accelerometer_z",
+            "Orientation_azimuth", "Orientation_pitch", "Orientation_roll",
+            "Light"
+    };
+    static final int CHANNEL_COUNT = CHANNELS.length;
+
+    static final long[] TIER_MILLIS = {1_000, 10_000, 60_000, 600_000};
+    static final int[] TIER_BUCKETS = {300, 720, 1440, 1008};
+    // 一次查询最多返回的点数，超过时自动降低分辨率
+    public static final int MAX_POINTS = 10_000;
+    // 采样时间最多比接收时刻晚多少，留出时钟估计的误差
+    static final long MAX_AHEAD_MILLIS = 10_000;
+
+    private final ConcurrentHashMap<String, DeviceRollups> devices = new ConcurrentHashMap<>();
+    private final LongAdder futureRecords = new LongAdder();
+
+    /**
+     * @return 通道下标，名称不区分大小写；未知通道返回 -1
+     */
+    public static int channelIndex(String name) {
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            if (CHANNELS[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void accept(SensorRecord r) {
+        long timestamp = r.timestampMillis();
+        if (timestamp - r.receivedMillis > MAX_AHEAD_MILLIS) {
+            futureRecords.increment();
+            return;
+        }
+        DeviceRollups rollups = devices.computeIfAbsent(r.userId, id -> new DeviceRollups());
+        synchronized (rollups) {
+            for (Tier tier : rollups.tiers) {
+                int slot = tier.prepare(Math.floorDiv(timestamp, tier.width));
+                if (slot < 0) {
+                    continue;
+                }
+                if (r.hasLocation) {
+                    tier.add(slot, 0, r.latitude);
+                    tier.add(slot, 1, r.longitude);
+                }
+                if (r.hasAccelerometer) {
+                    tier.add(slot, 2, r.accelerometer[0]);
+                    tier.add(slot, 3, r.accelerometer[1]);
+                    tier.add(slot, 4, r.accelerometer[2]);
+                }
+                if (r.hasOrientation) {
+                    tier.add(slot, 5, r.orientation[0]);
+                    tier.add(slot, 6, r.orientation[1]);
+                    tier.add(slot, 7, r.orientation[2]);
+                }
+                if (r.hasLight) {
+                    tier.add(slot, 8, r.light);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 因采样时间在未来而没有计入的记录数
+     */
+    public long getFutureRecords() {
+        return futureRecords.sum();
+    }
+
+    /**
+     * @return 有数据的设备，已排序
+     */
+    public List<String> devices() {
+        List<String> list = new ArrayList<>(devices.keySet());
+        list.sort(null);
+        return list;
+    }
+
+    /**
+     * 查询 [fromMillis, toMillis) 内某通道的汇总，按 resolutionMillis 分桶。
+     *
+     * @param device 设备；null 表示合并全部设备（count 和 sum 相加，min/max 取极值）
+     * @return 只含有数据的桶；实际分辨率是所用档位宽度的整数倍，可能比请求的粗
+     */
+    public Series query(String device, int channel, long fromMillis, long toMillis, long resolutionMillis) {
+        if (channel < 0 || channel >= CHANNEL_COUNT) {
+            throw new IllegalArgumentException("unknown channel " + channel);
+        }
+        if (toMillis <= fromMillis) {
+            throw new IllegalArgumentException("empty time range");
+        }
+        long span = toMillis - fromMillis;
+        long resolution = Math.max(Math.max(resolutionMillis, 1), (span + MAX_POINTS - 1) / MAX_POINTS);
+
+        List<DeviceRollups> sources = new ArrayList<>();
+        if (device == null) {
+            sources.addAll(devices.values());
+        } else {
+            DeviceRollups rollups = devices.get(device);
+            if (rollups != null) {
+                sources.add(rollups);
+            }
+        }
+        int tierIndex = 0;
+        while (tierIndex + 1 < TIER_MILLIS.length && TIER_MILLIS[tierIndex + 1] <= resolution) {
+            tierIndex++;
+        }
+        // 细档不覆盖查询起点时改用更粗的档
+        while (tierIndex + 1 < TIER_MILLIS.length && !covers(sources, tierIndex, fromMillis)) {
+            tierIndex++;
+        }
+        long width = TIER_MILLIS[tierIndex];
+        resolution = (resolution + width - 1) / width * width;
+
+        long firstKey = Math.floorDiv(fromMillis, width);
+        long lastKey = Math.floorDiv(toMillis - 1, width);
+        long firstStart = Math.floorDiv(firstKey * width, resolution) * resolution;
+        Series series = new Series(resolution, firstStart,
+                (int) ((lastKey * width - firstStart) / resolution + 1));
+        for (DeviceRollups rollups : sources) {
+            synchronized (rollups) {
+                rollups.tiers[tierIndex].collect(channel, firstKey, lastKey, series);
+            }
+        }
+        series.compact();
+        return series;
+    }
+
+    private static boolean covers(List<DeviceRollups> sources, int tierIndex, long fromMillis) {
+        for (DeviceRollups rollups : sources) {
+            synchronized (rollups) {
+                Tier tier = rollups.tiers[tierIndex];
+                if (tier.newestKey != Long.MIN_VALUE
+                        && Math.floorDiv(fromMillis, tier.width) <= tier.newestKey - tier.size) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** 查询结果，按时间排序 */
+    public static final class Series {
+        public final long resolutionMillis;
+        private final long firstStart;
+        private int size;
+        private final long[] starts;
+        private final long[] counts;
+        private final double[] mins;
+        private final double[] maxs;
+        private final double[] sums;
+
+        /**
+         * 按输出桶直接下标，合并多台设备时不用查找；结束后由 {@link #compact()} 去掉空桶。
+         */
+        Series(long resolutionMillis, long firstStart, int buckets) {
+            this.resolutionMillis = resolutionMillis;
+            this.firstStart = firstStart;
+            size = buckets;
+            starts = new long[buckets];
+            counts = new long[buckets];
+            mins = new double[buckets];
+            maxs = new double[buckets];
+            sums = new double[buckets];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long start(int i) {
+            return starts[i];
+        }
+
+        public long count(int i) {
+            return counts[i];
+        }
+
+        public double min(int i) {
+            return mins[i];
+        }
+
+        public double max(int i) {
+            return maxs[i];
+        }
+
+        public double mean(int i) {
+            return sums[i] / counts[i];
+        }
+
+        void merge(long bucketStartMillis, int count, float min, float max, double sum) {
+            int i = (int) ((bucketStartMillis - firstStart) / resolutionMillis);
+            if (counts[i] == 0) {
+                mins[i] = min;
+                maxs[i] = max;
+            } else {
+                if (min < mins[i]) {
+                    mins[i] = min;
+                }
+                if (max > maxs[i]) {
+                    maxs[i] = max;
+                }
+            }
+            counts[i] += count;
+            sums[i] += sum;
+        }
+
+        void compact() {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                starts[n] = firstStart + i * resolutionMillis;
+                counts[n] = counts[i];
+                mins[n] = mins[i];
+                maxs[n] = maxs[i];
+                sums[n] = sums[i];
+                n++;
+            }
+            size = n;
+        }
+    }
+
+    private static final class DeviceRollups {
+        final Tier[] tiers = new Tier[TIER_MILLIS.length];
+
+        DeviceRollups() {
+            for (int i = 0; i < tiers.length; i++) {
+                tiers[i] = new Tier(TIER_MILLIS[i], TIER_BUCKETS[i]);
+            }
+        }
+    }
+
+    /**
+     * 一档汇总：环形数组，槽位 key % size 保存第 key 个桶（key = 时间 / 宽度），keys 为各槽当前的桶号。
+     */
+    private static final class Tier {
+        final long width;
+        final int size;
+        final long[] keys;
+        // 按通道懒分配
+        final int[][] counts = new int[CHANNEL_COUNT][];
+        final float[][] mins = new float[CHANNEL_COUNT][];
+        final float[][] maxs = new float[CHANNEL_COUNT][];
+        final double[][] sums = new double[CHANNEL_COUNT][];
+        long newestKey = Long.MIN_VALUE;
+
+        Tier(long width, int size) {
+            this.width = width;
+            this.size = size;
+            keys = new long[size];
+            Arrays.fill(keys, Long.MIN_VALUE);
+        }
+
+        /**
+         * @return 桶 key 所在的槽位；桶已经滚出保留范围时返回 -1
+         */
+        int prepare(long key) {
+            if (newestKey != Long.MIN_VALUE && key <= newestKey - size) {
+                return -1;
+            }
+            int slot = (int) Math.floorMod(key, (long) size);
+            if (keys[slot] != key) {
+                keys[slot] = key;
+                for (int c = 0; c < CHANNEL_COUNT; c++) {
+                    if (counts[c] != null) {
+                        counts[c][slot] = 0;
+                        sums[c][slot] = 0;
+                    }
+                }
+            }
+            if (key > newestKey) {
+                newestKey = key;
+            }
+            return slot;
+        }
+
+        void add(int slot, int channel, double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            if (counts[channel] == null) {
+                counts[channel] = new int[size];
+                mins[channel] = new float[size];
+                maxs[channel] = new float[size];
+                sums[channel] = new double[size];
+            }
+            float v = (float) value;
+            int n = counts[channel][slot];
+            if (n == 0) {
+                mins[channel][slot] = v;
+                maxs[channel][slot] = v;
+            } else {
+                if (v < mins[channel][slot]) {
+                    mins[channel][slot] = v;
+                }
+                if (v > maxs[channel][slot]) {
+                    maxs[channel][slot] = v;
+                }
+            }
+            counts[channel][slot] = n + 1;
+            sums[channel][slot] += value;
+        }
+
+        void collect(int channel, long firstKey, long lastKey, Series out) {
+            int[] count = counts[channel];
+            if (count == null || newestKey == Long.MIN_VALUE) {
+                return;
+            }
+            long from = Math.max(firstKey, newestKey - size + 1);
+            long to = Math.min(lastKey, newestKey);
+            for (long key = from; key <= to; key++) {
+                int slot = (int) Math.floorMod(key, (long) size);
+                if (keys[slot] != key || count[slot] == 0) {
+                    continue;
+                }
+                out.merge(key * width, count[slot], mins[channel][slot], maxs[channel][slot], sums[channel][slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.WireFormat;
+
+/**
+ * 一条解析后的传感器数据，对应 receiver.py 中 parse_data 返回的字典和 CSV 中的一行。
+ * 每个连接复用同一个对象，交给 {@link RecordSink} 后内容随即被覆盖，需要保存时请自行复制。
+ */
+public final class SensorRecord {
+    /** 来源标识，与 receiver.py 一致使用对端 IP */
+    public String userId;
+    /** 接收时刻（毫秒，墙上时间） */
+    public long receivedMillis;
+    /** 采样时刻（毫秒，接收端墙上时间），由手机的采样时间戳按时钟偏差换算；未知时为 0 */
+    public long capturedMillis;
+
+    public boolean hasLocation;
+    public double latitude;
+    public double longitude;
+
+    public boolean hasAccelerometer;
+    public final double[] accelerometer = new double[3];
+
+    public boolean hasOrientation;
+    public final double[] orientation = new double[3];
+
+    public boolean hasLight;
+    public double light;
+
+    /** 手机抽样追踪的记录带着它的延迟追踪，下游在各环节打上时刻；绝大多数记录为 null */
+    public LatencyTracer.Trace trace;
+
+    /**
+     * @return 这条记录的时间：知道采样时刻时用采样时刻，否则用接收时刻
+     */
+    public long timestampMillis() {
+        return capturedMillis != 0 ? capturedMillis : receivedMillis;
+    }
+
+    /**
+     * 复制另一条记录的全部字段，供需要跨线程保存记录的地方复用对象。
+     */
+    public void copyFrom(SensorRecord other) {
+        userId = other.userId;
+        receivedMillis = other.receivedMillis;
+        capturedMillis = other.capturedMillis;
+        hasLocation = other.hasLocation;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        hasAccelerometer = other.hasAccelerometer;
+        System.arraycopy(other.accelerometer, 0, accelerometer, 0, 3);
+        hasOrientation = other.hasOrientation;
+        System.arraycopy(other.orientation, 0, orientation, 0, 3);
+        hasLight = other.hasLight;
+        light = other.light;
+        trace = other.trace;
+    }
+
+    /**
+     * 与 receiver.py 一样只保存位置、加速度、方向和光线。
+     *
+     * @return 记录中是否有这个传感器的字段
+     */
+    public static boolean stores(int sensorId) {
+        return sensorId >= WireFormat.SENSOR_LOCATION && sensorId <= WireFormat.SENSOR_LIGHT;
+    }
+
+    /**
+     * 记下二进制帧中的一个采样（values[offset] 起的 channels 个数），覆盖同一传感器之前的值。
+     * 记录中没有字段的传感器（见 {@link #stores}）忽略。
+     */
+    public void setSample(int sensorId, float[] values, int offset, int channels) {
+        switch (sensorId) {
+            case WireFormat.SENSOR_LOCATION:
+                if (channels >= 2) {
+                    hasLocation = true;
+                    latitude = values[offset];
+                    longitude = values[offset + 1];
+                }
+                break;
+            case WireFormat.SENSOR_ACCELEROMETER:
+                if (channels >= 3) {
+                    hasAccelerometer = true;
+                    accelerometer[0] = values[offset];
+                    accelerometer[1] = values[offset + 1];
+                    accelerometer[2] = values[offset + 2];
+                }
+                break;
+            case WireFormat.SENSOR_ORIENTATION:
+                if (channels >= 3) {
+                    hasOrientation = true;
+                    orientation[0] = values[offset];
+                    orientation[1] = values[offset + 1];
+                    orientation[2] = values[offset + 2];
+                }
+                break;
+            case WireFormat.SENSOR_LIGHT:
+                hasLight = true;
+                light = values[offset];
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return 记录中是否已有这个传感器的值
+     */
+    public boolean hasSample(int sensorId) {
+        switch (sensorId) {
+            case WireFormat.SENSOR_LOCATION:
+                return hasLocation;
+            case WireFormat.SENSOR_ACCELEROMETER:
+                return hasAccelerometer;
+            case WireFormat.SENSOR_ORIENTATION:
+                return hasOrientation;
+            case WireFormat.SENSOR_LIGHT:
+                return hasLight;
+            default:
+                return false;
+        }
+    }
+
+    public void clearSensors() {
+        hasLocation = false;
+        hasAccelerometer = false;
+        hasOrientation = false;
+        hasLight = false;
+    }
+
+    /**
+     * @return 是否至少包含一种传感器数据，没有时 receiver.py 也不保存
+     */
+    public boolean hasAnySensor() {
+        return hasLocation || hasAccelerometer || hasOrientation || hasLight;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.receiver;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个 (设备号, 会话号) 已处理的最大帧序号。手机断线重连后会重发未确认的帧，据此去重，
+ * 与 receiver.py 的 last_sequences 相同。重连可能落在另一个网络线程上，所以用 CAS 更新。
+ *
+ * 同时保存每个会话的时钟估计和死区过滤的保持值，重连后不必重新积累 PING 样本，补发的积压帧也能还原。
+ *
+ * 会话不会无限保留：同一设备用新的会话号握手时，旧会话不会再有帧，立即丢掉；
+ * 没有连接超过 idleMillis 的会话在之后的握手时清理（最多每个 idleMillis 扫描一次）。
+ */
+public class SessionTable {
+    /** 一个会话的状态，握手时取得，连接关闭时交还 */
+    static final class Session {
+        final String key;
+        /** 已处理的最大帧序号 */
+        final AtomicLong lastSequence = new AtomicLong(-1);
+        final ClockEstimator clock = new ClockEstimator();
+        final StepHold hold;
+        // 以下由 SessionTable 同步访问
+        private int connections;
+        private long releasedMillis;
+
+        Session(String key, long holdNanos, long nowMillis) {
+            this.key = key;
+            hold = new StepHold(holdNanos);
+            releasedMillis = nowMillis;
+        }
+    }
+
+    private final long idleMillis;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // 每台设备最近握手的会话
+    private final ConcurrentHashMap<String, String> current = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepMillis = new AtomicLong();
+
+    /**
+     * @param idleMillis 没有连接的会话保留多久
+     */
+    public SessionTable(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * 握手时调用一次，之后对同一会话的帧都使用返回的状态，连接关闭时调用 {@link #release}。
+     *
+     * 手机重启后采样时钟可能从头计数，而会话号随落盘队列保存，所以按会话而不是按设备保存。
+     *
+     * @param holdNanos 保持时长，只在第一次创建时使用
+     * @return Hello 中没有会话号时返回一个只属于本连接、不去重的新状态
+     */
+    Session open(String device, String session, long nowMillis, long holdNanos) {
+        if (session == null) {
+            return new Session(null, holdNanos, nowMillis);
+        }
+        sweep(nowMillis);
+        String key = device + '/' + session;
+        Session s = sessions.computeIfAbsent(key, k -> new Session(k, holdNanos, nowMillis));
+        synchronized (s) {
+            s.connections++;
+        }
+        String previous = current.put(device, key);
+        if (previous != null && !previous.equals(key)) {
+            sessions.remove(previous);
+        }
+        return s;
+    }
+
+    /**
+     * 连接关闭时交还握手时取得的会话。
+     */
+    void release(Session s, long nowMillis) {
+        if (s.key == null) {
+            return;
+        }
+        synchronized (s) {
+            s.connections--;
+            s.releasedMillis = nowMillis;
+        }
+    }
+
+    /** 保存的会话数 */
+    public int size() {
+        return sessions.size();
+    }
+
+    private void sweep(long nowMillis) {
+        long next = nextSweepMillis.get();
+        if (nowMillis < next || !nextSweepMillis.compareAndSet(next, nowMillis + idleMillis)) {
+            return;
+        }
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            Session s = it.next();
+            synchronized (s) {
+                if (s.connections <= 0 && nowMillis - s.releasedMillis > idleMillis) {
+                    it.remove();
+                }
+            }
+        }
+        current.values().removeIf(key -> !sessions.containsKey(key));
+    }
+
+    /**
+     * @return 序号大于该会话已处理的最大序号时返回 true 并记下它；是重发的帧时返回 false
+     */
+    static boolean isNewFrame(Session session, long sequence) {
+        if (session.key == null) {
+            return true;
+        }
+        AtomicLong lastSequence = session.lastSequence;
+        while (true) {
+            long last = lastSequence.get();
+            if (sequence <= last) {
+                return false;
+            }
+            if (lastSequence.compareAndSet(last, sequence)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.receiver;
+
+/**
+ * 死区过滤帧（{@link com.example.sensorprotocol.WireFormat#FLAG_HELD}）的还原：记住一个会话每种传感器最近收到的值
+ * 和采样时间，补进之后帧中没有出现的传感器，把逐帧的记录还原成阶梯保持的序列。
+ *
+ * 手机对每个传感器至少每个心跳间隔发一次当前值，所以超过保持时长（两个心跳间隔）没有收到的传感器不再补，
+ * 表示传感器已停用或数据已中断，而不是没变。时间按手机的采样时钟计算，重连后补发的积压帧也能正确判断。
+ *
+ * 按会话保存在 {@link SessionTable} 中，重连可能落在另一个网络线程上，所以方法是同步的。
+ */
+final class StepHold {
+    private final long holdNanos;
+    private final SensorRecord last = new SensorRecord();
+    // 各传感器最近一次收到时所在帧的最新采样时间
+    private long locationNanos;
+    private long accelerometerNanos;
+    private long orientationNanos;
+    private long lightNanos;
+
+    StepHold(long holdNanos) {
+        this.holdNanos = holdNanos;
+    }
+
+    /**
+     * 用 r 中有的传感器更新保持值；fill 为 true 时再把 r 中没有、且未过期的传感器补上。
+     *
+     * @param frameNanos 该帧最新的采样时间（手机时钟）
+     */
+    synchronized void apply(SensorRecord r, long frameNanos, boolean fill) {
+        if (r.hasLocation) {
+            last.hasLocation = true;
+            last.latitude = r.latitude;
+            last.longitude = r.longitude;
+            locationNanos = frameNanos;
+        } else if (fill && fresh(last.hasLocation, locationNanos, frameNanos)) {
+            r.hasLocation = true;
+            r.latitude = last.latitude;
+            r.longitude = last.longitude;
+        }
+        if (r.hasAccelerometer) {
+            last.hasAccelerometer = true;
+            System.arraycopy(r.accelerometer, 0, last.accelerometer, 0, 3);
+            accelerometerNanos = frameNanos;
+        } else if (fill && fresh(last.hasAccelerometer, accelerometerNanos, frameNanos)) {
+            r.hasAccelerometer = true;
+            System.arraycopy(last.accelerometer, 0, r.accelerometer, 0, 3);
+        }
+        if (r.hasOrientation) {
+            last.hasOrientation = true;
+            System.arraycopy(r.orientation, 0, last.orientation, 0, 3);
+            orientationNanos = frameNanos;
+        } else if (fill && fresh(last.hasOrientation, orientationNanos, frameNanos)) {
+            r.hasOrientation = true;
+            System.arraycopy(last.orientation, 0, r.orientation, 0, 3);
+        }
+        if (r.hasLight) {
+            last.hasLight = true;
+            last.light = r.light;
+            lightNanos = frameNanos;
+        } else if (fill && fresh(last.hasLight, lightNanos, frameNanos)) {
+            r.hasLight = true;
+            r.light = last.light;
+        }
+    }
+
+    private boolean fresh(boolean has, long sampleNanos, long frameNanos) {
+        return has && frameNanos - sampleNanos <= holdNanos;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.receiver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockEstimatorTest {
+    private static final long WALL_START = 1_700_000_000_000_000_000L;
+    // 手机开机约 3 小时
+    private static final long DEVICE_START = 3L * 3600 * 1_000_000_000L;
+    private static final long MS = 1_000_000L;
+
+    /** 手机时钟：比接收端快 drift，起点不同 */
+    private static long device(long wall, double drift) {
+        return DEVICE_START + Math.round((wall - WALL_START) * (1 + drift));
+    }
+
+    /**
+     * 模拟一次交换：去程和回程各有 1ms 基础时延，另加随机的排队时延，偶尔有几百毫秒的重传。
+     */
+    private static void exchange(ClockEstimator clock, Random random, long wall, double drift) {
+        long up = MS + (long) (random.nextDouble() * 3 * MS);
+        long down = MS + (long) (random.nextDouble() * 3 * MS);
+        if (random.nextInt(10) == 0) {
+            down += 200 * MS;
+        }
+        clock.addSample(wall, device(wall + up, drift), wall + up + down);
+    }
+
+    @Test
+    public void singleExchangeUsesTheMidpoint() {
+        ClockEstimator clock = new ClockEstimator();
+        assertNull(clock.getFit());
+        clock.addSample(WALL_START, DEVICE_START + 3 * MS, WALL_START + 4 * MS);
+        ClockEstimator.Fit fit = clock.getFit();
+        assertEquals(4 * MS, fit.rttNanos);
+        assertEquals(0.0, fit.drift, 0);
+        // 手机时钟 DEVICE_START + 3ms 对应收发的中点
+        assertEquals(WALL_START + 2 * MS, fit.toWallNanos(DEVICE_START + 3 * MS));
+        assertEquals(WALL_START + 1002 * MS, fit.toWallNanos(DEVICE_START + 1003 * MS));
+    }
+
+    @Test
+    public void slowExchangesDoNotMoveTheEstimate() {
+        ClockEstimator clock = new ClockEstimator();
+        clock.addSample(WALL_START, DEVICE_START + MS, WALL_START + 2 * MS);
+        // 回程排队 300ms，单独使用会带来 150ms 误差
+        clock.addSample(WALL_START + 250 * MS, DEVICE_START + 251 * MS, WALL_START + 552 * MS);
+        ClockEstimator.Fit fit = clock.getFit();
+        assertEquals(2 * MS, fit.rttNanos);
+        assertEquals(WALL_START + 500 * MS, fit.toWallNanos(DEVICE_START + 500 * MS));
+    }
+
+    @Test
+    public void estimatesOffsetAndDriftWithinAMillisecond() {
+        double drift = 40e-6;
+        ClockEstimator clock = new ClockEstimator();
+        Random random = new Random(1);
+        long wall = WALL_START;
+        for (int i = 0; i < 8; i++) {
+            exchange(clock, random, wall, drift);
+            wall += 250 * MS;
+        }
+        ClockEstimator.Fit early = clock.getFit();
+        assertEquals(0.0, early.drift, 0);
+        assertEquals(wall, early.toWallNanos(device(wall, drift)), 3 * MS);
+
+        for (int i = 0; i < 200; i++) {
+            exchange(clock, random, wall, drift);
+            wall += 2000 * MS;
+        }
+        ClockEstimator.Fit fit = clock.getFit();
+        assertEquals(drift, fit.drift, 5e-6);
+        assertTrue(fit.samples >= 4);
+        // 最后一次交换之后一分钟的采样
+        long sample = wall + 60_000 * MS;
+        assertEquals(sample, fit.toWallNanos(device(sample, drift)), MS);
+    }
+
+    @Test
+    public void ignoresExchangesThatEndBeforeTheyStart() {
+        ClockEstimator clock = new ClockEstimator();
+        clock.addSample(WALL_START + MS, DEVICE_START, WALL_START);
+        assertNull(clock.getFit());
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.receiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColumnStoreTest {
+    // 2024-05-01T12:59:00Z
+    private static final long START = 1_714_568_340_000L;
+    private static final long HOUR = 3_600_000L;
+
+    private File dir;
+
+    /** 复制保存读到的记录 */
+    private static class Copies implements RecordSink {
+        final List<SensorRecord> records = new ArrayList<>();
+
+        @Override
+        public void accept(SensorRecord r) {
+            SensorRecord copy = new SensorRecord();
+            copy.userId = r.userId;
+            copy.receivedMillis = r.timestampMillis();
+            copy.hasLocation = r.hasLocation;
+            copy.latitude = r.latitude;
+            copy.longitude = r.longitude;
+            copy.hasAccelerometer = r.hasAccelerometer;
+            System.arraycopy(r.accelerometer, 0, copy.accelerometer, 0, 3);
+            copy.hasOrientation = r.hasOrientation;
+            System.arraycopy(r.orientation, 0, copy.orientation, 0, 3);
+            copy.hasLight = r.hasLight;
+            copy.light = r.light;
+            records.add(copy);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("store").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** 第 i 条记录：每 10 条有一次位置，光线每 3 条缺一次，时间间隔 20ms 并带少量抖动 */
+    private static SensorRecord record(int i, Random random) {
+        SensorRecord r = new SensorRecord();
+        r.userId = "10.0.0.1";
+        r.receivedMillis = START + i * 20L + random.nextInt(3);
+        r.capturedMillis = i % 7 == 0 ? 0 : r.receivedMillis - 5;
+        r.hasLocation = i % 10 == 0;
+        r.latitude = 30.274135 + i * 1e-6;
+        r.longitude = 120.155072;
+        r.hasAccelerometer = true;
+        r.accelerometer[0] = (float) (-9.05 + random.nextGaussian() * 0.1);
+        r.accelerometer[1] = (float) 3.1746774;
+        r.accelerometer[2] = (float) (2.757429 - i * 0.001);
+        r.hasOrientation = i % 2 == 0;
+        r.orientation[0] = (float) (i % 360);
+        r.orientation[1] = -0.0;
+        r.orientation[2] = Double.NaN;
+        r.hasLight = i % 3 != 0;
+        r.light = 110.0250015258789;
+        return r;
+    }
+
+    private static void assertSameRecord(SensorRecord expected, SensorRecord actual) {
+        assertEquals(expected.timestampMillis(), actual.receivedMillis);
+        assertEquals(expected.hasLocation, actual.hasLocation);
+        if (expected.hasLocation) {
+            assertEquals(expected.latitude, actual.latitude, 0);
+            assertEquals(expected.longitude, actual.longitude, 0);
+        }
+        assertEquals(expected.hasAccelerometer, actual.hasAccelerometer);
+        assertArrayEquals(expected.accelerometer, actual.accelerometer, 0);
+        assertEquals(expected.hasOrientation, actual.hasOrientation);
+        if (expected.hasOrientation) {
+            // 按位比较，-0.0 和 NaN 也要原样保留
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Double.doubleToRawLongBits(expected.orientation[i]),
+                        Double.doubleToRawLongBits(actual.orientation[i]));
+            }
+        }
+        assertEquals(expected.hasLight, actual.hasLight);
+        if (expected.hasLight) {
+            assertEquals(expected.light, actual.light, 0);
+        }
+    }
+
+    @Test
+    public void codecRoundTripsExtremeValues() throws IOException {
+        double[] values = {0, -0.0, 1, 1, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE,
+                1e-300, 3.1746774f, 3.1746775f, 123456789.125, 123456789.125, Math.PI};
+        ByteBuffer buffer = ByteBuffer.allocate(ColumnCodec.maxDoublesSize(values.length));
+        ColumnCodec.encodeDoubles(values, values.length, buffer);
+        buffer.flip();
+        double[] decoded = new double[values.length];
+        ColumnCodec.decodeDoubles(buffer, decoded, values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoded[i]));
+        }
+
+        long[] timestamps = {START, START + 20, START + 40, START + 35, Long.MAX_VALUE / 2, 0, START};
+        buffer = ByteBuffer.allocate(timestamps.length * 10);
+        ColumnCodec.encodeTimestamps(timestamps, timestamps.length, buffer);
+        buffer.flip();
+        long[] decodedTimestamps = new long[timestamps.length];
+        ColumnCodec.decodeTimestamps(buffer, START, decodedTimestamps, timestamps.length);
+        assertArrayEquals(timestamps, decodedTimestamps);
+    }
+
+    @Test
+    public void recordsRoundTripAcrossBlocksAndPartitions() throws IOException {
+        Random random = new Random(1);
+        List<SensorRecord> written = new ArrayList<>();
+        // 跨过 13:00 的分区边界，且超过一个块
+        try (ColumnStore store = new ColumnStore(dir)) {
+            for (int i = 0; i < ColumnStore.BLOCK_ROWS * 5; i++) {
+                SensorRecord r = record(i, random);
+                written.add(r);
+                store.accept(r);
+            }
+        }
+        File deviceDir = new File(dir, "10.0.0.1");
+        assertTrue(new File(deviceDir, "20240501T1200Z.col").isFile());
+        assertTrue(new File(deviceDir, "20240501T1300Z.idx").isFile());
+
+        ColumnStoreReader reader = new ColumnStoreReader(dir);
+        assertEquals(Arrays.asList("10.0.0.1"), reader.devices());
+        Copies all = new Copies();
+        assertEquals(written.size(), reader.scan("10.0.0.1", Long.MIN_VALUE, Long.MAX_VALUE, all));
+        for (int i = 0; i < written.size(); i++) {
+            assertSameRecord(written.get(i), all.records.get(i));
+        }
+
+        long size = 0;
+        for (File f : deviceDir.listFiles()) {
+            size += f.length();
+        }
+        // CSV 每行约 120 字节
+        assertTrue("store size " + size, size < written.size() * 40L);
+
+        // 时间范围查询
+        long from = START + HOUR / 60;
+        long to = from + 10_000;
+        Copies range = new Copies();
+        reader.scan("10.0.0.1", from, to, range);
+        int expected = 0;
+        for (SensorRecord r : written) {
+            if (r.timestampMillis() >= from && r.timestampMillis() < to) {
+                assertSameRecord(r, range.records.get(expected++));
+            }
+        }
+        assertEquals(expected, range.records.size());
+        assertTrue(expected > 0);
+    }
+
+    @Test
+    public void lateRecordsAcrossAPartitionBoundaryKeepBothPartitionsOpen() throws IOException {
+        Random random = new Random(3);
+        List<Long> written = new ArrayList<>();
+        try (ColumnStore store = new ColumnStore(dir)) {
+            // 13:00 前后的记录交替到达：新分区的记录和上一个分区的迟到记录
+            for (int i = 0; i < 500; i++) {
+                SensorRecord r = record(i, random);
+                r.receivedMillis = i % 2 == 0 ? START + HOUR / 60 - 1 - i : START + HOUR / 60 + i;
+                r.capturedMillis = 0;
+                written.add(r.receivedMillis);
+                store.accept(r);
+            }
+            assertEquals(2, store.getPartitionOpens());
+            // 更早的分区替换上一个分区，当前分区不受影响
+            SensorRecord earlier = record(500, random);
+            earlier.receivedMillis = START - HOUR;
+            earlier.capturedMillis = 0;
+            written.add(earlier.receivedMillis);
+            store.accept(earlier);
+            SensorRecord current = record(501, random);
+            current.receivedMillis = START + HOUR;
+            current.capturedMillis = 0;
+            written.add(current.receivedMillis);
+            store.accept(current);
+            assertEquals(3, store.getPartitionOpens());
+        }
+
+        Copies all = new Copies();
+        assertEquals(written.size(), new ColumnStoreReader(dir).scan("10.0.0.1", Long.MIN_VALUE, Long.MAX_VALUE, all));
+        List<Long> read = new ArrayList<>();
+        for (SensorRecord r : all.records) {
+            read.add(r.receivedMillis);
+        }
+        written.sort(null);
+        read.sort(null);
+        assertEquals(written, read);
+    }
+
+    @Test
+    public void reopenedPartitionRecoversFromTornWrites() throws IOException {
+        Random random = new Random(2);
+        List<SensorRecord> written = new ArrayList<>();
+        try (ColumnStore store = new ColumnStore(dir)) {
+            for (int i = 0; i < 100; i++) {
+                SensorRecord r = record(i, random);
+                written.add(r);
+                store.accept(r);
+                if (i == 49) {
+                    store.flushAll();
+                }
+            }
+        }
+        File data = new File(dir, "10.0.0.1/20240501T1200Z.col");
+        File index = new File(dir, "10.0.0.1/20240501T1200Z.idx");
+        // 最后一个块写完但索引项丢失，然后又追加了半个块
+        long dataSize = data.length();
+        try (RandomAccessFile f = new RandomAccessFile(index, "rw")) {
+            f.setLength(ColumnStore.INDEX_ENTRY_SIZE + 5);
+        }
+        try (RandomAccessFile f = new RandomAccessFile(data, "rw")) {
+            f.seek(dataSize);
+            f.write(new byte[ColumnStore.BLOCK_HEADER_SIZE + 10]);
+        }
+
+        try (ColumnStore store = new ColumnStore(dir)) {
+            SensorRecord r = record(100, random);
+            written.add(r);
+            store.accept(r);
+        }
+        Copies all = new Copies();
+        new ColumnStoreReader(dir).scan("10.0.0.1", Long.MIN_VALUE, Long.MAX_VALUE, all);
+        assertEquals(written.size(), all.records.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertSameRecord(written.get(i), all.records.get(i));
+        }
+        assertEquals(3 * ColumnStore.INDEX_ENTRY_SIZE, index.length());
+    }
+
+    @Test
+    public void exportsReceiverPyCsv() throws IOException {
+        Random random = new Random(3);
+        File csvDir = new File(dir, "live");
+        File exportDir = new File(dir, "export");
+        try (ColumnStore store = new ColumnStore(new File(dir, "store")); CsvSink csv = new CsvSink(csvDir)) {
+            for (int i = 0; i < 300; i++) {
+                SensorRecord r = record(i, random);
+                store.accept(r);
+                csv.accept(r);
+            }
+        }
+        CsvExport.main(new String[]{"--store", new File(dir, "store").getPath(), "--out", exportDir.getPath()});
+        List<String> live = Files.readAllLines(new File(csvDir, "10.0.0.1_sensor_data.csv").toPath(), StandardCharsets.UTF_8);
+        List<String> exported = Files.readAllLines(new File(exportDir, "10.0.0.1_sensor_data.csv").toPath(), StandardCharsets.UTF_8);
+        assertEquals(301, exported.size());
+        assertEquals(live, exported);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.receiver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class IngestPipelineTest {
+    private static final int DEVICES = 12;
+    private static final int PER_DEVICE = 2000;
+
+    /** 按设备记下收到的序号和处理它的线程 */
+    private static class OrderSink implements RecordSink {
+        final Map<String, List<Long>> sequences = new HashMap<>();
+        final Map<String, String> threads = new HashMap<>();
+        volatile boolean slow;
+        // 同一设备是否出现在过不同的线程上
+        boolean mixed;
+
+        @Override
+        public synchronized void accept(SensorRecord r) {
+            sequences.computeIfAbsent(r.userId, id -> new ArrayList<>()).add(r.receivedMillis);
+            String previous = threads.put(r.userId, Thread.currentThread().getName());
+            mixed |= previous != null && !previous.equals(Thread.currentThread().getName());
+            if (slow) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void eachDeviceStaysInOrderOnOnePartition() throws InterruptedException {
+        OrderSink sink = new OrderSink();
+        IngestPipeline pipeline = new IngestPipeline(4, 8, sink);
+        // 三个生产者，各自负责四台设备，交替发送
+        Thread[] producers = new Thread[3];
+        for (int p = 0; p < producers.length; p++) {
+            int first = p * DEVICES / producers.length;
+            producers[p] = new Thread(() -> {
+                SensorRecord r = new SensorRecord();
+                r.hasLight = true;
+                for (int i = 0; i < PER_DEVICE; i++) {
+                    for (int d = first; d < first + DEVICES / producers.length; d++) {
+                        r.userId = "10.0.0." + d;
+                        r.receivedMillis = i;
+                        r.light = d;
+                        pipeline.accept(r);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pipeline.close();
+
+        assertEquals(DEVICES * PER_DEVICE, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getQueuedCount());
+        assertEquals(DEVICES, sink.sequences.size());
+        assertFalse(sink.mixed);
+        for (Map.Entry<String, List<Long>> entry : sink.sequences.entrySet()) {
+            List<Long> received = entry.getValue();
+            assertEquals(entry.getKey(), PER_DEVICE, received.size());
+            for (int i = 0; i < PER_DEVICE; i++) {
+                assertEquals(entry.getKey(), i, (long) received.get(i));
+            }
+            int partition = pipeline.partitionOf(entry.getKey());
+            assertEquals("receiver-ingest-" + partition, sink.threads.get(entry.getKey()));
+        }
+        try {
+            pipeline.accept(new SensorRecord());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void fullQueueStallsTheProducerAndShowsInTheSummary() {
+        OrderSink sink = new OrderSink();
+        sink.slow = true;
+        IngestPipeline pipeline = new IngestPipeline(1, 4, sink);
+        SensorRecord r = new SensorRecord();
+        r.userId = "10.0.0.1";
+        for (int i = 0; i < 20; i++) {
+            r.receivedMillis = i;
+            pipeline.accept(r);
+        }
+        assertTrue(pipeline.getStallNanos() > 0);
+        String summary = pipeline.summary();
+        assertTrue(summary, summary.startsWith("p0 depth="));
+        assertTrue(summary, summary.contains("/4 max=4 "));
+        // max 是上次 summary 以来的最大深度
+        assertFalse(pipeline.summary().contains("max=4 "));
+        pipeline.close();
+        assertEquals(20, pipeline.getProcessedCount());
+        assertEquals(20, sink.sequences.get("10.0.0.1").size());
+    }
+
+    /** 下游每条记录阻塞一段时间（如等磁盘），不占 CPU，单核上也能看出分区并行 */
+    private static long drainWithBlockingDownstream(int partitions) throws InterruptedException {
+        RecordSink blocking = r -> LockSupport.parkNanos(200_000L);
+        IngestPipeline pipeline = new IngestPipeline(partitions, 1024, blocking);
+        // 每个分区分到同样多的设备
+        List<String> devices = new ArrayList<>();
+        int[] perPartition = new int[partitions];
+        for (int d = 0; devices.size() < 8; d++) {
+            String id = "10.0.1." + d;
+            int p = pipeline.partitionOf(id);
+            if (perPartition[p] < 8 / partitions) {
+                perPartition[p]++;
+                devices.add(id);
+            }
+        }
+        SensorRecord r = new SensorRecord();
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            for (String id : devices) {
+                r.userId = id;
+                pipeline.accept(r);
+            }
+        }
+        pipeline.close();
+        assertEquals(800, pipeline.getProcessedCount());
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void partitionsDrainInParallel() throws InterruptedException {
+        long one = drainWithBlockingDownstream(1);
+        long four = drainWithBlockingDownstream(4);
+        assertTrue("1 partition " + one / 1_000_000 + " ms, 4 partitions " + four / 1_000_000 + " ms",
+                four < one * 0.6);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.receiver;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class JsonLineParserTest {
+    private final JsonLineParser parser = new JsonLineParser();
+    private final SensorRecord record = new SensorRecord();
+
+    private boolean parse(String line) {
+        // 前后加上无关字节，确认只解析给定的区间
+        byte[] bytes = ("xx" + line + "yy").getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 2, bytes.length - 2, record);
+    }
+
+    @Test
+    public void parsesPhoneLine() {
+        assertTrue(parse("{\"Location\":[-3,-3],\"Accelerometer\":[-9.052347,3.1746774,2.757429],"
+                + "\"Orientation\":[327.57257,-57.22208,-70.926636],\"Light\":110.0250015258789}"));
+        assertTrue(record.hasLocation);
+        assertEquals(-3.0, record.latitude, 0);
+        assertEquals(-3.0, record.longitude, 0);
+        assertTrue(record.hasAccelerometer);
+        assertEquals(-9.052347, record.accelerometer[0], 0);
+        assertEquals(3.1746774, record.accelerometer[1], 0);
+        assertEquals(2.757429, record.accelerometer[2], 0);
+        assertTrue(record.hasOrientation);
+        assertEquals(-70.926636, record.orientation[2], 0);
+        assertTrue(record.hasLight);
+        assertEquals(110.0250015258789, record.light, 0);
+    }
+
+    @Test
+    public void skipsSamplesAndUnknownFields() {
+        assertTrue(parse(" {\"Accelerometer\":[1,2,3],\"Samples\":{\"Accelerometer\":{\"t\":[1,2],"
+                + "\"v\":[1.5,2.5,3.5,4.5,5.5,6.5]}},\"note\":\"a \\\"quoted\\\" }\",\"x\":[true,false,null,{}]}\r"));
+        assertTrue(record.hasAccelerometer);
+        assertFalse(record.hasLocation);
+        assertFalse(record.hasOrientation);
+        assertFalse(record.hasLight);
+    }
+
+    @Test
+    public void wrongShapesAreTreatedAsMissing() {
+        assertTrue(parse("{\"Location\":[1,2,3],\"Accelerometer\":[1,2],\"Orientation\":[1,\"a\",3],\"Light\":\"dark\"}"));
+        assertFalse(record.hasAnySensor());
+        assertTrue(parse("{\"Location\":{\"lat\":1},\"Light\":[1]}"));
+        assertFalse(record.hasAnySensor());
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        assertFalse(parse(""));
+        assertFalse(parse("not json"));
+        assertFalse(parse("[1,2,3]"));
+        assertFalse(parse("{\"Light\":1"));
+        assertFalse(parse("{\"Light\":1}}"));
+        assertFalse(parse("{\"Light\":01}"));
+        assertFalse(parse("{\"Light\":1.}"));
+        assertFalse(parse("{\"Light\":-}"));
+        assertFalse(parse("{\"Accelerometer\":[1,2,3,]}"));
+        assertFalse(parse("{Light:1}"));
+    }
+
+    @Test
+    public void numbersMatchDoubleParse() {
+        String[] numbers = {"0", "-0", "1", "-9.052347", "3.1746774", "110.0250015258789", "1e-05", "6.02E23",
+                "123456789012345678901234567890", "0.1234567890123456789", "-1.5e-300", "4.9e-324", "1.7976931348623157e308"};
+        for (String n : numbers) {
+            assertTrue(n, parse("{\"Light\":" + n + "}"));
+            assertEquals(n, Double.parseDouble(n), record.light, 0);
+        }
+    }
+}
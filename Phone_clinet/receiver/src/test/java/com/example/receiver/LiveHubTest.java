@@ -0,0 +1,149 @@
+package com.example.receiver;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LiveHubTest {
+    private static final long START = 1_714_568_340_000L;
+
+    private static SensorRecord record(String device, long timestamp, double light) {
+        SensorRecord r = new SensorRecord();
+        r.userId = device;
+        r.receivedMillis = timestamp;
+        r.hasLight = true;
+        r.light = light;
+        r.hasAccelerometer = true;
+        r.accelerometer[0] = -light;
+        return r;
+    }
+
+    @Test
+    public void updatesAreCoalescedAndFiltered() throws InterruptedException {
+        LiveHub hub = new LiveHub(0);
+        // 没有订阅者时不记录
+        hub.accept(record("10.0.0.9", START, 1));
+        LiveHub.Subscriber all = hub.subscribe(Collections.emptySet(), Collections.emptyList(), 8);
+        LiveHub.Subscriber light = hub.subscribe(new HashSet<>(Arrays.asList("10.0.0.2")),
+                Arrays.asList("light"), 8);
+        for (int i = 0; i < 50; i++) {
+            hub.accept(record("10.0.0.1", START + i * 20L, i));
+            hub.accept(record("10.0.0.2", START + i * 20L, 100 + i));
+        }
+        hub.tick(START + 1000);
+
+        assertEquals("{\"t\":1714568341000,\"devices\":{"
+                        + "\"10.0.0.1\":{\"ts\":1714568340980,\"n\":50,\"Accelerometer_x\":-49.0,"
+                        + "\"Accelerometer_y\":0.0,\"Accelerometer_z\":0.0,\"Light\":49.0},"
+                        + "\"10.0.0.2\":{\"ts\":1714568340980,\"n\":50,\"Accelerometer_x\":-149.0,"
+                        + "\"Accelerometer_y\":0.0,\"Accelerometer_z\":0.0,\"Light\":149.0}}}",
+                all.poll(0, TimeUnit.SECONDS));
+        assertEquals("{\"t\":1714568341000,\"devices\":{\"10.0.0.2\":{\"ts\":1714568340980,\"n\":50,\"Light\":149.0}}}",
+                light.poll(0, TimeUnit.SECONDS));
+
+        // 只有 10.0.0.1 有新数据：light 订阅者没有帧
+        hub.accept(record("10.0.0.1", START + 1000, 7));
+        hub.tick(START + 1050);
+        assertEquals("{\"t\":1714568341050,\"devices\":{"
+                + "\"10.0.0.1\":{\"ts\":1714568341000,\"n\":1,\"Accelerometer_x\":-7.0,"
+                + "\"Accelerometer_y\":0.0,\"Accelerometer_z\":0.0,\"Light\":7.0}}}",
+                all.poll(0, TimeUnit.SECONDS));
+        assertNull(light.poll(0, TimeUnit.SECONDS));
+        hub.tick(START + 1100);
+        assertNull(all.poll(0, TimeUnit.SECONDS));
+
+        try {
+            hub.subscribe(Collections.emptySet(), Arrays.asList("Gyroscope"), 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        hub.close();
+        assertNull(all.poll(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void tracedRecordsAreMarkedWhenPublished() {
+        LiveHub hub = new LiveHub(0);
+        LatencyTracer tracer = new LatencyTracer();
+        int publish = LatencyTracer.STAGES.indexOf("publish");
+        LiveHub.Subscriber light = hub.subscribe(new HashSet<>(Arrays.asList("10.0.0.2")),
+                Arrays.asList("light"), 8);
+        long now = ClockEstimator.wallNanos();
+
+        // 没有订阅者关心的设备不算推送
+        SensorRecord other = record("10.0.0.1", START, 1);
+        other.trace = tracer.start(now);
+        other.trace.mark(LatencyTracer.PARSE, now);
+        other.trace.mark(LatencyTracer.STORE, now);
+        hub.accept(other);
+        SensorRecord traced = record("10.0.0.2", START, 2);
+        traced.trace = tracer.start(now);
+        traced.trace.mark(LatencyTracer.PARSE, now);
+        traced.trace.mark(LatencyTracer.STORE, now);
+        hub.accept(traced);
+        hub.accept(record("10.0.0.2", START + 20, 3));
+        hub.tick(START + 50);
+        assertEquals(1, light.queued());
+        assertEquals(1, tracer.stage(publish).getCount());
+
+        // 推送过的追踪不再带到下一帧
+        hub.accept(record("10.0.0.2", START + 70, 4));
+        hub.tick(START + 100);
+        assertEquals(1, tracer.stage(publish).getCount());
+        hub.close();
+    }
+
+    @Test
+    public void slowSubscriberDropsOldestFrames() throws InterruptedException {
+        LiveHub hub = new LiveHub(0);
+        LiveHub.Subscriber slow = hub.subscribe(Collections.emptySet(), Collections.emptyList(), 2);
+        LiveHub.Subscriber fast = hub.subscribe(Collections.emptySet(), Collections.emptyList(), 2);
+        for (int frame = 0; frame < 5; frame++) {
+            hub.accept(record("10.0.0.1", START + frame, frame));
+            hub.tick(START + frame);
+            assertNotNull(fast.poll(0, TimeUnit.SECONDS));
+        }
+        assertEquals(2, slow.queued());
+        assertEquals(3, hub.getFramesDropped());
+        // 留下的是最新的两帧
+        assertTrue(slow.poll(0, TimeUnit.SECONDS).contains("\"Light\":3.0"));
+        assertTrue(slow.poll(0, TimeUnit.SECONDS).contains("\"Light\":4.0"));
+        hub.close();
+    }
+
+    @Test
+    public void framesAreStreamedAsServerSentEvents() throws IOException {
+        try (LiveHub hub = new LiveHub(50);
+             QueryServer server = new QueryServer(new RollupStore(), hub, "127.0.0.1", 0)) {
+            server.start();
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort()
+                    + "/api/live?devices=10.0.0.1&channels=Light").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/event-stream"));
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals(": subscribed", in.readLine());
+            assertEquals("", in.readLine());
+            assertEquals(1, hub.getSubscriberCount());
+            hub.accept(record("10.0.0.2", START, 1));
+            hub.accept(record("10.0.0.1", START, 42));
+            assertEquals("data: {\"t\":", in.readLine().substring(0, 11));
+            connection.disconnect();
+
+            HttpURLConnection bad = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort()
+                    + "/api/live?channels=Gyroscope").openConnection();
+            assertEquals(400, bad.getResponseCode());
+        }
+    }
+}
@@ -0,0 +1,696 @@
+package com.example.receiver;
+
+import com.example.sensorprotocol.FrameEncoder;
+import com.example.sensorprotocol.Handshake;
+import com.example.sensorprotocol.MetricId;
+import com.example.sensorprotocol.SensorConfig;
+import com.example.sensorprotocol.WindowFeatures;
+import com.example.sensorprotocol.WireFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ReceiverServerTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    /** 复制保存收到的记录 */
+    private static class CollectingSink implements RecordSink {
+        final List<double[]> accelerometer = new ArrayList<>();
+        final List<String> userIds = new ArrayList<>();
+        final List<Long> capturedMillis = new ArrayList<>();
+        final List<Double> light = new ArrayList<>();
+
+        @Override
+        public synchronized void accept(SensorRecord record) {
+            userIds.add(record.userId);
+            capturedMillis.add(record.capturedMillis);
+            accelerometer.add(record.hasAccelerometer ? record.accelerometer.clone() : null);
+            light.add(record.hasLight ? record.light : null);
+        }
+
+        synchronized int size() {
+            return accelerometer.size();
+        }
+    }
+
+    private final CollectingSink sink = new CollectingSink();
+    private final ReceiverServer.Settings settings = new ReceiverServer.Settings();
+    private ReceiverServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        settings.host = "127.0.0.1";
+        settings.port = 0;
+        settings.workerThreads = 2;
+        settings.clockSyncIntervalMillis = 100;
+        server = new ReceiverServer(settings, sink);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private void awaitRecords(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (server.getRecordCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, server.getRecordCount());
+    }
+
+    @Test
+    public void acceptsNewlineJsonSplitAcrossWrites() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            String a = "{\"Accelerometer\":[1,2,3],\"Light\":5}\n";
+            String b = "{\"Accelerometer\":[4,5,6]}\n\n{\"Hello\":{\"proto\":\"other\"}}\nnot json\n";
+            String c = "{\"Accelerometer\":[7,8,9]}";
+            out.write((a + b.substring(0, 7)).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(20);
+            out.write((b.substring(7) + c).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            awaitRecords(2);
+        }
+        // 断开时缓冲区里没有换行符的最后一条也会处理
+        awaitRecords(3);
+        assertArrayEquals(new double[]{4, 5, 6}, sink.accelerometer.get(1), 0);
+        assertArrayEquals(new double[]{7, 8, 9}, sink.accelerometer.get(2), 0);
+        assertEquals("127.0.0.1", sink.userIds.get(0));
+        assertEquals(2, server.getMalformedCount());
+    }
+
+    @Test
+    public void longLinesGrowTheBuffer() throws Exception {
+        StringBuilder line = new StringBuilder("{\"Samples\":{\"Accelerometer\":{\"t\":[");
+        for (int i = 0; i < 20000; i++) {
+            line.append(i).append(',');
+        }
+        line.append("0]}},\"Accelerometer\":[1,2,3]}\n");
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.getOutputStream().write(line.toString().getBytes(StandardCharsets.UTF_8));
+            awaitRecords(1);
+        }
+    }
+
+    private static byte[] frame(FrameEncoder encoder, long sequence, float x) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        encoder.begin(buffer, 42, sequence, 1_000_000L);
+        encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+        encoder.putSample(1_000_000L, new float[]{x - 1, x - 1, x - 1}, 0);
+        encoder.putSample(2_000_000L, new float[]{x, x + 1, x + 2}, 0);
+        encoder.endBlock();
+        int length = encoder.end();
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static long readAck(BufferedReader in, long expected) throws IOException {
+        // ACK 是累计确认，可能合并；中间夹着的 PING 不回复
+        while (true) {
+            String line = in.readLine();
+            if (Handshake.parsePing(line) >= 0) {
+                continue;
+            }
+            long ack = Handshake.parseAck(line);
+            assertTrue(ack >= 0);
+            if (ack >= expected) {
+                return ack;
+            }
+        }
+    }
+
+    @Test
+    public void sensorSettingsFollowTheAcceptLine() throws Exception {
+        settings.sensorConfig = new SensorConfig()
+                .set(WireFormat.SENSOR_GYROSCOPE, 5000, 1_000_000)
+                .disable(WireFormat.SENSOR_ORIENTATION);
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            socket.getOutputStream().write((Handshake.helloLine(42, 7) + "\n").getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String accept = in.readLine();
+            assertTrue(Handshake.isAccept(accept));
+            // 陀螺仪没有列，回复中不声明，手机就不发送
+            int stored = Handshake.parseSensorMask(accept);
+            assertEquals(0, stored & 1 << WireFormat.SENSOR_GYROSCOPE);
+            assertNotEquals(0, stored & 1 << WireFormat.SENSOR_ACCELEROMETER);
+            SensorConfig config = SensorConfig.parse(in.readLine());
+            assertNotNull(config);
+            assertEquals(1_000_000, config.getMaxReportLatencyUs(WireFormat.SENSOR_GYROSCOPE));
+            assertTrue(config.has(WireFormat.SENSOR_ORIENTATION));
+            assertFalse(config.isEnabled(WireFormat.SENSOR_ORIENTATION));
+        }
+    }
+
+    @Test
+    public void binaryFramesAreAcknowledgedAndDeduplicatedAcrossReconnects() throws Exception {
+        FrameEncoder encoder = new FrameEncoder();
+        String hello = Handshake.helloLine(42, 7) + "\n";
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write(hello.getBytes(StandardCharsets.US_ASCII));
+            // 握手和第一帧一起到达
+            out.write(frame(encoder, 0, 10));
+            out.flush();
+            assertTrue(Handshake.acceptsAcks(in.readLine()));
+            byte[] second = frame(encoder, 1, 20);
+            out.write(second, 0, 10);
+            out.flush();
+            Thread.sleep(20);
+            out.write(second, 10, second.length - 10);
+            out.flush();
+            assertEquals(1, readAck(in, 1));
+        }
+        // 每帧两个采样，各一条记录
+        awaitRecords(4);
+        assertArrayEquals(new double[]{9, 9, 9}, sink.accelerometer.get(0), 0);
+        assertArrayEquals(new double[]{10, 11, 12}, sink.accelerometer.get(1), 0);
+
+        // 同一会话重连后重发第 1 帧，再发新的第 2 帧
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write(hello.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(Handshake.isAccept(in.readLine()));
+            out.write(frame(encoder, 1, 20));
+            out.write(frame(encoder, 2, 30));
+            out.flush();
+            assertEquals(2, readAck(in, 2));
+        }
+        awaitRecords(6);
+        assertEquals(1, server.getDuplicateCount());
+        assertArrayEquals(new double[]{30, 31, 32}, sink.accelerometer.get(5), 0);
+    }
+
+    @Test
+    public void multiSampleFramesBecomeOneRecordPerTimestamp() throws Exception {
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        encoder.begin(buffer, 44, 0, 1_000_000L);
+        encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+        for (int i = 1; i <= 3; i++) {
+            encoder.putSample(i * 1_000_000L, new float[]{i, i, i}, 0);
+        }
+        encoder.endBlock();
+        // 光线只在第 1、3 个时刻有采样，与同一时刻的加速度合成一条
+        encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1);
+        encoder.putSample(3_000_000L, new float[]{30}, 0);
+        encoder.putSample(1_000_000L, new float[]{10}, 0);
+        encoder.endBlock();
+        // 记录中没有字段的传感器不单独成行
+        encoder.beginBlock(WireFormat.SENSOR_GYROSCOPE, 3);
+        encoder.putSample(4_000_000L, new float[]{1, 2, 3}, 0);
+        encoder.endBlock();
+        encoder.end();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write((Handshake.helloLine(44, 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            assertTrue(Handshake.isAccept(in.readLine()));
+            assertEquals(0, readAck(in, 0));
+        }
+        awaitRecords(3);
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(new double[]{i + 1, i + 1, i + 1}, sink.accelerometer.get(i), 0);
+        }
+        assertEquals(Arrays.asList(10.0, null, 30.0), sink.light);
+    }
+
+    /**
+     * 像手机一样应答 count 个 PING（手机时钟 = nanoTime - deviceStart），等接收端收到。
+     */
+    private void answerPings(BufferedReader in, OutputStream out, FrameEncoder encoder, long deviceId,
+                             long deviceStart, int count) throws IOException, InterruptedException {
+        long before = server.getClockSampleCount();
+        int pongs = 0;
+        while (pongs < count) {
+            long ping = Handshake.parsePing(in.readLine());
+            if (ping < 0) {
+                continue;
+            }
+            ByteBuffer pong = ByteBuffer.allocate(WireFormat.HEADER_SIZE);
+            encoder.begin(pong, deviceId, ping, System.nanoTime() - deviceStart, WireFormat.FLAG_CLOCK_PONG);
+            encoder.end();
+            out.write(pong.array());
+            out.flush();
+            pongs++;
+        }
+        awaitClockSamples(before + count);
+    }
+
+    @Test
+    public void pongsMapSampleTimestampsToWallTime() throws Exception {
+        FrameEncoder encoder = new FrameEncoder();
+        // 手机时钟从 5 秒开始计
+        long deviceStart = System.nanoTime() - 5_000_000_000L;
+        long sampleWallMillis;
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write((Handshake.helloLine(43, 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(Handshake.isAccept(in.readLine()));
+            // 没有时钟估计之前只有到达时刻
+            out.write(frame(encoder, 0, 1));
+            out.flush();
+            assertEquals(0, readAck(in, 0));
+            answerPings(in, out, encoder, 43, deviceStart, 3);
+
+            // 两个采样分别发生在 300ms 和 100ms 之前，各自换算
+            sampleWallMillis = System.currentTimeMillis() - 300;
+            long sampleDeviceNanos = System.nanoTime() - 300_000_000L - deviceStart;
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            encoder.begin(buffer, 43, 1, sampleDeviceNanos);
+            encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1);
+            encoder.putSample(sampleDeviceNanos, new float[]{5}, 0);
+            encoder.putSample(sampleDeviceNanos + 200_000_000L, new float[]{6}, 0);
+            encoder.end();
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            // 应答帧不占序号，也不单独确认
+            assertEquals(1, readAck(in, 1));
+        }
+        awaitRecords(4);
+        assertEquals(0L, (long) sink.capturedMillis.get(0));
+        assertEquals(0L, (long) sink.capturedMillis.get(1));
+        assertEquals(sampleWallMillis, (long) sink.capturedMillis.get(2), 50);
+        assertEquals(sampleWallMillis + 200, (long) sink.capturedMillis.get(3), 50);
+        assertEquals(200, sink.capturedMillis.get(3) - sink.capturedMillis.get(2), 1);
+    }
+
+    @Test
+    public void metricsFramesAreAggregatedWithoutAcks() throws Exception {
+        FrameEncoder encoder = new FrameEncoder();
+        int events = MetricId.of(MetricId.KIND_SENSOR_EVENTS, WireFormat.SENSOR_ACCELEROMETER);
+        int writeP99 = MetricId.of(MetricId.KIND_WRITE_NANOS, MetricId.STAT_P99);
+        long[][] reports = {{42, 1000, 5_000}, {44, 300, 9_000}};
+        for (long[] report : reports) {
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout((int) TIMEOUT_MS);
+                OutputStream out = socket.getOutputStream();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                out.write((Handshake.helloLine(report[0], 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                assertTrue(Handshake.acceptsMetrics(in.readLine()));
+                ByteBuffer buffer = ByteBuffer.allocate(256);
+                encoder.begin(buffer, report[0], 5, 1_000_000L, WireFormat.FLAG_METRICS);
+                encoder.putMetric(events, report[1]);
+                encoder.putMetric(writeP99, report[2]);
+                encoder.end();
+                out.write(buffer.array(), 0, buffer.position());
+                out.write(frame(encoder, 0, 1));
+                out.flush();
+                // 指标帧不占序号，也不确认
+                assertEquals(0, readAck(in, 0));
+            }
+        }
+        Map<Integer, Long> fleet = server.getFleetMetrics().aggregate(System.currentTimeMillis());
+        assertEquals(1300L, (long) fleet.get(events));
+        assertEquals(9_000L, (long) fleet.get(writeP99));
+        assertEquals(2, server.getFleetMetrics().activeDevices(System.currentTimeMillis()));
+        assertEquals(0, server.getFleetMetrics().activeDevices(System.currentTimeMillis() + FleetMetrics.STALE_MILLIS + 1));
+    }
+
+    @Test
+    public void featureFramesGoToTheFeatureSink() throws Exception {
+        // 没有 FeatureSink 的接收端不声明 features
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            socket.getOutputStream().write((Handshake.helloLine(42, 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertFalse(Handshake.acceptsFeatures(in.readLine()));
+        }
+
+        File dir = Files.createTempDirectory("features").toFile();
+        FeatureCsvSink features = new FeatureCsvSink(dir);
+        ReceiverServer featureServer = new ReceiverServer(settings, sink, features);
+        featureServer.start();
+        try (Socket socket = new Socket("127.0.0.1", featureServer.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write((Handshake.helloLine(42, 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(Handshake.acceptsFeatures(in.readLine()));
+
+            WindowFeatures f = new WindowFeatures();
+            f.sensorId = WireFormat.SENSOR_ACCELEROMETER;
+            f.channel = 1;
+            f.sampleCount = 256;
+            f.endTimestampNanos = 2_000_000L;
+            f.durationNanos = 1_275_000_000L;
+            f.rms = 1.5f;
+            f.zeroCrossings = 12;
+            f.bandCount = 2;
+            f.bands[1] = 0.25f;
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            FrameEncoder encoder = new FrameEncoder();
+            encoder.begin(buffer, 42, 0, 1_000_000L, WireFormat.FLAG_FEATURES);
+            encoder.putFeatures(f);
+            encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1);
+            encoder.putSample(1_000_000L, new float[]{110f}, 0);
+            encoder.endBlock();
+            int length = encoder.end();
+            // 重发的帧不再写入
+            out.write(buffer.array(), 0, length);
+            out.write(buffer.array(), 0, length);
+            out.flush();
+            assertEquals(0, readAck(in, 0));
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (featureServer.getDuplicateCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            featureServer.close();
+        }
+        assertEquals(1, featureServer.getFeatureCount());
+        assertEquals(1, featureServer.getRecordCount());
+        features.close();
+
+        File file = features.fileFor("127.0.0.1");
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals(FeatureCsvSink.HEADER + ",Band_0,Band_1", lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).endsWith(",Accelerometer,1,256,1275.0,0.0,1.5,0.0,0.0,12,0.0,0.25"));
+        file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void heldFramesAreFilledUntilTwoHeartbeatsPass() throws Exception {
+        // 加速度计每帧都有，光线只在第 0 帧发过，之后的帧带 FLAG_HELD 时保持，超过两个心跳间隔后不再保持
+        long heartbeatNanos = settings.heartbeatMillis * 1_000_000L;
+        long[] frameNanos = {1_000_000L, heartbeatNanos, 2 * heartbeatNanos, 2 * heartbeatNanos + 2_000_000L};
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write((Handshake.helloLine(42, 3) + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertEquals(settings.heartbeatMillis, Handshake.parseHeartbeatMillis(in.readLine()));
+            FrameEncoder encoder = new FrameEncoder();
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            for (int i = 0; i < frameNanos.length; i++) {
+                // 第 2 帧不带 FLAG_HELD，没有的传感器照旧留空
+                encoder.begin(buffer, 42, i, frameNanos[i], i == 2 ? 0 : WireFormat.FLAG_HELD);
+                encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+                encoder.putSample(frameNanos[i], new float[]{i, i, i}, 0);
+                encoder.endBlock();
+                if (i == 0) {
+                    encoder.beginBlock(WireFormat.SENSOR_LIGHT, 1);
+                    encoder.putSample(frameNanos[i], new float[]{110f}, 0);
+                    encoder.endBlock();
+                }
+                encoder.end();
+            }
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            assertEquals(frameNanos.length - 1, readAck(in, frameNanos.length - 1));
+        }
+        awaitRecords(frameNanos.length);
+        assertEquals(List.of(110.0, 110.0), sink.light.subList(0, 2));
+        assertNull(sink.light.get(2));
+        assertNull(sink.light.get(3));
+    }
+
+    private void awaitClockSamples(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (server.getClockSampleCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, server.getClockSampleCount());
+    }
+
+    @Test
+    public void ingestPartitionsKeepDeviceOrder() throws Exception {
+        server.close();
+        settings.ingestPartitions = 2;
+        settings.ingestQueueCapacity = 16;
+        server = new ReceiverServer(settings, sink);
+        server.start();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            lines.append("{\"Light\":").append(i).append("}\n");
+        }
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.getOutputStream().write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            awaitRecords(500);
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, sink.light.get(i), 0);
+        }
+        assertEquals(500, server.getIngestPipeline().getProcessedCount());
+        assertEquals(0, server.getIngestPipeline().getQueuedCount());
+    }
+
+    @Test
+    public void datagramsAreDeliveredInSequenceOrder() throws Exception {
+        server.close();
+        settings.udpPort = 0;
+        server = new ReceiverServer(settings, sink);
+        server.start();
+        FrameEncoder encoder = new FrameEncoder();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getUdpPort());
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            // 103 先于 102 到达，102 迟到，103 重复
+            for (long sequence : new long[]{100, 101, 103, 102, 103}) {
+                byte[] bytes = frame(encoder, sequence, sequence);
+                socket.send(new DatagramPacket(bytes, bytes.length, address));
+            }
+            byte[] garbage = {1, 2, 3};
+            socket.send(new DatagramPacket(garbage, garbage.length, address));
+            // 三个数据报交付，每个两条记录
+            awaitRecords(6);
+
+            // 接收端向来源地址发 PING，用应答帧同步时钟
+            DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+            socket.receive(packet);
+            String line = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII).trim();
+            long ping = Handshake.parsePing(line);
+            assertTrue(line, ping >= 0);
+            ByteBuffer pong = ByteBuffer.allocate(WireFormat.HEADER_SIZE);
+            encoder.begin(pong, 42, ping, System.nanoTime(), WireFormat.FLAG_CLOCK_PONG);
+            encoder.end();
+            socket.send(new DatagramPacket(pong.array(), pong.position(), address));
+            awaitClockSamples(1);
+        }
+        // 五个数据帧、一个坏数据报和一个应答
+        assertEquals(7, server.getDatagramCount());
+        assertEquals(0, server.getDatagramLostCount());
+        assertEquals(1, server.getDatagramLateCount());
+        assertEquals(1, server.getDatagramDuplicateCount());
+        assertEquals(1, server.getMalformedCount());
+        assertArrayEquals(new double[]{103, 104, 105}, sink.accelerometer.get(5), 0);
+        assertEquals("127.0.0.1", sink.userIds.get(0));
+    }
+
+    @Test
+    public void loadGeneratorDevicesAreAllReceived() throws Exception {
+        LoadGenerator.Settings settings = new LoadGenerator.Settings();
+        settings.port = server.getPort();
+        settings.devices = 40;
+        settings.rateHz = 50;
+        settings.seconds = 1;
+        LoadGenerator.Result json = new LoadGenerator(settings).run();
+        assertTrue(json.toString(), json.sent >= 40 * 40);
+        assertEquals(0, json.skipped);
+        awaitRecords(json.sent);
+
+        // 每帧各传感器 4 个采样，接收端每个采样时刻一条记录
+        settings.binary = true;
+        settings.samplesPerFrame = 4;
+        LoadGenerator.Result binary = new LoadGenerator(settings).run();
+        assertEquals(binary.sent, binary.acked);
+        assertEquals(4 * binary.sent, binary.samples);
+        awaitRecords(json.sent + binary.samples);
+    }
+
+    @Test
+    public void csvReplayIsTracedStageByStage() throws Exception {
+        File dir = Files.createTempDirectory("replay").toFile();
+        File file = new File(dir, "10.0.0.2_sensor_data.csv");
+        StringBuilder csv = new StringBuilder(CsvSink.HEADER).append('\n');
+        // 每秒一行；最后一行全空，不发送
+        for (int i = 0; i < 50; i++) {
+            csv.append(String.format("2025-05-28 19:%02d:%02d.833,-3,-3,-9.05,3.17,2.75,,,,%d%n",
+                    42 + i / 60, i % 60, 100 + i));
+        }
+        csv.append("2025-05-28 19:43:00.000,,,,,,,,,\n");
+        Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        CsvReplay.Settings replay = new CsvReplay.Settings();
+        replay.port = server.getPort();
+        replay.files.add(file);
+        replay.speed = CsvReplay.MAX_SPEED;
+        replay.traceIntervalMillis = 0;
+        CsvReplay.Result result = new CsvReplay(replay).run();
+        assertEquals(50, result.rows);
+        assertEquals(50, result.acked);
+        assertTrue(result.toString(), result.traces > 0);
+        awaitRecords(50);
+        assertEquals(149, sink.light.get(49), 0);
+
+        LatencyTracer tracer = server.getLatencyTracer();
+        int enqueue = LatencyTracer.STAGES.indexOf("enqueue");
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (tracer.stage(enqueue).getCount() < result.traces && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // 每个追踪帧都有手机内部的环节；接收端的环节每个被追踪的帧一次
+        assertEquals(result.traces, tracer.stage(enqueue).getCount());
+        long traced = tracer.getTraceCount();
+        assertTrue(traced >= result.traces);
+        assertEquals(traced, tracer.stage(LatencyTracer.STAGES.indexOf("parse")).getCount());
+        assertEquals(traced, tracer.stage(LatencyTracer.STAGES.indexOf("store")).getCount());
+        // 时钟同步之后才有网络环节；没有实时推送的订阅者，不统计推送
+        assertTrue(tracer.stage(LatencyTracer.STAGES.indexOf("network")).getCount() > 0);
+        assertEquals(0, tracer.stage(LatencyTracer.STAGES.indexOf("total")).getCount());
+        String summary = tracer.summary();
+        assertTrue(summary, summary.startsWith("traces=" + traced + " enqueue="));
+        assertTrue(summary, tracer.summary().equals("traces=0"));
+        StringBuilder json = new StringBuilder();
+        tracer.appendJson(json);
+        assertTrue(json.toString(), json.toString().startsWith("{\"traces\":" + traced + ",\"stages\":{\"enqueue\":"));
+
+        replay.speed = CsvReplay.MAX_SPEED + 1;
+        assertThrows(IllegalArgumentException.class, () -> new CsvReplay(replay));
+        file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void everySampleOfAFrameIsStoredAsAColumnStoreRow() throws Exception {
+        server.close();
+        File dir = Files.createTempDirectory("store").toFile();
+        ColumnStore store = new ColumnStore(dir);
+        server = new ReceiverServer(settings, store);
+        server.start();
+        int n = 50;
+        FrameEncoder encoder = new FrameEncoder();
+        long deviceStart = System.nanoTime() - 5_000_000_000L;
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out.write((Handshake.helloLine(45, 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(Handshake.isAccept(in.readLine()));
+            answerPings(in, out, encoder, 45, deviceStart, 3);
+
+            // 一帧里 n 个加速度采样，间隔 2ms
+            long first = System.nanoTime() - deviceStart - n * 2_000_000L;
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            encoder.begin(buffer, 45, 0, first);
+            encoder.beginBlock(WireFormat.SENSOR_ACCELEROMETER, 3);
+            for (int i = 0; i < n; i++) {
+                encoder.putSample(first + i * 2_000_000L, new float[]{i, -i, 0.5f}, 0);
+            }
+            encoder.endBlock();
+            encoder.end();
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            assertEquals(0, readAck(in, 0));
+        }
+        awaitRecords(n);
+        server.close();
+        store.close();
+
+        ColumnStoreReader reader = new ColumnStoreReader(dir);
+        assertEquals(List.of("127.0.0.1"), reader.devices());
+        List<double[]> accelerometer = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        assertEquals(n, reader.scan("127.0.0.1", 0, Long.MAX_VALUE, r -> {
+            accelerometer.add(r.accelerometer.clone());
+            timestamps.add(r.timestampMillis());
+        }));
+        assertEquals(n, accelerometer.size());
+        for (int i = 0; i < n; i++) {
+            assertArrayEquals(new double[]{i, -i, 0.5}, accelerometer.get(i), 0);
+            if (i > 0) {
+                // 每行是自己的采样时刻，不是整帧共用一个
+                assertEquals(2, timestamps.get(i) - timestamps.get(i - 1), 1);
+            }
+        }
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void csvSinkWritesReceiverPyLayout() throws Exception {
+        File dir = Files.createTempDirectory("csv").toFile();
+        CsvSink csv = new CsvSink(dir);
+        SensorRecord record = new SensorRecord();
+        record.userId = "10.0.0.1";
+        record.receivedMillis = System.currentTimeMillis();
+        record.hasLocation = true;
+        record.latitude = -3;
+        record.longitude = -3;
+        record.hasLight = true;
+        record.light = 110.0250015258789;
+        csv.accept(record);
+        record.clearSensors();
+        record.hasAccelerometer = true;
+        record.accelerometer[0] = -9.052347;
+        record.accelerometer[1] = 3.1746774;
+        record.accelerometer[2] = 2.757429;
+        csv.accept(record);
+        csv.close();
+
+        File file = csv.fileFor("10.0.0.1");
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(CsvSink.HEADER, lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).matches("\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3},-3,-3,,,,,,,110.0250015258789"));
+        assertTrue(lines.get(2), lines.get(2).endsWith(",,,-9.052347,3.1746774,2.757429,,,,"));
+
+        // 追加时不重复写表头
+        CsvSink again = new CsvSink(dir);
+        again.accept(record);
+        again.close();
+        assertEquals(4, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.receiver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RollupStoreTest {
+    // 2024-05-01T12:59:00Z
+    private static final long START = 1_714_568_340_000L;
+    private static final int LIGHT = RollupStore.channelIndex("Light");
+    private static final int ACC_X = RollupStore.channelIndex("accelerometer_x");
+
+    private static SensorRecord record(String device, long timestamp, double light) {
+        SensorRecord r = new SensorRecord();
+        r.userId = device;
+        r.receivedMillis = timestamp;
+        r.hasLight = true;
+        r.light = light;
+        r.hasAccelerometer = true;
+        r.accelerometer[0] = -light;
+        return r;
+    }
+
+    /** 与逐条扫描原始数据的结果比较 */
+    @Test
+    public void rollupsMatchBruteForce() {
+        RollupStore store = new RollupStore();
+        Random random = new Random(1);
+        int rows = 30 * 60 * 50;
+        double[] values = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            // 半小时 50Hz
+            values[i] = random.nextGaussian() * 10 + 100;
+            store.accept(record("10.0.0.1", START + i * 20L, values[i]));
+        }
+        assertEquals(-1, RollupStore.channelIndex("Gyroscope"));
+
+        long[][] cases = {
+                // from, to, resolution, 预期使用的档位宽度
+                {START + 120_000, START + 1_800_000, 1_000, 10_000},   // 1 秒档只保留 5 分钟
+                {START + 1_620_000, START + 1_800_000, 1_000, 1_000},
+                {START + 1_620_000, START + 1_800_000, 5_000, 1_000},
+                {START, START + 1_800_000, 60_000, 60_000},
+                {START, START + 1_800_000, 30_000, 10_000},
+                {START, START + 1_800_000, 3_600_000, 600_000},
+        };
+        for (long[] c : cases) {
+            RollupStore.Series series = store.query("10.0.0.1", LIGHT, c[0], c[1], c[2]);
+            long resolution = series.resolutionMillis;
+            assertEquals(0, resolution % c[3]);
+            assertTrue(resolution >= c[2]);
+            long covered = 0;
+            for (int p = 0; p < series.size(); p++) {
+                long bucketStart = series.start(p);
+                long count = 0;
+                double min = Double.MAX_VALUE;
+                double max = -Double.MAX_VALUE;
+                double sum = 0;
+                for (int i = 0; i < rows; i++) {
+                    long t = START + i * 20L;
+                    // 查询范围按档位对齐
+                    long lo = Math.max(bucketStart, Math.floorDiv(c[0], c[3]) * c[3]);
+                    if (t >= lo && t < bucketStart + resolution && t < c[1]) {
+                        count++;
+                        min = Math.min(min, (float) values[i]);
+                        max = Math.max(max, (float) values[i]);
+                        sum += values[i];
+                    }
+                }
+                assertEquals(count, series.count(p));
+                assertEquals(min, series.min(p), 0);
+                assertEquals(max, series.max(p), 0);
+                assertEquals(sum / count, series.mean(p), 1e-9);
+                covered += count;
+                if (p > 0) {
+                    assertTrue(series.start(p) > series.start(p - 1));
+                }
+            }
+            assertTrue(covered > 0);
+        }
+
+        RollupStore.Series acc = store.query("10.0.0.1", ACC_X, START, START + 60_000, 60_000);
+        assertEquals(1, acc.size());
+        assertEquals(3000, acc.count(0));
+        assertTrue(acc.mean(0) < -90);
+        assertEquals(0, store.query("10.0.0.1", RollupStore.channelIndex("Latitude"), START, START + 60_000, 1).size());
+        assertEquals(0, store.query("10.0.0.2", LIGHT, START, START + 60_000, 1).size());
+    }
+
+    @Test
+    public void fleetQueryMergesDevicesAndDropsExpiredLateData() {
+        RollupStore store = new RollupStore();
+        for (int d = 0; d < 100; d++) {
+            for (int s = 0; s < 60; s++) {
+                store.accept(record("10.0.0." + d, START + s * 1000L, d));
+            }
+        }
+        assertEquals(100, store.devices().size());
+        RollupStore.Series fleet = store.query(null, LIGHT, START, START + 60_000, 10_000);
+        assertEquals(6, fleet.size());
+        for (int p = 0; p < fleet.size(); p++) {
+            assertEquals(START + p * 10_000L, fleet.start(p));
+            assertEquals(1000, fleet.count(p));
+            assertEquals(0, fleet.min(p), 0);
+            assertEquals(99, fleet.max(p), 0);
+            assertEquals(49.5, fleet.mean(p), 1e-9);
+        }
+
+        // 晚到一天的数据仍在 10 分钟档的保留范围内
+        store.accept(record("10.0.0.1", START + 86_400_000L, 5));
+        store.accept(record("10.0.0.1", START + 1000, 1000));
+        RollupStore.Series late = store.query("10.0.0.1", LIGHT, START, START + 86_400_001L, 600_000);
+        assertEquals(2, late.size());
+        assertEquals(61, late.count(0));
+        assertEquals(1000, late.max(0), 0);
+
+        // 10 分钟档滚过一整圈后，旧数据落在同一槽位，不能覆盖新桶
+        long week = RollupStore.TIER_BUCKETS[3] * RollupStore.TIER_MILLIS[3];
+        store.accept(record("10.0.0.1", START + week, 5));
+        store.accept(record("10.0.0.1", START + 2000, 1000));
+        RollupStore.Series wrapped = store.query("10.0.0.1", LIGHT, START + week, START + week + 1, 600_000);
+        assertEquals(1, wrapped.size());
+        assertEquals(1, wrapped.count(0));
+        assertEquals(5, wrapped.max(0), 0);
+    }
+
+    @Test
+    public void futureTimestampsDoNotPushTheRingAhead() {
+        RollupStore store = new RollupStore();
+        // 时钟估计出错，采样时间换算到了一天以后
+        SensorRecord bogus = record("10.0.0.1", START, 1);
+        bogus.capturedMillis = START + 86_400_000L;
+        store.accept(bogus);
+        assertEquals(1, store.getFutureRecords());
+        // 时钟估计的小误差不算
+        SensorRecord slightlyAhead = record("10.0.0.1", START, 2);
+        slightlyAhead.capturedMillis = START + 1_000;
+        store.accept(slightlyAhead);
+        for (int i = 0; i < 60; i++) {
+            store.accept(record("10.0.0.1", START + i * 1000L, 3));
+        }
+        assertEquals(1, store.getFutureRecords());
+
+        RollupStore.Series series = store.query("10.0.0.1", LIGHT, START, START + 60_000, 1_000);
+        assertEquals(60, series.size());
+        assertEquals(1, series.count(0));
+        assertEquals(2, series.count(1));
+        assertEquals(2, series.min(1), 0);
+    }
+
+    @Test
+    public void queryServerAnswersOverHttp() throws IOException {
+        RollupStore store = new RollupStore();
+        for (int s = 0; s < 120; s++) {
+            store.accept(record("10.0.0.1", START + s * 1000L, s));
+        }
+        try (QueryServer server = new QueryServer(store, null, "127.0.0.1", 0)) {
+            server.start();
+            String base = "http://127.0.0.1:" + server.getPort();
+            assertEquals("{\"devices\":[\"10.0.0.1\"],\"channels\":[\"Latitude\",\"Longitude\",\"Accelerometer_x\","
+                    + "\"Accelerometer_y\",\"Accelerometer_z\",\"Orientation_azimuth\",\"Orientation_pitch\","
+                    + "\"Orientation_roll\",\"Light\"]}", get(base + "/api/devices", 200));
+            assertEquals("{\"device\":\"10.0.0.1\",\"channel\":\"Light\",\"resolution\":60000,\"points\":["
+                    + "{\"t\":1714568340000,\"count\":60,\"min\":0.0,\"max\":59.0,\"mean\":29.5},"
+                    + "{\"t\":1714568400000,\"count\":60,\"min\":60.0,\"max\":119.0,\"mean\":89.5}]}",
+                    get(base + "/api/query?device=10.0.0.1&channel=light&from=2024-05-01T12:59:00Z&to="
+                            + (START + 120_000) + "&resolution=60000", 200));
+            assertTrue(get(base + "/api/query?channel=Gyroscope", 400).contains("unknown channel"));
+        }
+    }
+
+    private static String get(String url, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            assertEquals(expectedStatus, connection.getResponseCode());
+            assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"));
+            InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.receiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SessionTableTest {
+    private static final long IDLE = 60_000;
+    private static final long HOLD = 10_000_000_000L;
+
+    @Test
+    public void reconnectsReuseTheSession() {
+        SessionTable table = new SessionTable(IDLE);
+        SessionTable.Session s = table.open("d1", "s1", 0, HOLD);
+        assertTrue(SessionTable.isNewFrame(s, 5));
+        table.release(s, 1000);
+
+        SessionTable.Session again = table.open("d1", "s1", 2000, HOLD);
+        assertSame(s, again);
+        assertFalse(SessionTable.isNewFrame(again, 5));
+        assertTrue(SessionTable.isNewFrame(again, 6));
+    }
+
+    @Test
+    public void newSessionSupersedesTheOldOne() {
+        SessionTable table = new SessionTable(IDLE);
+        SessionTable.Session old = table.open("d1", "s1", 0, HOLD);
+        table.open("d2", "s1", 0, HOLD);
+        table.release(old, 1000);
+        assertEquals(2, table.size());
+
+        SessionTable.Session fresh = table.open("d1", "s2", 2000, HOLD);
+        assertNotSame(old, fresh);
+        assertEquals(2, table.size());
+        assertTrue(SessionTable.isNewFrame(fresh, 0));
+    }
+
+    @Test
+    public void idleSessionsAreSweptOnLaterHandshakes() {
+        SessionTable table = new SessionTable(IDLE);
+        SessionTable.Session idle = table.open("d1", "s1", 0, HOLD);
+        SessionTable.Session busy = table.open("d2", "s1", 0, HOLD);
+        table.release(idle, 1000);
+
+        table.open("d3", "s1", 1000 + IDLE / 2, HOLD);
+        assertEquals(3, table.size());
+        // 连接还在的会话不清理，不管多久没有握手
+        table.open("d4", "s1", 2000 + 2 * IDLE, HOLD);
+        assertEquals(3, table.size());
+        assertSame(busy, table.open("d2", "s1", 3000 + 2 * IDLE, HOLD));
+        assertNotSame(idle, table.open("d1", "s1", 4000 + 2 * IDLE, HOLD));
+    }
+
+    @Test
+    public void sessionlessConnectionsAreNotKept() {
+        SessionTable table = new SessionTable(IDLE);
+        SessionTable.Session s = table.open("d1", null, 0, HOLD);
+        assertTrue(SessionTable.isNewFrame(s, 3));
+        assertTrue(SessionTable.isNewFrame(s, 3));
+        table.release(s, 0);
+        assertEquals(0, table.size());
+    }
+}
@@ -5,7 +5,8 @@ import socket
 import os
 import csv
 import json
-from datetime import datetime
+import struct
+from datetime import datetime, timedelta
 
 app = Flask(__name__)
 app.config['SECRET_KEY'] = 'secret!'
@@ -16,6 +17,17 @@ DATA_DIR = "data"
 if not os.path.exists(DATA_DIR):
     os.makedirs(DATA_DIR)  # 创建 data 文件夹
 
+# 二进制帧协议（与 Phone_clinet/protocol 中的 WireFormat 一致，小端序）
+BINARY_PROTOCOL = "ssp1"
+FRAME_HEADER = struct.Struct('<IBBHqqq')  # 长度, 版本, 标志, 块数, 设备号, 序号, 基准时间戳
+BLOCK_HEADER = struct.Struct('<BBH')  # 传感器编号, 通道数, 采样数
+MAX_FRAME_SIZE = 1 << 20
+SENSOR_NAMES = {1: "Location", 2: "Accelerometer", 3: "Orientation", 4: "Light"}
+
+# 每个 (设备号, 会话号) 已处理的最大帧序号。手机断线重连后会重发未确认的帧，据此去重
+last_sequences = {}
+last_sequences_lock = threading.Lock()
+
 
 def save_to_csv(data, user_ip):
     """
@@ -78,58 +90,164 @@ def handle_client(client_socket, client_address):
     """
     user_ip = client_address[0]
     print(f"处理来自 {client_address} 的连接...")
-    buffer = ""  # 用于处理粘包问题
+    buffer = b""  # 用于处理粘包问题
+    binary_mode = False  # 收到 Hello 并回复后切换为二进制帧
+    session_key = None  # (设备号, 会话号)，用于重连后的去重
     with client_socket:
         while True:
             try:
                 data_chunk = client_socket.recv(1024)
                 if not data_chunk:
                     print(f"[{user_ip}] 客户端关闭连接")
-                    if buffer:  # 处理缓冲区中剩余的数据
+                    if buffer and not binary_mode:  # 处理缓冲区中剩余的数据
                         print(f"[{user_ip}] 处理断开连接前缓冲区剩余数据: {buffer!r}")
-                        process_buffered_data(buffer, user_ip)
+                        process_buffered_data(buffer.decode('utf-8', errors='replace'), user_ip)
                     break
 
-                buffer += data_chunk.decode('utf-8', errors='replace')  # 解码并累加到缓冲区
-                print(f"[{user_ip}] 接收到数据块, 当前缓冲区: {buffer!r}")
+                buffer += data_chunk
+                print(f"[{user_ip}] 接收到数据块, 当前缓冲区长度: {len(buffer)}")
 
                 # 尝试按换行符分割 JSON 对象
-                while '\n' in buffer:
-                    message, buffer = buffer.split('\n', 1)
-                    if message:  # 确保消息不为空
+                while not binary_mode and b'\n' in buffer:
+                    line, buffer = buffer.split(b'\n', 1)
+                    message = line.decode('utf-8', errors='replace')
+                    hello = parse_binary_hello(message)
+                    if hello is not None:
+                        print(f"[{user_ip}] 客户端请求二进制协议: {message!r}")
+                        session_key = (hello.get("device"), hello.get("session"))
+                        # 带 ack 表示逐帧回复 ACK <序号>，手机据此重发未确认的帧；
+                        # sensors 列出 CSV 中有列的传感器，手机不发送其余的
+                        sensors = ",".join(str(sensor_id) for sensor_id in sorted(SENSOR_NAMES))
+                        client_socket.sendall(f"OK {BINARY_PROTOCOL} ack sensors={sensors}\n".encode('utf-8'))
+                        binary_mode = True
+                    elif message:  # 确保消息不为空
                         print(f"[{user_ip}] 处理消息: {message!r}")
-                        parsed_data = parse_data(message)
-                        if parsed_data:
-                            # 检查解析出的数据是否有意义 (Location, Accelerometer, Orientation, Light)
-                            if any(parsed_data.get(key) is not None for key in
-                                   ["Location", "Accelerometer", "Orientation", "Light"]):
-                                print(f"[{user_ip}] 有效数据已解析并准备保存/发送: {parsed_data}")
-                                save_to_csv(parsed_data, user_ip)
-                                parsed_data['userId'] = user_ip
-                                socketio.emit('update', parsed_data)
-                            else:
-                                print(f"[{user_ip}] 解析成功但未包含指定传感器数据.")
-                        else:
-                            print(f"[{user_ip}] 数据解析失败 (parse_data 返回 None) for message: {message!r}")
+                        handle_parsed_data(parse_data(message), user_ip, message)
+
+                while binary_mode:
+                    results, sequence, buffer = parse_frame(buffer)
+                    if results is None:
+                        break
+                    if is_new_frame(session_key, sequence):
+                        for parsed_data in results:
+                            handle_parsed_data(parsed_data, user_ip, "<binary frame>")
+                    else:
+                        print(f"[{user_ip}] 跳过重发的帧 {sequence}")
+                    client_socket.sendall(f"ACK {sequence}\n".encode('utf-8'))
 
             except ConnectionResetError:
                 print(f"[{user_ip}] 连接被客户端重置.")
-                if buffer:
+                if buffer and not binary_mode:
                     print(f"[{user_ip}] 处理重置前缓冲区剩余数据: {buffer!r}")
-                    process_buffered_data(buffer, user_ip)
+                    process_buffered_data(buffer.decode('utf-8', errors='replace'), user_ip)
+                break
+            except ValueError as e:
+                print(f"[{user_ip}] 二进制帧格式错误: {e}, 断开连接.")
                 break
-            except UnicodeDecodeError as e:
-                print(f"[{user_ip}] Unicode解码错误: {e}. 缓冲区内容: {buffer!r}")
-                buffer = ""  # 清空可能有问题的缓冲区
             except Exception as e:
                 print(f"[{user_ip}] 处理客户端数据时发生错误: {e}")
-                if buffer:
+                if buffer and not binary_mode:
                     print(f"[{user_ip}] 处理错误前缓冲区剩余数据: {buffer!r}")
-                    process_buffered_data(buffer, user_ip)
+                    process_buffered_data(buffer.decode('utf-8', errors='replace'), user_ip)
                 break
     print(f"[{user_ip}] 与客户端的连接处理结束.")
 
 
+def handle_parsed_data(parsed_data, user_ip, message):
+    """保存并推送一条解析后的数据"""
+    if parsed_data:
+        # 检查解析出的数据是否有意义 (Location, Accelerometer, Orientation, Light)
+        if any(parsed_data.get(key) is not None for key in
+               ["Location", "Accelerometer", "Orientation", "Light"]):
+            print(f"[{user_ip}] 有效数据已解析并准备保存/发送: {parsed_data}")
+            save_to_csv(parsed_data, user_ip)
+            parsed_data['userId'] = user_ip
+            socketio.emit('update', parsed_data)
+        else:
+            print(f"[{user_ip}] 解析成功但未包含指定传感器数据.")
+    else:
+        print(f"[{user_ip}] 数据解析失败 (parse_data 返回 None) for message: {message!r}")
+
+
+def parse_binary_hello(message):
+    """
+    手机端的协商消息: {"Hello":{"proto":"ssp1","device":"...","session":"..."}}
+    是请求二进制协议的 Hello 时返回其内容，否则返回 None
+    """
+    if not message.startswith('{"Hello"'):
+        return None
+    try:
+        hello = json.loads(message).get("Hello", {})
+        return hello if hello.get("proto") == BINARY_PROTOCOL else None
+    except (json.JSONDecodeError, AttributeError):
+        return None
+
+
+def is_new_frame(session_key, sequence):
+    """同一会话内序号不大于已处理序号的帧是重连后的重发，返回 False"""
+    if session_key is None or session_key[1] is None:
+        return True
+    with last_sequences_lock:
+        last = last_sequences.get(session_key, -1)
+        if sequence <= last:
+            return False
+        last_sequences[session_key] = sequence
+        return True
+
+
+def parse_frame(buffer):
+    """
+    从缓冲区头部解出一帧二进制数据，返回 (结果列表, 帧序号, 剩余缓冲区)，数据不足一帧时返回 (None, None, buffer)。
+    帧中的采样一个也不丢：每个不同的采样时间戳生成一条与 parse_data 相同格式的结果，同一时刻的传感器合在一条里。
+    这里没有时钟同步，Timestamp 取接收时刻，再按各采样与帧内最新采样的时间差往前推。
+    """
+    if len(buffer) < 4:
+        return None, None, buffer
+    frame_length = struct.unpack_from('<I', buffer, 0)[0]
+    if frame_length < FRAME_HEADER.size - 4 or frame_length + 4 > MAX_FRAME_SIZE:
+        raise ValueError(f"帧长度异常: {frame_length}")
+    if len(buffer) < frame_length + 4:
+        return None, None, buffer
+
+    _, version, _flags, block_count, _device_id, sequence, base_ts = FRAME_HEADER.unpack_from(buffer, 0)
+    if version != 1:
+        raise ValueError(f"不支持的帧版本: {version}")
+
+    samples = []  # (采样时间戳 ns, 传感器名, 数值)
+    pos = FRAME_HEADER.size
+    for _ in range(block_count):
+        sensor_id, channels, sample_count = BLOCK_HEADER.unpack_from(buffer, pos)
+        pos += BLOCK_HEADER.size
+        name = SENSOR_NAMES.get(sensor_id)
+        for _ in range(sample_count):
+            offset_us = struct.unpack_from('<i', buffer, pos)[0]
+            values = list(struct.unpack_from(f'<{channels}f', buffer, pos + 4))
+            pos += 4 + 4 * channels
+            if name:
+                samples.append((base_ts + offset_us * 1000, name, values[0] if name == "Light" else values))
+
+    now = datetime.now()
+    latest = max((t for t, _, _ in samples), default=0)
+    results = []
+    result = None
+    result_ns = None
+    for timestamp_ns, name, value in sorted(samples, key=lambda sample: sample[0]):
+        # 时刻变了，或同一时刻同一传感器又出现一次，另起一条
+        if result is None or timestamp_ns != result_ns or result[name] is not None:
+            result_ns = timestamp_ns
+            stamp = now - timedelta(microseconds=(latest - timestamp_ns) // 1000)
+            result = {
+                "Timestamp": stamp.strftime('%Y-%m-%d %H:%M:%S.%f')[:-3],
+                "Location": None,
+                "Accelerometer": None,
+                "Orientation": None,
+                "Light": None
+            }
+            results.append(result)
+        result[name] = value
+    return results, sequence, buffer[frame_length + 4:]
+
+
 def process_buffered_data(buffer_content, user_ip):
     """辅助函数，用于处理在连接断开或发生错误前缓冲区中可能存在的完整或不完整的JSON消息"""
     messages = buffer_content.strip().split('\n')  # 按换行符分割，并去除首尾空白
@@ -2,6 +2,7 @@
 const socket = io();
 let isPaused = false; // 实时更新开关
 const dataHistory = []; // 历史数据存储
+const MAX_HISTORY = 50000; // 只保留最近的数据，更早的历史通过接收端的 /api/query 查询
 
 // 初始化图表
 const initChart = (ctx, labels, datasets) => {
@@ -96,6 +97,9 @@ socket.on("update", (data) => {
 
     // 保存历史数据
     dataHistory.push(data);
+    if (dataHistory.length > MAX_HISTORY) {
+        dataHistory.splice(0, dataHistory.length - MAX_HISTORY);
+    }
 });
 
 // 暂停/恢复实时更新按钮逻辑